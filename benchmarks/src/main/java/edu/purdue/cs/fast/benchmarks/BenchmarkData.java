@@ -0,0 +1,140 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.parser.Place;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Places of the benchmarks, read from a raw places GeoJSON dump the same way `preprocessing/Initialize Datasets`
+ * exports them: the tags are the keywords (at most 7, sampled and sorted) and the coordinates are scaled to the grid.
+ * Scaled variants repeat the dump with the locations jittered, so they keep the spatial and textual skew of the dump.
+ */
+public class BenchmarkData {
+    public static final String DEFAULT_PATH = "data/places_dump_US_2000.json";
+    private static final int MAX_KEYWORDS = 7;
+    private static final int SEED = 7;
+
+    private static final HashMap<String, List<Place>> cache = new HashMap<>();
+
+    /**
+     * @param path     GeoJSON dump, looked up relative to the parent directory as well
+     * @param scale    Number of copies of the dump
+     * @param maxRange Side of the scaled grid
+     * @return Shuffled places, shared between calls with the same arguments and never to be changed
+     */
+    public static synchronized List<Place> places(String path, int scale, int maxRange) {
+        String key = path + "|" + scale + "|" + maxRange;
+        List<Place> places = cache.get(key);
+        if (places == null) {
+            places = Collections.unmodifiableList(load(resolve(path), scale, maxRange));
+            cache.put(key, places);
+        }
+        return places;
+    }
+
+    private static File resolve(String path) {
+        File file = new File(path);
+        if (!file.exists() && !file.isAbsolute())
+            file = new File("..", path);
+        if (!file.exists())
+            throw new RuntimeException("Places dump not found: " + path);
+        return file;
+    }
+
+    private static List<Place> load(File file, int scale, int maxRange) {
+        Random random = new Random(SEED);
+        List<Place> raw = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                Place place = parseFeature(line, random);
+                if (place != null)
+                    raw.add(place);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the places dump: " + file, e);
+        }
+        if (raw.isEmpty())
+            throw new RuntimeException("No places with tags in " + file);
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Place place : raw) {
+            minX = Math.min(minX, place.x);
+            minY = Math.min(minY, place.y);
+            maxX = Math.max(maxX, place.x);
+            maxY = Math.max(maxY, place.y);
+        }
+
+        // Keep the places strictly inside the grid, the indexes map `maxRange` itself outside of the last cell.
+        double side = maxRange - 1e-6;
+        double cellJitter = 1.0;
+        List<Place> places = new ArrayList<>(raw.size() * scale);
+        for (int copy = 0; copy < scale; copy++) {
+            for (Place rawPlace : raw) {
+                Place place = new Place();
+                place.id = rawPlace.id + "#" + copy;
+                place.x = (rawPlace.x - minX) * side / Math.max(maxX - minX, 1e-9);
+                place.y = (rawPlace.y - minY) * side / Math.max(maxY - minY, 1e-9);
+                if (copy > 0) {
+                    place.x = clamp(place.x + random.nextGaussian() * cellJitter, side);
+                    place.y = clamp(place.y + random.nextGaussian() * cellJitter, side);
+                }
+                place.keywords = rawPlace.keywords;
+                place.scaled = true;
+                places.add(place);
+            }
+        }
+        Collections.shuffle(places, random);
+        // One dictionary per dataset, the indexes of a benchmark are fed from one dataset.
+        KeywordDictionary dictionary = new KeywordDictionary();
+        for (Place place : places)
+            place.encodeKeywords(dictionary);
+        return places;
+    }
+
+    private static double clamp(double v, double side) {
+        return Math.max(0.0, Math.min(side, v));
+    }
+
+    private static Place parseFeature(String line, Random random) {
+        if (line.trim().isEmpty())
+            return null;
+        JsonObject feature = JsonParser.parseString(line).getAsJsonObject();
+        if (!feature.has("id") || !feature.has("properties"))
+            return null;
+        JsonObject properties = feature.getAsJsonObject("properties");
+        if (!properties.has("tags"))
+            return null;
+
+        ArrayList<String> keywords = new ArrayList<>();
+        for (JsonElement tag : properties.getAsJsonArray("tags")) {
+            if (!keywords.contains(tag.getAsString()))
+                keywords.add(tag.getAsString());
+        }
+        if (keywords.isEmpty())
+            return null;
+        if (keywords.size() > MAX_KEYWORDS) {
+            Collections.shuffle(keywords, random);
+            keywords = new ArrayList<>(keywords.subList(0, MAX_KEYWORDS));
+        }
+        Collections.sort(keywords);
+
+        JsonArray coordinates = feature.getAsJsonObject("geometry").getAsJsonArray("coordinates");
+        Place place = new Place();
+        place.id = feature.get("id").getAsString();
+        place.x = coordinates.get(0).getAsDouble();
+        place.y = coordinates.get(1).getAsDouble();
+        place.keywords = keywords;
+        return place;
+    }
+}
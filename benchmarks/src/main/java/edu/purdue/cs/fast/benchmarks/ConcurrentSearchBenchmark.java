@@ -0,0 +1,80 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.experiments.Experiment;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Query;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * `InsertObjectBenchmark.insertObjectIntoSink` on FAST with `CONCURRENT_SEARCH`, from one and from four threads, to
+ * see how the object search scales over the shared locks. MBR streams take the optimistic walk, KNN streams the read
+ * locked walk and the object index. Only FAST supports concurrent search, run with `-p indexType=FAST` and
+ * `-p workload=MBR,KNN`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ConcurrentSearchBenchmark extends IndexWorkload {
+    private FAST fast;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    @Override
+    protected boolean concurrentSearch() {
+        return true;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (indexType != Experiment.IndexType.FAST)
+            throw new RuntimeException("Concurrent search is only supported by FAST!");
+        loadPlaces();
+        fast = (FAST) preloadedIndex();
+        nextId.set(places.size());
+    }
+
+    /**
+     * Stream position and result list of one thread. Threads start at evenly spaced places of the stream.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final ArrayList<Query> sink = new ArrayList<>();
+        private int next = -1;
+
+        private DataObject nextObject(ConcurrentSearchBenchmark workload, ThreadParams threads) {
+            int start = workload.streamStart();
+            int length = workload.places.size() - start;
+            if (next == -1)
+                next = start + (int) ((long) length * threads.getThreadIndex() / threads.getThreadCount());
+            DataObject object = workload.object(next, workload.nextId.getAndIncrement());
+            next = (next + 1 == workload.places.size()) ? start : next + 1;
+            return object;
+        }
+    }
+
+    private int insertObject(Cursor cursor, ThreadParams threads) {
+        cursor.sink.clear();
+        fast.insertObject(cursor.nextObject(this, threads), cursor.sink);
+        return cursor.sink.size();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int insertObject1(Cursor cursor, ThreadParams threads) {
+        return insertObject(cursor, threads);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int insertObject4(Cursor cursor, ThreadParams threads) {
+        return insertObject(cursor, threads);
+    }
+}
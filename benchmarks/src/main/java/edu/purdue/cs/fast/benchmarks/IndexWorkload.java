@@ -0,0 +1,198 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.SpatialKeywordIndex;
+import edu.purdue.cs.fast.baselines.ckqst.AdoptCkQST;
+import edu.purdue.cs.fast.baselines.ckqst.CkQST;
+import edu.purdue.cs.fast.baselines.fast.LFAST;
+import edu.purdue.cs.fast.baselines.naive.NaiveFAST;
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.experiments.Experiment;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Point;
+import edu.purdue.cs.fast.models.Query;
+import edu.purdue.cs.fast.models.Rectangle;
+import edu.purdue.cs.fast.parser.Place;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parameters shared by the index benchmarks, and the index and stream construction mirroring `Run.ExperimentBuilder`.
+ * The places are split into pre-objects (first quarter), pre-queries (second quarter) and the stream (second half).
+ */
+@State(Scope.Benchmark)
+public abstract class IndexWorkload {
+    @Param({"FAST", "FAST_NAIVE", "CkQST", "AdoptCkQST", "LFAST"})
+    public Experiment.IndexType indexType;
+
+    /**
+     * KNN or MBR. LFAST only supports MBR queries and always runs MBR, CkQST and AdoptCkQST only support KNN.
+     */
+    @Param({"KNN"})
+    public String workload;
+
+    @Param({BenchmarkData.DEFAULT_PATH})
+    public String dataPath;
+
+    /**
+     * Number of jittered copies of the dump.
+     */
+    @Param({"1"})
+    public int scale;
+
+    @Param({"2"})
+    public int trieSplitThreshold;
+
+    @Param({"8"})
+    public int degradationRatio;
+
+    @Param({"50"})
+    public int knnDegradationRatio;
+
+    @Param({"false"})
+    public boolean incrementalDescent;
+
+    @Param({"5"})
+    public int k;
+
+    @Param({"9"})
+    public int maxLevel;
+
+    /**
+     * Leaf capacity of the external object index of FAST, as `Run.ExperimentBuilder.hasExternFASTObjectIndex`. 0 runs
+     * FAST without one.
+     */
+    @Param({"5"})
+    public int objectIndexLeafCapacity;
+
+    @Param({"5"})
+    public int numKeywords;
+
+    @Param({"0.01"})
+    public double srRate;
+
+    public static final int MAX_RANGE = 512;
+
+    protected List<Place> places;
+
+    protected void loadPlaces() {
+        places = BenchmarkData.places(dataPath, scale, MAX_RANGE);
+    }
+
+    protected boolean isKNN() {
+        if (indexType == Experiment.IndexType.LFAST)
+            return false;
+        if (workload.equals("KNN"))
+            return true;
+        if (workload.equals("MBR") && (indexType == Experiment.IndexType.FAST || indexType == Experiment.IndexType.FAST_NAIVE))
+            return false;
+        throw new RuntimeException("Workload " + workload + " is not supported by " + indexType);
+    }
+
+    /**
+     * Place conversions only know the FAST, CkQST, AdoptCkQST and LFAST message types.
+     */
+    private Experiment.IndexType messageType() {
+        return indexType == Experiment.IndexType.FAST_NAIVE ? Experiment.IndexType.FAST : indexType;
+    }
+
+    /**
+     * @return Whether FAST is built with `CONCURRENT_SEARCH`, for benchmarks that insert from several threads
+     */
+    protected boolean concurrentSearch() {
+        return false;
+    }
+
+    public SpatialKeywordIndex newIndex() {
+        Rectangle bounds = new Rectangle(new Point(0.0, 0.0), new Point(MAX_RANGE, MAX_RANGE));
+        switch (indexType) {
+            case FAST: {
+                Config config = new Config();
+                config.TRIE_SPLIT_THRESHOLD = trieSplitThreshold;
+                config.DEGRADATION_RATIO = degradationRatio;
+                config.KNN_DEGRADATION_RATIO = knnDegradationRatio;
+                config.INCREMENTAL_DESCENT = incrementalDescent;
+                config.RECORD_STATS = false;
+                config.CONCURRENT_SEARCH = concurrentSearch();
+                FAST fast = new FAST(config, bounds, (int) Math.pow(2, maxLevel), maxLevel);
+                if (objectIndexLeafCapacity > 0)
+                    fast.setExternalObjectIndex(objectIndexLeafCapacity, 9);
+                fast.setCleaning(CleanMethod.NO);
+                return fast;
+            }
+            case FAST_NAIVE:
+                return new NaiveFAST(bounds, 512, maxLevel);
+            case CkQST:
+                return new CkQST(MAX_RANGE, MAX_RANGE, maxLevel);
+            case AdoptCkQST:
+                return new AdoptCkQST(MAX_RANGE, MAX_RANGE, maxLevel);
+            case LFAST:
+                return new LFAST(bounds, 512, maxLevel);
+            default:
+                throw new RuntimeException("Unsupported Index Type!");
+        }
+    }
+
+    protected int numPreObjects() {
+        return places.size() / 4;
+    }
+
+    protected int numPreQueries() {
+        return places.size() / 4;
+    }
+
+    protected int streamStart() {
+        return numPreObjects() + numPreQueries();
+    }
+
+    /**
+     * @return Fresh queries of the places in [from, to), never shared with another index
+     */
+    public List<Query> queries(int from, int to) {
+        int r = (int) (MAX_RANGE * srRate);
+        int expireTimestamp = Integer.MAX_VALUE;
+        boolean knn = isKNN();
+        List<Query> queries = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Place place = places.get(i);
+            if (knn)
+                queries.add(place.toKNNQuery(i, numKeywords, k, expireTimestamp, messageType()));
+            else
+                queries.add(place.toMinimalRangeQuery(i, r, MAX_RANGE, numKeywords, expireTimestamp, messageType()));
+        }
+        return queries;
+    }
+
+    public List<DataObject> objects(int from, int to) {
+        List<DataObject> objects = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            objects.add(object(i, i));
+        }
+        return objects;
+    }
+
+    /**
+     * @return Fresh object of the i-th place with the given id
+     */
+    public DataObject object(int i, int id) {
+        return places.get(i).toDataObject(id, Integer.MAX_VALUE, messageType());
+    }
+
+    /**
+     * @return Index holding the pre-objects and the pre-queries
+     */
+    @SuppressWarnings("unchecked")
+    public SpatialKeywordIndex preloadedIndex() {
+        SpatialKeywordIndex index = newIndex();
+        for (DataObject object : objects(0, numPreObjects()))
+            index.preloadObject(object);
+        for (Query query : queries(numPreObjects(), streamStart()))
+            index.insertQuery(query);
+        return index;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.SpatialKeywordIndex;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Query;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state object stream: the index holds the pre-objects and pre-queries, and the places of the stream are
+ * inserted round robin. Each insert is a fresh object with a new id, so that KNN queries and the object index never
+ * see an object twice. Run with `-prof gc` to compare the allocation of the two paths, both make the one object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class InsertObjectBenchmark extends IndexWorkload {
+    private SpatialKeywordIndex index;
+    private FAST fast;
+    private final ArrayList<Query> sink = new ArrayList<>();
+    private int next;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        loadPlaces();
+        index = preloadedIndex();
+        fast = (index instanceof FAST) ? (FAST) index : null;
+        next = streamStart();
+        nextId = places.size();
+    }
+
+    private DataObject nextObject() {
+        DataObject object = object(next, nextId++);
+        next = (next + 1 == places.size()) ? streamStart() : next + 1;
+        return object;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Collection<Query> insertObject() {
+        return index.insertObject(nextObject());
+    }
+
+    /**
+     * Matches collected into a reused list, through the allocation free `FAST.insertObject(object, results)` when
+     * the index is FAST.
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int insertObjectIntoSink() {
+        sink.clear();
+        DataObject object = nextObject();
+        if (fast != null) {
+            fast.insertObject(object, sink);
+        } else {
+            Collection<Query> results = index.insertObject(object);
+            if (results != null)
+                sink.addAll(results);
+        }
+        return sink.size();
+    }
+}
@@ -0,0 +1,48 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import edu.purdue.cs.fast.SpatialKeywordIndex;
+import edu.purdue.cs.fast.models.Query;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query insertion into an index holding the pre-objects and pre-queries. Inserted queries stay in the index, so each
+ * invocation inserts a batch of fresh queries into a freshly preloaded index, built outside of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(InsertQueryBenchmark.BATCH_SIZE)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class InsertQueryBenchmark extends IndexWorkload {
+    public static final int BATCH_SIZE = 256;
+
+    private SpatialKeywordIndex index;
+    private List<Query> batch;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        loadPlaces();
+        if (places.size() - streamStart() < BATCH_SIZE)
+            throw new RuntimeException("Not enough places for a batch of " + BATCH_SIZE + " queries, raise the scale");
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        index = preloadedIndex();
+        batch = queries(streamStart(), streamStart() + BATCH_SIZE);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void insertQuery(Blackhole bh) {
+        for (Query query : batch) {
+            bh.consume(index.insertQuery(query));
+        }
+    }
+}
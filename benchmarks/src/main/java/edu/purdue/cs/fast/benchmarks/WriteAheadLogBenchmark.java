@@ -0,0 +1,85 @@
+package edu.purdue.cs.fast.benchmarks;
+
+import edu.purdue.cs.fast.SpatialKeywordIndex;
+import edu.purdue.cs.fast.WriteAheadLog;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Query;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durability cost of the write-ahead log per object: `logOnly` appends to a log over an index that does nothing,
+ * `loggedInsertObject` is `InsertObjectBenchmark.insertObject` through the log. The log of LFAST objects can't be
+ * encoded, run with `-p indexType=FAST,FAST_NAIVE,CkQST,AdoptCkQST`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class WriteAheadLogBenchmark extends IndexWorkload {
+    @Param({"64", "4096"})
+    public int groupEvents;
+
+    private Path logPath;
+    private Path indexLogPath;
+    private WriteAheadLog<Query, DataObject> log;
+    private WriteAheadLog<Query, DataObject> indexLog;
+    private int next;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        loadPlaces();
+        logPath = Files.createTempFile("fast", ".wal");
+        indexLogPath = Files.createTempFile("fast_index", ".wal");
+        log = new WriteAheadLog<>(new SpatialKeywordIndex<Query, DataObject>() {
+            @Override
+            public Collection<DataObject> insertQuery(Query query) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public Collection<Query> insertObject(DataObject dataObject) {
+                return Collections.emptyList();
+            }
+        }, logPath.toString(), groupEvents, WriteAheadLog.DEFAULT_GROUP_NANOS);
+        indexLog = new WriteAheadLog<>((SpatialKeywordIndex<Query, DataObject>) preloadedIndex(),
+                indexLogPath.toString(), groupEvents, WriteAheadLog.DEFAULT_GROUP_NANOS);
+        next = streamStart();
+        nextId = places.size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        indexLog.close();
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexLogPath);
+    }
+
+    // Fresh objects with new ids, the same as `InsertObjectBenchmark`.
+    private DataObject nextObject() {
+        DataObject object = object(next, nextId++);
+        next = (next + 1 == places.size()) ? streamStart() : next + 1;
+        return object;
+    }
+
+    @Benchmark
+    public Collection<Query> logOnly() {
+        return log.insertObject(nextObject());
+    }
+
+    @Benchmark
+    public Collection<Query> loggedInsertObject() {
+        return indexLog.insertObject(nextObject());
+    }
+}
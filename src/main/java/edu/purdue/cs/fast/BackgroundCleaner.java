@@ -0,0 +1,108 @@
+package edu.purdue.cs.fast;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Runs the cleaning steps requested by the ingest thread on a daemon thread. Steps run in slices holding the write
+ * lock of the index, and a slice takes up further pending steps only until `budgetNanos` passed, so searches wait at
+ * most about one slice for the cleaner. A step is never split across slices, readers see a cell either before or
+ * after it was cleaned.
+ */
+class BackgroundCleaner {
+    private final StampedLock lock;
+    private final Runnable step;
+    private final long budgetNanos;
+    private final AtomicLong pending = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean stopped = false;
+    private volatile RuntimeException failure;
+
+    BackgroundCleaner(StampedLock lock, Runnable step, long budgetNanos) {
+        this.lock = lock;
+        this.step = step;
+        this.budgetNanos = budgetNanos;
+        this.thread = new Thread(this::run, "fast-cleaner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue one cleaning step, without waiting for it.
+     */
+    void request() {
+        checkFailure();
+        pending.incrementAndGet();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wait until every requested step ran.
+     */
+    void await() {
+        while (pending.get() > 0 && failure == null && thread.isAlive()) {
+            synchronized (this) {
+                try {
+                    if (pending.get() > 0)
+                        wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the cleaner!", e);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Run the requested steps, then stop the thread.
+     */
+    void stop() {
+        await();
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long pending() {
+        return pending.get();
+    }
+
+    private void checkFailure() {
+        if (failure != null)
+            throw new RuntimeException("Background cleaning failed!", failure);
+    }
+
+    private void run() {
+        try {
+            while (!stopped) {
+                if (pending.get() == 0) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                long stamp = lock.writeLock();
+                try {
+                    long deadline = System.nanoTime() + budgetNanos;
+                    do {
+                        step.run();
+                    } while (pending.decrementAndGet() > 0 && System.nanoTime() < deadline);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+                synchronized (this) {
+                    notifyAll();
+                }
+                // Let the searchers queued on the lock in before the next slice.
+                Thread.yield();
+            }
+        } catch (RuntimeException e) {
+            Run.logger.error("Background cleaning failed!", e);
+            failure = e;
+        }
+    }
+}
@@ -24,9 +24,15 @@
 package edu.purdue.cs.fast;
 
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import com.google.common.base.Stopwatch;
@@ -36,33 +42,69 @@ import edu.purdue.cs.fast.config.Config;
 import edu.purdue.cs.fast.config.Context;
 import edu.purdue.cs.fast.models.*;
 import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.helper.TextHelpers;
 import edu.purdue.cs.fast.structures.*;
 
 
 public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializable {
-    public static Context context;
-    public static Config config;
-    public static HashMap<String, KeywordFrequency> keywordFrequencyMap;
+    // Everything an index reads and counts is held by the instance, so that several indexes can run in one process.
+    public final Context context;
+    public final Config config;
+    public final HashMap<String, KeywordFrequency> keywordFrequencyMap;
     private final boolean lastCellCleaningDone; //to check if an entireCellHasBeenCleaned
     public IQuadTree objIndex;
-    public ConcurrentHashMap<Integer, SpatialCell> index;
-    public Iterator<Entry<Integer, SpatialCell>> cleaningIterator;//iterates over cells to clean expired entries
-    //    public PriorityQueue<DataObject> expiringObjects;
+    public CellTable index;
+    public transient Iterator<SpatialCell> cleaningIterator;//iterates over cells to clean expired entries
     private SpatialCell cellBeingCleaned;
     public long cleanTime = 0;
+    // Decayed object keyword frequencies with `DECAYED_KEYWORD_STATS`, null otherwise.
+    public DecayedCountMinSketch objectKeywords;
+    // Cells a query was inserted to, bucketed by the `et` of the query, with `CleanMethod.EXPIRY_WHEEL`. Placements
+    // left behind by descents are removed to no effect.
+    private ExpiryQueue<Placement> expiryWheel;
+    // Queries placed in cells with `QUERY_CELLS`, by id, for `removeQuery` and `updateQueryLocation`. The cells are
+    // kept on the queries. Queries are dropped once removed, or once `queriesByIdExpiry` hands them out as expired.
+    private final HashMap<Integer, Query> queriesById = new HashMap<>();
+    private final ExpiryQueue<Query> queriesByIdExpiry;
+    // Objects monitored by KNN queries, paired with a query that monitors them and bucketed by the `et` of the object
+    // tick by tick, with `SLIDING_WINDOW_KNN`. Pairs of objects the query dropped since are handed out to no effect.
+    // Guarded by `monitorLock` alone, so that object inserts only take the structure lock to repair queries.
+    private ExpiryQueue<Monitor> monitorExpiry;
+    private final ReentrantLock monitorLock = new ReentrantLock();
+    // Guards the pyramid structure when `CONCURRENT_SEARCH` is on. Query inserts, descents and cleaning take it
+    // exclusively, object searches share it. Search time changes to a single cell synchronize on the cell itself.
+    private final StampedLock structureLock = new StampedLock();
+    private final ReentrantReadWriteLock objIndexLock = new ReentrantReadWriteLock();
+    // Objects to insert to the object index with `CONCURRENT_SEARCH`. Writers queue their objects and whoever gets the
+    // write lock inserts all queued objects and expires the index once for the batch. Readers drain it before reading.
+    private final ConcurrentLinkedQueue<DataObject> pendingObjects = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numPendingObjects = new AtomicInteger();
+    volatile boolean knnQueriesInserted = false;
+    // KNN queries a concurrent search took out of their cells to descend them, until they are reinserted under the
+    // write lock. Searches that passed those cells in between match them here.
+    private final Set<KNNQuery> descendingInFlight = ConcurrentHashMap.newKeySet();
+    private transient ThreadLocal<SearchScratch> searchScratches;
+    // Buffers of `insertObjects`, which only runs without `CONCURRENT_SEARCH`.
+    private transient BatchScratch batchScratch;
+    private transient BackgroundCleaner backgroundCleaner;
+    private transient volatile QueryStatBuffer queryStats;
+    // Set once a query list node is shared by several cells, which rules out filling cells in parallel.
+    boolean sharedListNodesInserted = false;
 
     public FAST(Config config, Rectangle bounds, int xGridGranularity, int maxLevel) {
-        context = new Context(bounds, xGridGranularity, maxLevel);
-        FAST.config = config;
+        this.context = new Context(bounds, xGridGranularity, maxLevel);
+        this.config = config;
 
-        if (FAST.config.ADAPTIVE_DEG_RATIO) {
+        if (config.ADAPTIVE_DEG_RATIO) {
             Run.logger.info("Adaptive KNN degradation is ON! Skipping knn_deg_ratio threshold!");
         }
 
-        index = new ConcurrentHashMap<>();
+        index = new CellTable();
         objIndex = null;
         keywordFrequencyMap = new HashMap<>();
-//        expiringObjects = new PriorityQueue<>(new ExpireTimeComparator());
+        if (config.DECAYED_KEYWORD_STATS)
+            objectKeywords = new DecayedCountMinSketch(config.KEYWORD_SKETCH_DEPTH, config.KEYWORD_SKETCH_WIDTH,
+                    config.KEYWORD_HALF_LIFE);
 
         context.minInsertedLevel = -1;
         context.maxInsertedLevel = -1;
@@ -70,27 +112,110 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
         cleaningIterator = null;
         cellBeingCleaned = null;
         lastCellCleaningDone = true;
+        queriesByIdExpiry = new ExpiryQueue<>(config.QUERY_EXPIRY_BUCKET);
 
         Run.logger.info("Index initialized!");
     }
 
-    public static Integer calcCoordinate(int level, int x, int y, int gridGranularity) {
-        return (level << 22) + y * gridGranularity + x;
+    public static long calcCoordinate(int level, int x, int y) {
+        return CellTable.key(level, x, y);
     }
 
-    public static Integer mapDataPointToPartition(int level, Point point, double step, int granularity) {
+    public static long mapDataPointToPartition(int level, Point point, double step) {
         double x = point.x;
         double y = point.y;
         int xCell = (int) ((x) / step);
         int yCell = (int) ((y) / step);
-        return calcCoordinate(level, xCell, yCell, granularity);
+        return calcCoordinate(level, xCell, yCell);
     }
 
     public void setExternalObjectIndex(int objIdxLeafCapacity, int objIdxTreeHeight) {
         config.INPLACE_OBJECT_INDEX = false;
         this.objIndex = new IQuadTree(context.bounds.min.x, context.bounds.min.y,
                 context.bounds.max.x, context.bounds.max.y, objIdxLeafCapacity, objIdxTreeHeight);
-        Context.objectSearcher = (query) -> (PriorityQueue<DataObject>) objIndex.search(query);
+        if (config.EXPIRE_OBJECTS || config.SLIDING_WINDOW_KNN)
+            this.objIndex.enableExpiry(config.OBJECT_EXPIRY_BUCKET);
+        context.objectSearcher = this::searchObjectIndex;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // The object searcher of the context is not serialized, bind it to the deserialized object index again.
+        if (objIndex != null)
+            context.objectSearcher = this::searchObjectIndex;
+    }
+
+    private PriorityQueue<DataObject> searchObjectIndex(KNNQuery query) {
+        return searchObjectIndex(query, query.k);
+    }
+
+    private PriorityQueue<DataObject> searchObjectIndex(KNNQuery query, int k) {
+        if (!config.CONCURRENT_SEARCH)
+            return (PriorityQueue<DataObject>) objIndex.search(query, k);
+
+        if (!pendingObjects.isEmpty()) {
+            objIndexLock.writeLock().lock();
+            try {
+                drainPendingObjects();
+            } finally {
+                objIndexLock.writeLock().unlock();
+            }
+        }
+        objIndexLock.readLock().lock();
+        try {
+            return (PriorityQueue<DataObject>) objIndex.search(query, k);
+        } finally {
+            objIndexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search the `kHat` nearest objects of a KNN query with `SLIDING_WINDOW_KNN`, so that the query starts with a full
+     * buffer of objects to lose before it has to be searched again. The query is bounded by the farthest of them, the
+     * same as `pushUntilKHat` bounds a full buffer, so that every live object closer than a monitored one is monitored
+     * too and the `k` nearest monitored objects stay the `k` nearest live ones while objects expire.
+     *
+     * @return Radius of the query, `Double.MAX_VALUE` with fewer than `k` matching objects
+     */
+    private double monitorNearest(KNNQuery query) {
+        PriorityQueue<DataObject> objResults = searchObjectIndex(query, query.kHat);
+        query.restoreMonitoredObjects(query.kHat, objResults);
+        monitor(query, objResults);
+        if (objResults.size() < query.k)
+            return Double.MAX_VALUE;
+        return SpatialHelper.getDistanceInBetween(query.location, objResults.peek().location);
+    }
+
+    private void insertToObjectIndex(DataObject object) {
+        if (!config.CONCURRENT_SEARCH) {
+            objIndex.insert(object);
+            if (objIndex.isExpiring())
+                objIndex.expire(context.timestamp);
+            return;
+        }
+
+        // Inserts of other threads that hold the lock pick the object up, or the next search does.
+        pendingObjects.add(object);
+        if (numPendingObjects.incrementAndGet() > config.MAX_PENDING_OBJECTS)
+            objIndexLock.writeLock().lock();
+        else if (!objIndexLock.writeLock().tryLock())
+            return;
+        try {
+            drainPendingObjects();
+        } finally {
+            objIndexLock.writeLock().unlock();
+        }
+    }
+
+    private void drainPendingObjects() {
+        boolean inserted = false;
+        for (DataObject pending = pendingObjects.poll(); pending != null; pending = pendingObjects.poll()) {
+            numPendingObjects.decrementAndGet();
+            objIndex.insert(pending);
+            inserted = true;
+        }
+        if (inserted && objIndex.isExpiring())
+            objIndex.expire(context.timestamp);
     }
 
     @Override
@@ -98,38 +223,45 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
         if (config.INPLACE_OBJECT_INDEX) {
             insertObject(object);
         } else if (objIndex != null) {
-            objIndex.insert(object);
+            insertToObjectIndex(object);
         }
     }
 
     @Override
     public Collection<DataObject> insertQuery(Query query) {
-        context.timestamp++;
+        if (!config.CONCURRENT_SEARCH) {
+            insertQueryInternal(query);
+            return null;
+        }
+
+        long stamp = structureLock.writeLock();
+        try {
+            insertQueryInternal(query);
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+        return null;
+    }
+
+    private void insertQueryInternal(Query query) {
+        context.tick();
+        dropExpiredQueryCells();
         if (query instanceof MinimalRangeQuery) {
             Stopwatch insWatch = Stopwatch.createStarted();
             addContinuousBoundedQuery(query);
             insWatch.stop();
-            queryStats.add(new QueryStat(query.id, 0,
+            queryStats().record(query.id, 0,
                     insWatch.elapsed(TimeUnit.NANOSECONDS), 0, 0,
-                    0, QueryStat.Stage.INSERT));
+                    0, QueryStat.Stage.INSERT);
 
         } else if (query instanceof KNNQuery) {
-            long eagerObjSearchTime = 0;
-            if (objIndex != null && !config.LAZY_OBJ_SEARCH) {
-                Stopwatch objSearchWatch = Stopwatch.createStarted();
-                PriorityQueue<DataObject> objResults = Context.objectSearcher.apply((KNNQuery) query);
-
-                if (objResults.size() >= ((KNNQuery) query).k) {
-                    DataObject o = objResults.peek();
-                    assert o != null;
-                    ((KNNQuery) query).ar = SpatialHelper.getDistanceInBetween(((KNNQuery) query).location, o.location);
-                }
-                objSearchWatch.stop();
-                eagerObjSearchTime = objSearchWatch.elapsed(TimeUnit.NANOSECONDS);
-            }
+            knnQueriesInserted = true;
+            if (config.SLIDING_WINDOW_KNN)
+                ((KNNQuery) query).kHat = ((KNNQuery) query).k + config.RHO;
+            long eagerObjSearchTime = eagerObjectSearch((KNNQuery) query);
 
             Stopwatch insWatch = Stopwatch.createStarted();
-            if (((KNNQuery) query).ar <= FAST.context.globalXRange) {
+            if (((KNNQuery) query).ar <= context.globalXRange) {
                 // Query with bounded range.
                 addContinuousBoundedQuery(query);
             } else {
@@ -138,46 +270,265 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
                 addContinuousUnboundQuery((KNNQuery) query);
             }
             insWatch.stop();
-            queryStats.add(new QueryStat(query.id, eagerObjSearchTime,
+            queryStats().record(query.id, eagerObjSearchTime,
                     insWatch.elapsed(TimeUnit.NANOSECONDS), ((KNNQuery) query).ar, ((KNNQuery) query).descended,
-                    ((KNNQuery) query).currentLevel, QueryStat.Stage.INSERT));
+                    ((KNNQuery) query).currentLevel, QueryStat.Stage.INSERT);
         }
 
-		// if (FAST.config.CLEAN_METHOD != CleanMethod.NO && context.timestamp % FAST.config.CLEANING_INTERVAL == 0)
+		// if (config.CLEAN_METHOD != CleanMethod.NO && context.timestamp % config.CLEANING_INTERVAL == 0)
 		// 	cleanNextSetOfEntries();
-        return null;
     }
 
+    /**
+     * Bound the KNN query with its current k-th nearest object from the object index, if there is one. With
+     * `SLIDING_WINDOW_KNN` the query monitors the objects found, so that it notices when they expire.
+     *
+     * @return Time spent on the object search in nanoseconds
+     */
+    private long eagerObjectSearch(KNNQuery query) {
+        if (objIndex == null || config.LAZY_OBJ_SEARCH)
+            return 0;
+
+        Stopwatch objSearchWatch = Stopwatch.createStarted();
+        if (config.SLIDING_WINDOW_KNN) {
+            double ar = monitorNearest(query);
+            if (ar < Double.MAX_VALUE)
+                query.ar = ar;
+        } else {
+            PriorityQueue<DataObject> objResults = context.objectSearcher.apply(query);
+            if (objResults.size() >= query.k) {
+                DataObject o = objResults.peek();
+                assert o != null;
+                query.ar = SpatialHelper.getDistanceInBetween(query.location, o.location);
+            }
+        }
+        objSearchWatch.stop();
+        return objSearchWatch.elapsed(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Bulk load continuous queries. The pyramid is built level by level. Keyword statistics and the cells of each
+     * query are worked out in insertion order, then the cells of the level are filled in parallel. Queries are not
+     * shared across cells by a bulk load, so that no two cells touch the same node. Answers are the same as
+     * inserting the queries one by one.
+     * <p>
+     * Queries inserted one by one may share nodes across cells, so after such inserts the bulk load falls back to
+     * inserting one by one too. Unbounded KNN queries are always inserted one by one.
+     *
+     * @param queries Queries in insertion order
+     */
     @Override
-    public List<Query> insertObject(DataObject dataObject) {
-        context.timestamp++;
-//        expiringObjects.add(dataObject);
+    public void insertQueries(List<Query> queries) {
+        if (!config.CONCURRENT_SEARCH) {
+            insertQueriesInternal(queries);
+            return;
+        }
+
+        long stamp = structureLock.writeLock();
+        try {
+            insertQueriesInternal(queries);
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    private void insertQueriesInternal(List<Query> queries) {
+        dropExpiredQueryCells();
+        if (sharedListNodesInserted) {
+            for (Query query : queries) {
+                insertQueryInternal(query);
+            }
+            return;
+        }
+
         Stopwatch insWatch = Stopwatch.createStarted();
+        long[] eagerObjSearchTimes = new long[queries.size()];
+        List<ReinsertEntry> boundedQueries = new ArrayList<>(queries.size());
+        List<KNNQuery> unboundedQueries = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            Query query = queries.get(q);
+            context.tick();
+            if (query instanceof KNNQuery) {
+                knnQueriesInserted = true;
+                if (config.SLIDING_WINDOW_KNN)
+                    ((KNNQuery) query).kHat = ((KNNQuery) query).k + config.RHO;
+                eagerObjSearchTimes[q] = eagerObjectSearch((KNNQuery) query);
+                if (((KNNQuery) query).ar > context.globalXRange) {
+                    ((KNNQuery) query).currentLevel = context.maxLevel;
+                    unboundedQueries.add((KNNQuery) query);
+                    continue;
+                }
+            }
+            boundedQueries.add(new ReinsertEntry(query.spatialBox(), query));
+        }
+        bulkReinsertContinuous(boundedQueries, context.maxLevel);
+        for (KNNQuery query : unboundedQueries) {
+            addContinuousUnboundQuery(query);
+        }
+        insWatch.stop();
+
+        long insTime = insWatch.elapsed(TimeUnit.NANOSECONDS) / Math.max(1, queries.size());
+        for (int q = 0; q < queries.size(); q++) {
+            Query query = queries.get(q);
+            if (query instanceof KNNQuery) {
+                queryStats().record(query.id, eagerObjSearchTimes[q], insTime, ((KNNQuery) query).ar,
+                        query.descended, query.currentLevel, QueryStat.Stage.INSERT);
+            } else {
+                queryStats().record(query.id, 0, insTime, 0, 0, 0, QueryStat.Stage.INSERT);
+            }
+        }
+    }
+
+    /**
+     * Match an object against the continuous queries. With `CONCURRENT_SEARCH` enabled this may be called from
+     * multiple threads at once, and can run alongside `insertQuery`.
+     *
+     * @param dataObject Streamed object
+     * @return Queries satisfied by the object
+     */
+    @Override
+    public List<Query> insertObject(DataObject dataObject) {
+        List<Query> results = new LinkedList<>();
+        insertObject(dataObject, results);
+        return results;
+    }
+
+    /**
+     * Same as `insertObject`, but the satisfied queries are appended to a caller supplied sink. Search buffers are
+     * reused per thread, so with `RECORD_STATS` off and a reused sink, matching against range queries allocates
+     * nothing. KNN descents and cleaning still allocate when they change the index.
+     *
+     * @param dataObject Streamed object
+     * @param results    Sink for the satisfied queries
+     */
+    public void insertObject(DataObject dataObject, List<Query> results) {
+        int timestamp = context.tick();
+        int resultStart = results.size();
+        if (objectKeywords != null && dataObject.keywords != null)
+            objectKeywords.add(dataObject.keywords, timestamp);
+        long insStart = config.RECORD_STATS ? System.nanoTime() : 0;
         if (config.INPLACE_OBJECT_INDEX) {
 //            throw new RuntimeException("THIS IS COMPLETELY FINE!!! SADGE");
-            addContinuousBoundedQuery(dataObject);
+            if (config.CONCURRENT_SEARCH) {
+                long stamp = structureLock.writeLock();
+                try {
+                    addContinuousBoundedQuery(dataObject);
+                } finally {
+                    structureLock.unlockWrite(stamp);
+                }
+            } else {
+                addContinuousBoundedQuery(dataObject);
+            }
         } else if (objIndex != null) {
-            objIndex.insert(dataObject);
+            insertToObjectIndex(dataObject);
         }
-        insWatch.stop();
+        long insTime = config.RECORD_STATS ? System.nanoTime() - insStart : 0;
 
-        Stopwatch searchTime = Stopwatch.createStarted();
-        List<Query> results = internalSearchQueries(dataObject, false);
-        searchTime.stop();
+        long searchStart = config.RECORD_STATS ? System.nanoTime() : 0;
+        SearchScratch scratch = searchScratch();
+        if (config.CONCURRENT_SEARCH)
+            concurrentSearchQueries(dataObject, results, scratch);
+        else
+            internalSearchQueries(dataObject, results, scratch, false);
 
-        queryStats.add(new QueryStat(dataObject.id, searchTime.elapsed(TimeUnit.NANOSECONDS),
-                insWatch.elapsed(TimeUnit.NANOSECONDS), 0, -1, -1, QueryStat.Stage.SEARCH));
+        if (config.RECORD_STATS) {
+            long searchTime = System.nanoTime() - searchStart;
+            queryStats().record(dataObject.id, searchTime, insTime, 0, -1, -1, QueryStat.Stage.SEARCH);
+        }
 
         // Vacuum cleaning
-        if (config.CLEAN_METHOD != CleanMethod.NO && context.timestamp % config.CLEANING_INTERVAL == 0)
-            cleanNextSetOfEntries();
+        if (config.CLEAN_METHOD != CleanMethod.NO && timestamp % config.CLEANING_INTERVAL == 0)
+            requestCleaning();
 
-        // Object expiring
-//        while (expiringObjects.peek() != null && expiringObjects.peek().et <= context.timestamp) {
-//            expireQueries(expiringObjects.poll());
-//        }
+        // Object expiry
+        if (config.SLIDING_WINDOW_KNN)
+            slideWindow(dataObject, results, resultStart);
+    }
 
-        return results;
+    /**
+     * @return Query stats of this index, an empty timeline again once the index was deserialized
+     */
+    @Override
+    public QueryStatBuffer queryStats() {
+        QueryStatBuffer stats = this.queryStats;
+        if (stats == null) {
+            synchronized (this) {
+                if (this.queryStats == null)
+                    this.queryStats = new QueryStatBuffer();
+                stats = this.queryStats;
+            }
+        }
+        return stats;
+    }
+
+    private SearchScratch searchScratch() {
+        ThreadLocal<SearchScratch> scratches = this.searchScratches;
+        if (scratches == null) {
+            scratches = ThreadLocal.withInitial(SearchScratch::new);
+            this.searchScratches = scratches;
+        }
+        return scratches.get();
+    }
+
+    /**
+     * Match a micro-batch of objects. At each level the batch is grouped by the cell its objects fall into, so
+     * the cell lookup and the keyword probes are shared by all the objects of a group. Answers are the same as
+     * inserting the objects one by one. KNN queries change on every object they match, so when the index holds
+     * any, or in concurrent or in-place object index mode, the batch is inserted object by object.
+     *
+     * @param dataObjects Objects of the batch
+     * @return Matched queries per object
+     */
+    @Override
+    public List<Collection<Query>> insertObjects(List<DataObject> dataObjects) {
+        if (knnQueriesInserted || config.CONCURRENT_SEARCH || config.INPLACE_OBJECT_INDEX)
+            return SpatialKeywordIndex.super.insertObjects(dataObjects);
+        if (dataObjects.isEmpty())
+            return new ArrayList<>();
+
+        int batchSize = dataObjects.size();
+        BatchScratch scratch = batchScratch();
+        scratch.ensureBatch(batchSize);
+        int[] timestamps = scratch.timestamps;
+        long insStart = config.RECORD_STATS ? System.nanoTime() : 0;
+        for (int i = 0; i < batchSize; i++) {
+            timestamps[i] = context.tick();
+            if (objectKeywords != null && dataObjects.get(i).keywords != null)
+                objectKeywords.add(dataObjects.get(i).keywords, timestamps[i]);
+            if (objIndex != null) {
+                objIndex.insert(dataObjects.get(i));
+                if (objIndex.isExpiring())
+                    objIndex.expire(timestamps[i]);
+            }
+        }
+        long insTime = config.RECORD_STATS ? System.nanoTime() - insStart : 0;
+
+        long searchStart = config.RECORD_STATS ? System.nanoTime() : 0;
+        List<Collection<Query>> answers = new ArrayList<>(batchSize);
+        List<List<Query>> results = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            // An empty ArrayList has no backing array yet, so objects that match nothing cost one small object.
+            List<Query> result = new ArrayList<>();
+            answers.add(result);
+            results.add(result);
+        }
+        batchSearchQueries(dataObjects, scratch, results);
+        context.timestamp = timestamps[batchSize - 1];
+
+        if (config.RECORD_STATS) {
+            long searchTime = (System.nanoTime() - searchStart) / batchSize;
+            insTime /= batchSize;
+            for (DataObject dataObject : dataObjects) {
+                queryStats().record(dataObject.id, searchTime, insTime, 0, -1, -1, QueryStat.Stage.SEARCH);
+            }
+        }
+
+        // Vacuum cleaning
+        for (int i = 0; i < batchSize; i++) {
+            if (config.CLEAN_METHOD != CleanMethod.NO && timestamps[i] % config.CLEANING_INTERVAL == 0)
+                requestCleaning();
+        }
+        return answers;
     }
 
     private void addContinuousUnboundQuery(KNNQuery query) {
@@ -188,16 +539,17 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
 
         String minKeyword = getMinKeyword(context.maxLevel, query);
 
-        int coordinate = calcCoordinate(context.maxLevel, 0, 0, 1);
+        long coordinate = calcCoordinate(context.maxLevel, 0, 0);
         if (!index.containsKey(coordinate)) {
             Rectangle bounds = SpatialCell.getBounds(0, 0, context.globalXRange);
-            index.put(coordinate, new SpatialCell(bounds, coordinate, context.maxLevel));
+            index.put(coordinate, new SpatialCell(this, bounds, coordinate, context.maxLevel));
         }
 
         ArrayList<ReinsertEntry> nextLevelQueries = new ArrayList<>();
         SpatialCell cell = index.get(coordinate);
         if (SpatialHelper.overlapsSpatially(query.location, cell.bounds)) {
             cell.addInternalQueryNoShare(minKeyword, query, null, nextLevelQueries);
+            recordPlacement(query, cell);
         }
         if (cell.textualIndex == null || cell.textualIndex.isEmpty()) {
             index.remove(coordinate);
@@ -218,14 +570,125 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
             double levelStep = ((context.globalXRange) / levelGranularity);
             for (ReinsertEntry entry : currentLevelQueries) {
                 entry.query.currentLevel = level;
-                singleQueryInsert(level, entry, levelStep, levelGranularity, insertNextLevelQueries);
+                singleQueryInsert(level, entry, levelStep, insertNextLevelQueries);
+            }
+            currentLevelQueries = insertNextLevelQueries;
+            level--;
+        }
+    }
+
+    /**
+     * Level by level counterpart of `reinsertContinuous`. Queries descending from a level are inserted to the next
+     * level once the whole level is done.
+     */
+    private void bulkReinsertContinuous(List<ReinsertEntry> currentLevelQueries, int level) {
+        while (level >= 0 && !currentLevelQueries.isEmpty()) {
+            int levelGranularity = (int) (context.gridGranularity / Math.pow(2, level));
+            double levelStep = ((context.globalXRange) / levelGranularity);
+
+            // Keyword statistics and cell assignment follow the insertion order, as in `singleQueryInsert`.
+            LinkedHashMap<Long, CellInsertBatch> batches = new LinkedHashMap<>();
+            for (ReinsertEntry entry : currentLevelQueries) {
+                entry.query.currentLevel = level;
+                int[] cellRange = levelCellRange(level, entry, levelStep);
+                updateInsertedLevels(level);
+                String minKeyword = getMinKeyword(level, entry.query);
+                for (int i = cellRange[0]; i <= cellRange[2]; i++) {
+                    for (int j = cellRange[1]; j <= cellRange[3]; j++) {
+                        if (skipKNNCell(entry, cellRange, i, j, levelStep)) continue;
+                        context.totalQueryInsertionsIncludingReplications.increment();
+                        long coordinate = calcCoordinate(level, i, j);
+                        SpatialCell spatialCell = getOrCreateCell(level, i, j, levelStep, coordinate);
+                        if (spatialCell == null) continue;
+                        if (SpatialHelper.overlapsSpatially(entry.query.spatialBox(), spatialCell.bounds)) {
+                            batches.computeIfAbsent(coordinate, (c) -> new CellInsertBatch(spatialCell))
+                                    .add(minKeyword, entry.query);
+                            recordPlacement(entry.query, spatialCell);
+                        } else if (spatialCell.textualIndex == null && !batches.containsKey(coordinate)) {
+                            index.remove(coordinate);
+                        }
+                    }
+                }
+            }
+
+            // Cells only share queries, never nodes, so each cell can be filled by its own task.
+            List<CellInsertBatch> cellBatches = new ArrayList<>(batches.values());
+            cellBatches.parallelStream().forEach(CellInsertBatch::insert);
+
+            List<ReinsertEntry> insertNextLevelQueries = new ArrayList<>();
+            for (CellInsertBatch batch : cellBatches) {
+                insertNextLevelQueries.addAll(batch.insertNextLevelQueries);
             }
             currentLevelQueries = insertNextLevelQueries;
             level--;
         }
     }
 
-    private void singleQueryInsert(int level, ReinsertEntry entry, double levelStep, int levelGranularity, ArrayList<ReinsertEntry> insertNextLevelQueries) {
+    /**
+     * Queries of a bulk load that go to a single cell, in insertion order.
+     */
+    private static class CellInsertBatch {
+        final SpatialCell cell;
+        final ArrayList<String> keywords = new ArrayList<>();
+        final ArrayList<Query> queries = new ArrayList<>();
+        final ArrayList<ReinsertEntry> insertNextLevelQueries = new ArrayList<>();
+
+        CellInsertBatch(SpatialCell cell) {
+            this.cell = cell;
+        }
+
+        void add(String keyword, Query query) {
+            keywords.add(keyword);
+            queries.add(query);
+        }
+
+        void insert() {
+            for (int q = 0; q < queries.size(); q++) {
+                cell.addInternalQueryNoShare(keywords.get(q), queries.get(q), null, insertNextLevelQueries);
+            }
+        }
+    }
+
+    private void singleQueryInsert(int level, ReinsertEntry entry, double levelStep, ArrayList<ReinsertEntry> insertNextLevelQueries) {
+        int[] cellRange = levelCellRange(level, entry, levelStep);
+        updateInsertedLevels(level);
+        String minKeyword = getMinKeyword(level, entry.query);
+
+        long coodinate;
+        QueryListNode sharedQueries = null;
+        for (int i = cellRange[0]; i <= cellRange[2]; i++) {
+            for (int j = cellRange[1]; j <= cellRange[3]; j++) {
+                String statKey = level + "," + levelStep + "," + i + "," + j;
+//                context.cellInsertions.put(statKey, context.cellInsertions.getOrDefault(statKey, 0) + 1);
+                if (skipKNNCell(entry, cellRange, i, j, levelStep)) continue;
+                context.totalQueryInsertionsIncludingReplications.increment();
+                coodinate = calcCoordinate(level, i, j);
+                SpatialCell spatialCell = getOrCreateCell(level, i, j, levelStep, coodinate);
+                if (spatialCell == null) continue;
+                if (SpatialHelper.overlapsSpatially(entry.query.spatialBox(), spatialCell.bounds)) {
+                    if (i == cellRange[0] && j == cellRange[1]) {
+                        sharedQueries = spatialCell.addInternalQueryNoShare(minKeyword, entry.query, null, insertNextLevelQueries);
+                    } else if (sharedQueries != null && entry.query instanceof MinimalRangeQuery &&
+                            config.CLEAN_METHOD != CleanMethod.EXPIRY_WHEEL && !tracksQueryCells()) {
+                        // A shared node carries queries into cells they have no placement in, so the wheel and
+                        // `removeQuery` can't find them there. With either, queries are replicated as in a bulk load.
+                        sharedListNodesInserted = true;
+                        spatialCell.addInternalQuery(minKeyword, (MinimalRangeQuery) entry.query, sharedQueries, insertNextLevelQueries);
+                    } else spatialCell.addInternalQueryNoShare(minKeyword, entry.query, null, insertNextLevelQueries);
+                    recordPlacement(entry.query, spatialCell);
+                }
+                if (spatialCell.textualIndex == null) {
+                    index.remove(coodinate);
+                }
+
+            }
+        }
+    }
+
+    /**
+     * @return Cells of the level covered by the entry as {xMin, yMin, xMax, yMax}
+     */
+    private int[] levelCellRange(int level, ReinsertEntry entry, double levelStep) {
         int levelXMinCell = (int) Math.max(0, (entry.range.min.x / levelStep));
         int levelYMinCell = (int) Math.max(0, (entry.range.min.y / levelStep));
         int levelXMaxCell = (int) Math.min(context.bounds.max.x / (levelStep + .001), ((entry.range.max.x - .001) / levelStep));
@@ -234,53 +697,48 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
             System.out.println(entry.range);
             System.exit(1);
         }
+        return new int[]{levelXMinCell, levelYMinCell, levelXMaxCell, levelYMaxCell};
+    }
 
+    private void updateInsertedLevels(int level) {
         if (context.minInsertedLevel == -1) context.minInsertedLevel = context.maxInsertedLevel = level;
         if (level < context.minInsertedLevel) context.minInsertedLevel = level;
         if (level > context.maxInsertedLevel) context.maxInsertedLevel = level;
-        String minKeyword = getMinKeyword(level, entry.query);
+    }
 
-        int coodinate;
-        QueryListNode sharedQueries = null;
-        for (int i = levelXMinCell; i <= levelXMaxCell; i++) {
-            for (int j = levelYMinCell; j <= levelYMaxCell; j++) {
-                String statKey = level + "," + levelStep + "," + i + "," + j;
-//                FAST.context.cellInsertions.put(statKey, FAST.context.cellInsertions.getOrDefault(statKey, 0) + 1);
-                if (entry.query instanceof KNNQuery && (levelXMinCell != levelXMaxCell && levelYMinCell != levelYMaxCell)) {
-                    double x = (((KNNQuery) entry.query).location.x / levelStep);
-                    double y = (((KNNQuery) entry.query).location.y / levelStep);
-                    double r = (((KNNQuery) entry.query).ar / levelStep);
+    /**
+     * KNN queries are only replicated to the cells of the range that the circle of the query can reach.
+     */
+    private boolean skipKNNCell(ReinsertEntry entry, int[] cellRange, int i, int j, double levelStep) {
+        if (entry.query instanceof KNNQuery && (cellRange[0] != cellRange[2] && cellRange[1] != cellRange[3])) {
+            double x = (((KNNQuery) entry.query).location.x / levelStep);
+            double y = (((KNNQuery) entry.query).location.y / levelStep);
+            double r = (((KNNQuery) entry.query).ar / levelStep);
 
-                    double si = i;
-                    if (i + 1 < x) si += 1;
+            double si = i;
+            if (i + 1 < x) si += 1;
 
-                    double sj = j;
-                    if (j + 1 < y) sj += 1;
+            double sj = j;
+            if (j + 1 < y) sj += 1;
 
-                    double d = Math.sqrt((si - x) * (si - x) + (sj - y) * (sj - y));
-                    if (!(((i < x || j < y) && d - 1 < r) || d < r)) continue;
-                }
-                context.totalQueryInsertionsIncludingReplications++;
-                coodinate = calcCoordinate(level, i, j, levelGranularity);
-                if (!index.containsKey(coodinate)) {
-                    Rectangle bounds = SpatialCell.getBounds(i, j, levelStep);
-                    if (bounds.min.x >= context.globalXRange || bounds.min.y >= context.globalYRange) continue;
-                    index.put(coodinate, new SpatialCell(bounds, coodinate, level));
-                }
-                SpatialCell spatialCell = index.get(coodinate);
-                if (SpatialHelper.overlapsSpatially(entry.query.spatialBox(), spatialCell.bounds)) {
-                    if (i == levelXMinCell && j == levelYMinCell) {
-                        sharedQueries = spatialCell.addInternalQueryNoShare(minKeyword, entry.query, null, insertNextLevelQueries);
-                    } else if (sharedQueries != null && entry.query instanceof MinimalRangeQuery) {
-                        spatialCell.addInternalQuery(minKeyword, (MinimalRangeQuery) entry.query, sharedQueries, insertNextLevelQueries);
-                    } else spatialCell.addInternalQueryNoShare(minKeyword, entry.query, null, insertNextLevelQueries);
-                }
-                if (spatialCell.textualIndex == null) {
-                    index.remove(coodinate);
-                }
+            double d = Math.sqrt((si - x) * (si - x) + (sj - y) * (sj - y));
+            return !(((i < x || j < y) && d - 1 < r) || d < r);
+        }
+        return false;
+    }
 
-            }
+    /**
+     * @return The cell at (i, j) of the level, or null if the cell falls outside the indexed space
+     */
+    private SpatialCell getOrCreateCell(int level, int i, int j, double levelStep, long coordinate) {
+        SpatialCell spatialCell = index.get(coordinate);
+        if (spatialCell == null) {
+            Rectangle bounds = SpatialCell.getBounds(i, j, levelStep);
+            if (bounds.min.x >= context.globalXRange || bounds.min.y >= context.globalYRange) return null;
+            spatialCell = new SpatialCell(this, bounds, coordinate, level);
+            index.put(coordinate, spatialCell);
         }
+        return spatialCell;
     }
 
     private void reinsertKNNQueries(List<ReinsertEntry> descendingKNNQueries) {
@@ -290,66 +748,369 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
 //                System.out.println("debug!");
 //            }
             int level = 0;
-            if (!FAST.config.PUSH_TO_LOWEST)
-                level = Math.min(query.calcMinSpatialLevel(), FAST.context.maxLevel);
+            if (!config.PUSH_TO_LOWEST)
+                level = Math.min(query.calcMinSpatialLevel(context), context.maxLevel);
             query.currentLevel = level;
             ArrayList<ReinsertEntry> insertNextLevelQueries = new ArrayList<>();
-            int levelGranularity = (int) (FAST.context.gridGranularity / Math.pow(2, level));
-            double levelStep = ((FAST.context.bounds.max.x - FAST.context.bounds.min.x) / levelGranularity);
+            int levelGranularity = (int) (context.gridGranularity / Math.pow(2, level));
+            double levelStep = ((context.bounds.max.x - context.bounds.min.x) / levelGranularity);
             if (query.id == 65) {
                 System.out.println("Reinserting: " + query + ", area: " + entry.range);
             }
-            singleQueryInsert(level, entry, levelStep, levelGranularity, insertNextLevelQueries);
+            singleQueryInsert(level, entry, levelStep, insertNextLevelQueries);
             assert insertNextLevelQueries.isEmpty();
         }
     }
 
-    private List<Query> internalSearchQueries(DataObject dataObject, boolean isExpiry) {
-        List<Query> result = new LinkedList<>();
+    private void internalSearchQueries(DataObject dataObject, List<Query> result, SearchScratch scratch,
+                                       boolean isExpiry) {
         List<ReinsertEntry> descendingKNNQueries = null;
-        if (!isExpiry) descendingKNNQueries = new LinkedList<>();
+        if (!isExpiry) {
+            descendingKNNQueries = scratch.descendingKNNQueries;
+            descendingKNNQueries.clear();
+        }
 
 //        if (dataObject.id == 3657 + 10000)
 //            System.out.println("Debug!");
 
-        if (context.minInsertedLevel == -1) return result;
-        double step = (context.maxInsertedLevel == 0) ? context.localXstep : (context.localXstep * (2 << (context.maxInsertedLevel - 1)));
-        int granualrity = context.gridGranularity >> context.maxInsertedLevel;
+        searchLevels(dataObject, result, descendingKNNQueries, scratch, isExpiry);
+        reinsertDescendingQueries(descendingKNNQueries);
+        if (descendingKNNQueries != null)
+            descendingKNNQueries.clear();
+
+//        if (dataObject.id == 3657 + 10000) {
+//            System.out.println("Debug!");
+//            result.forEach(q -> System.out.println("Res: " + q));
+//        }
+    }
+
+    private void concurrentSearchQueries(DataObject dataObject, List<Query> result, SearchScratch scratch) {
+        List<ReinsertEntry> descendingKNNQueries = scratch.descendingKNNQueries;
+        descendingKNNQueries.clear();
+        int resultStart = result.size();
+
+        if (!knnQueriesInserted) {
+            // Range queries only: the walk does not change the index, so run it without locking and
+            // validate afterwards. A walk that raced with a writer is thrown away and redone below.
+            long stamp = structureLock.tryOptimisticRead();
+            if (stamp != 0L) {
+                try {
+                    if (searchListLevels(dataObject, result, scratch) && structureLock.validate(stamp))
+                        return;
+                } catch (RuntimeException ignored) {
+                }
+                result.subList(resultStart, result.size()).clear();
+            }
+        }
+
+        long stamp = structureLock.readLock();
+        try {
+            searchLevels(dataObject, result, descendingKNNQueries, scratch, false);
+            if (!descendingInFlight.isEmpty())
+                searchDescendingQueries(dataObject, result, resultStart);
+        } finally {
+            structureLock.unlockRead(stamp);
+        }
+
+        if (!descendingKNNQueries.isEmpty()) {
+            stamp = structureLock.writeLock();
+            try {
+                reinsertDescendingQueries(descendingKNNQueries);
+            } finally {
+                structureLock.unlockWrite(stamp);
+            }
+            descendingKNNQueries.clear();
+        }
+    }
+
+    /**
+     * Lock-free walk of `concurrentSearchQueries`, over the structures that tolerate a racing writer: the cell table,
+     * see `CellTable`, the concurrent keyword maps of the cells, and list nodes, whose scans are bounded by sizes read
+     * up front over arrays that are only ever replaced. A racing write can make the walk read stale or torn entries,
+     * or throw a RuntimeException, but not loop or fail with an Error, and the caller throws such a walk away.
+     * Tries hang off plain HashMaps, which a racing resize or treeification may leave in a state that is unsafe to
+     * read, so the walk gives up at the first cell where a keyword of the object has a trie.
+     *
+     * @return False if the walk gave up, the results found so far are then incomplete
+     */
+    private boolean searchListLevels(DataObject dataObject, List<Query> result, SearchScratch scratch) {
+        int minInsertedLevel = context.minInsertedLevel;
+        int maxInsertedLevel = context.maxInsertedLevel;
+        if (minInsertedLevel == -1) return true;
+        double step = (maxInsertedLevel == 0) ? context.localXstep : (context.localXstep * (2 << (maxInsertedLevel - 1)));
         List<String> keywords = dataObject.keywords;
-        for (int level = context.maxInsertedLevel; level >= context.minInsertedLevel && keywords != null && !keywords.isEmpty(); level--) {
-            Integer cellCoordinates = mapDataPointToPartition(level, dataObject.location, step, granualrity);
+        if (keywords == null || keywords.isEmpty())
+            return true;
+        for (int level = maxInsertedLevel; level >= minInsertedLevel; level--) {
+            SpatialCell cell = index.get(mapDataPointToPartition(level, dataObject.location, step));
+            if (cell != null) {
+                ArrayList<String> tries = scratch.remainingKeywords(keywords);
+                cell.searchLists(dataObject, keywords, result, false, tries);
+                if (!tries.isEmpty())
+                    return false;
+                // Without tries no keyword is left for the levels below.
+                if (config.INCREMENTAL_DESCENT)
+                    return true;
+            }
+            step /= 2;
+        }
+        return true;
+    }
+
+    private void searchLevels(DataObject dataObject, List<Query> result, List<ReinsertEntry> descendingKNNQueries,
+                              SearchScratch scratch, boolean isExpiry) {
+        int minInsertedLevel = context.minInsertedLevel;
+        int maxInsertedLevel = context.maxInsertedLevel;
+        if (minInsertedLevel == -1) return;
+        double step = (maxInsertedLevel == 0) ? context.localXstep : (context.localXstep * (2 << (maxInsertedLevel - 1)));
+        List<String> keywords = dataObject.keywords;
+        for (int level = maxInsertedLevel; level >= minInsertedLevel && keywords != null && !keywords.isEmpty(); level--) {
+            long cellCoordinates = mapDataPointToPartition(level, dataObject.location, step);
             SpatialCell spatialCellOptimized = index.get(cellCoordinates);
             if (spatialCellOptimized != null) {
-                List<String> tempKeywords = spatialCellOptimized.searchQueries(dataObject, keywords, result, descendingKNNQueries, isExpiry);
+                List<String> tempKeywords;
+                if (config.CONCURRENT_SEARCH && spatialCellOptimized.hasKNNQueries) {
+                    // KNN matching updates the cell (descents, unbounded queries), one searcher per cell at a time.
+                    synchronized (spatialCellOptimized) {
+                        int descending = (descendingKNNQueries == null) ? 0 : descendingKNNQueries.size();
+                        tempKeywords = spatialCellOptimized.searchQueries(dataObject, keywords, result, descendingKNNQueries,
+                                isExpiry, scratch.remainingKeywords(keywords));
+                        // Published before the cell is released, searches that find the query gone see it here.
+                        for (int i = descending; descendingKNNQueries != null && i < descendingKNNQueries.size(); i++)
+                            descendingInFlight.add((KNNQuery) descendingKNNQueries.get(i).query);
+                    }
+                } else {
+                    tempKeywords = spatialCellOptimized.searchQueries(dataObject, keywords, result, descendingKNNQueries,
+                            isExpiry, scratch.remainingKeywords(keywords));
+                }
                 if (config.INCREMENTAL_DESCENT) {
                     keywords = tempKeywords;
                 }
             }
             step /= 2;
+        }
+    }
+
+    private void batchSearchQueries(List<DataObject> dataObjects, BatchScratch scratch, List<List<Query>> results) {
+        if (context.minInsertedLevel == -1) return;
+        int batchSize = dataObjects.size();
+        int[] timestamps = scratch.timestamps;
+        List<List<String>> keywords = scratch.keywords;
+        for (DataObject dataObject : dataObjects) {
+            keywords.add(dataObject.keywords);
+        }
+
+        // (Morton code of the cell, batch position) pairs, sorted to group the objects by cell while keeping batch
+        // order. The level is the same for all pairs, so only the Morton bits of the cell key are packed.
+        long[] cellOrder = scratch.cellOrder;
+        int[] members = scratch.members;
+        int indexBits = 32 - Integer.numberOfLeadingZeros(batchSize - 1);
+        double step = (context.maxInsertedLevel == 0) ? context.localXstep : (context.localXstep * (2 << (context.maxInsertedLevel - 1)));
+        int granualrity = context.gridGranularity >> context.maxInsertedLevel;
+        for (int level = context.maxInsertedLevel; level >= context.minInsertedLevel; level--) {
+            long levelKey = calcCoordinate(level, 0, 0);
+            int mortonBits = 2 * (32 - Integer.numberOfLeadingZeros(granualrity));
+            boolean packable = mortonBits + indexBits < 64;
+            int count = 0;
+            for (int i = 0; i < batchSize; i++) {
+                if (keywords.get(i) == null || keywords.get(i).isEmpty())
+                    continue;
+                if (packable) {
+                    long coordinate = mapDataPointToPartition(level, dataObjects.get(i).location, step);
+                    cellOrder[count] = ((coordinate - levelKey) << indexBits) | i;
+                } else {
+                    // Too fine a grid to pack, search the objects one by one.
+                    cellOrder[count] = i;
+                }
+                count++;
+            }
+            if (packable)
+                Arrays.sort(cellOrder, 0, count);
+            long indexMask = (1L << indexBits) - 1;
+            for (int m = 0; m < count; m++) {
+                members[m] = (int) (cellOrder[m] & indexMask);
+            }
+
+            int from = 0;
+            while (from < count) {
+                long cell = cellOrder[from] >>> indexBits;
+                int to = from + 1;
+                while (packable && to < count && (cellOrder[to] >>> indexBits) == cell)
+                    to++;
+
+                SpatialCell spatialCell = index.get(mapDataPointToPartition(level, dataObjects.get(members[from]).location, step));
+                if (spatialCell != null) {
+                    if (to - from == 1) {
+                        int o = members[from];
+                        context.timestamp = timestamps[o];
+                        List<String> tempKeywords = spatialCell.searchQueries(dataObjects.get(o), keywords.get(o),
+                                results.get(o), null, false, scratch.remainingKeywords(o, keywords.get(o)));
+                        if (config.INCREMENTAL_DESCENT)
+                            keywords.set(o, tempKeywords);
+                    } else {
+                        spatialCell.searchQueries(dataObjects, timestamps, members, from, to, keywords, results, scratch);
+                    }
+                }
+                from = to;
+            }
+            step /= 2;
             granualrity <<= 1;
         }
+        keywords.clear();
+    }
+
+    private BatchScratch batchScratch() {
+        if (batchScratch == null)
+            batchScratch = new BatchScratch();
+        return batchScratch;
+    }
+
+    private void reinsertDescendingQueries(List<ReinsertEntry> descendingKNNQueries) {
         if (descendingKNNQueries != null && !descendingKNNQueries.isEmpty()) {
-            if (FAST.config.INCREMENTAL_DESCENT) {
-                reinsertContinuous(descendingKNNQueries, FAST.context.maxLevel - 1);
+            if (config.INCREMENTAL_DESCENT) {
+                reinsertContinuous(descendingKNNQueries, context.maxLevel - 1);
             } else {
                 reinsertKNNQueries(descendingKNNQueries);
             }
+            if (!descendingInFlight.isEmpty())
+                descendingKNNQueries.forEach((entry) -> descendingInFlight.remove(entry.query));
         }
+    }
 
-//        if (dataObject.id == 3657 + 10000) {
-//            System.out.println("Debug!");
-//            result.forEach(q -> System.out.println("Res: " + q));
-//        }
-        return result;
+    /**
+     * Match the KNN queries that are descending in another search, skipping the ones the object already matched on
+     * its walk. Runs under the read lock, so a query is either still in its cell or listed here.
+     */
+    private void searchDescendingQueries(DataObject dataObject, List<Query> result, int resultStart) {
+        int walkEnd = result.size();
+        for (KNNQuery query : descendingInFlight) {
+            if (query.et > context.timestamp && !query.deleted &&
+                    !result.subList(resultStart, walkEnd).contains(query) &&
+                    SpatialHelper.overlapsSpatially(dataObject.location, query.location, query.ar) &&
+                    TextHelpers.containsTextually(dataObject.keywords, query.keywords)) {
+                result.add(query);
+                query.pushUntilKHat(dataObject, config.INCREMENTAL_DESCENT);
+            }
+        }
     }
 
+    @Override
     public void cleanNextSetOfEntries() {
+        if (!config.CONCURRENT_SEARCH) {
+            cleanNextSetOfEntriesInternal();
+            return;
+        }
+
+        long stamp = structureLock.writeLock();
+        try {
+            cleanNextSetOfEntriesInternal();
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Clean inline, or with `BACKGROUND_CLEANING` hand the step over to the cleaner thread.
+     */
+    private void requestCleaning() {
+        if (config.BACKGROUND_CLEANING)
+            backgroundCleaner().request();
+        else
+            cleanNextSetOfEntries();
+    }
+
+    private synchronized BackgroundCleaner backgroundCleaner() {
+        if (backgroundCleaner == null) {
+            if (!config.CONCURRENT_SEARCH)
+                throw new RuntimeException("Background cleaning needs CONCURRENT_SEARCH!");
+            backgroundCleaner = new BackgroundCleaner(structureLock, this::cleanNextSetOfEntriesInternal,
+                    config.CLEANING_BUDGET_NANOS);
+        }
+        return backgroundCleaner;
+    }
+
+    /**
+     * Wait for the background cleaner to run the cleaning steps requested so far. Returns at once without
+     * `BACKGROUND_CLEANING`.
+     */
+    public void awaitCleaning() {
+        BackgroundCleaner cleaner;
+        synchronized (this) {
+            cleaner = backgroundCleaner;
+        }
+        if (cleaner != null)
+            cleaner.await();
+    }
+
+    /**
+     * Run the pending cleaning steps and stop the background cleaner. A later cleaning request starts a new one.
+     */
+    public void stopCleaning() {
+        BackgroundCleaner cleaner;
+        synchronized (this) {
+            cleaner = backgroundCleaner;
+            backgroundCleaner = null;
+        }
+        if (cleaner != null)
+            cleaner.stop();
+    }
+
+    /**
+     * Reader of the whole index, see `readConsistently`.
+     */
+    interface IndexReader {
+        void read() throws IOException;
+    }
+
+    /**
+     * Run the reader while nothing changes the index. With `CONCURRENT_SEARCH` it holds the structure lock
+     * exclusively, since KNN searches change cells under the shared lock, and the object index read lock. A KNN query
+     * descending in a search is out of its cells until it is reinserted, so the reader waits for those to land.
+     */
+    void readConsistently(IndexReader reader) throws IOException {
+        if (!config.CONCURRENT_SEARCH) {
+            reader.read();
+            return;
+        }
+
+        long stamp = structureLock.writeLock();
+        try {
+            while (!descendingInFlight.isEmpty()) {
+                structureLock.unlockWrite(stamp);
+                Thread.yield();
+                stamp = structureLock.writeLock();
+            }
+            objIndexLock.writeLock().lock();
+            try {
+                drainPendingObjects();
+            } finally {
+                objIndexLock.writeLock().unlock();
+            }
+            objIndexLock.readLock().lock();
+            try {
+                reader.read();
+            } finally {
+                objIndexLock.readLock().unlock();
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    private void cleanNextSetOfEntriesInternal() {
         Run.logger.debug("Cleaning!");
         Stopwatch cleanWatch = Stopwatch.createStarted();
-        if (cleaningIterator == null || !cleaningIterator.hasNext()) cleaningIterator = index.entrySet().iterator();
+        dropExpiredQueryCells();
+        if (config.CLEAN_METHOD == CleanMethod.EXPIRY_WHEEL) {
+            expireQueries();
+            cleanWatch.stop();
+            this.cleanTime += cleanWatch.elapsed(TimeUnit.NANOSECONDS);
+            return;
+        }
+        if (cleaningIterator == null || !cleaningIterator.hasNext()) cleaningIterator = index.iterator();
         SpatialCell cell;
         if (lastCellCleaningDone) 
-            cell = cleaningIterator.next().getValue();
+            cell = cleaningIterator.next();
         else 
             cell = cellBeingCleaned;
         boolean cleaningDone = cell.clean();
@@ -362,35 +1123,398 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
         Run.logger.debug("Cleaning cell: " + cell.coordinate + " at level: " + cell.level);
     }
 
-//    public void expireQueries(DataObject dataObject) {
-////        Run.logger.debug("Obj expire: " + dataObject.id);
-////        if (dataObject.id == 114) {
-////            System.out.println("DEBUG!");
-////        }
-//        List<Query> results = internalSearchQueries(dataObject, true);
-////        if (!results.isEmpty() && dataObject.id == 114) {
-////            Run.logger.debug(context.timestamp + ", " + dataObject);
-////            System.out.println(results);
-////        }
-//        List<KNNQuery> ascending = new ArrayList<>();
-//        results.forEach(query -> {
-//            if (query instanceof KNNQuery && ((KNNQuery) query).currentLevel != context.maxLevel) {
-//                boolean before = ((KNNQuery) query).kFilled();
-//                ((KNNQuery) query).getMonitoredObjects().remove(dataObject);
-//                assert before != ((KNNQuery) query).kFilled();
-//                ((KNNQuery) query).ar = Double.MAX_VALUE;
-//                ascending.add((KNNQuery) query);
-//            }
-//        });
-//////        Run.logger.debug("Ascending queries: " + ascending);
-//        reinsertKNNQueries(ascending);
-//
-//        for (KNNQuery query : ascending) {
-//            assert query.currentLevel == context.maxLevel;
-//        }
-//    }
+    /**
+     * Remove the queries that expired by now from the cells they were inserted to, and from the keyword statistics.
+     * Cells left without entries are dropped.
+     */
+    private void expireQueries() {
+        int timestamp = context.timestamp;
+        int placements = expiryWheel().pollExpired(timestamp, (placement) -> {
+            SpatialCell cell = placement.cell;
+            cell.deleteQueryFromStats(placement.query);
+            cell.removeQuery(placement.query);
+            if (cell.textualIndex != null && cell.textualIndex.isEmpty() && index.get(cell.coordinate) == cell)
+                index.remove(cell.coordinate);
+        });
+        context.cleanVisitedEntries.add(placements);
+    }
+
+    private void recordPlacement(Query query, SpatialCell cell) {
+        if (config.CLEAN_METHOD == CleanMethod.EXPIRY_WHEEL)
+            expiryWheel().add(query.et, new Placement(query, cell));
+        if (tracksQueryCells())
+            addQueryCell(query, cell);
+    }
+
+    private boolean tracksQueryCells() {
+        return config.QUERY_CELLS || config.SLIDING_WINDOW_KNN;
+    }
+
+    private void addQueryCell(Query query, SpatialCell cell) {
+        if (query.cells == null) {
+            query.cells = new ArrayList<>(1);
+            queriesById.put(query.id, query);
+            queriesByIdExpiry.add(query.et, query);
+        }
+        if (!query.cells.contains(cell))
+            query.cells.add(cell);
+    }
 
+    /**
+     * Forget the cells of the queries that expired by now, whatever the clean method. Called on every change of the
+     * structure, expired queries are only looked up by `removeQuery` and `updateQueryLocation`, which find them gone.
+     */
+    private void dropExpiredQueryCells() {
+        queriesByIdExpiry.pollExpired(context.timestamp, (query) -> {
+            if (queriesById.remove(query.id, query))
+                query.cells = null;
+        });
+    }
+
+    /**
+     * Record the cells of the queries in the index, for an index restored from a snapshot.
+     */
+    void restoreQueryCells() {
+        if (!tracksQueryCells())
+            return;
+        index.forEach((cell) -> {
+            if (cell.textualIndex == null)
+                return;
+            LinkedHashSet<Query> queries = new LinkedHashSet<>();
+            for (TextualNode node : cell.textualIndex.values())
+                collectQueries(node, queries);
+            for (Query query : queries) {
+                if (query.et > context.timestamp)
+                    addQueryCell(query, cell);
+            }
+        });
+    }
+
+    /**
+     * Remove a continuous query before it expires. Only the cells the query was inserted to are visited, and in each
+     * of them only the nodes along the keywords of the query. The query leaves the keyword statistics once.
+     *
+     * @return False if no query with the id is in the index
+     */
+    @Override
+    public boolean removeQuery(int id) {
+        if (!config.CONCURRENT_SEARCH)
+            return removeQueryInternal(id);
+
+        long stamp = structureLock.writeLock();
+        try {
+            return removeQueryInternal(id);
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean removeQueryInternal(int id) {
+        if (!tracksQueryCells())
+            throw new RuntimeException("Query removal needs QUERY_CELLS!");
+        dropExpiredQueryCells();
+        Query query = queriesById.remove(id);
+        if (query == null)
+            return false;
+        ArrayList<SpatialCell> cells = query.cells;
+        query.cells = null;
+        cells.get(0).deleteQueryFromStats(query);
+        for (SpatialCell cell : cells) {
+            cell.removeQuery(query);
+            if (cell.textualIndex != null && cell.textualIndex.isEmpty() && index.get(cell.coordinate) == cell)
+                index.remove(cell.coordinate);
+        }
+        return true;
+    }
+
+    /**
+     * Move a KNN query. The objects it monitors bound its new `ar`, see `KNNQuery.moveTo`, no object search is made.
+     * The query stays at its level, see `placeKNNQuery`.
+     *
+     * @return False if no KNN query with the id is in the index
+     */
+    @Override
+    public boolean updateQueryLocation(int id, Point location) {
+        if (!config.CONCURRENT_SEARCH)
+            return updateQueryLocationInternal(id, location);
+
+        long stamp = structureLock.writeLock();
+        try {
+            return updateQueryLocationInternal(id, location);
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean updateQueryLocationInternal(int id, Point location) {
+        if (!SpatialHelper.overlapsSpatially(location, context.bounds))
+            throw new RuntimeException("Location outside the indexed space: " + location);
+        if (!tracksQueryCells())
+            throw new RuntimeException("Query moves need QUERY_CELLS!");
+        dropExpiredQueryCells();
+        Query found = queriesById.get(id);
+        if (!(found instanceof KNNQuery))
+            return false;
+        KNNQuery query = (KNNQuery) found;
+        query.moveTo(location);
+        if (query.ar <= context.globalXRange) {
+            placeKNNQuery(query, query.currentLevel);
+        } else {
+            // Unbounded queries reach every cell they are in.
+            for (SpatialCell cell : query.cells)
+                cell.refreshLocation(query);
+        }
+        return true;
+    }
+
+    /**
+     * Place a KNN query at a level for its current location and radius. Only the cells whose coverage changes are
+     * touched: the query leaves the cells of the level it no longer reaches and is added to the ones it newly reaches,
+     * the cells it stays in refresh the location and radius they keep of it. Cells of other levels, left by descents
+     * or by a move up, keep the query wherever it still reaches, cleaning drops them once the query is not at their
+     * level.
+     */
+    private void placeKNNQuery(KNNQuery query, int level) {
+        query.currentLevel = level;
+        updateInsertedLevels(level);
+
+        HashSet<SpatialCell> reached = new HashSet<>();
+        ArrayList<ReinsertEntry> nextLevelQueries = new ArrayList<>();
+        int levelGranularity = (int) (context.gridGranularity / Math.pow(2, level));
+        double levelStep = ((context.globalXRange) / levelGranularity);
+        ReinsertEntry placed = new ReinsertEntry(query.spatialBox(), query);
+        int[] cellRange = levelCellRange(level, placed, levelStep);
+        String minKeyword = null;
+        for (int i = cellRange[0]; i <= cellRange[2]; i++) {
+            for (int j = cellRange[1]; j <= cellRange[3]; j++) {
+                if (skipKNNCell(placed, cellRange, i, j, levelStep)) continue;
+                long coordinate = calcCoordinate(level, i, j);
+                SpatialCell spatialCell = index.get(coordinate);
+                if (spatialCell != null && query.cells.contains(spatialCell) && spatialCell.refreshLocation(query)) {
+                    reached.add(spatialCell);
+                    continue;
+                }
+                spatialCell = getOrCreateCell(level, i, j, levelStep, coordinate);
+                if (spatialCell == null) continue;
+                if (SpatialHelper.overlapsSpatially(query.spatialBox(), spatialCell.bounds)) {
+                    // The query is counted in the keyword statistics already, below the top level it isn't again.
+                    if (minKeyword == null)
+                        minKeyword = getMinKeyword(Math.min(level, context.maxLevel - 1), query);
+                    context.totalQueryInsertionsIncludingReplications.increment();
+                    spatialCell.addInternalQueryNoShare(minKeyword, query, null, nextLevelQueries);
+                    recordPlacement(query, spatialCell);
+                    reached.add(spatialCell);
+                }
+                if (spatialCell.textualIndex == null)
+                    index.remove(coordinate);
+            }
+        }
+
+        for (Iterator<SpatialCell> it = query.cells.iterator(); it.hasNext(); ) {
+            SpatialCell cell = it.next();
+            if (reached.contains(cell))
+                continue;
+            if (cell.level != level && SpatialHelper.overlapsSpatially(query.spatialBox(), cell.bounds) &&
+                    cell.refreshLocation(query))
+                continue;
+            cell.removeQuery(query);
+            it.remove();
+            if (cell.textualIndex != null && cell.textualIndex.isEmpty() && index.get(cell.coordinate) == cell)
+                index.remove(cell.coordinate);
+        }
+        reinsertContinuous(nextLevelQueries, level - 1);
+    }
+
+    /**
+     * Note the KNN queries that monitor the object now, then drop the objects that expired by now from the queries
+     * that monitor them. A query keeps its radius while it has `k` objects left, it still holds its `k` nearest live
+     * ones, the others are repaired, see `repairKNNQuery`.
+     */
+    private void slideWindow(DataObject dataObject, List<Query> results, int resultStart) {
+        if (config.CONCURRENT_SEARCH && monitorExpiry == null) {
+            // Built from the queries in the cells, no search may move them meanwhile.
+            long stamp = structureLock.writeLock();
+            monitorLock.lock();
+            try {
+                monitorExpiry();
+            } finally {
+                monitorLock.unlock();
+                structureLock.unlockWrite(stamp);
+            }
+        }
+
+        int timestamp = context.timestamp;
+        LinkedHashSet<KNNQuery> exhausted = new LinkedHashSet<>();
+        monitorLock.lock();
+        try {
+            if (dataObject.et < Integer.MAX_VALUE) {
+                for (ListIterator<Query> it = results.listIterator(resultStart); it.hasNext(); ) {
+                    Query query = it.next();
+                    if (query instanceof KNNQuery)
+                        monitorExpiry().add(dataObject.et, new Monitor(dataObject, (KNNQuery) query));
+                }
+            }
+            monitorExpiry().pollExpired(timestamp, (monitor) -> {
+                KNNQuery query = monitor.query;
+                if (query.removeMonitoredObject(monitor.object) && isExhausted(query, timestamp))
+                    exhausted.add(query);
+            });
+        } finally {
+            monitorLock.unlock();
+        }
+        if (exhausted.isEmpty())
+            return;
+
+        if (!config.CONCURRENT_SEARCH) {
+            for (KNNQuery query : exhausted)
+                repairKNNQuery(query);
+            return;
+        }
+
+        long stamp = structureLock.writeLock();
+        try {
+            // Another insert may have repaired the query in between.
+            for (KNNQuery query : exhausted) {
+                if (isExhausted(query, context.timestamp))
+                    repairKNNQuery(query);
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean isExhausted(KNNQuery query, int timestamp) {
+        return query.et > timestamp && query.monitoredCount() < query.k && query.ar <= context.globalXRange;
+    }
+
+    /**
+     * Search the object index again for a KNN query left with fewer than `k` live objects. Its buffer is filled
+     * again and its radius grows to cover it, see `monitorNearest`, or becomes unbounded without an object index or with fewer than `k` matching objects.
+     * The query moves up only as far as the level its new radius fits, see `reinsertKNNQueries`, instead of back to
+     * the top.
+     */
+    private void repairKNNQuery(KNNQuery query) {
+        if (query.cells == null)
+            return;
+
+        double ar = Double.MAX_VALUE;
+        if (objIndex != null)
+            ar = monitorNearest(query);
+        query.ar = ar;
+
+        int level = context.maxLevel;
+        if (ar <= context.globalXRange)
+            level = config.PUSH_TO_LOWEST ? 0 : Math.min(query.calcMinSpatialLevel(context), context.maxLevel);
+        placeKNNQuery(query, Math.max(level, query.currentLevel));
+    }
+
+    private void monitor(KNNQuery query, Collection<DataObject> objects) {
+        monitorLock.lock();
+        try {
+            for (DataObject object : objects)
+                monitorExpiry().add(object.et, new Monitor(object, query));
+        } finally {
+            monitorLock.unlock();
+        }
+    }
+
+    /**
+     * The monitored objects by expiry, built from the monitored objects of the KNN queries in the index after the
+     * index was restored. Called holding `monitorLock`.
+     */
+    private ExpiryQueue<Monitor> monitorExpiry() {
+        if (monitorExpiry == null) {
+            monitorExpiry = new ExpiryQueue<>(1);
+            LinkedHashSet<Query> queries = new LinkedHashSet<>();
+            index.forEach((cell) -> {
+                if (cell.textualIndex == null)
+                    return;
+                for (TextualNode node : cell.textualIndex.values())
+                    collectQueries(node, queries);
+            });
+            for (Query query : queries) {
+                if (!(query instanceof KNNQuery))
+                    continue;
+                KNNQuery knnQuery = (KNNQuery) query;
+                synchronized (knnQuery) {
+                    if (knnQuery.getMonitoredObjects() != null)
+                        for (DataObject object : knnQuery.getMonitoredObjects())
+                            monitorExpiry.add(object.et, new Monitor(object, knnQuery));
+                }
+            }
+        }
+        return monitorExpiry;
+    }
+
+    /**
+     * The expiry wheel, built from the queries in the index when the clean method was switched to `EXPIRY_WHEEL`
+     * after they were inserted, or the index was restored.
+     */
+    private ExpiryQueue<Placement> expiryWheel() {
+        if (expiryWheel == null) {
+            expiryWheel = new ExpiryQueue<>(config.QUERY_EXPIRY_BUCKET);
+            index.forEach((cell) -> {
+                if (cell.textualIndex == null)
+                    return;
+                LinkedHashSet<Query> queries = new LinkedHashSet<>();
+                for (TextualNode node : cell.textualIndex.values())
+                    collectQueries(node, queries);
+                for (Query query : queries)
+                    expiryWheel.add(query.et, new Placement(query, cell));
+            });
+        }
+        return expiryWheel;
+    }
+
+    private static void collectQueries(TextualNode node, Collection<Query> queries) {
+        if (node instanceof QueryNode) {
+            queries.add(((QueryNode) node).query);
+        } else if (node instanceof QueryListNode) {
+            for (Query query : ((QueryListNode) node).queries)
+                queries.add(query);
+        } else if (node instanceof QueryTrieNode) {
+            QueryTrieNode trieNode = (QueryTrieNode) node;
+            if (trieNode.queries != null)
+                for (Query query : trieNode.queries)
+                    queries.add(query);
+            if (trieNode.finalQueries != null)
+                queries.addAll(trieNode.finalQueries);
+            if (trieNode.unboundedQueries != null)
+                queries.addAll(trieNode.unboundedQueries);
+            if (trieNode.subtree != null)
+                for (TextualNode child : trieNode.subtree.values())
+                    collectQueries(child, queries);
+        }
+    }
+
+    private static class Monitor implements Serializable {
+        final DataObject object;
+        final KNNQuery query;
+
+        Monitor(DataObject object, KNNQuery query) {
+            this.object = object;
+            this.query = query;
+        }
+    }
+
+    private static class Placement implements Serializable {
+        final Query query;
+        final SpatialCell cell;
+
+        Placement(Query query, SpatialCell cell) {
+            this.query = query;
+            this.cell = cell;
+        }
+    }
+
+    /**
+     * Keyword to index the query under at the level. Counts the query for its keywords when it enters the pyramid
+     * at `maxLevel`. With `DECAYED_KEYWORD_STATS` the keyword that minimizes the expected verifications of its
+     * postings, recent queries times recent objects, is picked.
+     */
     public String getMinKeyword(int level, Query query) {
+        if (objectKeywords != null)
+            return getMinDecayedKeyword(level, query);
         String minkeyword = null;
         int minCount = Integer.MAX_VALUE;
         for (String keyword : query.keywords) {
@@ -412,6 +1536,33 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
         return minkeyword;
     }
 
+    private String getMinDecayedKeyword(int level, Query query) {
+        int timestamp = context.timestamp;
+        int halfLife = config.KEYWORD_HALF_LIFE;
+        String minKeyword = null;
+        double minCost = Double.MAX_VALUE;
+        for (String keyword : query.keywords) {
+            KeywordFrequency stats = keywordFrequencyMap.get(keyword);
+            boolean seen = stats != null;
+            if (!seen) {
+                stats = new KeywordFrequency(1, 1, timestamp);
+                keywordFrequencyMap.put(keyword, stats);
+            }
+            double cost = (stats.recentQueries(timestamp, halfLife) + 1) *
+                    (objectKeywords.estimate(keyword, timestamp) + 1);
+            if (cost < minCost) {
+                minCost = cost;
+                minKeyword = keyword;
+            }
+            if (level == context.maxLevel) {
+                if (seen)
+                    stats.queryCount++;
+                stats.addQuery(timestamp, halfLife);
+            }
+        }
+        return minKeyword;
+    }
+
     public void setCleaning(CleanMethod method) {
         config.CLEAN_METHOD = method;
     }
@@ -422,7 +1573,7 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
 
     public void printIndex() {
         System.out.println("Bounds=" + context.bounds.toString());
-        index.forEach((key, v) -> {
+        index.forEach((v) -> {
             System.out.println("Level: " + v.level + ", Key: " + v.coordinate + " -->");
             v.textualIndex.forEach((keyword, node) -> printTextualNode(keyword, node, 1));
         });
@@ -465,7 +1616,7 @@ public class FAST implements SpatialKeywordIndex<Query, DataObject>, Serializabl
     public HashSet<KNNQuery> allKNNQueries(boolean onlyTrie) {
         HashSet<KNNQuery> allKNN = new HashSet<>();
 
-        index.forEach((key, cell) -> {
+        index.forEach((cell) -> {
             addKNNQueriesFromTextualNodes(cell.textualIndex, allKNN, onlyTrie);
         });
         return allKNN;
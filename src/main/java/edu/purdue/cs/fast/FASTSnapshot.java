@@ -0,0 +1,323 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.baselines.ckqst.structures.IQuadTree;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.KNNQuery;
+import edu.purdue.cs.fast.models.Query;
+import edu.purdue.cs.fast.models.Rectangle;
+import edu.purdue.cs.fast.parser.QueryCodec;
+import edu.purdue.cs.fast.structures.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary snapshot of a built FAST index: the pyramid cells with their textual indexes, the keyword frequencies, the
+ * logical clock and the external object index. Queries, objects and query list nodes shared between cells are
+ * written once and stay shared when restored, and KNN queries keep their `ar` and monitored objects.
+ * <p>
+ * Search statistics and the cleaning position are not saved, a restored index starts cleaning from its first cell.
+ * Neither are the decayed keyword frequencies of `DECAYED_KEYWORD_STATS`, they build up again from the restore on.
+ */
+public class FASTSnapshot {
+    private static final int MAGIC = 0x46534e50; // "FSNP"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int NULL = -2;
+    private static final int NEW = -1;
+    private static final byte QUERY_NODE = 1;
+    private static final byte LIST_NODE = 2;
+    private static final byte TRIE_NODE = 3;
+
+    private final QueryCodec codec;
+    private final IdentityHashMap<TextualNode, Integer> nodeRefs = new IdentityHashMap<>();
+    private final ArrayList<TextualNode> nodes = new ArrayList<>();
+    // Configuration of the index being read, for the trie nodes it restores.
+    private Config config;
+
+    private FASTSnapshot(KeywordDictionary dictionary) {
+        this.codec = new QueryCodec(true, dictionary);
+    }
+
+    /**
+     * Write a snapshot of the index, which other threads may go on searching and inserting into with
+     * `CONCURRENT_SEARCH`. They wait for the walk, see `FAST.readConsistently`.
+     */
+    public static void write(FAST fast, String path) throws IOException {
+        fast.awaitCleaning();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE))) {
+            FASTSnapshot snapshot = new FASTSnapshot(null);
+            fast.readConsistently(() -> snapshot.write(fast, out));
+        }
+    }
+
+    /**
+     * Restore with plain keywords, see `read(String, KeywordDictionary)`.
+     */
+    public static FAST read(String path) throws IOException {
+        return read(path, null);
+    }
+
+    /**
+     * @param dictionary Dictionary the keywords of the restored queries and objects are encoded in, the one of the
+     *                   stream that goes on into the index. Null restores plain keywords.
+     */
+    public static FAST read(String path, KeywordDictionary dictionary) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE))) {
+            return new FASTSnapshot(dictionary).read(in);
+        }
+    }
+
+    private void write(FAST fast, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        ByteArrayOutputStream configBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream configOut = new ObjectOutputStream(configBytes)) {
+            configOut.writeObject(fast.config);
+        }
+        out.writeInt(configBytes.size());
+        configBytes.writeTo(out);
+
+        QueryCodec.writeRectangle(out, fast.context.bounds);
+        out.writeInt(fast.context.gridGranularity);
+        out.writeInt(fast.context.maxLevel);
+        out.writeInt(fast.context.timestamp);
+        out.writeInt(fast.context.minInsertedLevel);
+        out.writeInt(fast.context.maxInsertedLevel);
+        out.writeBoolean(fast.knnQueriesInserted);
+        out.writeBoolean(fast.sharedListNodesInserted);
+        out.writeLong(fast.cleanTime);
+
+        out.writeInt(fast.keywordFrequencyMap.size());
+        for (Map.Entry<String, KeywordFrequency> entry : fast.keywordFrequencyMap.entrySet()) {
+            codec.writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().queryCount);
+            out.writeInt(entry.getValue().visitCount);
+            out.writeInt(entry.getValue().lastDecayTimeStamp);
+        }
+
+        IQuadTree objIndex = fast.objIndex;
+        out.writeBoolean(objIndex != null);
+        if (objIndex != null) {
+            List<DataObject> objects = new ArrayList<>();
+            objIndex.forEachObject(objects::add);
+            // Arrival order, the order the objects were first inserted in.
+            objects.sort(Comparator.comparingLong((DataObject o) -> o.st).thenComparingInt(o -> o.id));
+            out.writeInt(objIndex.getCapacity());
+            out.writeInt(objIndex.getMaxTreeHeight());
+            out.writeInt(objects.size());
+            for (DataObject object : objects)
+                codec.writeQuery(out, object);
+        }
+
+        out.writeInt(fast.index.size());
+        for (Iterator<SpatialCell> it = fast.index.iterator(); it.hasNext(); ) {
+            SpatialCell cell = it.next();
+            out.writeLong(cell.coordinate);
+            out.writeInt(cell.level);
+            QueryCodec.writeRectangle(out, cell.bounds);
+            out.writeBoolean(cell.hasKNNQueries);
+            writeNodeMap(out, cell.textualIndex);
+        }
+    }
+
+    private FAST read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new RuntimeException("Not a FAST snapshot!");
+        if (in.readInt() != VERSION)
+            throw new RuntimeException("Unsupported FAST snapshot version!");
+
+        byte[] configBytes = new byte[in.readInt()];
+        in.readFully(configBytes);
+        try (ObjectInputStream configIn = new ObjectInputStream(new ByteArrayInputStream(configBytes))) {
+            config = (Config) configIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Corrupted FAST snapshot config!", e);
+        }
+
+        FAST fast = new FAST(config, QueryCodec.readRectangle(in), in.readInt(), in.readInt());
+        fast.context.timestamp = in.readInt();
+        fast.context.minInsertedLevel = in.readInt();
+        fast.context.maxInsertedLevel = in.readInt();
+        fast.knnQueriesInserted = in.readBoolean();
+        fast.sharedListNodesInserted = in.readBoolean();
+        fast.cleanTime = in.readLong();
+
+        int numKeywords = in.readInt();
+        for (int i = 0; i < numKeywords; i++) {
+            String keyword = codec.readString(in);
+            fast.keywordFrequencyMap.put(keyword, new KeywordFrequency(in.readInt(), in.readInt(), in.readInt()));
+        }
+
+        if (in.readBoolean()) {
+            fast.setExternalObjectIndex(in.readInt(), in.readInt());
+            int numObjects = in.readInt();
+            for (int i = 0; i < numObjects; i++)
+                fast.objIndex.insert((DataObject) codec.readQuery(in));
+        }
+
+        int numCells = in.readInt();
+        for (int i = 0; i < numCells; i++) {
+            long coordinate = in.readLong();
+            int level = in.readInt();
+            Rectangle bounds = QueryCodec.readRectangle(in);
+            SpatialCell cell = new SpatialCell(fast, new Rectangle(bounds.min.x, bounds.min.y, bounds.max.x, bounds.max.y),
+                    coordinate, level);
+            // The constructor shrinks the bounds, the saved bounds are already shrunk.
+            cell.bounds = bounds;
+            cell.hasKNNQueries = in.readBoolean();
+            HashMap<String, TextualNode> textualIndex = readNodeMap(in);
+            if (textualIndex != null)
+                cell.textualIndex = new ConcurrentHashMap<>(textualIndex);
+            fast.index.put(coordinate, cell);
+        }
+        fast.restoreQueryCells();
+        return fast;
+    }
+
+    private void writeNodeMap(DataOutput out, Map<String, TextualNode> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // Snapshot of the entries, a concurrent map can change size while it is written.
+        List<Map.Entry<String, TextualNode>> entries = new ArrayList<>(map.entrySet());
+        out.writeInt(entries.size());
+        for (Map.Entry<String, TextualNode> entry : entries) {
+            codec.writeString(out, entry.getKey());
+            writeNode(out, entry.getValue());
+        }
+    }
+
+    private HashMap<String, TextualNode> readNodeMap(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0)
+            return null;
+        LinkedHashMap<String, TextualNode> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String keyword = codec.readString(in);
+            map.put(keyword, readNode(in));
+        }
+        return map;
+    }
+
+    private void writeNode(DataOutput out, TextualNode node) throws IOException {
+        if (node == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        Integer ref = nodeRefs.get(node);
+        if (ref != null) {
+            out.writeInt(ref);
+            return;
+        }
+        nodeRefs.put(node, nodeRefs.size());
+        out.writeInt(NEW);
+
+        if (node instanceof QueryNode) {
+            out.writeByte(QUERY_NODE);
+            codec.writeQuery(out, ((QueryNode) node).query);
+        } else if (node instanceof QueryListNode) {
+            out.writeByte(LIST_NODE);
+            writeHybridList(out, ((QueryListNode) node).queries);
+        } else if (node instanceof QueryTrieNode) {
+            QueryTrieNode trieNode = (QueryTrieNode) node;
+            out.writeByte(TRIE_NODE);
+            out.writeInt(trieNode.degRatio);
+            out.writeInt(trieNode.knnDegRatio);
+            writeHybridList(out, trieNode.queries);
+            writeQueries(out, trieNode.unboundedQueries);
+            writeQueries(out, trieNode.finalQueries);
+            writeNodeMap(out, trieNode.subtree);
+        } else {
+            throw new RuntimeException("Unknown textual node " + node.getClass().getSimpleName() + "!");
+        }
+    }
+
+    private TextualNode readNode(DataInput in) throws IOException {
+        int ref = in.readInt();
+        if (ref == NULL)
+            return null;
+        if (ref != NEW)
+            return nodes.get(ref);
+
+        int slot = nodes.size();
+        nodes.add(null);
+        TextualNode node;
+        byte type = in.readByte();
+        if (type == QUERY_NODE) {
+            node = new QueryNode(codec.readQuery(in));
+        } else if (type == LIST_NODE) {
+            QueryListNode listNode = new QueryListNode();
+            listNode.queries = readHybridList(in);
+            node = listNode;
+        } else if (type == TRIE_NODE) {
+            QueryTrieNode trieNode = new QueryTrieNode(config, 0);
+            // Registered before the subtree, which can't refer back to it but keeps the numbering of the writer.
+            nodes.set(slot, trieNode);
+            trieNode.degRatio = in.readInt();
+            trieNode.knnDegRatio = in.readInt();
+            trieNode.queries = readHybridList(in);
+            List<Query> unbounded = readQueries(in);
+            if (unbounded != null) {
+                trieNode.unboundedQueries = new LinkedList<>();
+                for (Query query : unbounded)
+                    trieNode.unboundedQueries.add((KNNQuery) query);
+            }
+            List<Query> finalQueries = readQueries(in);
+            trieNode.finalQueries = finalQueries == null ? null : new ArrayList<>(finalQueries);
+            trieNode.subtree = readNodeMap(in);
+            node = trieNode;
+        } else {
+            throw new RuntimeException("Unknown textual node type " + type + "!");
+        }
+        nodes.set(slot, node);
+        return node;
+    }
+
+    private void writeHybridList(DataOutput out, HybridList list) throws IOException {
+        out.writeBoolean(list != null);
+        if (list == null)
+            return;
+        writeQueries(out, list.mbrQueries());
+        writeQueries(out, list.kNNQueries());
+        writeQueries(out, list.objects());
+    }
+
+    private HybridList readHybridList(DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+        HybridList list = new HybridList();
+        for (int part = 0; part < 3; part++) {
+            List<Query> queries = readQueries(in);
+            if (queries != null)
+                queries.forEach(list::add);
+        }
+        return list;
+    }
+
+    private void writeQueries(DataOutput out, Collection<? extends Query> queries) throws IOException {
+        if (queries == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(queries.size());
+        for (Query query : queries)
+            codec.writeQuery(out, query);
+    }
+
+    private List<Query> readQueries(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0)
+            return null;
+        List<Query> queries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            queries.add(codec.readQuery(in));
+        return queries;
+    }
+}
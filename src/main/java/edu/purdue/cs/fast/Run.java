@@ -106,9 +106,9 @@ public class Run {
     }
 
     private static void runWithoutInf(PlacesExperiment experiment) {
-//        FAST fast = (FAST) experiment.getIndex();
         experiment.init();
-        experiment.removeInf(FAST.context.bounds, 5, FAST.context.maxLevel);
+        FAST fast = (FAST) experiment.getIndex();
+        experiment.removeInf(fast.context.bounds, 5, fast.context.maxLevel);
 
         System.gc();
         System.gc();
@@ -224,6 +224,10 @@ public class Run {
         private boolean hasInternFASTObjectIndex = false;
         private boolean saveTimeline = false;
         private boolean saveStats = true;
+        private int searchThreads = 1;
+        private int searchBatchSize = 1;
+        private boolean bulkLoad = false;
+        private boolean backgroundCleaning = false;
         private SpatialKeywordIndex<Query, DataObject> index;
         private Experiment<Place> experiment;
 
@@ -294,6 +298,26 @@ public class Run {
             return this;
         }
 
+        public ExperimentBuilder searchThreads(int searchThreads) {
+            this.searchThreads = searchThreads;
+            return this;
+        }
+
+        public ExperimentBuilder searchBatchSize(int searchBatchSize) {
+            this.searchBatchSize = searchBatchSize;
+            return this;
+        }
+
+        public ExperimentBuilder backgroundCleaning() {
+            this.backgroundCleaning = true;
+            return this;
+        }
+
+        public ExperimentBuilder bulkLoad() {
+            this.bulkLoad = true;
+            return this;
+        }
+
         public ExperimentBuilder paths(String datasetPath, String outputDir) {
             this.datasetPath = datasetPath;
             this.outputDir = outputDir;
@@ -310,6 +334,9 @@ public class Run {
             initExperiment();
             experiment.setSaveStats(this.saveStats);
             experiment.setSaveTimeline(this.saveTimeline);
+            experiment.setSearchThreads(this.searchThreads);
+            experiment.setSearchBatchSize(this.searchBatchSize);
+            experiment.setBulkLoad(this.bulkLoad);
             return experiment;
         }
 
@@ -336,6 +363,10 @@ public class Run {
                         logger.warn("Using the default FAST config.");
                     }
                     fastConfig.INPLACE_OBJECT_INDEX = hasInternFASTObjectIndex;
+                    fastConfig.CONCURRENT_SEARCH = searchThreads > 1 || backgroundCleaning;
+                    fastConfig.BACKGROUND_CLEANING = backgroundCleaning;
+                    if (workload == Workload.KNN_OBJ_EXPIRE)
+                        fastConfig.SLIDING_WINDOW_KNN = true;
                     index = new FAST(
                             fastConfig,
                             new Rectangle(
@@ -106,9 +106,9 @@ public class Run4 {
     }
 
     private static void runWithoutInf(PlacesExperiment experiment) {
-//        FAST fast = (FAST) experiment.getIndex();
         experiment.init();
-        experiment.removeInf(FAST.context.bounds, 5, FAST.context.maxLevel);
+        FAST fast = (FAST) experiment.getIndex();
+        experiment.removeInf(fast.context.bounds, 5, fast.context.maxLevel);
 
         System.gc();
         System.gc();
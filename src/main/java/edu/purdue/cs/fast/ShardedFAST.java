@@ -0,0 +1,412 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.config.Context;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.SpscQueue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * FAST split into spatial shards. The bounds are cut into a grid of `rows * cols` shards, each owned by a worker
+ * thread that runs its own FAST pyramid, and work is handed to the workers through single-producer single-consumer
+ * queues, so no index is ever touched by two threads. An object goes to the one shard its location falls in. A range
+ * query goes to every shard its range overlaps, replicated queries are copied per shard since queries carry index
+ * state. Each object is searched by a single spatial shard, so a query is never reported twice for an object.
+ * <p>
+ * KNN queries are not cut by space, a copy in a shard would only see the objects of that shard and keep a wrong k-th
+ * nearest object, and a KNN query starts out unbounded and grows or moves its radius later. They are partitioned by
+ * id over `numKNNShards` more workers instead, each of which receives every object and keeps its own external object
+ * index, so every object is searched against the KNN queries by all of them in parallel. Each KNN query is in exactly
+ * one worker and each range query answered by one spatial shard, so no query is reported twice for an object. Objects
+ * skip the KNN workers that hold no KNN query yet, unless they have an object index to keep filled.
+ * <p>
+ * The clock is kept here and every task carries its timestamp, so the shards see the global timestamps, though a
+ * shard only cleans on the timestamps of the tasks it gets. Each shard gets its own copy of the config, which its
+ * FAST may change on the worker thread. Shard pyramids cover the whole bounds, cells are only
+ * created where queries are, so a shard only holds the cells around its part.
+ * <p>
+ * Calls must come from a single ingest thread. Objects are answered once their shards searched them, `insertObjects`
+ * hands out the whole batch before waiting, so the shards search it in parallel. Queries, preloads and cleaning are
+ * not waited for, `await` waits for everything handed out so far.
+ */
+public class ShardedFAST implements SpatialKeywordIndex<Query, DataObject>, AutoCloseable {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    public final Context context;
+    public final Config config;
+    public final int rows;
+    public final int cols;
+    private final Shard[] shards;
+    private final Shard[] knnShards;
+    // Whether objects have to go to each KNN worker, set on the ingest thread.
+    private final boolean[] knnQueriesInserted;
+    private boolean objectIndexed;
+
+    public ShardedFAST(Config config, Rectangle bounds, int xGridGranularity, int maxLevel, int numShards) {
+        this(config, bounds, xGridGranularity, maxLevel, numShards, 1);
+    }
+
+    /**
+     * @param numShards    Number of spatial shards for the range queries
+     * @param numKNNShards Number of workers the KNN queries are partitioned over, each keeps a copy of the objects
+     */
+    public ShardedFAST(Config config, Rectangle bounds, int xGridGranularity, int maxLevel, int numShards,
+                       int numKNNShards) {
+        if (numShards < 1)
+            throw new RuntimeException("Invalid number of shards: " + numShards);
+        if (numKNNShards < 1)
+            throw new RuntimeException("Invalid number of KNN shards: " + numKNNShards);
+        this.context = new Context(bounds, xGridGranularity, maxLevel);
+        this.config = config;
+
+        int rows = (int) Math.sqrt(numShards);
+        while (numShards % rows != 0)
+            rows--;
+        this.rows = rows;
+        this.cols = numShards / rows;
+
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++)
+            shards[i] = new Shard(new FAST(config.copy(), bounds, xGridGranularity, maxLevel), "fast-shard-" + i);
+        this.knnShards = new Shard[numKNNShards];
+        for (int i = 0; i < numKNNShards; i++)
+            knnShards[i] = new Shard(new FAST(config.copy(), bounds, xGridGranularity, maxLevel),
+                    "fast-shard-knn-" + i);
+        this.knnQueriesInserted = new boolean[numKNNShards];
+        this.objectIndexed = config.INPLACE_OBJECT_INDEX;
+        Run.logger.info("Sharded index initialized with " + rows + "x" + cols + " shards and " + numKNNShards +
+                " KNN shards!");
+    }
+
+    public void setExternalObjectIndex(int objIdxLeafCapacity, int objIdxTreeHeight) {
+        config.INPLACE_OBJECT_INDEX = false;
+        objectIndexed = true;
+        // Each shard flips its own copy of the config, on its own thread.
+        for (Shard shard : shards) {
+            shard.submit(new Task(0, (fast) -> {
+                fast.config.INPLACE_OBJECT_INDEX = false;
+                return null;
+            }, false));
+        }
+        for (Shard knnShard : knnShards) {
+            knnShard.submit(new Task(0, (fast) -> {
+                fast.setExternalObjectIndex(objIdxLeafCapacity, objIdxTreeHeight);
+                return null;
+            }, false));
+        }
+    }
+
+    /**
+     * Index of a spatial shard. Only safe to read after `await`.
+     */
+    public FAST shard(int i) {
+        return shards[i].fast;
+    }
+
+    /**
+     * Index of a partition of the KNN queries. Only safe to read after `await`.
+     */
+    public FAST knnShard(int i) {
+        return knnShards[i].fast;
+    }
+
+    public int numKNNShards() {
+        return knnShards.length;
+    }
+
+    private int knnShardOf(int id) {
+        return Math.floorMod(id, knnShards.length);
+    }
+
+    private int column(double x) {
+        int column = (int) ((x - context.bounds.min.x) / context.globalXRange * cols);
+        return Math.max(0, Math.min(cols - 1, column));
+    }
+
+    private int row(double y) {
+        int row = (int) ((y - context.bounds.min.y) / context.globalYRange * rows);
+        return Math.max(0, Math.min(rows - 1, row));
+    }
+
+    @Override
+    public void preloadObject(DataObject object) {
+        for (Shard knnShard : knnShards) {
+            knnShard.submit(new Task(0, (fast) -> {
+                fast.preloadObject(object);
+                return null;
+            }, false));
+        }
+    }
+
+    @Override
+    public Collection<DataObject> insertQuery(Query query) {
+        int timestamp = context.tick();
+        if (query instanceof KNNQuery) {
+            int knnShard = knnShardOf(query.id);
+            knnQueriesInserted[knnShard] = true;
+            knnShards[knnShard].submit(queryTask(timestamp, query));
+        } else if (query instanceof MinimalRangeQuery) {
+            Rectangle range = query.spatialBox();
+            int minCol = column(range.min.x), maxCol = column(range.max.x);
+            int minRow = row(range.min.y), maxRow = row(range.max.y);
+            boolean replicated = minCol != maxCol || minRow != maxRow;
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = minCol; c <= maxCol; c++) {
+                    Query copy = replicated ? new ShardRangeQuery((MinimalRangeQuery) query) : query;
+                    shards[r * cols + c].submit(queryTask(timestamp, copy));
+                }
+            }
+        } else {
+            throw new RuntimeException("Unsupported query type: " + query.getClass().getSimpleName());
+        }
+        return null;
+    }
+
+    private static Task queryTask(int timestamp, Query query) {
+        return new Task(timestamp, (fast) -> {
+            fast.insertQuery(query);
+            return null;
+        }, false);
+    }
+
+    /**
+     * Remove a query from the shards it went to. Every spatial shard and the KNN shard of the id are asked and waited
+     * for, each of them only visits the cells it placed the query in.
+     */
+    @Override
+    public boolean removeQuery(int id) {
+        Task[] tasks = new Task[shards.length + 1];
+        for (int i = 0; i <= shards.length; i++) {
+            tasks[i] = new Task(0, (fast) -> fast.removeQuery(id), true);
+            (i < shards.length ? shards[i] : knnShards[knnShardOf(id)]).submit(tasks[i]);
+        }
+        boolean removed = false;
+        for (Task task : tasks)
+            removed |= (Boolean) task.await();
+        return removed;
+    }
+
+    /**
+     * Move a KNN query, on the KNN shard of its id.
+     */
+    @Override
+    public boolean updateQueryLocation(int id, Point location) {
+        Task task = new Task(0, (fast) -> fast.updateQueryLocation(id, location), true);
+        knnShards[knnShardOf(id)].submit(task);
+        return (Boolean) task.await();
+    }
+
+    @Override
+    public List<Query> insertObject(DataObject dataObject) {
+        Task[] tasks = dispatch(dataObject);
+        List<Query> results = new ArrayList<>();
+        gather(tasks, results);
+        return results;
+    }
+
+    @Override
+    public List<Collection<Query>> insertObjects(List<DataObject> dataObjects) {
+        List<Task[]> tasks = new ArrayList<>(dataObjects.size());
+        for (DataObject dataObject : dataObjects)
+            tasks.add(dispatch(dataObject));
+
+        List<Collection<Query>> results = new ArrayList<>(dataObjects.size());
+        for (Task[] objectTasks : tasks) {
+            List<Query> matches = new ArrayList<>();
+            gather(objectTasks, matches);
+            results.add(matches);
+        }
+        return results;
+    }
+
+    private Task[] dispatch(DataObject dataObject) {
+        int timestamp = context.tick();
+        Task spatial = new Task(timestamp, (fast) -> fast.insertObject(dataObject), true);
+        shards[row(dataObject.location.y) * cols + column(dataObject.location.x)].submit(spatial);
+        int searched = 0;
+        for (int i = 0; i < knnShards.length; i++) {
+            if (knnQueriesInserted[i] || objectIndexed)
+                searched++;
+        }
+        Task[] tasks = new Task[1 + searched];
+        tasks[0] = spatial;
+        for (int i = 0, t = 1; i < knnShards.length; i++) {
+            if (!knnQueriesInserted[i] && !objectIndexed)
+                continue;
+            tasks[t] = new Task(timestamp, (fast) -> fast.insertObject(dataObject), true);
+            knnShards[i].submit(tasks[t++]);
+        }
+        return tasks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void gather(Task[] tasks, List<Query> results) {
+        for (Task task : tasks) {
+            for (Query query : (List<Query>) task.await()) {
+                if (query instanceof ShardRangeQuery)
+                    results.add(((ShardRangeQuery) query).original);
+                else
+                    results.add(query);
+            }
+        }
+    }
+
+    @Override
+    public void cleanNextSetOfEntries() {
+        for (Shard shard : shards)
+            shard.submit(cleanTask());
+        for (Shard knnShard : knnShards)
+            knnShard.submit(cleanTask());
+    }
+
+    private static Task cleanTask() {
+        return new Task(0, (fast) -> {
+            fast.cleanNextSetOfEntries();
+            return null;
+        }, false);
+    }
+
+    /**
+     * Wait until the shards ran every task handed out so far, including the cleaning of shards with
+     * `BACKGROUND_CLEANING`.
+     */
+    public void await() {
+        Task[] tasks = new Task[shards.length + knnShards.length];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new Task(0, (fast) -> {
+                fast.awaitCleaning();
+                return null;
+            }, true);
+            (i < shards.length ? shards[i] : knnShards[i - shards.length]).submit(tasks[i]);
+        }
+        for (Task task : tasks)
+            task.await();
+    }
+
+    /**
+     * Run the tasks handed out so far, then stop the workers and their cleaners.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards)
+            shard.stop();
+        for (Shard knnShard : knnShards)
+            knnShard.stop();
+    }
+
+    /**
+     * Copy of a range query that overlaps several shards, one per shard.
+     */
+    private static class ShardRangeQuery extends MinimalRangeQuery {
+        final MinimalRangeQuery original;
+
+        ShardRangeQuery(MinimalRangeQuery original) {
+            super(original.id, original.keywords, original.spatialRange, original.predicate, original.st, original.et);
+            this.keywordIds = original.keywordIds;
+            this.original = original;
+        }
+    }
+
+    private static class Task {
+        // Timestamp of the insert, 0 for tasks that do not tick the clock.
+        final int timestamp;
+        final Function<FAST, ?> action;
+        // Thread waiting for the result, null if nobody waits.
+        final Thread waiter;
+        volatile boolean done = false;
+        Object result;
+        RuntimeException failure;
+
+        Task(int timestamp, Function<FAST, ?> action, boolean awaited) {
+            this.timestamp = timestamp;
+            this.action = action;
+            this.waiter = awaited ? Thread.currentThread() : null;
+        }
+
+        void run(FAST fast) {
+            try {
+                if (timestamp > 0)
+                    fast.context.syncTo(timestamp);
+                result = action.apply(fast);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            done = true;
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+
+        Object await() {
+            while (!done)
+                LockSupport.park(this);
+            if (failure != null)
+                throw new RuntimeException("Shard task failed!", failure);
+            return result;
+        }
+    }
+
+    private static class Shard {
+        final FAST fast;
+        final SpscQueue<Task> tasks = new SpscQueue<>(QUEUE_CAPACITY);
+        final Thread thread;
+        volatile boolean sleeping = false;
+        volatile boolean stopped = false;
+        // First failure of a task nobody waits for, reported on the next hand out.
+        volatile RuntimeException failure;
+
+        Shard(FAST fast, String name) {
+            this.fast = fast;
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void submit(Task task) {
+            if (failure != null)
+                throw new RuntimeException("Shard task failed!", failure);
+            while (!tasks.offer(task))
+                Thread.yield();
+            if (sleeping)
+                LockSupport.unpark(thread);
+        }
+
+        void stop() {
+            Task last = new Task(0, (fast) -> null, true);
+            submit(last);
+            last.await();
+            stopped = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            fast.stopCleaning();
+        }
+
+        private void run() {
+            while (true) {
+                Task task = tasks.poll();
+                if (task == null) {
+                    if (stopped)
+                        return;
+                    sleeping = true;
+                    if (tasks.isEmpty() && !stopped)
+                        LockSupport.park(this);
+                    sleeping = false;
+                    continue;
+                }
+                task.run(fast);
+                if (task.failure != null && task.waiter == null && failure == null) {
+                    Run.logger.error("Shard task failed!", task.failure);
+                    failure = task.failure;
+                }
+            }
+        }
+    }
+}
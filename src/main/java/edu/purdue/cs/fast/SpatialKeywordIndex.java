@@ -1,17 +1,79 @@
 package edu.purdue.cs.fast;
 
 import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Point;
 import edu.purdue.cs.fast.models.Query;
-import edu.purdue.cs.fast.models.QueryStat;
+import edu.purdue.cs.fast.structures.QueryStatBuffer;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
 
 public interface SpatialKeywordIndex<Q extends Query, O extends DataObject> {
     default void preloadObject(O object) {};
     default void preloadQuery(Q query) {};
     Collection<O> insertQuery(Q query);
+
+    /**
+     * Insert many queries at once, in the order of the list.
+     *
+     * @param queries Queries to insert
+     */
+    default void insertQueries(List<Q> queries) {
+        for (Q query : queries) {
+            insertQuery(query);
+        }
+    }
+
+    /**
+     * Remove a continuous query before it expires, e.g. when its user unsubscribes.
+     *
+     * @param id Id of the query
+     * @return False if no query with the id is in the index
+     */
+    default boolean removeQuery(int id) {
+        throw new RuntimeException("Query removal is not supported by " + getClass().getSimpleName() + "!");
+    }
+
+    /**
+     * Move a continuous KNN query, e.g. one issued by a moving user.
+     *
+     * @param id       Id of the query
+     * @param location New location of the query
+     * @return False if no KNN query with the id is in the index
+     */
+    default boolean updateQueryLocation(int id, Point location) {
+        throw new RuntimeException("Query moves are not supported by " + getClass().getSimpleName() + "!");
+    }
+
     Collection<Q> insertObject(O dataObject);
-    LinkedList<QueryStat> queryStats = new LinkedList<>();
+
+    /**
+     * Insert a micro-batch of objects. Results are returned in the order of the batch, the same as calling
+     * `insertObject` for each object.
+     *
+     * @param dataObjects Objects of the batch
+     * @return Matched queries per object
+     */
+    default List<Collection<Q>> insertObjects(List<O> dataObjects) {
+        List<Collection<Q>> results = new ArrayList<>(dataObjects.size());
+        for (O dataObject : dataObjects) {
+            results.add(insertObject(dataObject));
+        }
+        return results;
+    }
+
+    /**
+     * Remove the expired entries of the next part of the index. Indexes that expire entries on their own leave this
+     * empty.
+     */
+    default void cleanNextSetOfEntries() {}
+
+    /**
+     * @return Timeline of the query stats recorded by this index, or null if it records none
+     */
+    default QueryStatBuffer queryStats() {
+        return null;
+    }
 }
@@ -0,0 +1,395 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.Point;
+import edu.purdue.cs.fast.models.Query;
+import edu.purdue.cs.fast.parser.QueryCodec;
+import edu.purdue.cs.fast.structures.QueryStatBuffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the updates of a wrapped index. Every update is appended before it is applied, and the log is
+ * group committed: records are buffered and written with a single `force()` once `groupEvents` records are pending or
+ * `groupNanos` passed since the last commit. A daemon thread commits a group that waited `groupNanos` even when no
+ * further update arrives. A crash loses at most the records of the last uncommitted group.
+ * <p>
+ * Record layout: `int length`, `int crc32` of the payload, then the payload, a type byte followed by the queries or
+ * objects encoded by `QueryCodec`, by the id of a removed query, or by the id and new coordinates of a moved query.
+ * Expiry in the indexes follows the logical clock that object inserts advance, so replaying the inserts in order
+ * expires the same queries; explicit `cleanNextSetOfEntries` calls, query removals and moves are logged too.
+ * Replay is sequential, with `CONCURRENT_SEARCH` the updates are replayed in the order they were appended.
+ * <p>
+ * Recovery: restore the last snapshot if any, `replay` the log into it, then wrap it with a new log on the same path,
+ * which appends after the replayed records. `truncate` after taking a snapshot.
+ */
+public class WriteAheadLog<Q extends Query, O extends DataObject> implements SpatialKeywordIndex<Q, O>, Closeable {
+    public static final int DEFAULT_GROUP_EVENTS = 4096;
+    public static final long DEFAULT_GROUP_NANOS = 10_000_000;
+
+    private static final byte PRELOAD_QUERY = 1;
+    private static final byte PRELOAD_OBJECT = 2;
+    private static final byte INSERT_QUERY = 3;
+    private static final byte INSERT_QUERIES = 4;
+    private static final byte INSERT_OBJECT = 5;
+    private static final byte INSERT_OBJECTS = 6;
+    private static final byte CLEAN = 7;
+    private static final byte REMOVE_QUERY = 8;
+    private static final byte MOVE_QUERY = 9;
+    private static final int RECORD_HEADER = 8;
+
+    private final SpatialKeywordIndex<Q, O> index;
+    private final FileChannel channel;
+    private final int groupEvents;
+    private final long groupNanos;
+
+    private final QueryCodec codec = new QueryCodec(false);
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+    private int pendingEvents = 0;
+    private long lastCommit = System.nanoTime();
+    private long committedEvents = 0;
+    private final Thread flusher;
+    private volatile boolean closed = false;
+    private volatile IOException failure;
+
+    public WriteAheadLog(SpatialKeywordIndex<Q, O> index, String path) throws IOException {
+        this(index, path, DEFAULT_GROUP_EVENTS, DEFAULT_GROUP_NANOS);
+    }
+
+    /**
+     * @param index       Index the updates are applied to
+     * @param path        Log file, appended to if it exists
+     * @param groupEvents Records per group commit
+     * @param groupNanos  Longest time a record waits for its group commit, `Long.MAX_VALUE` commits by count only
+     */
+    public WriteAheadLog(SpatialKeywordIndex<Q, O> index, String path, int groupEvents, long groupNanos)
+            throws IOException {
+        this.index = index;
+        this.groupEvents = groupEvents;
+        this.groupNanos = groupNanos;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        if (groupNanos < Long.MAX_VALUE) {
+            this.flusher = new Thread(this::flushOnTime, "fast-wal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public SpatialKeywordIndex<Q, O> index() {
+        return index;
+    }
+
+    @Override
+    public QueryStatBuffer queryStats() {
+        return index.queryStats();
+    }
+
+    @Override
+    public void preloadQuery(Q query) {
+        append(PRELOAD_QUERY, query);
+        index.preloadQuery(query);
+    }
+
+    @Override
+    public void preloadObject(O object) {
+        append(PRELOAD_OBJECT, object);
+        index.preloadObject(object);
+    }
+
+    @Override
+    public Collection<O> insertQuery(Q query) {
+        append(INSERT_QUERY, query);
+        return index.insertQuery(query);
+    }
+
+    @Override
+    public void insertQueries(List<Q> queries) {
+        append(INSERT_QUERIES, queries);
+        index.insertQueries(queries);
+    }
+
+    @Override
+    public boolean removeQuery(int id) {
+        append(REMOVE_QUERY, id);
+        return index.removeQuery(id);
+    }
+
+    @Override
+    public boolean updateQueryLocation(int id, Point location) {
+        append(MOVE_QUERY, new QueryMove(id, location));
+        return index.updateQueryLocation(id, location);
+    }
+
+    @Override
+    public Collection<Q> insertObject(O dataObject) {
+        append(INSERT_OBJECT, dataObject);
+        return index.insertObject(dataObject);
+    }
+
+    @Override
+    public List<Collection<Q>> insertObjects(List<O> dataObjects) {
+        append(INSERT_OBJECTS, dataObjects);
+        return index.insertObjects(dataObjects);
+    }
+
+    @Override
+    public void cleanNextSetOfEntries() {
+        append(CLEAN, null);
+        index.cleanNextSetOfEntries();
+    }
+
+    /**
+     * @return Records made durable so far by this log
+     */
+    public synchronized long committedEvents() {
+        return committedEvents;
+    }
+
+    private synchronized void append(byte type, Object payload) {
+        if (failure != null)
+            throw new RuntimeException("Timed commit of the write-ahead log failed!", failure);
+        try {
+            record.reset();
+            recordOut.writeByte(type);
+            if (payload instanceof List) {
+                List<?> queries = (List<?>) payload;
+                recordOut.writeInt(queries.size());
+                for (Object query : queries)
+                    codec.writeQuery(recordOut, (Query) query);
+            } else if (payload instanceof Integer) {
+                recordOut.writeInt((Integer) payload);
+            } else if (payload instanceof QueryMove) {
+                QueryMove move = (QueryMove) payload;
+                recordOut.writeInt(move.id);
+                recordOut.writeDouble(move.location.x);
+                recordOut.writeDouble(move.location.y);
+            } else if (payload != null) {
+                codec.writeQuery(recordOut, (Query) payload);
+            }
+
+            crc.reset();
+            crc.update(record.array(), 0, record.size());
+            if (pending.remaining() < RECORD_HEADER + record.size()) {
+                commit();
+                if (pending.capacity() < RECORD_HEADER + record.size())
+                    pending = ByteBuffer.allocate(Integer.highestOneBit(RECORD_HEADER + record.size()) << 1);
+            }
+            pending.putInt(record.size());
+            pending.putInt((int) crc.getValue());
+            pending.put(record.array(), 0, record.size());
+            pendingEvents++;
+
+            if (pendingEvents >= groupEvents || System.nanoTime() - lastCommit >= groupNanos)
+                commit();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to the write-ahead log!", e);
+        }
+    }
+
+    /**
+     * Write the pending records and force them to the device.
+     */
+    public synchronized void commit() throws IOException {
+        lastCommit = System.nanoTime();
+        if (pendingEvents == 0)
+            return;
+        pending.flip();
+        while (pending.hasRemaining())
+            channel.write(pending);
+        channel.force(false);
+        pending.clear();
+        committedEvents += pendingEvents;
+        pendingEvents = 0;
+    }
+
+    /**
+     * Drop every record, once the state they rebuild is saved elsewhere, e.g. by `FASTSnapshot`.
+     */
+    public synchronized void truncate() throws IOException {
+        pending.clear();
+        pendingEvents = 0;
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            commit();
+            channel.close();
+        }
+    }
+
+    private void flushOnTime() {
+        while (!closed) {
+            long wait;
+            synchronized (this) {
+                if (closed)
+                    return;
+                wait = lastCommit + groupNanos - System.nanoTime();
+                if (wait <= 0) {
+                    try {
+                        commit();
+                    } catch (IOException e) {
+                        Run.logger.error("Timed commit of the write-ahead log failed!", e);
+                        failure = e;
+                        return;
+                    }
+                    wait = groupNanos;
+                }
+            }
+            LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /**
+     * Apply the records of a log to an index, in order. A torn or corrupted record, left by a crash in the middle
+     * of a commit, or a length that runs past the end of the file, ends the log and is truncated away, so that a
+     * new log on the same path appends after the last good record.
+     *
+     * @return Number of records replayed
+     */
+    public static <Q extends Query, O extends DataObject> long replay(String path, SpatialKeywordIndex<Q, O> index)
+            throws IOException {
+        return replay(path, index, null);
+    }
+
+    /**
+     * Same as `replay(String, SpatialKeywordIndex)`, with the keywords of the records encoded in the dictionary of
+     * the stream that goes on into the index.
+     */
+    @SuppressWarnings("unchecked")
+    public static <Q extends Query, O extends DataObject> long replay(String path, SpatialKeywordIndex<Q, O> index,
+                                                                      KeywordDictionary dictionary) throws IOException {
+        if (!new File(path).exists())
+            return 0;
+
+        QueryCodec codec = new QueryCodec(false, dictionary);
+        CRC32 crc = new CRC32();
+        long events = 0;
+        long validLength = 0;
+        long fileLength = new File(path).length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 20))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > fileLength - validLength - RECORD_HEADER)
+                        break;
+                    if (payload.length < length)
+                        payload = new byte[Integer.highestOneBit(length) << 1];
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum)
+                    break;
+
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+                byte type = recordIn.readByte();
+                switch (type) {
+                    case PRELOAD_QUERY:
+                        index.preloadQuery((Q) codec.readQuery(recordIn));
+                        break;
+                    case PRELOAD_OBJECT:
+                        index.preloadObject((O) codec.readQuery(recordIn));
+                        break;
+                    case INSERT_QUERY:
+                        index.insertQuery((Q) codec.readQuery(recordIn));
+                        break;
+                    case INSERT_QUERIES:
+                        index.insertQueries(readList(codec, recordIn));
+                        break;
+                    case INSERT_OBJECT:
+                        index.insertObject((O) codec.readQuery(recordIn));
+                        break;
+                    case INSERT_OBJECTS:
+                        index.insertObjects(readList(codec, recordIn));
+                        break;
+                    case CLEAN:
+                        index.cleanNextSetOfEntries();
+                        break;
+                    case REMOVE_QUERY:
+                        index.removeQuery(recordIn.readInt());
+                        break;
+                    case MOVE_QUERY:
+                        index.updateQueryLocation(recordIn.readInt(),
+                                new Point(recordIn.readDouble(), recordIn.readDouble()));
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown write-ahead log record type " + type + "!");
+                }
+                events++;
+                validLength += RECORD_HEADER + length;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                Run.logger.warn("Truncating the torn tail of the write-ahead log at " + validLength + " bytes");
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        return events;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Query> List<T> readList(QueryCodec codec, DataInput in) throws IOException {
+        int size = in.readInt();
+        List<T> queries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            queries.add((T) codec.readQuery(in));
+        return queries;
+    }
+
+    private static class QueryMove {
+        final int id;
+        final Point location;
+
+        QueryMove(int id, Point location) {
+            this.id = id;
+            this.location = location;
+        }
+    }
+
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
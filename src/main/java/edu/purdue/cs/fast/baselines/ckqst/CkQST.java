@@ -10,6 +10,7 @@ import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.models.DataObject;
 import edu.purdue.cs.fast.models.Query;
 import edu.purdue.cs.fast.models.QueryStat;
+import edu.purdue.cs.fast.structures.QueryStatBuffer;
 
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -27,6 +28,7 @@ public class CkQST implements SpatialKeywordIndex<Query, DataObject> {
     public final IQuadTree objectIndex;
     public final CostBasedQuadTree queryIndex;
     private int timestamp = 0;
+    private final QueryStatBuffer queryStats = new QueryStatBuffer();
 
     public CkQST() {
         objectIndex = new IQuadTree(0, 0, xRange, yRange, maxLeafCapacity, maxHeight);
@@ -43,6 +45,11 @@ public class CkQST implements SpatialKeywordIndex<Query, DataObject> {
         thetaU = 0.5;
     }
 
+    @Override
+    public QueryStatBuffer queryStats() {
+        return queryStats;
+    }
+
     @Override
     public void preloadObject(DataObject object) {
         objectIndex.insert(object);
@@ -65,8 +72,8 @@ public class CkQST implements SpatialKeywordIndex<Query, DataObject> {
             Stopwatch insWatch = Stopwatch.createStarted();
             queryIndex.insert(query);
             insWatch.stop();
-            queryStats.add(new QueryStat(query.id, objSearchWatch.elapsed(TimeUnit.NANOSECONDS),
-                    insWatch.elapsed(TimeUnit.NANOSECONDS), ((CkQuery) query).sr, 0, 0, QueryStat.Stage.INSERT));
+            queryStats.record(query.id, objSearchWatch.elapsed(TimeUnit.NANOSECONDS),
+                    insWatch.elapsed(TimeUnit.NANOSECONDS), ((CkQuery) query).sr, 0, 0, QueryStat.Stage.INSERT);
         } else if (query.getClass() == LMinimalRangeQuery.class) {
             queryIndex.insert(query);
         } else
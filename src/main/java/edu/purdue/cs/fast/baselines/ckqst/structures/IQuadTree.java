@@ -4,27 +4,58 @@ import edu.purdue.cs.fast.baselines.ckqst.models.AxisAlignedBoundingBox;
 import edu.purdue.cs.fast.baselines.ckqst.models.CkQuery;
 import edu.purdue.cs.fast.baselines.fast.messages.LMinimalRangeQuery;
 import edu.purdue.cs.fast.baselines.quadtree.BaseQuadTree;
-import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.models.*;
 import edu.purdue.cs.fast.structures.BoundedPriorityQueue;
-import edu.purdue.cs.fast.structures.KeywordFrequency;
+import edu.purdue.cs.fast.structures.ExpiryQueue;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.io.Serializable;
 
+/**
+ * Inverted quadtree: a quadtree of the objects per keyword. The trees are flat arrays of nodes addressed by index,
+ * and each node is identified by its Morton code, the quadrants of its path from the root two bits each after a
+ * leading 1 bit (the root is `1`, its south west child `100`). The same code addresses the same cell in the tree of
+ * every keyword, so checking the status of a cell in another tree is a walk of at most `maxTreeHeight` steps.
+ * <p>
+ * A KNN search walks the tree of the rarest query keyword best first. It follows the same cells down the trees of the
+ * other query keywords, skips the cells that are empty in any of them, and checks the other keywords on the objects
+ * it reaches.
+ * <p>
+ * With expiry enabled, `expire` removes the objects whose `et` passed, a bucket of the expiry queue at a time, and
+ * searches skip the expired objects still waiting in a partly expired bucket.
+ */
 public class IQuadTree extends BaseQuadTree<Query, DataObject> implements Serializable {
+    private static final int SOUTH_WEST = 0;
+    private static final int SOUTH_EAST = 1;
+    private static final int NORTH_WEST = 2;
+    private static final int NORTH_EAST = 3;
+
     private final AxisAlignedBoundingBox aabb;
-    private final HashMap<String, ILQuadNode> roots;
-//    public static HashMap<String, KeywordFrequency> keywordFrequencyMap;
+    private final HashMap<String, KeywordTree> roots;
+    private final int capacity;
+    private final int maxTreeHeight;
+    // Extent of the nodes per height, the root is at height 1.
+    private final double[] nodeWidth;
+    private final double[] nodeHeight;
+    private ExpiryQueue<DataObject> expiryQueue = null;
+    private long timestamp = Long.MIN_VALUE;
 
 
     public IQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight) {
         Point xyPoint = new Point(x, y);
         aabb = new AxisAlignedBoundingBox(xyPoint, width, height);
-        ILQuadNode.maxCapacity = capacity;
-        ILQuadNode.maxHeight = maxTreeHeight;
+        this.capacity = capacity;
+        this.maxTreeHeight = maxTreeHeight;
         this.roots = new HashMap<>();
-//        this.keywordFrequencyMap = new HashMap<>();
+        this.nodeWidth = new double[maxTreeHeight + 2];
+        this.nodeHeight = new double[maxTreeHeight + 2];
+        nodeWidth[1] = width;
+        nodeHeight[1] = height;
+        for (int h = 2; h < nodeWidth.length; h++) {
+            nodeWidth[h] = nodeWidth[h - 1] / 2d;
+            nodeHeight[h] = nodeHeight[h - 1] / 2d;
+        }
     }
 
     @Override
@@ -32,468 +63,632 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> implements Serial
         throw new RuntimeException("Not implemented!");
     }
 
+    /**
+     * Keep only the live objects from now on, see `expire`.
+     *
+     * @param bucketWidth Width in ticks of the expiry buckets
+     */
+    public void enableExpiry(int bucketWidth) {
+        this.expiryQueue = new ExpiryQueue<>(bucketWidth);
+    }
+
+    public boolean isExpiring() {
+        return expiryQueue != null;
+    }
+
+    /**
+     * Remove the objects of the expiry buckets that fully expired at the timestamp, and hide the other objects with
+     * `et <= timestamp` from searches.
+     *
+     * @return Number of objects removed
+     */
+    public int expire(long timestamp) {
+        if (expiryQueue == null)
+            throw new RuntimeException("Expiry is not enabled for this IQuadTree!");
+        this.timestamp = timestamp;
+        return expiryQueue.pollExpired(timestamp, this::remove);
+    }
+
+    /**
+     * @return Number of objects waiting in the expiry queue
+     */
+    public int expiringObjects() {
+        return expiryQueue == null ? 0 : expiryQueue.size();
+    }
+
     @Override
     public boolean insert(DataObject object) {
+        if (!aabb.containsPoint(object.location))
+            return true;
+        boolean added = false;
         for (String keyword : object.keywords) {
-//            KeywordFrequency stats = keywordFrequencyMap.get(keyword);
-//            if (stats == null) {
-//                stats = new KeywordFrequency(1, 1, 0);
-//                keywordFrequencyMap.put(keyword, stats);
-//            } else {
-//                stats.queryCount++;
-//            }
-
-            if (roots.containsKey(keyword)) {
-                roots.get(keyword).insert(object);
-            } else {
-                ILQuadNode newNode = new ILQuadNode(aabb, keyword);
-                newNode.insert(object);
-                roots.put(keyword, newNode);
+            KeywordTree tree = roots.get(keyword);
+            if (tree == null) {
+                tree = new KeywordTree(keyword);
+                roots.put(keyword, tree);
+            }
+            if (tree.insert(KeywordTree.ROOT, object)) {
+                tree.numObjects++;
+                added = true;
             }
         }
+        if (added && expiryQueue != null)
+            expiryQueue.add(object.et, object);
         return true;
     }
 
     @Override
     public boolean remove(DataObject object) {
         for (String keyword : object.keywords) {
-            if (roots.containsKey(keyword))
-                roots.get(keyword).remove(object);
+            KeywordTree tree = roots.get(keyword);
+            if (tree != null)
+                tree.remove(object);
         }
         return true;
     }
 
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxTreeHeight() {
+        return maxTreeHeight;
+    }
+
+    /**
+     * Visit every indexed object once, although it is stored under each of its keywords.
+     */
+    public void forEachObject(Consumer<DataObject> action) {
+        Set<DataObject> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (KeywordTree tree : roots.values()) {
+            tree.forEachObject((object) -> {
+                if (visited.add(object))
+                    action.accept(object);
+            });
+        }
+    }
+
+    /**
+     * @param morton Path of the node from the root, two bits per level (e.g. "1001")
+     * @return The Morton code of the node
+     */
+    public static long mortonCode(String morton) {
+        long code = 1;
+        for (int i = 0; i < morton.length(); i++)
+            code = (code << 1) | (morton.charAt(i) - '0');
+        return code;
+    }
+
+    private static int heightOf(long code) {
+        return (63 - Long.numberOfLeadingZeros(code)) / 2 + 1;
+    }
+
     public double getStatusByMorton(String keyword, String morton) {
-        return roots.get(keyword).getStatusByMorton(morton, 1);
+        return roots.get(keyword).getStatusByMorton(mortonCode(morton));
     }
 
     @Override
     public Collection<DataObject> search(Query q) {
         int k = -1;
-        Point location = null;
         if (q instanceof CkQuery) {
             k = ((CkQuery) q).k;
-            location = ((CkQuery) q).location;
         } else if (q instanceof KNNQuery) {
             k = ((KNNQuery) q).k;
-            location = ((KNNQuery) q).location;
         } else if (q instanceof LMinimalRangeQuery) {
             k = ((LMinimalRangeQuery) q).k;
-            location = ((LMinimalRangeQuery) q).location;
         }
-        BoundedPriorityQueue<DataObject> results = new BoundedPriorityQueue<>(
-                k,
-                new KNNQuery.EuclideanComparator(location)
-        );
-        double lambda = Double.MAX_VALUE;
-        HashMap<Integer, Integer> hits = new HashMap<>();
-        DeltaComparator deltaComparator = new DeltaComparator(location);
-        PriorityQueue<ILQuadNode> H = new PriorityQueue<>(deltaComparator);    // Line 1
-
-//        for (String keyword : q.keywords) {
-//            if (!keywordFrequencyMap.containsKey(keyword) ||
-//                    keywordFrequencyMap.get(keyword).queryCount < 5) {
-//                return results;
-//            }
-//        }
-
-        for (String keyword : q.keywords) {                     // Line 2
-            if (roots.containsKey(keyword)) {
-                H.add(roots.get(keyword));                      // Line 3
-            } else
-                return results; // ILQuadTree doesn't have all the keywords
-        }
-
-        for (ILQuadNode e; (e = H.poll()) != null; ) {          // Line 4
-            if (!e.objects.isEmpty()) {                         // Line 6: e is a black node
-                boolean signCheck = true;
-
-                for (String kj : q.keywords) {                  // Line 8
-                    if (!kj.equals(e.keyword)) {
-                        if (roots.containsKey(kj)) {
-                            // Line 9: CheckSignature
-                            double other = roots.get(kj).getStatusByMorton(e.morton, 1);
-                            if (other == 0) {
-                                signCheck = false;
-                                break;
-                            }
-                        } else {
-                            signCheck = false;
-                            break;
-                        }
-                    }
-                }
-
-                if (signCheck) {                                // Line 10
-                    for (DataObject o : e.objects) {
-                        int oHit = hits.getOrDefault(o.id, 0);
-                        oHit++;
-                        hits.put(o.id, oHit);
-                        if (oHit == q.keywords.size()) {
-                            results.add(o);
-                            if (results.isFull()) {
-                                assert results.peek() != null;
-                                lambda = SpatialHelper.getDistanceInBetween(location, results.peek().location);
-                            }
-                        }
-                    }
-                }
-            } else if (!e.isLeaf()) {                           // Line 17: Non leaf node
-                for (ILQuadNode child : e.getChildren()) {
-                    double eMinDist = deltaComparator.getMinDist(child);
-                    if (!(child.isLeaf() && child.objects.isEmpty()) && eMinDist < lambda) { // Line 19
-                        H.add(child);                           // Line 20
-                    }
-                }
-            }
-        }
-
-        return results;
+        return search(q, k);
     }
 
-    public Collection<DataObject> searchWithEarlyStop(Query q) {
-        int k = -1;
+    /**
+     * Same as `search`, for the `k` nearest objects instead of the `k` of the query.
+     */
+    public Collection<DataObject> search(Query q, int k) {
         Point location = null;
         if (q instanceof CkQuery) {
-            k = ((CkQuery) q).k;
             location = ((CkQuery) q).location;
         } else if (q instanceof KNNQuery) {
-            k = ((KNNQuery) q).k;
             location = ((KNNQuery) q).location;
         } else if (q instanceof LMinimalRangeQuery) {
-            k = ((LMinimalRangeQuery) q).k;
             location = ((LMinimalRangeQuery) q).location;
         }
         BoundedPriorityQueue<DataObject> results = new BoundedPriorityQueue<>(
                 k,
                 new KNNQuery.EuclideanComparator(location)
         );
-        double lambda = Double.MAX_VALUE;
-        HashMap<Integer, Integer> hits = new HashMap<>();
-        DeltaComparator deltaComparator = new DeltaComparator(location);
-        PriorityQueue<ILQuadNode> H = new PriorityQueue<>(deltaComparator);    // Line 1
-
-//        for (String keyword : q.keywords) {
-//            if (!keywordFrequencyMap.containsKey(keyword) ||
-//                    keywordFrequencyMap.get(keyword).queryCount < 5) {
-//                return results;
-//            }
-//        }
-
-        for (String keyword : q.keywords) {                     // Line 2
-            if (roots.containsKey(keyword)) {
-                H.add(roots.get(keyword));                      // Line 3
-            } else
+
+        // Walk the tree of the rarest keyword only, the other keywords are checked on the objects themselves.
+        int numKeywords = q.keywords.size();
+        KeywordTree tree = null;
+        KeywordTree[] others = new KeywordTree[Math.max(numKeywords - 1, 0)];
+        for (String keyword : q.keywords) {
+            KeywordTree keywordTree = roots.get(keyword);
+            if (keywordTree == null)
                 return results; // ILQuadTree doesn't have all the keywords
+            if (tree == null || keywordTree.numObjects < tree.numObjects)
+                tree = keywordTree;
+        }
+        int numOthers = 0;
+        for (String keyword : q.keywords) {
+            KeywordTree keywordTree = roots.get(keyword);
+            if (keywordTree != tree)
+                others[numOthers++] = keywordTree;
         }
 
-        for (ILQuadNode e; (e = H.poll()) != null; ) {          // Line 4
-            if (!e.objects.isEmpty()) {                         // Line 6: e is a black node
-                boolean signCheck = true;
-
-                for (String kj : q.keywords) {                  // Line 8
-                    if (!kj.equals(e.keyword)) {
-                        if (roots.containsKey(kj)) {
-                            // Line 9: CheckSignature
-                            double other = roots.get(kj).getStatusByMorton(e.morton, 1);
-                            if (other == 0) {
-                                signCheck = false;
-                                break;
-                            }
-                        } else {
-                            signCheck = false;
-                            break;
-                        }
-                    }
+        NearestHeap nearest = new NearestHeap(k);
+        double lambdaSqr = Double.MAX_VALUE;
+        // Each heap entry is a position in `cells`: the node of the walked tree followed by the node covering the
+        // same cell in the tree of every other keyword, the deepest one on its path when that tree stops earlier.
+        int stride = 1 + numOthers;
+        int[] cells = new int[64 * stride];
+        int numCells = 1;
+        NodeHeap H = new NodeHeap();
+        H.add(tree.minDistSqr(KeywordTree.ROOT, location), 0);
+
+        while (H.size > 0) {
+            if (H.peekKey() >= lambdaSqr)
+                break; // Every node left is farther than the k-th nearest object
+            int cell = H.peekCell() * stride;
+            H.poll();
+            int e = cells[cell];
+
+            if (tree.isLeaf(e)) {
+                DataObject[] objects = tree.objects[e];
+                for (int i = 0; i < tree.size[e]; i++) {
+                    DataObject o = objects[i];
+                    if (o.et <= timestamp || !hasKeywords(o, others, numOthers))
+                        continue;
+                    double dx = location.x - o.location.x;
+                    double dy = location.y - o.location.y;
+                    if (nearest.offer(dx * dx + dy * dy, o))
+                        lambdaSqr = nearest.isFull() ? nearest.maxDistSqr() : Double.MAX_VALUE;
                 }
+                continue;
+            }
 
-                if (signCheck) {                                // Line 10
-                    for (DataObject o : e.objects) {
-                        int oHit = hits.getOrDefault(o.id, 0);
-                        oHit++;
-                        hits.put(o.id, oHit);
-                        if (oHit == q.keywords.size()) {
-                            results.add(o);
-                            if (results.isFull()) {
-                                assert results.peek() != null;
-                                lambda = SpatialHelper.getDistanceInBetween(location, results.peek().location);
-//                                return results;
-                            }
-                        }
-                    }
-                }
-            } else if (!e.isLeaf()) {                           // Line 17: Non leaf node
-                for (ILQuadNode child : e.getChildren()) {
-                    double eMinDist = deltaComparator.getMinDist(child);
-                    if (!(child.isLeaf() && child.objects.isEmpty()) && eMinDist < lambda) { // Line 19
-                        H.add(child);                           // Line 20
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                int child = tree.firstChild[e] + quadrant;
+                if (tree.isLeaf(child) && tree.size[child] == 0)
+                    continue;
+                double childMinDistSqr = tree.minDistSqr(child, location);
+                if (childMinDistSqr >= lambdaSqr)
+                    continue;
+
+                if ((numCells + 1) * stride > cells.length)
+                    cells = Arrays.copyOf(cells, cells.length * 2);
+                int childCell = numCells * stride;
+                cells[childCell] = child;
+                // A cell that is empty in the tree of another keyword holds no object with all the keywords.
+                boolean signCheck = true;
+                for (int i = 0; i < numOthers; i++) {
+                    KeywordTree other = others[i];
+                    int otherNode = cells[cell + 1 + i];
+                    if (!other.isLeaf(otherNode))
+                        otherNode = other.firstChild[otherNode] + quadrant;
+                    if (other.isLeaf(otherNode) && other.size[otherNode] == 0) {
+                        signCheck = false;
+                        break;
                     }
+                    cells[childCell + 1 + i] = otherNode;
                 }
+                if (signCheck)
+                    H.add(childMinDistSqr, numCells++);
             }
         }
 
+        for (int i = 0; i < nearest.size; i++)
+            results.add(nearest.objects[i]);
         return results;
     }
 
+    private static boolean hasKeywords(DataObject object, KeywordTree[] trees, int numTrees) {
+        for (int i = 0; i < numTrees; i++) {
+            if (!containsKeyword(object.keywords, trees[i].keyword))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean containsKeyword(List<String> keywords, String keyword) {
+        for (int i = 0; i < keywords.size(); i++) {
+            String candidate = keywords.get(i);
+            // Keywords canonicalized by the KeywordDictionary match by reference
+            if (candidate == keyword || candidate.equals(keyword))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as `search`, kept for the callers of the early stopping variant.
+     */
+    public Collection<DataObject> searchWithEarlyStop(Query q) {
+        return search(q);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
-        for (Map.Entry<String, ILQuadNode> entry : roots.entrySet()) {
-            out.append(entry.getKey()).append(" :\n").append(TreePrinter.getString(entry.getValue(), "", true));
+        for (Map.Entry<String, KeywordTree> entry : roots.entrySet()) {
+            out.append(entry.getKey()).append(" :\n");
+            entry.getValue().print(out, KeywordTree.ROOT, "");
         }
         return out.toString();
     }
 
-    public static class ILQuadNode extends BaseQuadNode<Query, DataObject> implements Serializable {
-        protected static int maxCapacity = 0;
-        protected static int maxHeight = 0;
-        public final String keyword;
-        public String morton = "";
-        protected List<DataObject> objects = new LinkedList<>();
-        protected int height = 1;
-        protected LinkedList<ILQuadNode> children;
-
-        public ILQuadNode(AxisAlignedBoundingBox aabb, String keyword) {
-            super(aabb);
+    /**
+     * Quadtree of one keyword. Node `i` is described by the i-th entry of each array. The four children of a node
+     * are allocated together, `firstChild` is the south west one followed by the south east, north west and north
+     * east ones, or -1 for a leaf. Blocks of children dropped by a merge are reused.
+     */
+    class KeywordTree implements Serializable {
+        static final int ROOT = 0;
+
+        final String keyword;
+        long[] code = new long[4];
+        double[] minX = new double[4];
+        double[] minY = new double[4];
+        int[] firstChild = new int[4];
+        DataObject[][] objects = new DataObject[4][];
+        int[] size = new int[4];
+        int numObjects = 0;
+        private int numNodes = 1;
+        private int[] freeBlocks = new int[4];
+        private int numFreeBlocks = 0;
+
+        KeywordTree(String keyword) {
             this.keyword = keyword;
+            code[ROOT] = 1;
+            minX[ROOT] = aabb.x;
+            minY[ROOT] = aabb.y;
+            firstChild[ROOT] = -1;
         }
 
-        @Override
-        public boolean insert(DataObject o) {
-            // Ignore objects which do not belong in this quad tree
-            if (!aabb.containsPoint(o.location) || (isLeaf() && objects.contains(o)))
-                return false; // object cannot be added
+        boolean isLeaf(int node) {
+            return firstChild[node] < 0;
+        }
 
-            // If there is space in this quad tree, add the object here
-            if ((height == maxHeight) || (isLeaf() && objects.size() < maxCapacity)) {
-                objects.add(o);
-                return true;
+        /**
+         * @return Whether the object was added, false if it already was in the tree
+         */
+        boolean insert(int node, DataObject o) {
+            while (true) {
+                int height = heightOf(code[node]);
+                if (isLeaf(node)) {
+                    if (contains(node, o))
+                        return false;
+                    if (height == maxTreeHeight || size[node] < capacity) {
+                        add(node, o);
+                        return true;
+                    }
+                    subdivide(node, height);
+                }
+                node = firstChild[node] + quadrant(node, height, o.location);
             }
-
-            // Otherwise, we need to subdivide then add the point to whichever node will accept it
-            if (isLeaf() && height < maxHeight)
-                subdivide();
-            return insertIntoChildren(o);
         }
 
-        private void subdivide() {
-            double h = aabb.height / 2d;
-            double w = aabb.width / 2d;
-
-            AxisAlignedBoundingBox aabbSW = new AxisAlignedBoundingBox(aabb, w, h);
-            southWest = new ILQuadNode(aabbSW, keyword);
-            ((ILQuadNode) southWest).height = height + 1;
-            ((ILQuadNode) southWest).morton = morton + "00";
+        private int quadrant(int node, int height, Point location) {
+            int east = location.x >= minX[node] + nodeWidth[height + 1] ? 1 : 0;
+            int north = location.y >= minY[node] + nodeHeight[height + 1] ? 2 : 0;
+            return north | east;
+        }
 
-            Point xySE = new Point(aabb.x + w, aabb.y);
-            AxisAlignedBoundingBox aabbSE = new AxisAlignedBoundingBox(xySE, w, h);
-            southEast = new ILQuadNode(aabbSE, keyword);
-            ((ILQuadNode) southEast).height = height + 1;
-            ((ILQuadNode) southEast).morton = morton + "01";
+        private boolean contains(int node, DataObject o) {
+            DataObject[] nodeObjects = objects[node];
+            for (int i = 0; i < size[node]; i++) {
+                if (nodeObjects[i].equals(o))
+                    return true;
+            }
+            return false;
+        }
 
-            Point xyNW = new Point(aabb.x, aabb.y + h);
-            AxisAlignedBoundingBox aabbNW = new AxisAlignedBoundingBox(xyNW, w, h);
-            northWest = new ILQuadNode(aabbNW, keyword);
-            ((ILQuadNode) northWest).height = height + 1;
-            ((ILQuadNode) northWest).morton = morton + "10";
+        private void add(int node, DataObject o) {
+            DataObject[] nodeObjects = objects[node];
+            if (nodeObjects == null) {
+                nodeObjects = new DataObject[Math.max(capacity, 1)];
+                objects[node] = nodeObjects;
+            } else if (size[node] == nodeObjects.length) {
+                nodeObjects = Arrays.copyOf(nodeObjects, nodeObjects.length * 2);
+                objects[node] = nodeObjects;
+            }
+            nodeObjects[size[node]++] = o;
+        }
 
-            Point xyNE = new Point(aabb.x + w, aabb.y + h);
-            AxisAlignedBoundingBox aabbNE = new AxisAlignedBoundingBox(xyNE, w, h);
-            northEast = new ILQuadNode(aabbNE, keyword);
-            ((ILQuadNode) northEast).height = height + 1;
-            ((ILQuadNode) northEast).morton = morton + "11";
+        private void subdivide(int node, int height) {
+            int block = allocateBlock();
+            double w = nodeWidth[height + 1];
+            double h = nodeHeight[height + 1];
+            for (int q = 0; q < 4; q++) {
+                int child = block + q;
+                code[child] = (code[node] << 2) | q;
+                minX[child] = (q & SOUTH_EAST) != 0 ? minX[node] + w : minX[node];
+                minY[child] = (q & NORTH_WEST) != 0 ? minY[node] + h : minY[node];
+                firstChild[child] = -1;
+                objects[child] = null;
+                size[child] = 0;
+            }
+            firstChild[node] = block;
 
             // points live in leaf nodes, so distribute
-            for (DataObject p : objects)
-                insertIntoChildren(p);
-            objects.clear();
+            DataObject[] nodeObjects = objects[node];
+            int nodeSize = size[node];
+            objects[node] = null;
+            size[node] = 0;
+            for (int i = 0; i < nodeSize; i++)
+                insert(block + quadrant(node, height, nodeObjects[i].location), nodeObjects[i]);
         }
 
-        private boolean insertIntoChildren(DataObject object) {
-            // A point can only live in one child.
-            if (northWest.insert(object)) return true;
-            if (northEast.insert(object)) return true;
-            if (southWest.insert(object)) return true;
-            return southEast.insert(object);
+        private int allocateBlock() {
+            if (numFreeBlocks > 0)
+                return freeBlocks[--numFreeBlocks];
+            if (numNodes + 4 > code.length) {
+                int length = code.length * 2;
+                code = Arrays.copyOf(code, length);
+                minX = Arrays.copyOf(minX, length);
+                minY = Arrays.copyOf(minY, length);
+                firstChild = Arrays.copyOf(firstChild, length);
+                objects = Arrays.copyOf(objects, length);
+                size = Arrays.copyOf(size, length);
+            }
+            int block = numNodes;
+            numNodes += 4;
+            return block;
         }
 
-        @Override
-        public boolean remove(DataObject object) {
-            if (!aabb.containsPoint(object.location))
-                return false;
-
-            // If in this AABB and in this node
-            if (objects.remove(object))
-                return true;
+        private void freeBlock(int block) {
+            for (int child = block; child < block + 4; child++)
+                objects[child] = null;
+            if (numFreeBlocks == freeBlocks.length)
+                freeBlocks = Arrays.copyOf(freeBlocks, numFreeBlocks * 2);
+            freeBlocks[numFreeBlocks++] = block;
+        }
 
-            // If this node has children
-            if (!isLeaf()) {
-                // If in this AABB but in a child branch
-                boolean removed = removeFromChildren(object);
-                if (!removed)
-                    return false;
+        void remove(DataObject o) {
+            int[] path = new int[maxTreeHeight];
+            int depth = 0;
+            int node = ROOT;
+            while (!isLeaf(node)) {
+                path[depth++] = node;
+                node = firstChild[node] + quadrant(node, heightOf(code[node]), o.location);
+            }
+            if (!removeFromLeaf(node, o))
+                return;
+            numObjects--;
 
-                // Try to merge children
-                merge();
+            // Try to merge children, bottom up
+            for (int i = depth - 1; i >= 0; i--)
+                merge(path[i]);
+        }
 
-                return true;
+        private boolean removeFromLeaf(int node, DataObject o) {
+            DataObject[] nodeObjects = objects[node];
+            for (int i = 0; i < size[node]; i++) {
+                if (nodeObjects[i].equals(o)) {
+                    System.arraycopy(nodeObjects, i + 1, nodeObjects, i, size[node] - i - 1);
+                    nodeObjects[--size[node]] = null;
+                    return true;
+                }
             }
-
             return false;
         }
 
-        private void merge() {
+        private void merge(int node) {
+            int block = firstChild[node];
             // If the children aren't leafs, you cannot merge
-            if (!((ILQuadNode) northWest).isLeaf() || !((ILQuadNode) northEast).isLeaf() ||
-                    !((ILQuadNode) southWest).isLeaf() || !((ILQuadNode) southEast).isLeaf())
-                return;
-
-            // Children and leafs, see if you can remove point and merge into this node
-            int nw = ((ILQuadNode) northWest).size();
-            int ne = ((ILQuadNode) northEast).size();
-            int sw = ((ILQuadNode) southWest).size();
-            int se = ((ILQuadNode) southEast).size();
-            int total = nw + ne + sw + se;
+            int total = 0;
+            for (int child = block; child < block + 4; child++) {
+                if (!isLeaf(child))
+                    return;
+                total += size[child];
+            }
 
             // If all the children's point can be merged into this node
-            if ((size() + total) < maxCapacity) {
-                this.objects.addAll(((ILQuadNode) northWest).objects);
-                this.objects.addAll(((ILQuadNode) northEast).objects);
-                this.objects.addAll(((ILQuadNode) southWest).objects);
-                this.objects.addAll(((ILQuadNode) southEast).objects);
-
-                this.northWest = null;
-                this.northEast = null;
-                this.southWest = null;
-                this.southEast = null;
+            if (size[node] + total < capacity) {
+                for (int q : new int[]{NORTH_WEST, NORTH_EAST, SOUTH_WEST, SOUTH_EAST}) {
+                    for (int i = 0; i < size[block + q]; i++)
+                        add(node, objects[block + q][i]);
+                }
+                firstChild[node] = -1;
+                freeBlock(block);
             }
         }
 
-        private boolean removeFromChildren(DataObject object) {
-            // A point can only live in one child.
-            if (northWest.remove(object)) return true;
-            if (northEast.remove(object)) return true;
-            if (southWest.remove(object)) return true;
-            return southEast.remove(object);
+        /**
+         * Get the status of the node with the Morton code.
+         *
+         * @return 1 for a black or internal node, 0 for a white node, -1 when the path ends at a leaf before the node
+         */
+        int getStatusByMorton(long target) {
+            int targetHeight = heightOf(target);
+            int node = ROOT;
+            for (int height = 1; height < targetHeight; height++) {
+                if (isLeaf(node))
+                    return -1;
+                node = firstChild[node] + (int) ((target >>> (2 * (targetHeight - height - 1))) & 3);
+            }
+            return (isLeaf(node) && size[node] == 0) ? 0 : 1;
         }
 
-        public List<ILQuadNode> getChildren() {
-            if (children == null)
-                children = new LinkedList<>();
+        double minDistSqr(int node, Point location) {
+            int height = heightOf(code[node]);
+            double x = location.x;
+            double y = location.y;
+            double x_min = minX[node];
+            double y_min = minY[node];
+            double x_max = x_min + nodeWidth[height] - 0.001;
+            double y_max = y_min + nodeHeight[height] - 0.001;
 
-            if (!isLeaf() && children.isEmpty()) {
-                children.add((ILQuadNode) southWest);
-                children.add((ILQuadNode) southEast);
-                children.add((ILQuadNode) northWest);
-                children.add((ILQuadNode) northEast);
+            if (x < x_min) {
+                if (y < y_min) return hypotSqr(x_min - x, y_min - y);
+                if (y <= y_max) return (x_min - x) * (x_min - x);
+                return hypotSqr(x_min - x, y_max - y);
+            } else if (x <= x_max) {
+                if (y < y_min) return (y_min - y) * (y_min - y);
+                if (y <= y_max) return 0;
+                return (y - y_max) * (y - y_max);
+            } else {
+                if (y < y_min) return hypotSqr(x_max - x, y_min - y);
+                if (y <= y_max) return (x - x_max) * (x - x_max);
+                return hypotSqr(x_max - x, y_max - y);
             }
-
-            return children;
         }
 
-        /**
-         * Get the status of the node using the morton code.
-         *
-         * @param m     Morton code for the node.
-         * @param level Recursive parameter (use 1 to start from the root).
-         * @return Int specifying the node type (1:black node, 0:white node, -1: node unreachable)
-         */
-        public int getStatusByMorton(String m, int level) {
-            if (morton.length() == m.length()) {
-                if (this.objects.isEmpty() && this.isLeaf())
-                    return 0;
-                return 1;
-            }
+        private double hypotSqr(double xDelta, double yDelta) {
+            return xDelta * xDelta + yDelta * yDelta;
+        }
 
-            String nextNode = m.substring(0, 2 * level);
-            for (ILQuadNode child : getChildren()) {
-                if (child.morton.equals(nextNode)) {
-                    return child.getStatusByMorton(m, level + 1);
+        void forEachObject(Consumer<DataObject> action) {
+            int[] stack = new int[3 * maxTreeHeight + 1];
+            int top = 0;
+            stack[top++] = ROOT;
+            while (top > 0) {
+                int node = stack[--top];
+                for (int i = 0; i < size[node]; i++)
+                    action.accept(objects[node][i]);
+                if (!isLeaf(node)) {
+                    for (int child = firstChild[node]; child < firstChild[node] + 4; child++)
+                        stack[top++] = child;
                 }
             }
-            return -1;
-        }
-
-        @Override
-        protected void search(Query query, Collection<DataObject> results) {
-            throw new RuntimeException("Not implemented!");
         }
 
-        @Override
-        protected int size() {
-            return objects.size();
+        private String morton(int node) {
+            String bits = Long.toBinaryString(code[node]);
+            return bits.substring(1);
         }
 
-        @Override
-        public String toString() {
-            StringBuilder s = new StringBuilder();
-            s.append(morton).append(": ");
-            for (DataObject object : objects) {
-                s.append(object.id).append(", ");
+        void print(StringBuilder out, int node, String prefix) {
+            out.append(prefix).append(morton(node)).append(": ");
+            for (int i = 0; i < size[node]; i++)
+                out.append(objects[node][i].id).append(", ");
+            out.append("\n");
+            if (!isLeaf(node)) {
+                for (int child = firstChild[node]; child < firstChild[node] + 4; child++)
+                    print(out, child, prefix + "    ");
             }
-            return s.toString();
         }
     }
 
-    static class DeltaComparator implements Comparator<ILQuadNode> {
-        private final Point location;
-        private final HashMap<ILQuadNode, Double> distMap;
+    /**
+     * Binary min-heap of (distance, cell) entries of the best-first traversal.
+     */
+    private static class NodeHeap {
+        private double[] keys = new double[64];
+        private int[] cells = new int[64];
+        int size = 0;
+
+        void add(double key, int cell) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            int k = size++;
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (key >= keys[parent])
+                    break;
+                keys[k] = keys[parent];
+                cells[k] = cells[parent];
+                k = parent;
+            }
+            keys[k] = key;
+            cells[k] = cell;
+        }
 
-        DeltaComparator(Point location) {
-            this.location = location;
-            this.distMap = new HashMap<>();
+        double peekKey() {
+            return keys[0];
         }
 
-        @Override
-        public int compare(ILQuadNode o1, ILQuadNode o2) {
-            double o1Min = getMinDistSqr(o1);
-            double o2Min = getMinDistSqr(o2);
+        int peekCell() {
+            return cells[0];
+        }
 
-            return Double.compare(o1Min, o2Min);
+        void poll() {
+            int n = --size;
+            double key = keys[n];
+            int cell = cells[n];
+            if (n == 0)
+                return;
+            int k = 0;
+            int half = n >>> 1;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                int right = child + 1;
+                if (right < n && keys[child] > keys[right])
+                    child = right;
+                if (key <= keys[child])
+                    break;
+                keys[k] = keys[child];
+                cells[k] = cells[child];
+                k = child;
+            }
+            keys[k] = key;
+            cells[k] = cell;
         }
+    }
 
-        public double getMinDist(ILQuadNode o1) {
-            return Math.sqrt(getMinDistSqr(o1));
+    /**
+     * Bounded binary max-heap of the k nearest objects found so far, keyed by squared distance.
+     */
+    private static class NearestHeap {
+        private final double[] keys;
+        final DataObject[] objects;
+        int size = 0;
+
+        NearestHeap(int k) {
+            this.keys = new double[k];
+            this.objects = new DataObject[k];
         }
 
-        private double getMinDistSqr(ILQuadNode o1) {
-            double o1Min = distMap.getOrDefault(o1, -1.0);
-            ;
-            if (o1Min == -1.0) {
-                o1Min = calcMinDist(o1);
-                distMap.put(o1, o1Min);
-            }
-            return o1Min;
+        boolean isFull() {
+            return size == keys.length;
         }
 
-        private double calcMinDist(ILQuadNode o1) {
-            double x = location.x;
-            double y = location.y;
-            double x_min = o1.getAabb().x;
-            double y_min = o1.getAabb().y;
-            double x_max = x_min + o1.getAabb().width - 0.001;
-            double y_max = y_min + o1.getAabb().height - 0.001;
+        double maxDistSqr() {
+            return keys[0];
+        }
 
-            if (x < x_min) {
-                if (y < y_min) return hypotSqr(x_min - x, y_min - y);
-                if (y <= y_max) return Math.pow(x_min - x, 2);
-                return hypotSqr(x_min - x, y_max - y);
-            } else if (x <= x_max) {
-                if (y < y_min) return Math.pow(y_min - y, 2);
-                if (y <= y_max) return 0;
-                return Math.pow(y - y_max, 2);
-            } else {
-                if (y < y_min) return hypotSqr(x_max - x, y_min - y);
-                if (y <= y_max) return Math.pow(x - x_max, 2);
-                return hypotSqr(x_max - x, y_max - y);
+        /**
+         * @return Whether the object is one of the k nearest so far
+         */
+        boolean offer(double key, DataObject object) {
+            if (size < keys.length) {
+                int k = size++;
+                while (k > 0) {
+                    int parent = (k - 1) >>> 1;
+                    if (key <= keys[parent])
+                        break;
+                    keys[k] = keys[parent];
+                    objects[k] = objects[parent];
+                    k = parent;
+                }
+                keys[k] = key;
+                objects[k] = object;
+                return true;
             }
-        }
+            if (key >= keys[0])
+                return false;
 
-        private double hypotSqr(double xDelta, double yDelta) {
-            return Math.pow(xDelta, 2) + Math.pow(yDelta, 2);
+            // Replace the farthest one
+            int k = 0;
+            int half = size >>> 1;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                int right = child + 1;
+                if (right < size && keys[child] < keys[right])
+                    child = right;
+                if (key >= keys[child])
+                    break;
+                keys[k] = keys[child];
+                objects[k] = objects[child];
+                k = child;
+            }
+            keys[k] = key;
+            objects[k] = object;
+            return true;
         }
     }
 }
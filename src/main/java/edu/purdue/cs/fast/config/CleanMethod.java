@@ -3,5 +3,8 @@ package edu.purdue.cs.fast.config;
 public enum CleanMethod {
     NO,
     EXPIRE,
-    EXPIRE_KNN
+    EXPIRE_KNN,
+    // Remove each query from the cells holding it once it expires, see `FAST.cleanNextSetOfEntries`. Query list nodes
+    // are not shared across cells with this method.
+    EXPIRY_WHEEL
 }
@@ -2,7 +2,7 @@ package edu.purdue.cs.fast.config;
 
 import java.io.Serializable;
 
-public class Config implements Serializable {
+public class Config implements Serializable, Cloneable {
     public int TRIE_SPLIT_THRESHOLD = 2;
     public int TRIE_OVERALL_MERGE_THRESHOLD = 2;
     public int DEGRADATION_RATIO = 4 * this.TRIE_SPLIT_THRESHOLD;
@@ -17,5 +17,51 @@ public class Config implements Serializable {
     public boolean OBJ_FAST_SEARCH = false;
     public boolean ADAPTIVE_DEG_RATIO = false;
     public boolean PUSH_TO_LOWEST = false;
-//    public int RHO = 2;
+    public boolean CONCURRENT_SEARCH = false;
+    public boolean RECORD_STATS = true;
+    // Remove objects from the external object index once their `et` passed, in buckets of OBJECT_EXPIRY_BUCKET ticks.
+    public boolean EXPIRE_OBJECTS = false;
+    public int OBJECT_EXPIRY_BUCKET = 64;
+    // Width in ticks of the buckets of the query expiry wheel of `CleanMethod.EXPIRY_WHEEL`.
+    public int QUERY_EXPIRY_BUCKET = 64;
+    // Objects that concurrent inserts may queue for the object index while another thread writes it. Inserts past the
+    // bound wait for the index instead, so that the writer is not left inserting the objects of every other thread.
+    public int MAX_PENDING_OBJECTS = 64;
+    // Run the cleaning steps of object inserts on a background thread, holding the structure lock for at most about
+    // CLEANING_BUDGET_NANOS at a time. Needs `CONCURRENT_SEARCH`.
+    public boolean BACKGROUND_CLEANING = false;
+    public long CLEANING_BUDGET_NANOS = 200_000;
+    // Tune TRIE_SPLIT_THRESHOLD, DEGRADATION_RATIO and KNN_DEGRADATION_RATIO per cell, starting from the values above,
+    // see `CellTuner`. Supersedes ADAPTIVE_DEG_RATIO.
+    public boolean ADAPTIVE_THRESHOLDS = false;
+    public int TUNING_WINDOW = 256;
+    public double MAINTENANCE_WEIGHT = 4.0;
+    public int MAX_ADAPTIVE_THRESHOLD = 1024;
+    // Pick the indexing keyword of a query by time-decayed query and object frequencies instead of the live query
+    // counts, see `FAST.getMinKeyword`. Both halve every KEYWORD_HALF_LIFE ticks, object keywords are counted in a
+    // count-min sketch of KEYWORD_SKETCH_DEPTH rows of KEYWORD_SKETCH_WIDTH counters.
+    public boolean DECAYED_KEYWORD_STATS = false;
+    public int KEYWORD_HALF_LIFE = 10000;
+    public int KEYWORD_SKETCH_WIDTH = 1 << 14;
+    public int KEYWORD_SKETCH_DEPTH = 4;
+    // Answer KNN queries over the live objects only. An expired object leaves the monitored objects of the queries it
+    // is in, a query keeps up to RHO objects beyond its k to fall back on, and is searched again in the external object
+    // index, which then expires objects as with EXPIRE_OBJECTS, once fewer than k are left.
+    public boolean SLIDING_WINDOW_KNN = false;
+    public int RHO = 0;
+    // Record on each query the cells it is placed in, and keep the queries by id until they expire, for
+    // `FAST.removeQuery` and `FAST.updateQueryLocation`. SLIDING_WINDOW_KNN records them in any case. Range queries
+    // then get a list node of their own in each cell instead of sharing the one of their first cell.
+    public boolean QUERY_CELLS = false;
+
+    /**
+     * @return Copy of the configuration, for an index that must not see later changes to this one
+     */
+    public Config copy() {
+        try {
+            return (Config) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
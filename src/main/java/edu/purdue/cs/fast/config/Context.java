@@ -10,6 +10,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 public class Context implements Serializable {
@@ -20,25 +22,32 @@ public class Context implements Serializable {
     public final double globalYRange;
     public final double localXstep;
     public final double localYstep;
-    public int totalVisited = 0;
-    public int timestamp = 0;
-    public int minInsertedLevel;
-    public int maxInsertedLevel;
-    public int spatialOverlappingQueries = 0;
-    public int queryInsertInvListNodeCounter = 0;
-    public int queryInsertTrieNodeCounter = 0;
-    public int totalQueryInsertionsIncludingReplications = 0;
-    public int objectSearchInvListNodeCounter = 0;
-    public int objectSearchTrieNodeCounter = 0;
-    public int objectSearchInvListHashAccess = 0;
-    public int objectSearchTrieHashAccess = 0;
-    public int objectSearchTrieFinalNodeCounter = 0;
-    public int numberOfHashEntries = 0;
-    public int numberOfTrieNodes = 0;
-    public int totalTrieAccess = 0;
-    public int totalDescendOpts = 0;
+    private static final AtomicIntegerFieldUpdater<Context> TIMESTAMP =
+            AtomicIntegerFieldUpdater.newUpdater(Context.class, "timestamp");
+
+    public volatile int timestamp = 0;
+    public volatile int minInsertedLevel;
+    public volatile int maxInsertedLevel;
+    // Statistic counters are striped so that concurrent object searches do not contend on them.
+    public final LongAdder totalVisited = new LongAdder();
+    public final LongAdder spatialOverlappingQueries = new LongAdder();
+    public final LongAdder queryInsertInvListNodeCounter = new LongAdder();
+    public final LongAdder queryInsertTrieNodeCounter = new LongAdder();
+    public final LongAdder totalQueryInsertionsIncludingReplications = new LongAdder();
+    public final LongAdder objectSearchInvListNodeCounter = new LongAdder();
+    public final LongAdder objectSearchTrieNodeCounter = new LongAdder();
+    public final LongAdder objectSearchInvListHashAccess = new LongAdder();
+    public final LongAdder objectSearchTrieHashAccess = new LongAdder();
+    public final LongAdder objectSearchTrieFinalNodeCounter = new LongAdder();
+    public final LongAdder numberOfHashEntries = new LongAdder();
+    public final LongAdder numberOfTrieNodes = new LongAdder();
+    public final LongAdder totalTrieAccess = new LongAdder();
+    public final LongAdder totalDescendOpts = new LongAdder();
+    // Index entries visited by cleaning, the cost that goes with `FAST.cleanTime`.
+    public final LongAdder cleanVisitedEntries = new LongAdder();
 //    public Map<String, Integer> cellInsertions = new HashMap<>();
-    public static Function<KNNQuery, PriorityQueue<DataObject>> objectSearcher;
+    // KNN search of the external object index of the owning index, set with the index and not serialized.
+    public transient Function<KNNQuery, PriorityQueue<DataObject>> objectSearcher;
 
     public Context(Rectangle bounds, int gridGranularity, int maxLevel) {
         this.bounds = bounds;
@@ -50,4 +59,20 @@ public class Context implements Serializable {
         this.localYstep = (this.globalYRange / this.gridGranularity);
     }
 
+    /**
+     * Atomically advance the logical clock.
+     *
+     * @return The timestamp assigned to the calling insert
+     */
+    public int tick() {
+        return TIMESTAMP.incrementAndGet(this);
+    }
+
+    /**
+     * Set the clock so that the next `tick` returns `timestamp`, for indexes that follow a clock kept elsewhere.
+     */
+    public void syncTo(int timestamp) {
+        this.timestamp = timestamp - 1;
+    }
+
 }
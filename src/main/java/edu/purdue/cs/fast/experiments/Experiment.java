@@ -12,6 +12,7 @@ import edu.purdue.cs.fast.exceptions.InvalidOutputFile;
 import edu.purdue.cs.fast.helper.ObjectSizeCalculator;
 import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.QueryStatBuffer;
 import me.tongfei.progressbar.ProgressBar;
 //import org.openjdk.jol.info.GraphLayout;
 
@@ -20,7 +21,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 
 public abstract class Experiment<T> {
@@ -39,9 +46,13 @@ public abstract class Experiment<T> {
     protected boolean saveTimeline = false;
     protected boolean saveOutput = false;
     protected int seed = 7;
+    protected int searchThreads = 1;
+    protected int searchBatchSize = 1;
+    protected boolean bulkLoad = false;
     protected ArrayList<Collection<Query>> results;
     protected List<Integer> searchTimeline = new LinkedList<>();
     protected List<Integer> createTimeline = new LinkedList<>();
+    private BufferedWriter subTimelineWriter;
 
     abstract void init();
 
@@ -117,13 +128,17 @@ public abstract class Experiment<T> {
 
                 createMem.add("query_idx_mem", new Long(ObjectSizeCalculator.getObjectSize(i.index)));                            // used in the original
                 createMem.add("query_struct_mem", new Long(ObjectSizeCalculator.getObjectSize(i.index)));                   // only the `pyramid` hashmap
-                createMem.add("query_keymap_mem", new Long(ObjectSizeCalculator.getObjectSize(FAST.keywordFrequencyMap)));  // only the keyword freq. map
+                createMem.add("query_keymap_mem", new Long(ObjectSizeCalculator.getObjectSize(i.keywordFrequencyMap)));  // only the keyword freq. map
                 createMem.add("object_idx_mem", new Long(ObjectSizeCalculator.getObjectSize(i.objIndex)));
+                createMem.add("query_table_mem", i.index.tableMem());                                                       // only the cell table slots
+                createMem.add("query_table_boxed_mem", i.index.boxedTableMem());                                            // same cells in a boxed hashmap
 
                 Run.logger.debug("Obj index size =" + createMem.get("object_idx_mem") / 1024 + " KB");
                 Run.logger.debug("Query index size =" + createMem.get("query_idx_mem") / 1024 + " KB");
                 Run.logger.debug("Query index (struct) size =" + createMem.get("query_struct_mem") / 1024 + " KB");
                 Run.logger.debug("Query index (keymap) size =" + createMem.get("query_keymap_mem") / 1024 + " KB");
+                Run.logger.debug("Query index (cell table) size =" + createMem.get("query_table_mem") / 1024 + " KB, boxed map = "
+                        + createMem.get("query_table_boxed_mem") / 1024 + " KB");
             } else if (index instanceof LFAST) {
                 LFAST i = (LFAST) index;
                 createMem.add("query_idx_mem", new Long(ObjectSizeCalculator.getObjectSize(i)));
@@ -151,7 +166,18 @@ public abstract class Experiment<T> {
     }
 
     public void create() {
+        if (saveTimeline)
+            streamSubTimeline();
+
         Stopwatch stopwatch = Stopwatch.createStarted();
+        if (bulkLoad) {
+            index.insertQueries(queries);
+            stopwatch.stop();
+
+            calcCreateMem();
+            this.creationTime = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+            return;
+        }
         for (Query q : ProgressBar.wrap(queries, "Create Index")) {
             Stopwatch createTimeWatch = null;
             if (saveTimeline)
@@ -174,20 +200,30 @@ public abstract class Experiment<T> {
         results = new ArrayList<>();
 
         Stopwatch totalTimeWatch = Stopwatch.createStarted();
-        for (DataObject o : ProgressBar.wrap(objects, "Stream Objects")) {
-        // for (DataObject o : objects) {
-            Stopwatch searchTimeWatch = null;
-            if (saveTimeline)
-                searchTimeWatch = Stopwatch.createStarted();
-            Collection<Query> res = index.insertObject(o);
-            if (saveTimeline) {
-                assert searchTimeWatch != null;
-                searchTimeWatch.stop();
-                searchTimeline.add((int) searchTimeWatch.elapsed(TimeUnit.NANOSECONDS));
+        if (searchThreads > 1) {
+            searchConcurrently();
+        } else if (searchBatchSize > 1) {
+            for (int i = 0; i < objects.size(); i += searchBatchSize) {
+                results.addAll(index.insertObjects(objects.subList(i, Math.min(i + searchBatchSize, objects.size()))));
+            }
+        } else {
+            for (DataObject o : ProgressBar.wrap(objects, "Stream Objects")) {
+            // for (DataObject o : objects) {
+                Stopwatch searchTimeWatch = null;
+                if (saveTimeline)
+                    searchTimeWatch = Stopwatch.createStarted();
+                Collection<Query> res = index.insertObject(o);
+                if (saveTimeline) {
+                    assert searchTimeWatch != null;
+                    searchTimeWatch.stop();
+                    searchTimeline.add((int) searchTimeWatch.elapsed(TimeUnit.NANOSECONDS));
+                }
+                results.add(res);
             }
-            results.add(res);
         }
         totalTimeWatch.stop();
+        if (index instanceof FAST)
+            ((FAST) index).stopCleaning();
 
         String javaVersion = System.getProperty("java.version");
         String javaVendor = System.getProperty("java.vendor");
@@ -200,7 +236,7 @@ public abstract class Experiment<T> {
                 FAST i = (FAST) index;
                 searchMem.add("query_idx_mem", new Long(ObjectSizeCalculator.getObjectSize(i.index)));
                 searchMem.add("query_struct_mem", new Long(ObjectSizeCalculator.getObjectSize(i.index)));
-                searchMem.add("query_keymap_mem", new Long(ObjectSizeCalculator.getObjectSize(FAST.keywordFrequencyMap))); 
+                searchMem.add("query_keymap_mem", new Long(ObjectSizeCalculator.getObjectSize(i.keywordFrequencyMap))); 
                 searchMem.add("object_idx_mem", new Long(ObjectSizeCalculator.getObjectSize(i.objIndex)));
 
                 Run.logger.debug("Obj index size =" + searchMem.get("object_idx_mem") / 1024 + " KB");
@@ -244,6 +280,41 @@ public abstract class Experiment<T> {
         this.searchTime = totalTimeWatch.elapsed(TimeUnit.NANOSECONDS);
     }
 
+    /**
+     * Stream the objects from `searchThreads` threads. Only FAST with `CONCURRENT_SEARCH` supports this. Results
+     * keep the order of the objects.
+     */
+    private void searchConcurrently() {
+        if (!(index instanceof FAST) || !((FAST) index).config.CONCURRENT_SEARCH)
+            throw new RuntimeException("Concurrent search is only supported by FAST with CONCURRENT_SEARCH!");
+
+        FAST fast = (FAST) index;
+        AtomicReferenceArray<Collection<Query>> res = new AtomicReferenceArray<>(objects.size());
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(searchThreads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < searchThreads; t++) {
+                workers.add(pool.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < res.length()) {
+                        res.set(i, fast.insertObject(objects.get(i)));
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < res.length(); i++) {
+            results.add(res.get(i));
+        }
+    }
+
     public void search(Function<DataObject, Boolean> fn) {
         results = new ArrayList<>();
 
@@ -262,6 +333,8 @@ public abstract class Experiment<T> {
             results.add(res);
         }
         totalTimeWatch.stop();
+        if (index instanceof FAST)
+            ((FAST) index).stopCleaning();
         // if (System.getProperty("java.version").equals("1.8") && System.getProperty("java.vendor").contains("OpenJDK")) {
         //     long queriesSize = ObjectSizeCalculator.getObjectSize(queries);
         //     Run.logger.debug("Queries size =" + queriesSize / 1024 + " KB");
@@ -301,6 +374,7 @@ public abstract class Experiment<T> {
                         header.append(",").append("search_").append(k);
                     }
                     header.append(",").append("clean_time");
+                    header.append(",").append("clean_visits");
                     FileWriter fw = new FileWriter(outputFile);
                     BufferedWriter bw = new BufferedWriter(fw);
                     bw.write(header + "\n");
@@ -321,8 +395,12 @@ public abstract class Experiment<T> {
                 for (Long k : searchMem.getValues()) {
                     line.append(",").append(k);
                 }
-                // System.out.println(((FAST) index).cleanTime);
-                // line.append(",").append(((FAST) index).cleanTime);
+                if (index instanceof FAST) {
+                    line.append(",").append(((FAST) index).cleanTime);
+                    line.append(",").append(((FAST) index).context.cleanVisitedEntries.sum());
+                } else {
+                    line.append(",0,0");
+                }
                 bw.write(line + "\n");
                 bw.close();
                 fw.close();
@@ -338,16 +416,21 @@ public abstract class Experiment<T> {
 //                    timelineFW.close();
 
                     if (index instanceof FAST || index instanceof CkQST) {
-                        String queryInsObjSearchPath = getSuffixedPath("sub_timeline", meta.getKeys(), meta.getValues());
-                        FileWriter queryInsObjSearchFW = new FileWriter(queryInsObjSearchPath);
-                        BufferedWriter queryInsObjSearchBW = new BufferedWriter(queryInsObjSearchFW);
-
-                        for (QueryStat queryInsStat : index.queryStats) {
-                            queryInsObjSearchBW.write(queryInsStat.toJson() + "\n");
+                        if (subTimelineWriter != null) {
+                            index.queryStats().flush();
+                            index.queryStats().setSink(null);
+                            subTimelineWriter.close();
+                            subTimelineWriter = null;
+                        } else {
+                            String queryInsObjSearchPath = getSuffixedPath("sub_timeline", meta.getKeys(), meta.getValues());
+                            FileWriter queryInsObjSearchFW = new FileWriter(queryInsObjSearchPath);
+                            BufferedWriter queryInsObjSearchBW = new BufferedWriter(queryInsObjSearchFW);
+                            index.queryStats().forEach(QueryStatBuffer.jsonLines(queryInsObjSearchBW));
+                            queryInsObjSearchBW.close();
+                            queryInsObjSearchFW.close();
                         }
-
-                        queryInsObjSearchBW.close();
-                        queryInsObjSearchFW.close();
+                        if (index.queryStats().lost() > 0)
+                            Run.logger.warn("Sub timeline is missing " + index.queryStats().lost() + " overwritten query stats");
                     }
 
 //                    timelinePath = getSuffixedPath("create_timeline", meta.getKeys(), meta.getValues());
@@ -400,6 +483,25 @@ public abstract class Experiment<T> {
         }
     }
 
+    /**
+     * Stream the query stats of the index to the sub timeline file while the experiment runs, so that the timeline is
+     * complete however many events outlive the stat buffer. `save` closes the stream.
+     */
+    private void streamSubTimeline() {
+        if (!saveStats || outputPath == null || subTimelineWriter != null || new File(outputPath).isDirectory())
+            return;
+        if (!(index instanceof FAST || index instanceof CkQST))
+            return;
+
+        Metadata<String> meta = generateMetadata();
+        try {
+            subTimelineWriter = new BufferedWriter(new FileWriter(getSuffixedPath("sub_timeline", meta.getKeys(), meta.getValues())));
+            index.queryStats().setSink(QueryStatBuffer.jsonLines(subTimelineWriter));
+        } catch (IOException e) {
+            Run.logger.error("Failed to open the sub timeline, only the latest query stats will be saved: " + e.getMessage());
+        }
+    }
+
     private String getSuffixedPath(String type, List<String> keys, List<String> values) {
         int numQueriesI = keys.indexOf("num_queries");
         int numObjectsI = keys.indexOf("num_objects");
@@ -424,6 +526,18 @@ public abstract class Experiment<T> {
         this.saveTimeline = saveTimeline;
     }
 
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    public void setSearchBatchSize(int searchBatchSize) {
+        this.searchBatchSize = searchBatchSize;
+    }
+
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
     public void setSaveOutput() {
         this.saveOutput = true;
     }
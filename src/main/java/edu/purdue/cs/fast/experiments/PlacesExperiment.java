@@ -4,12 +4,11 @@ import com.google.gson.Gson;
 import edu.purdue.cs.fast.FAST;
 import edu.purdue.cs.fast.Run;
 import edu.purdue.cs.fast.SpatialKeywordIndex;
-import edu.purdue.cs.fast.config.Config;
-import edu.purdue.cs.fast.config.Context;
 import edu.purdue.cs.fast.exceptions.InvalidOutputFile;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
 import edu.purdue.cs.fast.models.*;
 import edu.purdue.cs.fast.parser.Place;
-import edu.purdue.cs.fast.structures.KeywordFrequency;
+import edu.purdue.cs.fast.parser.PlacesColumnFile;
 
 import java.io.*;
 import java.util.*;
@@ -26,6 +25,8 @@ public class PlacesExperiment extends Experiment<Place> {
     protected int maxRange;
 
     protected IndexType indexType = IndexType.FAST;
+    // Keywords of the places, all queries and objects of the experiment are encoded in it.
+    protected final KeywordDictionary dictionary = new KeywordDictionary();
 
     public PlacesExperiment(String outputPath, String inputPath, SpatialKeywordIndex index, String name,
                             int numQueries, int numObjects, int numKeywords, double srRate, int maxRange) {
@@ -52,13 +53,18 @@ public class PlacesExperiment extends Experiment<Place> {
 
     @Override
     public void init() {
+        int lineCount = numPreQueries + numPreObjects + numQueries + numObjects;
+        if (PlacesColumnFile.isColumnFile(inputPath)) {
+            initFromColumnFile(lineCount);
+            return;
+        }
+
         ArrayList<Place> places = new ArrayList<>();
 
         File file = new File(inputPath);
         try {
             FileReader fileReader = new FileReader(file);
             BufferedReader br = new BufferedReader(fileReader);
-            int lineCount = numPreQueries + numPreObjects + numQueries + numObjects;
 
             Run.logger.info("Parsing the Places file!");
             long start = System.currentTimeMillis();
@@ -77,6 +83,7 @@ public class PlacesExperiment extends Experiment<Place> {
                 Place place = gson.fromJson(line, Place.class);
                 if (place != null && place.keywords() != null && !place.keywords().isEmpty()) {
                     Collections.sort(place.keywords());
+                    place.encodeKeywords(dictionary);
                     places.add(place);
                 }
             }
@@ -97,6 +104,25 @@ public class PlacesExperiment extends Experiment<Place> {
         generateObjects(places);
     }
 
+    /**
+     * Same places and order as parsing the JSON dump the column file was converted from, without holding them all.
+     */
+    private void initFromColumnFile(int lineCount) {
+        try {
+            Run.logger.info("Mapping the Places column file!");
+            long start = System.currentTimeMillis();
+            List<Place> places = PlacesColumnFile.open(inputPath, dictionary).places(lineCount, randomizer);
+            long end = System.currentTimeMillis();
+            Run.logger.info("Done! Time=" + (end - start));
+
+            Run.logger.info("Imported Places records: " + places.size());
+            generateQueries(places);
+            generateObjects(places);
+        } catch (IOException e) {
+            throw new RuntimeException("Wrong path is given: " + inputPath);
+        }
+    }
+
     @Override
     protected void generateQueries(List<Place> places) {
         int r = (int) (maxRange * srRate);
@@ -215,24 +241,7 @@ public class PlacesExperiment extends Experiment<Place> {
                 pw.close();
                 fos.close();
 
-                fos = new FileOutputStream("./" + this.name + ".config.out");
-                pw = new PrintWriter(fos);
-                pw.write(toString(FAST.config));
-                pw.close();
-                fos.close();
-
-                fos = new FileOutputStream("./" + this.name + ".context.out");
-                pw = new PrintWriter(fos);
-                pw.write(toString(FAST.context));
-                Context.objectSearcher = (query) -> (PriorityQueue<DataObject>) ((FAST) index).objIndex.search(query);
-                pw.close();
-                fos.close();
-
-                fos = new FileOutputStream("./" + this.name + ".keymap.out");
-                pw = new PrintWriter(fos);
-                pw.write(toString(FAST.keywordFrequencyMap));
-                pw.close();
-                fos.close();
+                // The context, configuration and keyword statistics are serialized with the index.
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -243,25 +252,6 @@ public class PlacesExperiment extends Experiment<Place> {
                 index = (FAST) fromString(br.readLine());
                 br.close();
                 fr.close();
-
-                fr = new FileReader("./" + this.name + ".config.out");
-                br = new BufferedReader(fr);
-                FAST.config = (Config) fromString(br.readLine());
-                    // FAST.config.CLEANING_INTERVAL = 1000;
-                br.close();
-                fr.close();
-
-                fr = new FileReader("./" + this.name + ".context.out");
-                br = new BufferedReader(fr);
-                FAST.context = (Context) fromString(br.readLine());
-                br.close();
-                fr.close();
-                
-                fr = new FileReader("./" + this.name + ".keymap.out");
-                br = new BufferedReader(fr);
-                FAST.keywordFrequencyMap = (HashMap<String, KeywordFrequency>) fromString(br.readLine());
-                br.close();
-                fr.close();
             } catch (IOException | ClassNotFoundException e) {
                 throw new RuntimeException(e);
             }
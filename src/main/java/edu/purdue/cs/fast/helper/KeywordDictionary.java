@@ -0,0 +1,88 @@
+package edu.purdue.cs.fast.helper;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Term dictionary filled at parse time. Every keyword gets one canonical String instance, so that the keyword maps
+ * of the index hash a cached hash code and compare by reference, and a dense int id, so that keyword containment
+ * merges two int arrays.
+ * <p>
+ * Ids ignore case, the same as `TextHelpers.containsTextually`. Ids of different dictionaries do not compare, so the
+ * queries and objects of one index must be encoded by the same dictionary. The dictionary is owned by whoever parses
+ * the stream and grows with its vocabulary until it is dropped. Lookups of known keywords take no lock.
+ */
+public class KeywordDictionary implements Serializable {
+    private final ConcurrentHashMap<String, String> canonicals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> terms = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * @return The canonical instance of the keyword, registering it if it is new
+     */
+    public String canonical(String keyword) {
+        String canonical = canonicals.get(keyword);
+        if (canonical != null)
+            return canonical;
+        canonical = canonicals.putIfAbsent(keyword, keyword);
+        if (canonical != null)
+            return canonical;
+        id(keyword);
+        return keyword;
+    }
+
+    /**
+     * @return Id of the keyword, registering it if it is new
+     */
+    public int id(String keyword) {
+        String term = keyword.toLowerCase(Locale.ROOT);
+        Integer id = ids.get(term);
+        if (id != null)
+            return id;
+        return ids.computeIfAbsent(term, (t) -> {
+            int next = nextId.getAndIncrement();
+            terms.put(next, t);
+            return next;
+        });
+    }
+
+    public String term(int id) {
+        return terms.get(id);
+    }
+
+    public int size() {
+        return nextId.get();
+    }
+
+    /**
+     * Replace the keywords of the list with their canonical instances.
+     */
+    public void canonicalize(List<String> keywords) {
+        for (int i = 0; i < keywords.size(); i++) {
+            keywords.set(i, canonical(keywords.get(i)));
+        }
+    }
+
+    /**
+     * @return Sorted distinct ids of the keywords
+     */
+    public int[] encode(List<String> keywords) {
+        int[] keywordIds = new int[keywords.size()];
+        for (int i = 0; i < keywordIds.length; i++) {
+            keywordIds[i] = id(keywords.get(i));
+        }
+        Arrays.sort(keywordIds);
+
+        int distinct = 0;
+        for (int i = 0; i < keywordIds.length; i++) {
+            if (distinct == 0 || keywordIds[distinct - 1] != keywordIds[i])
+                keywordIds[distinct++] = keywordIds[i];
+        }
+        return distinct == keywordIds.length ? keywordIds : Arrays.copyOf(keywordIds, distinct);
+    }
+}
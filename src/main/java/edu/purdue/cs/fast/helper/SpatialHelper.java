@@ -28,6 +28,7 @@ import java.util.ArrayList;
 
 public class SpatialHelper {
     private final static double QUARTERPI = Math.PI / 4.0;
+    private final static double CIRCLE_TOLERANCE = .00000001;
 
     /**
      * This function checks if a KNN query is fully satisfied internal to the
@@ -104,11 +105,17 @@ public class SpatialHelper {
         return (rect.max.x - rect.min.x) * (rect.max.y - rect.min.y);
     }
 
-    public static Double getDistanceInBetween(Point p1, Point p2) {
-        Double dist = 0.0;
-        dist = Math.sqrt(Math.pow(p1.x - p2.x, 2) + Math.pow(p1.y - p2.y, 2));
-        return dist;
+    public static double getDistanceInBetween(Point p1, Point p2) {
+        return Math.sqrt(getDistanceSqrInBetween(p1, p2));
+    }
 
+    /**
+     * Squared euclidean distance, for comparisons that don't need the distance itself.
+     */
+    public static double getDistanceSqrInBetween(Point p1, Point p2) {
+        double dx = p1.x - p2.x;
+        double dy = p1.y - p2.y;
+        return dx * dx + dy * dy;
     }
 
     public static double getAreaInBetween(Point a, Point b, Point c) {
@@ -116,21 +123,21 @@ public class SpatialHelper {
 
     }
 
-    public static Double getMaxDistanceBetween(Point point, Rectangle recangle) {
+    public static double getMaxDistanceBetween(Point point, Rectangle recangle) {
         Point p1 = recangle.min;
         Point p2 = recangle.max;
         Point p3 = new Point(p1.x, p2.y);
         Point p4 = new Point(p1.y, p2.x);
-        Double dist1 = getDistanceInBetween(point, p1);
-        Double dist2 = getDistanceInBetween(point, p2);
-        Double dist3 = getDistanceInBetween(point, p3);
-        Double dist4 = getDistanceInBetween(point, p4);
+        double dist1 = getDistanceInBetween(point, p1);
+        double dist2 = getDistanceInBetween(point, p2);
+        double dist3 = getDistanceInBetween(point, p3);
+        double dist4 = getDistanceInBetween(point, p4);
         return Math.max(Math.max(dist1, dist2), Math.max(dist3, dist4));
     }
 
-    public static Double getMinDistanceBetween(Point point, Rectangle recangle) {
-        Double dx = Math.max(0.0, Math.max(recangle.min.x - point.x, point.x - recangle.max.x));
-        Double dy = Math.max(0.0, Math.max(recangle.min.y - point.y, point.y - recangle.max.y));
+    public static double getMinDistanceBetween(Point point, Rectangle recangle) {
+        double dx = Math.max(0.0, Math.max(recangle.min.x - point.x, point.x - recangle.max.x));
+        double dy = Math.max(0.0, Math.max(recangle.min.y - point.y, point.y - recangle.max.y));
         return Math.sqrt(dx * dx + dy * dy);
     }
 
@@ -293,24 +300,55 @@ public class SpatialHelper {
     //			return true;
     //		return false;
     //	}
-    public static Boolean overlapsSpatially(Point point, Rectangle rectangle) {
+    public static boolean overlapsSpatially(Point point, Rectangle rectangle) {
         return Double.compare(point.x, rectangle.min.x) >= 0 && Double.compare(point.x, rectangle.max.x) <= 0 && Double.compare(point.y, rectangle.min.y) >= 0
                 && Double.compare(point.y, rectangle.max.y) <= 0;
     }
 
-    public static Boolean overlapsSpatially(Point point, Point loc, double ar) {
+    public static boolean overlapsSpatially(Point point, Point loc, double ar) {
         boolean isInRectangle = point.x >= loc.x - ar && point.x <= loc.x + ar &&
                 point.y >= loc.y - ar && point.y <= loc.y + ar;
 
         if (isInRectangle) {
-            double lhs = (point.x - loc.x) * (point.x - loc.x) + (point.y - loc.y) * (point.y - loc.y);
+            double dx = point.x - loc.x;
+            double dy = point.y - loc.y;
+            double lhs = dx * dx + dy * dy;
             double rhs = ar * ar;
 
-            return lhs <= rhs || lhs - rhs < .00000001;
+            return lhs <= rhs || lhs - rhs < CIRCLE_TOLERANCE;
         }
         return false;
     }
 
+    /**
+     * Filter of `overlapsSpatially(Point, Point, double)` over circles stored as a structure of arrays. Bit `i - from`
+     * of the result is set for each circle `i` in `[from, to)` that may contain the point, at most 64 circles. The
+     * hits are a superset of the circles that do, to be verified one by one: the loop has no branches so that it can
+     * be unrolled and vectorized.
+     */
+    public static long circlesContaining(double x, double y, double[] cx, double[] cy, double[] r, int from, int to) {
+        long hits = 0;
+        for (int i = from; i < to; i++) {
+            double dx = x - cx[i];
+            double dy = y - cy[i];
+            hits |= (dx * dx + dy * dy - r[i] * r[i] < CIRCLE_TOLERANCE ? 1L : 0L) << (i - from);
+        }
+        return hits;
+    }
+
+    /**
+     * Filter of `overlapsSpatially(Point, Rectangle)` over rectangles stored as a structure of arrays, see
+     * `circlesContaining`.
+     */
+    public static long rectanglesContaining(double x, double y, double[] minX, double[] minY, double[] maxX,
+                                            double[] maxY, int from, int to) {
+        long hits = 0;
+        for (int i = from; i < to; i++) {
+            hits |= (x >= minX[i] & x <= maxX[i] & y >= minY[i] & y <= maxY[i] ? 1L : 0L) << (i - from);
+        }
+        return hits;
+    }
+
     public static boolean overlapsSpatially(Rectangle bounds, Point location, double ar) {
         Point boundCenter = new Point((bounds.max.x + bounds.min.x)/2, (bounds.max.y + bounds.min.y)/2);
         boolean overlap = overlapsSpatially(boundCenter, location, ar);
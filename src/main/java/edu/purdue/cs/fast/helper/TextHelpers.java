@@ -264,7 +264,10 @@ public class TextHelpers {
 			return false;
 		int i = 0, j = 0;
 		while (i < n1 && j < n2) {
-			int val = textListContainer.get(i).compareToIgnoreCase(textListSubset.get(j));
+			String container = textListContainer.get(i);
+			String subset = textListSubset.get(j);
+			// Keywords canonicalized by the KeywordDictionary match by reference
+			int val = container == subset ? 0 : container.compareToIgnoreCase(subset);
 			if (val < 0) { //str1 is greater than str2
 				i++;
 			} else if (val > 0) {//str2 is greater than str1
@@ -279,6 +282,35 @@ public class TextHelpers {
 		return false;
 	}
 
+	/**
+	 * Same as containsTextually over keyword lists, but for sorted keyword ids
+	 * of the KeywordDictionary
+	 * 
+	 * @param idsContainer
+	 *            sorted array of keyword ids
+	 * @param idsSubset
+	 *            sorted array of keyword ids
+	 * @return
+	 */
+	public static boolean containsTextually(int[] idsContainer, int[] idsSubset) {
+		int n1 = idsContainer.length;
+		int n2 = idsSubset.length;
+		if (n1 < n2)
+			return false;
+		int i = 0, j = 0;
+		while (i < n1 && j < n2) {
+			if (idsContainer[i] < idsSubset[j]) {
+				i++;
+			} else if (idsContainer[i] > idsSubset[j]) {
+				return false; // an id is not matched
+			} else {
+				i++;
+				j++;
+			}
+		}
+		return j == n2;
+	}
+
 	public static boolean containsTextually(ArrayList<String> textListContainer, ArrayList<String> textListSubset, int containerBegin, int sublistBegin) {
 		int n1 = textListContainer.size();
 		int n2 = textListSubset.size();
@@ -1,11 +1,12 @@
 package edu.purdue.cs.fast.models;
 
-import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.config.Context;
 import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.helper.TextualPredicate;
 import edu.purdue.cs.fast.structures.BoundedPriorityQueue;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -15,7 +16,7 @@ public class KNNQuery extends Query implements Serializable {
     public static String CSV_HEADER = "id,x,y,keywords,k,ar,current_level,st,et";
     private final Rectangle spatialBox;
     public Point location;
-    public double ar;
+    public volatile double ar;
     public int k;
     public int kHat;
 
@@ -38,7 +39,7 @@ public class KNNQuery extends Query implements Serializable {
      * @return Whether the KNN query currently monitors `k` objects or not
      */
     public boolean pushUntilK(DataObject obj) {
-        return pushUntilK_(obj, k);
+        return pushUntilK_(obj, k, false);
     }
 
     /**
@@ -46,18 +47,19 @@ public class KNNQuery extends Query implements Serializable {
      * the `ar` of the KNNQuery is updated.
      *
      * @param obj DataObject to be added
+     * @param distinct Skip objects that are already monitored, incremental descent may push an object again
      * @return Whether the KNN query currently monitors `k + rho` objects or not
      */
-    public boolean pushUntilKHat(DataObject obj) {
-        return pushUntilK_(obj, kHat);
+    public boolean pushUntilKHat(DataObject obj, boolean distinct) {
+        return pushUntilK_(obj, kHat, distinct);
     }
 
-    private boolean pushUntilK_(DataObject obj, int kStar) {
+    private synchronized boolean pushUntilK_(DataObject obj, int kStar, boolean distinct) {
         if (monitoredObjects == null) {
             monitoredObjects = new BoundedPriorityQueue<>(kStar, new EuclideanComparator(location));
         }
 
-        if (FAST.config.INCREMENTAL_DESCENT) {
+        if (distinct) {
             if (!monitoredObjects.contains(obj))
                 monitoredObjects.add(obj);
             else return monitoredObjects.isFull();
@@ -89,7 +91,7 @@ public class KNNQuery extends Query implements Serializable {
      *
      * @return Whether the KNN query currently monitors `k` objects or not
      */
-    public boolean kFilled() {
+    public synchronized boolean kFilled() {
         if (monitoredObjects == null) {
             return false;
         }
@@ -101,19 +103,69 @@ public class KNNQuery extends Query implements Serializable {
      * Calculate the optimal level for a KNN query based on it's AR
      * Used only in direct descend strategy
      *
+     * @param context Context of the index the query is in
      * @return Optimal level for the KNN query
      */
-    public int calcMinSpatialLevel() {
-        return Math.max((int) (Math.log((ar / FAST.context.localXstep)) / Math.log(2)), 0);
+    public int calcMinSpatialLevel(Context context) {
+        return Math.max((int) (Math.log((ar / context.localXstep)) / Math.log(2)), 0);
 //        return Math.max((int) (Math.log((ar * 2 / FAST.context.localXstep)) / Math.log(2)), 0);
 //        return Math.max(((int) (Math.log((ar * 2 / FAST.context.localXstep)) / Math.log(2)))+1, 0);
 //        return Math.max((int) Math.ceil(Math.log((ar * 2 / FAST.context.localXstep)) / Math.log(2)), 0);
     }
 
+    /**
+     * Move the query, keeping the objects it monitors. They are ranked by their distance to the new location. `ar`
+     * grows by the distance moved, and once at least `k` objects are monitored it is at most the distance to the
+     * farthest of them, which also holds for a buffer that expired objects left short of `kHat`. Objects the query
+     * did not monitor are not searched for.
+     *
+     * @param location New location of the query
+     */
+    public synchronized void moveTo(Point location) {
+        double ar = this.ar + SpatialHelper.getDistanceInBetween(this.location, location);
+        this.location = location;
+        if (monitoredObjects != null) {
+            BoundedPriorityQueue<DataObject> moved =
+                    new BoundedPriorityQueue<>(monitoredObjects.capacity(), new EuclideanComparator(location));
+            moved.addAll(monitoredObjects);
+            monitoredObjects = moved;
+            if (moved.size() >= k)
+                ar = Math.min(ar, SpatialHelper.getDistanceInBetween(location, moved.peek().location));
+        }
+        this.ar = ar;
+    }
+
+    /**
+     * Stop monitoring an object, e.g. one that expired. `ar` is left as it is.
+     *
+     * @return Whether the object was monitored
+     */
+    public synchronized boolean removeMonitoredObject(DataObject obj) {
+        return monitoredObjects != null && monitoredObjects.remove(obj);
+    }
+
+    /**
+     * @return Number of objects monitored
+     */
+    public synchronized int monitoredCount() {
+        return monitoredObjects == null ? 0 : monitoredObjects.size();
+    }
+
     public PriorityQueue<DataObject> getMonitoredObjects() {
         return monitoredObjects;
     }
 
+    /**
+     * Monitor the objects as they were when the query was saved, without changing `ar`.
+     *
+     * @param capacity Capacity of the saved monitored objects queue
+     * @param objects  Saved monitored objects
+     */
+    public synchronized void restoreMonitoredObjects(int capacity, Collection<DataObject> objects) {
+        monitoredObjects = new BoundedPriorityQueue<>(capacity, new EuclideanComparator(location));
+        monitoredObjects.addAll(objects);
+    }
+
     @Override
     public Rectangle spatialBox() {
         this.spatialBox.min.x = location.x - ar;
@@ -142,7 +194,7 @@ public class KNNQuery extends Query implements Serializable {
                 "," + k + "," + ar + "," + currentLevel + "," + st + "," + et;
     }
 
-    public static class EuclideanComparator implements Comparator<DataObject> {
+    public static class EuclideanComparator implements Comparator<DataObject>, Serializable {
         private final Point point;
 
         public EuclideanComparator(Point point) {
@@ -151,8 +203,8 @@ public class KNNQuery extends Query implements Serializable {
 
         @Override
         public int compare(DataObject o1, DataObject o2) {
-            double val1 = Math.pow(point.x - o1.location.x, 2) + Math.pow(point.y - o1.location.y, 2);
-            double val2 = Math.pow(point.x - o2.location.x, 2) + Math.pow(point.y - o2.location.y, 2);
+            double val1 = SpatialHelper.getDistanceSqrInBetween(point, o1.location);
+            double val2 = SpatialHelper.getDistanceSqrInBetween(point, o2.location);
 
             return Double.compare(val2, val1);
         }
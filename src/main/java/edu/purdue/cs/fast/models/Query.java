@@ -1,20 +1,31 @@
 package edu.purdue.cs.fast.models;
 
 import edu.purdue.cs.fast.helper.TextualPredicate;
+import edu.purdue.cs.fast.structures.SpatialCell;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.io.Serializable;
 
 public abstract class Query implements Serializable {
+	private static final AtomicIntegerFieldUpdater<Query> DESCENDED =
+			AtomicIntegerFieldUpdater.newUpdater(Query.class, "descended");
+
 	public int id;
 	public List<String> keywords;
+	// Sorted ids of the keywords in the KeywordDictionary, null when the keywords are not encoded
+	public int[] keywordIds;
 	public TextualPredicate predicate;
 	public long st;
 	public long et;
 
 	public int currentLevel = -1;
-	public int descended = 0;
+	public volatile int descended = 0;
 	public boolean deleted;
+	// Cells FAST placed the query in with `QUERY_CELLS`, until it expires or is removed. Descents move a query
+	// through a few cells at most, cells it left are kept to no effect.
+	public ArrayList<SpatialCell> cells;
 
 	public Query(int id, List<String> keywords, TextualPredicate predicate, long st, long et) {
 		this.id = id;
@@ -26,6 +37,14 @@ public abstract class Query implements Serializable {
 
 	public abstract Rectangle spatialBox();
 
+	/**
+	 * Count a descent of the query. A query replicated over several cells can descend from more than one of them
+	 * at once during a bulk load.
+	 */
+	public void markDescended() {
+		DESCENDED.incrementAndGet(this);
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -7,6 +7,7 @@ import edu.purdue.cs.fast.baselines.fast.messages.LDataObject;
 import edu.purdue.cs.fast.baselines.fast.messages.LMinimalRangeQuery;
 import edu.purdue.cs.fast.experiments.Experiment;
 import edu.purdue.cs.fast.experiments.PlacesKNNExperiment;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
 import edu.purdue.cs.fast.models.*;
 
 import java.util.ArrayList;
@@ -32,10 +33,28 @@ public class Place {
     @Expose
     public boolean scaled;
 
+    // Dictionary the keywords were canonicalized in, which also encodes the queries and objects made from the place.
+    transient KeywordDictionary dictionary;
+
     public ArrayList<String> keywords() {
         return keywords;
     }
 
+    /**
+     * Swap the keywords with their canonical instances in the dictionary of the stream, done once at parse time.
+     * Queries and objects made from the place carry keyword ids of the same dictionary.
+     */
+    public void encodeKeywords(KeywordDictionary dictionary) {
+        dictionary.canonicalize(keywords);
+        this.dictionary = dictionary;
+    }
+
+    private <T extends Query> T withKeywordIds(T query) {
+        if (dictionary != null)
+            query.keywordIds = dictionary.encode(query.keywords);
+        return query;
+    }
+
     public Point coordinate() {
         return new Point(x, y);
     }
@@ -58,7 +77,7 @@ public class Place {
         ArrayList<String> keywords = new ArrayList<>(keywords().subList(0, Math.min(keywords().size(), numKeywords)));
 
         if (indexType == Experiment.IndexType.FAST)
-            return new MinimalRangeQuery(qid, keywords, toRectangle(r, maxRange), null, qid, expireTimestamp);
+            return withKeywordIds(new MinimalRangeQuery(qid, keywords, toRectangle(r, maxRange), null, qid, expireTimestamp));
         else if (indexType == Experiment.IndexType.LFAST) {
             Rectangle spatialRange = toRectangle(r, maxRange);
             Point loc = new Point((spatialRange.min.x + spatialRange.max.x) / 2, (spatialRange.min.x + spatialRange.max.x) / 2);
@@ -72,7 +91,7 @@ public class Place {
         ArrayList<String> keywords = new ArrayList<>(keywords().subList(0, Math.min(keywords().size(), numKeywords)));
 
         if (indexType == PlacesKNNExperiment.IndexType.FAST)
-            return new KNNQuery(qid, keywords, coordinate(), k, null, qid, expireTimestamp);
+            return withKeywordIds(new KNNQuery(qid, keywords, coordinate(), k, null, qid, expireTimestamp));
         else if (indexType == PlacesKNNExperiment.IndexType.CkQST) {
             return new CkQuery(qid, keywords, coordinate().x, coordinate().y, k, qid, expireTimestamp);
         } else if (indexType == PlacesKNNExperiment.IndexType.AdoptCkQST) {
@@ -86,13 +105,13 @@ public class Place {
 
     public DataObject toDataObject(int oid, int expireTimestamp, Experiment.IndexType indexType) {
         if (indexType == Experiment.IndexType.FAST || indexType == Experiment.IndexType.CkQST)
-            return new DataObject(
+            return withKeywordIds(new DataObject(
                     oid,
                     new Point(x, y),
                     keywords,
                     oid,
                     expireTimestamp
-            );
+            ));
         else if (indexType == Experiment.IndexType.LFAST || indexType == Experiment.IndexType.AdoptCkQST) {
             return new LDataObject(
                     oid,
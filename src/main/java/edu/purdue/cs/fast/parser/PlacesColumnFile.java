@@ -0,0 +1,252 @@
+package edu.purdue.cs.fast.parser;
+
+import com.google.gson.Gson;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary columnar form of a places dump, memory-mapped so that experiments skip the JSON parsing and only hold the
+ * places they turn into queries and objects.
+ * <p>
+ * Layout, little endian: the header (magic, version, place count, term count, keyword count), the terms sorted
+ * lexicographically as length prefixed UTF-8, then the columns `double x[count]`, `double y[count]`,
+ * `long timestamp[count]`, the CSR keyword offsets `int offsets[count + 1]` and the term ids `int ids[keywords]`.
+ * The ids of a place are sorted, so they decode to the same keyword order as `Collections.sort` of the strings.
+ * <p>
+ * Only places with keywords are converted, in the order of the dump, with their line number as the timestamp.
+ */
+public class PlacesColumnFile {
+    private static final int MAGIC = 0x50545346; // "FSTP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 8;
+
+    private final MappedByteBuffer buffer;
+    private final KeywordDictionary dictionary;
+    private final int count;
+    private final String[] terms;
+    private final int xOffset;
+    private final int yOffset;
+    private final int timestampOffset;
+    private final int keywordOffsetsOffset;
+    private final int idsOffset;
+
+    private PlacesColumnFile(MappedByteBuffer buffer, KeywordDictionary dictionary) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC)
+            throw new RuntimeException("Not a places column file!");
+        if (buffer.getInt(4) != VERSION)
+            throw new RuntimeException("Unsupported places column file version: " + buffer.getInt(4));
+        this.count = buffer.getInt(8);
+        this.terms = new String[buffer.getInt(12)];
+        long numKeywords = buffer.getLong(16);
+
+        int position = HEADER_SIZE;
+        for (int i = 0; i < terms.length; i++) {
+            byte[] bytes = new byte[buffer.getInt(position)];
+            for (int b = 0; b < bytes.length; b++)
+                bytes[b] = buffer.get(position + 4 + b);
+            terms[i] = dictionary.canonical(new String(bytes, StandardCharsets.UTF_8));
+            position += 4 + bytes.length;
+        }
+        this.xOffset = align(position);
+        this.yOffset = xOffset + 8 * count;
+        this.timestampOffset = yOffset + 8 * count;
+        this.keywordOffsetsOffset = timestampOffset + 8 * count;
+        this.idsOffset = keywordOffsetsOffset + 4 * (count + 1);
+        if ((long) idsOffset + 4 * numKeywords != buffer.capacity())
+            throw new RuntimeException("Corrupted places column file!");
+    }
+
+    private static int align(long position) {
+        return (int) ((position + 7) & ~7L);
+    }
+
+    /**
+     * @param dictionary Dictionary the terms are canonicalized in, the places of the file encode their keywords in it
+     */
+    public static PlacesColumnFile open(String path, KeywordDictionary dictionary) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() > Integer.MAX_VALUE)
+                throw new RuntimeException("Places column files are limited to 2 GB: " + path);
+            return new PlacesColumnFile(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()),
+                    dictionary);
+        }
+    }
+
+    /**
+     * @return Whether the file starts with the magic of a places column file
+     */
+    public static boolean isColumnFile(String path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return Integer.reverseBytes(in.readInt()) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public double x(int i) {
+        return buffer.getDouble(xOffset + 8 * i);
+    }
+
+    public double y(int i) {
+        return buffer.getDouble(yOffset + 8 * i);
+    }
+
+    public long timestamp(int i) {
+        return buffer.getLong(timestampOffset + 8 * i);
+    }
+
+    public int numKeywords(int i) {
+        return buffer.getInt(keywordOffsetsOffset + 4 * (i + 1)) - buffer.getInt(keywordOffsetsOffset + 4 * i);
+    }
+
+    /**
+     * @return The j-th keyword of the place, the canonical instance of the dictionary of the file
+     */
+    public String keyword(int i, int j) {
+        int start = buffer.getInt(keywordOffsetsOffset + 4 * i);
+        return terms[buffer.getInt(idsOffset + 4 * (start + j))];
+    }
+
+    /**
+     * @return A new Place of the i-th record, with canonical and sorted keywords. The id is the timestamp.
+     */
+    public Place place(int i) {
+        Place place = new Place();
+        place.id = Long.toString(timestamp(i));
+        place.x = x(i);
+        place.y = y(i);
+        place.scaled = true;
+        place.dictionary = dictionary;
+        int numKeywords = numKeywords(i);
+        place.keywords = new ArrayList<>(numKeywords);
+        for (int j = 0; j < numKeywords; j++)
+            place.keywords.add(keyword(i, j));
+        return place;
+    }
+
+    /**
+     * View of the first `limit` places in the order `Collections.shuffle(places, random)` would give them. The view
+     * holds one int per place and builds each Place on `get`.
+     */
+    public List<Place> places(int limit, Random random) {
+        if (limit > count)
+            throw new RuntimeException("EOF! File can't produce the requested number of lines.");
+
+        int[] order = new int[limit];
+        for (int i = 0; i < limit; i++)
+            order[i] = i;
+        // Same swaps as Collections.shuffle on a random access list.
+        for (int i = limit; i > 1; i--) {
+            int j = random.nextInt(i);
+            int tmp = order[i - 1];
+            order[i - 1] = order[j];
+            order[j] = tmp;
+        }
+
+        return new AbstractList<Place>() {
+            @Override
+            public Place get(int index) {
+                return place(order[index]);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+
+    /**
+     * Convert a dump of JSON lines `Place`s, in two passes so that only the term dictionary is held in memory.
+     */
+    public static void convert(String jsonPath, String outputPath) throws IOException {
+        Gson gson = new Gson();
+        TreeMap<String, Integer> termIds = new TreeMap<>();
+        int count = 0;
+        long numKeywords = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(jsonPath))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                Place place = gson.fromJson(line, Place.class);
+                if (place == null || place.keywords() == null || place.keywords().isEmpty())
+                    continue;
+                for (String keyword : place.keywords())
+                    termIds.put(keyword, 0);
+                numKeywords += place.keywords().size();
+                count++;
+            }
+        }
+
+        long termsSize = 0;
+        int nextId = 0;
+        for (Map.Entry<String, Integer> term : termIds.entrySet()) {
+            term.setValue(nextId++);
+            termsSize += 4 + term.getKey().getBytes(StandardCharsets.UTF_8).length;
+        }
+        long xOffset = align(HEADER_SIZE + termsSize);
+        long keywordOffsetsOffset = xOffset + 3L * 8 * count;
+        long idsOffset = keywordOffsetsOffset + 4L * (count + 1);
+        long size = idsOffset + 4 * numKeywords;
+        if (size > Integer.MAX_VALUE)
+            throw new RuntimeException("Places column files are limited to 2 GB, the dump needs " + size + " bytes");
+
+        try (RandomAccessFile file = new RandomAccessFile(outputPath, "rw")) {
+            file.setLength(0);
+            MappedByteBuffer out = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(termIds.size()).putLong(numKeywords);
+            for (String term : termIds.keySet()) {
+                byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length).put(bytes);
+            }
+
+            int i = 0;
+            int keywordOffset = 0;
+            long lineNumber = 0;
+            out.putInt((int) keywordOffsetsOffset, 0);
+            try (BufferedReader br = new BufferedReader(new FileReader(jsonPath))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    lineNumber++;
+                    Place place = gson.fromJson(line, Place.class);
+                    if (place == null || place.keywords() == null || place.keywords().isEmpty())
+                        continue;
+
+                    out.putDouble((int) (xOffset + 8L * i), place.x);
+                    out.putDouble((int) (xOffset + 8L * (count + i)), place.y);
+                    out.putLong((int) (xOffset + 8L * (2 * count + i)), lineNumber - 1);
+
+                    int[] ids = new int[place.keywords().size()];
+                    for (int j = 0; j < ids.length; j++)
+                        ids[j] = termIds.get(place.keywords().get(j));
+                    Arrays.sort(ids);
+                    for (int id : ids)
+                        out.putInt((int) (idsOffset + 4L * keywordOffset++), id);
+                    out.putInt((int) (keywordOffsetsOffset + 4L * ++i), keywordOffset);
+                }
+            }
+            out.force();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PlacesColumnFile <places.json> <places.bin>");
+            System.exit(1);
+        }
+        convert(args[0], args[1]);
+    }
+}
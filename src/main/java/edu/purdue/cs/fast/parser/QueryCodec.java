@@ -0,0 +1,231 @@
+package edu.purdue.cs.fast.parser;
+
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.helper.TextualPredicate;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.BoundedPriorityQueue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Binary encoding of the queries and objects of FAST. A shared codec writes each query, object and keyword once and
+ * refers back to it afterwards, so instances shared in the written structure are shared again when it is read. The
+ * codec that reads must see the same sequence of calls as the one that wrote.
+ * <p>
+ * KNN queries keep their `ar`, `currentLevel` and monitored objects. Keyword ids are re-encoded in the dictionary
+ * of the reading codec, a codec without one reads plain keywords.
+ */
+public class QueryCodec {
+    private static final int NULL = -2;
+    private static final int NEW = -1;
+    private static final byte MBR = 1;
+    private static final byte KNN = 2;
+    private static final byte OBJECT = 3;
+    private static final TextualPredicate[] PREDICATES = TextualPredicate.values();
+
+    private final boolean shared;
+    private final KeywordDictionary dictionary;
+    private final IdentityHashMap<Query, Integer> queryRefs = new IdentityHashMap<>();
+    private final ArrayList<Query> queries = new ArrayList<>();
+    private final HashMap<String, Integer> stringRefs = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    /**
+     * @param shared Whether instances are written once and referred back to, instead of written in full each time
+     */
+    public QueryCodec(boolean shared) {
+        this(shared, null);
+    }
+
+    /**
+     * @param dictionary Dictionary read keywords are canonicalized and encoded in, the one the stream going to the
+     *                   index uses
+     */
+    public QueryCodec(boolean shared, KeywordDictionary dictionary) {
+        this.shared = shared;
+        this.dictionary = dictionary;
+    }
+
+    public void writeString(DataOutput out, String value) throws IOException {
+        if (!shared) {
+            out.writeUTF(value);
+            return;
+        }
+        Integer ref = stringRefs.get(value);
+        if (ref != null) {
+            out.writeInt(ref);
+        } else {
+            out.writeInt(NEW);
+            out.writeUTF(value);
+            stringRefs.put(value, stringRefs.size());
+        }
+    }
+
+    public String readString(DataInput in) throws IOException {
+        if (!shared)
+            return canonical(in.readUTF());
+        int ref = in.readInt();
+        if (ref != NEW)
+            return strings.get(ref);
+        String value = canonical(in.readUTF());
+        strings.add(value);
+        return value;
+    }
+
+    private String canonical(String value) {
+        return (dictionary == null) ? value : dictionary.canonical(value);
+    }
+
+    public static void writePoint(DataOutput out, Point point) throws IOException {
+        out.writeDouble(point.x);
+        out.writeDouble(point.y);
+    }
+
+    public static Point readPoint(DataInput in) throws IOException {
+        return new Point(in.readDouble(), in.readDouble());
+    }
+
+    public static void writeRectangle(DataOutput out, Rectangle rectangle) throws IOException {
+        writePoint(out, rectangle.min);
+        writePoint(out, rectangle.max);
+    }
+
+    public static Rectangle readRectangle(DataInput in) throws IOException {
+        return new Rectangle(readPoint(in), readPoint(in));
+    }
+
+    public void writeQuery(DataOutput out, Query query) throws IOException {
+        if (query == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        if (shared) {
+            Integer ref = queryRefs.get(query);
+            if (ref != null) {
+                out.writeInt(ref);
+                return;
+            }
+            queryRefs.put(query, queryRefs.size());
+        }
+        out.writeInt(NEW);
+
+        if (query.getClass() == MinimalRangeQuery.class) {
+            out.writeByte(MBR);
+            writeCommon(out, query);
+            writeRectangle(out, ((MinimalRangeQuery) query).spatialRange);
+        } else if (query.getClass() == KNNQuery.class) {
+            KNNQuery knnQuery = (KNNQuery) query;
+            out.writeByte(KNN);
+            writeCommon(out, query);
+            writePoint(out, knnQuery.location);
+            out.writeInt(knnQuery.k);
+            out.writeInt(knnQuery.kHat);
+            out.writeDouble(knnQuery.ar);
+            synchronized (knnQuery) {
+                BoundedPriorityQueue<DataObject> monitored = (BoundedPriorityQueue<DataObject>) knnQuery.getMonitoredObjects();
+                if (monitored == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(monitored.capacity());
+                    out.writeInt(monitored.size());
+                    for (DataObject object : monitored)
+                        writeQuery(out, object);
+                }
+            }
+        } else if (query.getClass() == DataObject.class) {
+            out.writeByte(OBJECT);
+            writeCommon(out, query);
+            writePoint(out, ((DataObject) query).location);
+        } else {
+            throw new RuntimeException("Query type " + query.getClass().getSimpleName() + " can't be encoded!");
+        }
+    }
+
+    public Query readQuery(DataInput in) throws IOException {
+        int ref = in.readInt();
+        if (ref == NULL)
+            return null;
+        if (ref != NEW)
+            return queries.get(ref);
+
+        // Reserve the reference before the monitored objects of a KNN query take theirs.
+        int slot = queries.size();
+        if (shared)
+            queries.add(null);
+
+        byte type = in.readByte();
+        int id = in.readInt();
+        List<String> keywords = readKeywords(in);
+        boolean encoded = in.readBoolean();
+        byte predicate = in.readByte();
+        long st = in.readLong();
+        long et = in.readLong();
+        int currentLevel = in.readInt();
+        int descended = in.readInt();
+        boolean deleted = in.readBoolean();
+        TextualPredicate textualPredicate = predicate < 0 ? null : PREDICATES[predicate];
+
+        Query query;
+        if (type == MBR) {
+            query = new MinimalRangeQuery(id, keywords, readRectangle(in), textualPredicate, st, et);
+        } else if (type == KNN) {
+            KNNQuery knnQuery = new KNNQuery(id, keywords, readPoint(in), in.readInt(), textualPredicate, st, et);
+            knnQuery.kHat = in.readInt();
+            knnQuery.ar = in.readDouble();
+            int capacity = in.readInt();
+            if (capacity >= 0) {
+                int size = in.readInt();
+                List<DataObject> monitored = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                    monitored.add((DataObject) readQuery(in));
+                knnQuery.restoreMonitoredObjects(capacity, monitored);
+            }
+            query = knnQuery;
+        } else if (type == OBJECT) {
+            query = new DataObject(id, readPoint(in), keywords, st, et);
+        } else {
+            throw new RuntimeException("Unknown query type " + type + "!");
+        }
+
+        if (encoded && dictionary != null)
+            query.keywordIds = dictionary.encode(keywords);
+        query.currentLevel = currentLevel;
+        query.descended = descended;
+        query.deleted = deleted;
+        if (shared)
+            queries.set(slot, query);
+        return query;
+    }
+
+    private void writeCommon(DataOutput out, Query query) throws IOException {
+        out.writeInt(query.id);
+        writeKeywords(out, query.keywords);
+        out.writeBoolean(query.keywordIds != null);
+        out.writeByte(query.predicate == null ? -1 : query.predicate.ordinal());
+        out.writeLong(query.st);
+        out.writeLong(query.et);
+        out.writeInt(query.currentLevel);
+        out.writeInt(query.descended);
+        out.writeBoolean(query.deleted);
+    }
+
+    private void writeKeywords(DataOutput out, List<String> keywords) throws IOException {
+        out.writeInt(keywords.size());
+        for (String keyword : keywords)
+            writeString(out, keyword);
+    }
+
+    private List<String> readKeywords(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<String> keywords = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            keywords.add(readString(in));
+        return keywords;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.purdue.cs.fast.structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable buffers of a micro-batch search, see `SpatialCell.searchQueries` for a batch. A cell lists the (keyword,
+ * object) pairs of its group here and sorts them by keyword hash to share the keyword probes, so grouping allocates
+ * nothing once the buffers are large enough. A scratch must only be used by one batch at a time.
+ */
+public class BatchScratch {
+    static final byte UNPROBED = 0;
+    static final byte TRIE = 1;
+    static final byte SEARCHED = 2;
+
+    // Pairs of the group: keyword, position of the object in the batch and how the pair was handled.
+    String[] pairKeywords = new String[0];
+    int[] pairMembers = new int[0];
+    byte[] pairStates = new byte[0];
+    // Keyword hash in the high bits, pair number in the low bits.
+    long[] pairOrder = new long[0];
+    // Two remaining keyword buffers per object of the batch, one is searched while the other is filled.
+    private final ArrayList<ArrayList<String>> remainingKeywords = new ArrayList<>();
+    // Per object of the batch: logical time, keywords to search at the current level and (cell, position) pairs.
+    public int[] timestamps = new int[0];
+    public final ArrayList<List<String>> keywords = new ArrayList<>();
+    public long[] cellOrder = new long[0];
+    public int[] members = new int[0];
+
+    /**
+     * Grow the per object buffers to hold a batch.
+     */
+    public void ensureBatch(int batchSize) {
+        if (timestamps.length >= batchSize)
+            return;
+        int capacity = Math.max(batchSize, 2 * timestamps.length);
+        timestamps = new int[capacity];
+        cellOrder = new long[capacity];
+        members = new int[capacity];
+    }
+
+    void ensurePairs(int pairs) {
+        if (pairKeywords.length >= pairs)
+            return;
+        int capacity = Math.max(pairs, 2 * pairKeywords.length);
+        pairKeywords = new String[capacity];
+        pairMembers = new int[capacity];
+        pairStates = new byte[capacity];
+        pairOrder = new long[capacity];
+    }
+
+    /**
+     * Drop the keyword references of the last group, so that the buffers do not keep them alive.
+     */
+    void clearPairs(int pairs) {
+        Arrays.fill(pairKeywords, 0, pairs, null);
+    }
+
+    /**
+     * @param member   Position of the object in the batch
+     * @param keywords Keywords of the object searched at the current level
+     * @return Empty buffer for the remaining keywords of the object, never the list being searched
+     */
+    public ArrayList<String> remainingKeywords(int member, List<String> keywords) {
+        int slot = 2 * member;
+        while (remainingKeywords.size() <= slot + 1)
+            remainingKeywords.add(new ArrayList<>());
+        ArrayList<String> buffer = (keywords == remainingKeywords.get(slot)) ? remainingKeywords.get(slot + 1) :
+                remainingKeywords.get(slot);
+        buffer.clear();
+        return buffer;
+    }
+}
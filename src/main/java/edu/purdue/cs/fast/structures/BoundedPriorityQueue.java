@@ -30,6 +30,10 @@ public class BoundedPriorityQueue<E> extends PriorityQueue<E> {
         return changed;
     }
 
+    public int capacity() {
+        return capacity;
+    }
+
     public boolean isFull() {
         return size() >= capacity;
     }
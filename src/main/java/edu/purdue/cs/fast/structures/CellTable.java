@@ -0,0 +1,227 @@
+package edu.purdue.cs.fast.structures;
+
+import edu.purdue.cs.fast.helper.ObjectSizeCalculator;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Open addressing table of the pyramid cells, keyed by the packed cell key of `key(level, x, y)`. The key holds the
+ * level in the top 6 bits and the Morton code of (x, y) below it. Blocks of 8 Morton neighbours hash to the same
+ * 8-slot run, so that neighbouring cells of a level share a cache line of keys.
+ * <p>
+ * Writes are not synchronized, FAST orders them against searches with its structure lock. A search racing a write
+ * under an optimistic read can miss a cell or fail with a RuntimeException, but does not loop.
+ */
+public class CellTable implements Serializable {
+    private static final int LEVEL_SHIFT = 58;
+    private static final int BLOCK_BITS = 3;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    private SpatialCell[] cells;
+    private int size;
+
+    public CellTable() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.cells = new SpatialCell[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return Packed key of the cell (x, y) of the level. Cell indexes are up to 29 bits.
+     */
+    public static long key(int level, int x, int y) {
+        return ((long) level << LEVEL_SHIFT) | (spread(x) | (spread(y) << 1));
+    }
+
+    private static long spread(int v) {
+        long x = v & 0x1FFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    private static int slot(long key, int mask) {
+        long block = (key >>> BLOCK_BITS) * 0x9E3779B97F4A7C15L;
+        block ^= block >>> 32;
+        return (int) ((block << BLOCK_BITS) | (key & ((1 << BLOCK_BITS) - 1))) & mask;
+    }
+
+    public SpatialCell get(long key) {
+        long[] keys = this.keys;
+        SpatialCell[] cells = this.cells;
+        if (keys.length != cells.length)
+            return null;
+
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (int probes = 0; probes < keys.length; probes++) {
+            SpatialCell cell = cells[i];
+            if (cell == null)
+                return null;
+            if (keys[i] == key)
+                return cell;
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public void put(long key, SpatialCell cell) {
+        if (cell == null)
+            throw new NullPointerException("Null cells can't be stored in the cell table");
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (cells[i] != null) {
+            if (keys[i] == key) {
+                cells[i] = cell;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        cells[i] = cell;
+        size++;
+    }
+
+    public SpatialCell remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (cells[i] != null) {
+            if (keys[i] == key) {
+                SpatialCell removed = cells[i];
+                shiftBack(i, mask);
+                size--;
+                return removed;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Backward shift deletion, entries after the freed slot move up so that probe runs stay unbroken.
+     */
+    private void shiftBack(int free, int mask) {
+        int i = (free + 1) & mask;
+        while (cells[i] != null) {
+            int home = slot(keys[i], mask);
+            // The entry can fill the free slot if its home is not within (free, i].
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                cells[free] = cells[i];
+                free = i;
+            }
+            i = (i + 1) & mask;
+        }
+        cells[free] = null;
+        keys[free] = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        SpatialCell[] oldCells = cells;
+        long[] newKeys = new long[capacity];
+        SpatialCell[] newCells = new SpatialCell[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldCells.length; j++) {
+            if (oldCells[j] == null)
+                continue;
+            int i = slot(oldKeys[j], mask);
+            while (newCells[i] != null)
+                i = (i + 1) & mask;
+            newKeys[i] = oldKeys[j];
+            newCells[i] = oldCells[j];
+        }
+        // Searches read `keys` first, publish the cells first so they never pair new keys with old cells.
+        this.cells = newCells;
+        this.keys = newKeys;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public void forEach(Consumer<SpatialCell> action) {
+        SpatialCell[] cells = this.cells;
+        for (SpatialCell cell : cells) {
+            if (cell != null)
+                action.accept(cell);
+        }
+    }
+
+    /**
+     * Iterator over the cells that tolerates changes to the table between calls, so it can be kept across cleaning
+     * rounds. Cells moved by such changes may be skipped or visited twice in a round.
+     */
+    public Iterator<SpatialCell> iterator() {
+        return new Iterator<SpatialCell>() {
+            private int next = 0;
+            private SpatialCell last = null;
+
+            @Override
+            public boolean hasNext() {
+                SpatialCell[] cells = CellTable.this.cells;
+                while (next < cells.length && cells[next] == null)
+                    next++;
+                return next < cells.length;
+            }
+
+            @Override
+            public SpatialCell next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                last = cells[next++];
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                CellTable.this.remove(last.coordinate);
+                last = null;
+                // The entry shifted into the freed slot has not been visited yet.
+                if (next > 0 && next <= cells.length && cells[next - 1] != null)
+                    next--;
+            }
+        };
+    }
+
+    /**
+     * @return Bytes taken by the slot arrays of the table, without the cells
+     */
+    public long tableMem() {
+        return ObjectSizeCalculator.getObjectSize(keys) + ObjectSizeCalculator.getObjectSize(new Object[cells.length]);
+    }
+
+    /**
+     * @return Bytes a ConcurrentHashMap with boxed keys would take for the same cells, without the cells
+     */
+    public long boxedTableMem() {
+        ConcurrentHashMap<Long, Object> boxed = new ConcurrentHashMap<>();
+        Object cell = new Object();
+        forEach((c) -> boxed.put(c.coordinate, cell));
+        return ObjectSizeCalculator.getObjectSize(boxed) - ObjectSizeCalculator.getObjectSize(cell);
+    }
+}
@@ -0,0 +1,134 @@
+package edu.purdue.cs.fast.structures;
+
+import edu.purdue.cs.fast.config.Config;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Split and degradation thresholds of a single cell, tuned online with `Config.ADAPTIVE_THRESHOLDS`. The cell counts
+ * the query entries its object searches verify and the entries its splits and descents move. Every `TUNING_WINDOW`
+ * searches the cost per search, `verified + MAINTENANCE_WEIGHT * moved`, is compared with the previous window: a step
+ * that made it worse is undone and the threshold is stepped the other way next time. The thresholds take turns, each
+ * step doubles or halves one of them within `[1, MAX_ADAPTIVE_THRESHOLD]`.
+ * <p>
+ * Searches also count how often each keyword of the cell is probed. Every entry placed under a keyword is verified on
+ * each probe of it, so a query that has to go under another of its keywords goes under the least probed one that
+ * still has room, see `SpatialCell.getOtherKeywordToInsert`. The counts halve every window, so they follow the
+ * objects the cell currently sees and keywords no longer probed are dropped.
+ * <p>
+ * The thresholds only shape the index, answers do not depend on them. Under `CONCURRENT_SEARCH` searches of cells
+ * without KNN queries count concurrently and may lose counts, which only blurs the cost estimate.
+ */
+public class CellTuner implements Serializable {
+    private static final int SPLIT = 0;
+    private static final int DEGRADATION = 1;
+    private static final int KNN_DEGRADATION = 2;
+
+    private final int window;
+    private final double maintenanceWeight;
+    private final int maxThreshold;
+    private final int[] thresholds;
+    private final int[] directions = {1, 1, 1};
+
+    private long searches = 0;
+    private long verified = 0;
+    private long moved = 0;
+    private final ConcurrentHashMap<String, long[]> probes = new ConcurrentHashMap<>();
+
+    private double lastCost = Double.NaN;
+    private int nextKnob = 0;
+    private int steppedKnob = -1;
+    private int steppedFrom;
+    private int steps = 0;
+
+    public CellTuner(Config config) {
+        this.window = config.TUNING_WINDOW;
+        this.maintenanceWeight = config.MAINTENANCE_WEIGHT;
+        this.maxThreshold = config.MAX_ADAPTIVE_THRESHOLD;
+        this.thresholds = new int[]{config.TRIE_SPLIT_THRESHOLD, config.DEGRADATION_RATIO, config.KNN_DEGRADATION_RATIO};
+    }
+
+    public int splitThreshold() {
+        return thresholds[SPLIT];
+    }
+
+    public int degRatio() {
+        return thresholds[DEGRADATION];
+    }
+
+    public int knnDegRatio() {
+        return thresholds[KNN_DEGRADATION];
+    }
+
+    public int steps() {
+        return steps;
+    }
+
+    public void searched() {
+        searches++;
+    }
+
+    public void verified(int entries) {
+        verified += entries;
+    }
+
+    public void moved(int entries) {
+        moved += entries;
+    }
+
+    /**
+     * Count a search probing the node of the keyword.
+     */
+    public void probed(String keyword) {
+        probes.computeIfAbsent(keyword, (k) -> new long[1])[0]++;
+    }
+
+    /**
+     * @return Decayed number of searches that probed the keyword
+     */
+    public long probes(String keyword) {
+        long[] count = probes.get(keyword);
+        return (count == null) ? 0 : count[0];
+    }
+
+    /**
+     * Take a tuning step once a window of searches is complete. Called before the cell changes, never during a search.
+     */
+    public void tune() {
+        if (searches < window)
+            return;
+
+        double cost = (verified + maintenanceWeight * moved) / searches;
+        searches = 0;
+        verified = 0;
+        moved = 0;
+        for (Iterator<long[]> it = probes.values().iterator(); it.hasNext(); ) {
+            long[] count = it.next();
+            count[0] /= 2;
+            if (count[0] == 0)
+                it.remove();
+        }
+
+        if (steppedKnob >= 0 && cost > lastCost) {
+            thresholds[steppedKnob] = steppedFrom;
+            directions[steppedKnob] = -directions[steppedKnob];
+        } else {
+            lastCost = cost;
+        }
+
+        steppedKnob = nextKnob;
+        steppedFrom = thresholds[steppedKnob];
+        int stepped = (directions[steppedKnob] > 0) ? steppedFrom * 2 : steppedFrom / 2;
+        thresholds[steppedKnob] = Math.max(1, Math.min(maxThreshold, stepped));
+        if (thresholds[steppedKnob] == steppedFrom) {
+            // At a bound, turn around without a step to judge.
+            directions[steppedKnob] = -directions[steppedKnob];
+            steppedKnob = -1;
+        } else {
+            steps++;
+        }
+        nextKnob = (nextKnob + 1) % thresholds.length;
+    }
+}
@@ -0,0 +1,73 @@
+package edu.purdue.cs.fast.structures;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Count-min sketch of keyword occurrences whose counts halve every `halfLife` ticks. Memory is `depth * width`
+ * counters whatever the vocabulary, and estimates never fall below the true decayed count.
+ * <p>
+ * Decay is forward: an occurrence at time `t` adds `2^((t - landmark) / halfLife)`, and estimates are scaled back by
+ * the weight of the time they are read at, so counters are only touched by updates. The landmark moves up once
+ * weights grow large, rescaling the counters.
+ */
+public class DecayedCountMinSketch implements Serializable {
+    private static final double MAX_WEIGHT = 0x1p32;
+
+    private final int depth;
+    private final int mask;
+    private final double halfLife;
+    private final double[] counts;
+    private long landmark = 0;
+
+    /**
+     * @param width Counters per row, rounded up to a power of two
+     */
+    public DecayedCountMinSketch(int depth, int width, int halfLife) {
+        if (depth < 1 || width < 1 || halfLife < 1)
+            throw new RuntimeException("Invalid sketch: depth=" + depth + ", width=" + width + ", halfLife=" + halfLife);
+        int rowWidth = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = rowWidth - 1;
+        this.halfLife = halfLife;
+        this.counts = new double[depth * rowWidth];
+    }
+
+    public synchronized void add(List<String> keywords, long timestamp) {
+        double weight = weight(timestamp);
+        if (weight > MAX_WEIGHT) {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] /= weight;
+            landmark = timestamp;
+            weight = 1;
+        }
+        for (String keyword : keywords) {
+            int h1 = keyword.hashCode();
+            int h2 = mix(h1);
+            for (int row = 0; row < depth; row++)
+                counts[row * (mask + 1) + ((h1 + row * h2) & mask)] += weight;
+        }
+    }
+
+    /**
+     * @return Decayed number of occurrences of the keyword as of `timestamp`, possibly overestimated
+     */
+    public synchronized double estimate(String keyword, long timestamp) {
+        int h1 = keyword.hashCode();
+        int h2 = mix(h1);
+        double min = Double.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+            min = Math.min(min, counts[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+        return min / weight(timestamp);
+    }
+
+    private double weight(long timestamp) {
+        return Math.pow(2, (timestamp - landmark) / halfLife);
+    }
+
+    // Second hash for the rows, odd so that the rows of a keyword are distinct.
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) | 1;
+    }
+}
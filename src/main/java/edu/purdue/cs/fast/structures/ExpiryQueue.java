@@ -0,0 +1,59 @@
+package edu.purdue.cs.fast.structures;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Entries bucketed by expiry time, e.g. objects or the placements of queries. Bucket `b` holds the entries with `et`
+ * in `[b * width, (b + 1) * width)`, and is handed out whole once every entry in it expired, so entries are released
+ * up to `width - 1` ticks after their `et`. Entries with an `et` of `Integer.MAX_VALUE` or more never expire and are
+ * not queued.
+ */
+public class ExpiryQueue<T> implements Serializable {
+    private final int width;
+    private final TreeMap<Long, ArrayList<T>> buckets = new TreeMap<>();
+    private int size = 0;
+
+    public ExpiryQueue(int width) {
+        if (width < 1)
+            throw new RuntimeException("Expiry bucket width must be positive: " + width);
+        this.width = width;
+    }
+
+    public void add(long et, T entry) {
+        if (et >= Integer.MAX_VALUE)
+            return;
+        buckets.computeIfAbsent(Math.floorDiv(et, (long) width), (b) -> new ArrayList<>()).add(entry);
+        size++;
+    }
+
+    /**
+     * Hand out and drop the buckets whose entries all expired, i.e. have `et <= timestamp`.
+     *
+     * @return Number of entries handed out
+     */
+    public int pollExpired(long timestamp, Consumer<T> action) {
+        int polled = 0;
+        for (Map.Entry<Long, ArrayList<T>> bucket; (bucket = buckets.firstEntry()) != null; ) {
+            if ((bucket.getKey() + 1) * width - 1 > timestamp)
+                break;
+            buckets.pollFirstEntry();
+            for (T entry : bucket.getValue())
+                action.accept(entry);
+            polled += bucket.getValue().size();
+        }
+        size -= polled;
+        return polled;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int width() {
+        return width;
+    }
+}
@@ -1,45 +1,80 @@
 package edu.purdue.cs.fast.structures;
 
-import edu.purdue.cs.fast.models.DataObject;
-import edu.purdue.cs.fast.models.KNNQuery;
-import edu.purdue.cs.fast.models.MinimalRangeQuery;
-import edu.purdue.cs.fast.models.Query;
+import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.models.*;
 
-import javax.xml.crypto.Data;
-import java.util.*;
 import java.io.Serializable;
+import java.util.*;
 
+/**
+ * Queries of a textual node, split into range queries, KNN queries and objects. Each kind is kept in a section of
+ * parallel arrays: the queries, their ids and expiry times, and for range and KNN queries the range or the centre and
+ * radius. The verification scan filters on the arrays alone, and `contains` and `remove` find a query by its id.
+ * <p>
+ * Removal moves the last query of the section into the freed position, so the order of a section is the insertion
+ * order only until the first removal. Callers that need an order sort the section with `sortMBR` or `sortKNN`.
+ */
 public class HybridList implements Iterable<Query>, Serializable {
-    private final ArrayList<MinimalRangeQuery> mbrQueries;
-    private final ArrayList<KNNQuery> kNNQueries;
-    private final ArrayList<DataObject> objects;
+    private static final Query[] NO_QUERIES = {};
+    private static final int[] NO_IDS = {};
+    private static final long[] NO_ETS = {};
+    private static final double[] NO_COORDINATES = {};
+
+    private final RangeSection mbrQueries;
+    private final KNNSection kNNQueries;
+    private final Section<DataObject> objects;
 
     // TODO - Remove eager init
     public HybridList() {
-        this.mbrQueries = new ArrayList<>();
-        this.kNNQueries = new ArrayList<>();
-        this.objects = new ArrayList<>();
+        this.mbrQueries = new RangeSection();
+        this.kNNQueries = new KNNSection();
+        this.objects = new Section<>();
     }
 
+    /**
+     * @return Read-only view of the range queries
+     */
     public List<MinimalRangeQuery> mbrQueries() {
         return this.mbrQueries;
     }
 
+    /**
+     * @return Read-only view of the KNN queries
+     */
     public List<KNNQuery> kNNQueries() {
         return this.kNNQueries;
     }
 
+    /**
+     * @return Read-only view of the objects
+     */
     public List<DataObject> objects() {
         return this.objects;
     }
 
+    public int mbrSize() {
+        return this.mbrQueries.size;
+    }
+
+    public int kNNSize() {
+        return this.kNNQueries.size;
+    }
+
+    public MinimalRangeQuery mbrQuery(int i) {
+        return this.mbrQueries.get(i);
+    }
+
+    public KNNQuery kNNQuery(int i) {
+        return this.kNNQueries.get(i);
+    }
+
     public void add(Query query) {
         if (query instanceof MinimalRangeQuery) {
-            this.mbrQueries.add((MinimalRangeQuery) query);
+            this.mbrQueries.append((MinimalRangeQuery) query);
         } else if (query instanceof KNNQuery) {
-            this.kNNQueries.add((KNNQuery) query);
+            this.kNNQueries.append((KNNQuery) query);
         } else if (query instanceof DataObject) {
-            this.objects.add((DataObject) query);
+            this.objects.append((DataObject) query);
         }
     }
 
@@ -50,24 +85,109 @@ public class HybridList implements Iterable<Query>, Serializable {
     }
 
     public boolean contains(Query query) {
-        if (query instanceof MinimalRangeQuery) {
-            return this.mbrQueries.contains((MinimalRangeQuery) query);
-        } else if (query instanceof KNNQuery) {
-            return this.kNNQueries.contains((KNNQuery) query);
-        } else if (query instanceof DataObject) {
-            return this.objects.contains((DataObject) query);
+        return section(query).slotOf(query) >= 0;
+    }
+
+    /**
+     * @return Whether the query was in the list
+     */
+    public boolean remove(Query query) {
+        Section<?> section = section(query);
+        int slot = section.slotOf(query);
+        if (slot < 0)
+            return false;
+        section.removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Remove the range query at position `i`, the last range query takes its position.
+     */
+    public MinimalRangeQuery removeMBRAt(int i) {
+        return this.mbrQueries.removeAt(i);
+    }
+
+    /**
+     * Remove the KNN query at position `i`, the last KNN query takes its position.
+     */
+    public KNNQuery removeKNNAt(int i) {
+        return this.kNNQueries.removeAt(i);
+    }
+
+    public void sortMBR(Comparator<? super MinimalRangeQuery> comparator) {
+        this.mbrQueries.sort(comparator);
+    }
+
+    public void sortKNN(Comparator<? super KNNQuery> comparator) {
+        this.kNNQueries.sort(comparator);
+    }
+
+    /**
+     * Range queries at positions `[from, from + 64)` that are live at `timestamp` and whose range may contain the
+     * point, as a bit set over the positions. The hits are to be verified with `SpatialHelper.overlapsSpatially`.
+     */
+    public long mbrCandidates(Point point, long timestamp, int from) {
+        RangeSection s = this.mbrQueries;
+        int to = Math.min(from + 64, s.size);
+        return live(s.ets, timestamp, from, to) &
+                SpatialHelper.rectanglesContaining(point.x, point.y, s.minX, s.minY, s.maxX, s.maxY, from, to);
+    }
+
+    /**
+     * KNN queries at positions `[from, from + 64)` that are live at `timestamp` and whose circle may contain the
+     * point, see `mbrCandidates`. A KNN query only shrinks its `ar` while it is indexed, possibly through another
+     * cell, so the stored radii over-approximate. `refreshRadius` tightens the radius of a query after it was
+     * verified.
+     */
+    public long kNNCandidates(Point point, long timestamp, int from) {
+        KNNSection s = this.kNNQueries;
+        int to = Math.min(from + 64, s.size);
+        return live(s.ets, timestamp, from, to) &
+                SpatialHelper.circlesContaining(point.x, point.y, s.x, s.y, s.ar, from, to);
+    }
+
+    /**
+     * Store the current centre and radius of a KNN query that moved.
+     *
+     * @return Whether the query is in the list
+     */
+    public boolean refreshLocation(KNNQuery query) {
+        int slot = this.kNNQueries.slotOf(query);
+        if (slot < 0)
+            return false;
+        this.kNNQueries.store(slot, query);
+        return true;
+    }
+
+    public void refreshRadius(int i) {
+        KNNSection s = this.kNNQueries;
+        s.ar[i] = s.get(i).ar;
+    }
+
+    private static long live(long[] ets, long timestamp, int from, int to) {
+        long hits = 0;
+        for (int i = from; i < to; i++) {
+            hits |= (ets[i] > timestamp ? 1L : 0L) << (i - from);
         }
-        return false;
+        return hits;
+    }
+
+    private Section<?> section(Query query) {
+        if (query instanceof MinimalRangeQuery)
+            return this.mbrQueries;
+        else if (query instanceof KNNQuery)
+            return this.kNNQueries;
+        return this.objects;
     }
 
     public boolean isEmpty() {
-        return this.kNNQueries.isEmpty() && this.mbrQueries.isEmpty() &&
-                this.objects.isEmpty();
+        return this.kNNQueries.size == 0 && this.mbrQueries.size == 0 &&
+                this.objects.size == 0;
     }
 
     public int size() {
-        return this.mbrQueries.size() + this.kNNQueries.size() +
-                this.objects.size();
+        return this.mbrQueries.size + this.kNNQueries.size +
+                this.objects.size;
     }
 
     @Override
@@ -78,15 +198,14 @@ public class HybridList implements Iterable<Query>, Serializable {
     private class HybridIterator implements Iterator<Query> {
         int cursor;       // index of next element to return
         int lastRet = -1; // index of last element returned; -1 if no such
-        int expectedCount = mbrQueries.size() + kNNQueries.size() + objects.size();
+        int expectedCount = size();
 
         HybridIterator() {
         }
 
         @Override
         public boolean hasNext() {
-            return cursor < mbrQueries.size() + kNNQueries.size() +
-                    objects.size();
+            return cursor < size();
         }
 
         @Override
@@ -96,16 +215,15 @@ public class HybridList implements Iterable<Query>, Serializable {
             checkForComodification();
 
             try {
-                Query query = getItemAtIndex(lastRet);
-
-                if (query instanceof MinimalRangeQuery) {
-                    mbrQueries.remove((MinimalRangeQuery) query);
-                } else if (query instanceof KNNQuery) {
-                    kNNQueries.remove((KNNQuery) query);
-                } else if (query instanceof DataObject) {
-                    objects.remove((DataObject) query);
+                if (lastRet < mbrQueries.size) {
+                    mbrQueries.removeAt(lastRet);
+                } else if (lastRet - mbrQueries.size < kNNQueries.size) {
+                    kNNQueries.removeAt(lastRet - mbrQueries.size);
+                } else {
+                    objects.removeAt(lastRet - mbrQueries.size - kNNQueries.size);
                 }
 
+                // The last query of the section moved into the removed position, and is returned next.
                 cursor = lastRet;
                 lastRet = -1;
                 expectedCount--;
@@ -118,7 +236,7 @@ public class HybridList implements Iterable<Query>, Serializable {
         public Query next() {
             checkForComodification();
             int i = cursor;
-            if (i >= mbrQueries.size() + kNNQueries.size() + objects.size())
+            if (i >= size())
                 throw new NoSuchElementException();
 
             Query out = getItemAtIndex(i);
@@ -129,19 +247,304 @@ public class HybridList implements Iterable<Query>, Serializable {
 
         private Query getItemAtIndex(int i) {
             Query out = null;
-            if (i < mbrQueries.size()) {
+            if (i < mbrQueries.size) {
                 out = mbrQueries.get(i);
-            } else if (i - mbrQueries.size() < kNNQueries.size()) {
-                out = kNNQueries.get(i - mbrQueries.size());
-            } else if (i - mbrQueries.size() - kNNQueries.size() < objects.size()) {
-                out = objects.get(i - mbrQueries.size() - kNNQueries.size());
+            } else if (i - mbrQueries.size < kNNQueries.size) {
+                out = kNNQueries.get(i - mbrQueries.size);
+            } else if (i - mbrQueries.size - kNNQueries.size < objects.size) {
+                out = objects.get(i - mbrQueries.size - kNNQueries.size);
             }
             return out;
         }
 
         final void checkForComodification() {
-            if (expectedCount != mbrQueries.size() + kNNQueries.size() + objects.size())
+            if (expectedCount != size())
                 throw new ConcurrentModificationException();
         }
     }
+
+    /**
+     * Queries of one kind with their ids and expiry times. Small sections are searched by id linearly, larger ones
+     * through an open addressing index from id to position. Read-only as a `List`.
+     */
+    private static class Section<T extends Query> extends AbstractList<T> implements RandomAccess, Serializable {
+        private static final int LINEAR_SEARCH_LIMIT = 16;
+
+        Query[] queries = NO_QUERIES;
+        int[] ids = NO_IDS;
+        long[] ets = NO_ETS;
+        int size = 0;
+        IdIndex index = null;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int i) {
+            if (i >= size)
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            return (T) queries[i];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        void append(T query) {
+            if (size == queries.length)
+                resize(Math.max(2, size << 1));
+            store(size, query);
+            if (index != null)
+                index.put(query.id, size);
+            size++;
+            if (index == null && size > LINEAR_SEARCH_LIMIT)
+                rebuildIndex();
+        }
+
+        int slotOf(Query query) {
+            if (index != null) {
+                int slot = index.get(query.id);
+                if (slot >= 0 && queries[slot].equals(query))
+                    return slot;
+                if (!index.hasDuplicates())
+                    return -1;
+            }
+            int id = query.id;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id && queries[i].equals(query))
+                    return i;
+            }
+            return -1;
+        }
+
+        T removeAt(int slot) {
+            T query = get(slot);
+            int last = size - 1;
+            if (index != null)
+                index.remove(query.id, slot);
+            if (slot != last) {
+                move(last, slot);
+                if (index != null)
+                    index.moved(ids[slot], last, slot);
+            }
+            queries[last] = null;
+            size = last;
+            if (index != null && index.hasDuplicates())
+                index.reindex(query.id, ids, size);
+            return query;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void sort(Comparator<? super T> comparator) {
+            Arrays.sort((T[]) queries, 0, size, comparator);
+            for (int i = 0; i < size; i++)
+                store(i, (T) queries[i]);
+            if (index != null)
+                rebuildIndex();
+        }
+
+        private void rebuildIndex() {
+            index = new IdIndex(size);
+            for (int i = 0; i < size; i++)
+                index.put(ids[i], i);
+        }
+
+        void store(int slot, T query) {
+            queries[slot] = query;
+            ids[slot] = query.id;
+            ets[slot] = query.et;
+        }
+
+        void move(int from, int to) {
+            queries[to] = queries[from];
+            ids[to] = ids[from];
+            ets[to] = ets[from];
+        }
+
+        void resize(int capacity) {
+            queries = Arrays.copyOf(queries, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            ets = Arrays.copyOf(ets, capacity);
+        }
+    }
+
+    private static class RangeSection extends Section<MinimalRangeQuery> {
+        double[] minX = NO_COORDINATES, minY = NO_COORDINATES, maxX = NO_COORDINATES, maxY = NO_COORDINATES;
+
+        @Override
+        void store(int slot, MinimalRangeQuery query) {
+            super.store(slot, query);
+            minX[slot] = query.spatialRange.min.x;
+            minY[slot] = query.spatialRange.min.y;
+            maxX[slot] = query.spatialRange.max.x;
+            maxY[slot] = query.spatialRange.max.y;
+        }
+
+        @Override
+        void move(int from, int to) {
+            super.move(from, to);
+            minX[to] = minX[from];
+            minY[to] = minY[from];
+            maxX[to] = maxX[from];
+            maxY[to] = maxY[from];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+        }
+    }
+
+    private static class KNNSection extends Section<KNNQuery> {
+        double[] x = NO_COORDINATES, y = NO_COORDINATES, ar = NO_COORDINATES;
+
+        @Override
+        void store(int slot, KNNQuery query) {
+            super.store(slot, query);
+            x[slot] = query.location.x;
+            y[slot] = query.location.y;
+            ar[slot] = query.ar;
+        }
+
+        @Override
+        void move(int from, int to) {
+            super.move(from, to);
+            x[to] = x[from];
+            y[to] = y[from];
+            ar[to] = ar[from];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            ar = Arrays.copyOf(ar, capacity);
+        }
+    }
+
+    /**
+     * Open addressing map from query id to position, with linear probing and backward shift deletion. An id added
+     * twice keeps its first position, and is only counted as a duplicate.
+     */
+    private static class IdIndex implements Serializable {
+        private int[] keys;
+        private int[] slots; // position + 1, 0 for a free entry
+        private int size = 0;
+        private int duplicates = 0;
+
+        IdIndex(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            keys = new int[capacity];
+            slots = new int[capacity];
+        }
+
+        private static int hash(int id, int mask) {
+            int h = id * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        boolean hasDuplicates() {
+            return duplicates > 0;
+        }
+
+        int get(int id) {
+            int mask = keys.length - 1;
+            for (int i = hash(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id)
+                    return slots[i] - 1;
+            }
+            return -1;
+        }
+
+        void put(int id, int slot) {
+            if ((size + 1) * 2 > keys.length)
+                grow();
+            int mask = keys.length - 1;
+            int i = hash(id, mask);
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    duplicates++;
+                    return;
+                }
+            }
+            keys[i] = id;
+            slots[i] = slot + 1;
+            size++;
+        }
+
+        /**
+         * Forget position `slot` of the id, if it is the indexed one, otherwise one of its duplicates is gone.
+         */
+        void remove(int id, int slot) {
+            int mask = keys.length - 1;
+            int i = hash(id, mask);
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id)
+                    break;
+            }
+            if (slots[i] == 0)
+                return;
+            if (slots[i] - 1 != slot) {
+                duplicates--;
+                return;
+            }
+
+            slots[i] = 0;
+            size--;
+            for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    slots[i] = slots[j];
+                    slots[j] = 0;
+                    i = j;
+                }
+            }
+        }
+
+        void moved(int id, int from, int to) {
+            int mask = keys.length - 1;
+            for (int i = hash(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    if (slots[i] - 1 == from)
+                        slots[i] = to + 1;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Index a remaining duplicate of an id whose indexed position was removed.
+         */
+        void reindex(int id, int[] ids, int size) {
+            if (get(id) >= 0)
+                return;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    duplicates--;
+                    put(id, i);
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new int[oldKeys.length << 1];
+            slots = new int[oldSlots.length << 1];
+            size = 0;
+            int oldDuplicates = duplicates;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldSlots[i] != 0)
+                    put(oldKeys[i], oldSlots[i] - 1);
+            }
+            duplicates = oldDuplicates;
+        }
+    }
 }
@@ -6,11 +6,29 @@ public class KeywordFrequency implements Serializable {
 	public int queryCount;
 	public int visitCount;
 	public int lastDecayTimeStamp;
+	// Query inserts with the keyword, halving every half-life since `lastDecayTimeStamp`.
+	public double recentQueries = 0;
 
 	public KeywordFrequency(int queryCount, int visitCount, int timeStamp) {
 		this.queryCount = queryCount;
 		this.visitCount = visitCount;
 		this.lastDecayTimeStamp = timeStamp;
 	}
-}
 
+	public double recentQueries(int timeStamp, int halfLife) {
+		decay(timeStamp, halfLife);
+		return recentQueries;
+	}
+
+	public void addQuery(int timeStamp, int halfLife) {
+		decay(timeStamp, halfLife);
+		recentQueries++;
+	}
+
+	private void decay(int timeStamp, int halfLife) {
+		if (timeStamp > lastDecayTimeStamp) {
+			recentQueries *= Math.pow(0.5, (double) (timeStamp - lastDecayTimeStamp) / halfLife);
+			lastDecayTimeStamp = timeStamp;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package edu.purdue.cs.fast.structures;
+
+import edu.purdue.cs.fast.models.QueryStat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed capacity ring of query stats, stored in primitive columns so that recording an event allocates nothing and
+ * the memory of the timeline stays constant regardless of the run length.
+ * <p>
+ * Writers claim a sequence number from a shared cursor and publish their slot once its columns are written, so
+ * `record` never takes a lock. A writer only waits for the writer of the previous lap of the ring that is still
+ * writing its slot. Without a sink, the ring keeps the latest `capacity` events and older ones are overwritten. With
+ * a sink, every half of the ring is drained to the sink by the writer that fills it. Events that writers overwrite
+ * before they are drained are counted in `lost()`.
+ */
+public class QueryStatBuffer {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final QueryStat.Stage[] STAGES = QueryStat.Stage.values();
+
+    private final int capacity;
+    private final int mask;
+    private final int[] index;
+    private final long[] searchTime;
+    private final long[] insertTime;
+    private final double[] ar;
+    private final int[] descendCount;
+    private final int[] level;
+    private final byte[] stage;
+    // seq + 1 once the slot holds the event seq, -(seq + 1) while it is being written and 0 before the first write.
+    private final AtomicLongArray published;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final QueryStat stat = new QueryStat(0, 0, 0, 0, 0, 0, QueryStat.Stage.INSERT);
+    private long drained = 0;
+    private volatile Sink sink;
+
+    public QueryStatBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of events kept in the ring, rounded up to a power of two
+     */
+    public QueryStatBuffer(int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Query stat buffer needs a capacity of at least 2");
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.index = new int[this.capacity];
+        this.searchTime = new long[this.capacity];
+        this.insertTime = new long[this.capacity];
+        this.ar = new double[this.capacity];
+        this.descendCount = new int[this.capacity];
+        this.level = new int[this.capacity];
+        this.stage = new byte[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+    }
+
+    public void record(int index, long searchTime, long insertTime, double ar, int descendCount, int level,
+                       QueryStat.Stage stage) {
+        long seq = cursor.getAndIncrement();
+        int slot = (int) seq & mask;
+        while (true) {
+            long stamp = published.get(slot);
+            // A writer that lapped this one already used the slot, the event is counted as lost by the drains.
+            if (Math.abs(stamp) - 1 > seq)
+                return;
+            // The writer of the previous lap is still writing the slot.
+            if (stamp < 0) {
+                Thread.yield();
+                continue;
+            }
+            if (published.compareAndSet(slot, stamp, -(seq + 1)))
+                break;
+        }
+        this.index[slot] = index;
+        this.searchTime[slot] = searchTime;
+        this.insertTime[slot] = insertTime;
+        this.ar[slot] = ar;
+        this.descendCount[slot] = descendCount;
+        this.level[slot] = level;
+        this.stage[slot] = (byte) stage.ordinal();
+        published.lazySet(slot, seq + 1);
+
+        if (sink != null && ((seq + 1) & (mask >>> 1)) == 0)
+            flush();
+    }
+
+    /**
+     * Stream the events to the sink from now on. Events already in the ring are drained by the next flush.
+     */
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Drain the published events that the sink has not seen yet. Events still being written stay for the next flush.
+     */
+    public synchronized void flush() {
+        Sink sink = this.sink;
+        if (sink == null)
+            return;
+        try {
+            drained = drain(drained, cursor.get(), sink);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write query stats", e);
+        }
+    }
+
+    /**
+     * Pass the events still held in the ring to the sink in order, without draining them.
+     */
+    public synchronized void forEach(Sink sink) throws IOException {
+        long end = cursor.get();
+        long from = Math.max(this.sink == null ? 0 : drained, end - capacity);
+        drain(from, end, sink);
+    }
+
+    /**
+     * @return Sequence after the last event passed to the sink
+     */
+    private long drain(long from, long end, Sink sink) throws IOException {
+        if (from < end - capacity) {
+            lost.addAndGet(end - capacity - from);
+            from = end - capacity;
+        }
+        long seq = from;
+        for (; seq < end; seq++) {
+            int slot = (int) seq & mask;
+            long stamp = published.get(slot);
+            if (stamp != seq + 1) {
+                if (stamp == -(seq + 1) || Math.abs(stamp) - 1 < seq)
+                    break;
+                lost.incrementAndGet();
+                continue;
+            }
+            stat.index = index[slot];
+            stat.searchTime = searchTime[slot];
+            stat.insertTime = insertTime[slot];
+            stat.ar = ar[slot];
+            stat.descendCount = descendCount[slot];
+            stat.level = level[slot];
+            stat.stage = STAGES[stage[slot]];
+            // Stats are best effort, the check does not fence the column reads against a writer lapping the ring.
+            if (published.get(slot) != seq + 1) {
+                lost.incrementAndGet();
+                continue;
+            }
+            sink.accept(stat);
+        }
+        return seq;
+    }
+
+    /**
+     * Drop all events and the sink. Must not race with writers.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < capacity; i++)
+            published.set(i, 0);
+        cursor.set(0);
+        lost.set(0);
+        drained = 0;
+        sink = null;
+    }
+
+    /**
+     * @return Number of events recorded since the last reset
+     */
+    public long size() {
+        return cursor.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of events overwritten before a sink saw them
+     */
+    public long lost() {
+        return lost.get();
+    }
+
+    /**
+     * Receiver of drained events. The stat passed in is reused between calls and must be copied to be kept.
+     */
+    public interface Sink {
+        void accept(QueryStat stat) throws IOException;
+    }
+
+    /**
+     * Sink writing each event as a JSON line.
+     */
+    public static Sink jsonLines(Writer writer) {
+        return (stat) -> {
+            writer.write(stat.toJson());
+            writer.write('\n');
+        };
+    }
+}
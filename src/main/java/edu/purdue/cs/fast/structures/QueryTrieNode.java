@@ -4,8 +4,9 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.io.Serializable;
 
-import edu.purdue.cs.fast.FAST;
 import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.config.Context;
 import edu.purdue.cs.fast.models.*;
 import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.helper.TextHelpers;
@@ -19,13 +20,13 @@ public class QueryTrieNode extends TextualNode implements Serializable {
     public int degRatio;
     public int knnDegRatio;
 
-    public QueryTrieNode(int level) {
-        if (!FAST.config.ADAPTIVE_DEG_RATIO) {
-            knnDegRatio = FAST.config.KNN_DEGRADATION_RATIO;
+    public QueryTrieNode(Config config, int level) {
+        if (!config.ADAPTIVE_DEG_RATIO) {
+            knnDegRatio = config.KNN_DEGRADATION_RATIO;
         }
 
-        degRatio = FAST.config.DEGRADATION_RATIO;
-        knnDegRatio = FAST.config.KNN_DEGRADATION_RATIO;
+        degRatio = config.DEGRADATION_RATIO;
+        knnDegRatio = config.KNN_DEGRADATION_RATIO;
 
 //        degRatio = FAST.config.DEGRADATION_RATIO + (FAST.context.maxLevel - level) * 2;
 //        knnDegRatio = FAST.config.KNN_DEGRADATION_RATIO + (FAST.context.maxLevel - level) * 2;
@@ -35,18 +36,23 @@ public class QueryTrieNode extends TextualNode implements Serializable {
 
     public void find(SpatialCell parent, DataObject obj, ArrayList<String> keywords, int start, List<Query> results,
                      List<ReinsertEntry> descendingKNNQueries, boolean isExpiry) {
-        FAST.context.objectSearchTrieNodeCounter++;
+        Context context = parent.fast.context;
+        Config config = parent.fast.config;
+        context.objectSearchTrieNodeCounter.increment();
+        CellTuner tuner = parent.tuner;
+        if (tuner != null)
+            tuner.verified(((finalQueries == null) ? 0 : finalQueries.size()) + ((queries == null) ? 0 : queries.size()));
 
         if (finalQueries != null)
-            for (Query q : finalQueries) {
-                FAST.context.objectSearchTrieFinalNodeCounter++;
-                searchQueries(obj, results, q, isExpiry);
+            for (int i = 0; i < finalQueries.size(); i++) {
+                context.objectSearchTrieFinalNodeCounter.increment();
+                searchQueries(parent, obj, results, finalQueries.get(i), isExpiry);
             }
 
-        if (unboundedQueries != null) {
+        if (unboundedQueries != null && !unboundedQueries.isEmpty()) {
             for (Iterator<KNNQuery> it = unboundedQueries.iterator(); it.hasNext();) {
                 KNNQuery q = it.next();
-                FAST.context.objectSearchTrieFinalNodeCounter++;
+                context.objectSearchTrieFinalNodeCounter.increment();
                 boolean nowBounded = q.ar < Double.MAX_VALUE;
                 if (nowBounded) {
                     if (queries == null)
@@ -55,62 +61,65 @@ public class QueryTrieNode extends TextualNode implements Serializable {
                     queries.add(q);
                     it.remove();
                 } else {
-                    searchQueries(obj, results, q, isExpiry);
+                    searchQueries(parent, obj, results, q, isExpiry);
                 }
             }
         }
 
         if (queries != null) {
-            for (MinimalRangeQuery q : queries.mbrQueries()) {
-                FAST.context.objectSearchTrieNodeCounter++;
-                searchQueries(obj, results, q, isExpiry);
+            for (int i = 0; i < queries.mbrSize(); i++) {
+                context.objectSearchTrieNodeCounter.increment();
+                searchQueries(parent, obj, results, queries.mbrQuery(i), isExpiry);
             }
 
 //            if (obj.id == 3657 + 10000) {
 //                System.out.println("Debug!");
 //            }
-            if (FAST.config.INCREMENTAL_DESCENT) {
+            // Without KNN queries both branches are no-ops, skip the comparator and sort.
+            if (config.INCREMENTAL_DESCENT && queries.kNNSize() > 0) {
                 SpatialCell.SpatialOverlapComparator soc = new SpatialCell.SpatialOverlapComparator(parent.bounds);
-                List<KNNQuery> knnQueries = queries.kNNQueries();
-                knnQueries.sort(soc);
-                int queriesSize = knnQueries.size();
+                queries.sortKNN(soc);
+                int queriesSize = queries.kNNSize();
                 int descendedCount = 0;
+                // Removals move the last query into the removed position, which is already searched.
                 for (int i = queriesSize - 1; i >= 0; i--) {
-                    KNNQuery q = knnQueries.get(i);
+                    KNNQuery q = queries.kNNQuery(i);
 
-                    if (q.et > FAST.context.timestamp || isExpiry) {
-                        searchQueries(obj, results, q, isExpiry);
+                    if (q.et > context.timestamp || isExpiry) {
+                        searchQueries(parent, obj, results, q, isExpiry);
                     }
 
-                    if (queriesSize > knnDegRatio &&
-                            parent.level == FAST.context.maxLevel &&
-                            q.ar < FAST.config.KNN_DEGRADATION_AR &&
+                    if (queriesSize > parent.knnDegRatio(this) &&
+                            parent.level == context.maxLevel &&
+                            q.ar < config.KNN_DEGRADATION_AR &&
                             descendedCount < queriesSize / 2) {
 //                        if (q.id == 31) { // || q.id == 453
 //                            System.out.println("Pushing down: " + q.id + ", from: " + q.currentLevel + ", x: " + q.location.x
 //                                    + ", y: " + q.location.y + ", ar: " + q.ar + ", list_size: " + queriesSize + ", coz: " + obj.id);
 //                        }
-                        q = knnQueries.remove(i);
+                        q = queries.removeKNNAt(i);
 //                        Run.logger.debug("Descend from level on search " + parent.level + ", query: " + q.id);
-                        descendingKNNQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(FAST.context.bounds, q.spatialBox()), q));
+                        descendingKNNQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(context.bounds, q.spatialBox()), q));
                         descendedCount++;
-                        FAST.context.totalDescendOpts++;
+                        context.totalDescendOpts.increment();
+                        if (tuner != null)
+                            tuner.moved(1);
                     }
                 }
-                if (FAST.config.ADAPTIVE_DEG_RATIO && descendedCount > 0) {
-                    knnDegRatio = Math.min(FAST.config.KNN_DEGRADATION_RATIO, 2 * knnDegRatio);
+                if (config.ADAPTIVE_DEG_RATIO && descendedCount > 0) {
+                    knnDegRatio = Math.min(config.KNN_DEGRADATION_RATIO, 2 * knnDegRatio);
                 }
             } else {
-                for (Iterator<KNNQuery> it = queries.kNNQueries().iterator(); it.hasNext(); ) {
-                    KNNQuery q = it.next();
-                    FAST.context.objectSearchTrieNodeCounter++;
-                    if ((q.et <= FAST.context.timestamp && !isExpiry) || q.currentLevel != parent.level)
+                for (int i = 0; i < queries.kNNSize(); i++) {
+                    KNNQuery q = queries.kNNQuery(i);
+                    context.objectSearchTrieNodeCounter.increment();
+                    if ((q.et <= context.timestamp && !isExpiry) || q.currentLevel != parent.level)
                         continue;
 
-                    boolean kFilled = searchQueries(obj, results, q, isExpiry);
-                    if (descendingKNNQueries != null && parent.level == FAST.context.maxLevel && kFilled) {
-                        descendingKNNQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(FAST.context.bounds, q.spatialBox()), q));
-                        it.remove();
+                    boolean kFilled = searchQueries(parent, obj, results, q, isExpiry);
+                    if (descendingKNNQueries != null && parent.level == context.maxLevel && kFilled) {
+                        descendingKNNQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(context.bounds, q.spatialBox()), q));
+                        queries.removeKNNAt(i--);
                     }
                 }
             }
@@ -123,42 +132,55 @@ public class QueryTrieNode extends TextualNode implements Serializable {
                 if (node == null)
                     continue;
 
-                FAST.context.objectSearchTrieHashAccess++;
+                context.objectSearchTrieHashAccess.increment();
+                if (tuner != null)
+                    tuner.verified((node instanceof QueryListNode) ? ((QueryListNode) node).queries.size() : 1);
                 if (node instanceof QueryNode) {
-                    FAST.context.objectSearchTrieNodeCounter++;
+                    context.objectSearchTrieNodeCounter.increment();
                     if (((QueryNode) node).query instanceof MinimalRangeQuery) {
                         MinimalRangeQuery query = (MinimalRangeQuery) ((QueryNode) node).query;
-                        if (query.et > FAST.context.timestamp && SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
+                        if (query.et > context.timestamp && SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
                                 TextHelpers.containsTextually(keywords, query.keywords))
                             results.add(query);
                     }
                     if (((QueryNode) node).query instanceof KNNQuery) {
                         KNNQuery query = (KNNQuery) ((QueryNode) node).query;
-                        if ((query.et > FAST.context.timestamp || isExpiry) && (FAST.config.INCREMENTAL_DESCENT || query.currentLevel == parent.level) &&
+                        if ((query.et > context.timestamp || isExpiry) && (config.INCREMENTAL_DESCENT || query.currentLevel == parent.level) &&
                                 SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
                                 TextHelpers.containsTextually(keywords, query.keywords)) {
                             results.add(query);
                             if (!isExpiry) {
-                                query.pushUntilKHat(obj);
+                                query.pushUntilKHat(obj, config.INCREMENTAL_DESCENT);
                             }
                         }
                     }
                 } else if (node instanceof QueryListNode) {
-                    for (MinimalRangeQuery query : ((QueryListNode) node).queries.mbrQueries()) {
-                        FAST.context.objectSearchTrieNodeCounter++;
-                        if (query.et > FAST.context.timestamp && SpatialHelper.overlapsSpatially(obj.location, query.spatialRange)
-                                && TextHelpers.containsTextually(keywords, query.keywords))
-                            results.add(query);
+                    HybridList listQueries = ((QueryListNode) node).queries;
+                    int mbrSize = listQueries.mbrSize();
+                    int kNNSize = listQueries.kNNSize();
+                    context.objectSearchTrieNodeCounter.add(mbrSize + kNNSize);
+                    for (int from = 0; from < mbrSize; from += 64) {
+                        for (long hits = listQueries.mbrCandidates(obj.location, context.timestamp, from); hits != 0; hits &= hits - 1) {
+                            MinimalRangeQuery query = listQueries.mbrQuery(from + Long.numberOfTrailingZeros(hits));
+                            if (SpatialHelper.overlapsSpatially(obj.location, query.spatialRange)
+                                    && TextHelpers.containsTextually(keywords, query.keywords))
+                                results.add(query);
+                        }
                     }
-                    for (KNNQuery query : ((QueryListNode) node).queries.kNNQueries()) {
-                        FAST.context.objectSearchTrieNodeCounter++;
-                        if ((query.et > FAST.context.timestamp || isExpiry) && (FAST.config.INCREMENTAL_DESCENT || query.currentLevel == parent.level) &&
-                                SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
-                                TextHelpers.containsTextually(keywords, query.keywords)) {
-                            results.add(query);
-                            if (!isExpiry) {
-                                query.pushUntilKHat(obj);
+                    for (int from = 0; from < kNNSize; from += 64) {
+                        long timestamp = isExpiry ? Long.MIN_VALUE : context.timestamp;
+                        for (long hits = listQueries.kNNCandidates(obj.location, timestamp, from); hits != 0; hits &= hits - 1) {
+                            int m = from + Long.numberOfTrailingZeros(hits);
+                            KNNQuery query = listQueries.kNNQuery(m);
+                            if ((config.INCREMENTAL_DESCENT || query.currentLevel == parent.level) &&
+                                    SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
+                                    TextHelpers.containsTextually(keywords, query.keywords)) {
+                                results.add(query);
+                                if (!isExpiry) {
+                                    query.pushUntilKHat(obj, config.INCREMENTAL_DESCENT);
+                                }
                             }
+                            listQueries.refreshRadius(m);
                         }
                     }
                 } else if (node instanceof QueryTrieNode) {
@@ -167,7 +189,7 @@ public class QueryTrieNode extends TextualNode implements Serializable {
             }
     }
 
-    private boolean searchQueries(DataObject obj, List<Query> results, Query q, boolean isExpiry) {
+    private boolean searchQueries(SpatialCell parent, DataObject obj, List<Query> results, Query q, boolean isExpiry) {
         if (q instanceof MinimalRangeQuery && SpatialHelper.overlapsSpatially(obj.location, ((MinimalRangeQuery) q).spatialRange)) {
             results.add(q);
         }
@@ -179,20 +201,98 @@ public class QueryTrieNode extends TextualNode implements Serializable {
             if (SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar)) {
                 results.add(query);
                 if (!isExpiry)
-                    query.pushUntilKHat(obj);
+                    query.pushUntilKHat(obj, parent.fast.config.INCREMENTAL_DESCENT);
                 return query.kFilled();
             }
         }
         return false;
     }
 
-    public int clean(int level, Rectangle bounds, QueryListNode combinedQueries) {
+    public boolean isEmpty() {
+        return queries == null && subtree == null && (finalQueries == null || finalQueries.isEmpty()) &&
+                (unboundedQueries == null || unboundedQueries.isEmpty());
+    }
+
+    /**
+     * Remove a query from this node and the subtrees along its keywords from position `from` on, the way
+     * `SpatialCell.addInternalQueryNoShare` walks them.
+     *
+     * @return Number of nodes the query was removed from
+     */
+    public int removeQuery(Query query, int from) {
+        int removed = 0;
+        if (queries != null && queries.remove(query)) {
+            removed++;
+            if (queries.isEmpty())
+                queries = null;
+        }
+        if (finalQueries != null && finalQueries.remove(query))
+            removed++;
+        if (unboundedQueries != null && unboundedQueries.remove(query))
+            removed++;
+
+        if (subtree != null) {
+            for (int j = from; j < query.keywords.size(); j++) {
+                String keyword = query.keywords.get(j);
+                TextualNode node = subtree.get(keyword);
+                if (node instanceof QueryNode) {
+                    if (((QueryNode) node).query.equals(query)) {
+                        subtree.remove(keyword);
+                        removed++;
+                    }
+                } else if (node instanceof QueryListNode) {
+                    if (((QueryListNode) node).queries.remove(query))
+                        removed++;
+                    if (((QueryListNode) node).queries.isEmpty())
+                        subtree.remove(keyword);
+                } else if (node instanceof QueryTrieNode) {
+                    removed += ((QueryTrieNode) node).removeQuery(query, j + 1);
+                    if (((QueryTrieNode) node).isEmpty())
+                        subtree.remove(keyword);
+                }
+            }
+            if (subtree.isEmpty())
+                subtree = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Refresh the stored location of a moved KNN query in this node and the subtrees along its keywords from position
+     * `from` on, see `removeQuery`.
+     *
+     * @return Whether the query was found
+     */
+    public boolean refreshLocation(KNNQuery query, int from) {
+        boolean found = queries != null && queries.refreshLocation(query);
+        // Final and unbounded queries are checked against their live location.
+        found |= finalQueries != null && finalQueries.contains(query);
+        found |= unboundedQueries != null && unboundedQueries.contains(query);
+        if (subtree == null)
+            return found;
+        for (int j = from; j < query.keywords.size(); j++) {
+            TextualNode node = subtree.get(query.keywords.get(j));
+            if (node instanceof QueryNode)
+                found |= ((QueryNode) node).query == query;
+            else if (node instanceof QueryListNode)
+                found |= ((QueryListNode) node).queries.refreshLocation(query);
+            else if (node instanceof QueryTrieNode)
+                found |= ((QueryTrieNode) node).refreshLocation(query, j + 1);
+        }
+        return found;
+    }
+
+    public int clean(SpatialCell parent, QueryListNode combinedQueries) {
+        Context context = parent.fast.context;
+        Config config = parent.fast.config;
+        int level = parent.level;
+        Rectangle bounds = parent.bounds;
         int operations = 0;
         if (queries != null) {
             Iterator<Query> queriesItr = queries.iterator();
             while (queriesItr.hasNext()) {
                 Query q = queriesItr.next();
-                if (q.et < FAST.context.timestamp || (FAST.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
+                if (q.et < context.timestamp || (config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
                         (((KNNQuery) q).currentLevel != level || !SpatialHelper.overlapsSpatially(bounds, ((KNNQuery) q).location, ((KNNQuery) q).ar))))
                     queriesItr.remove();
                 else {
@@ -209,7 +309,7 @@ public class QueryTrieNode extends TextualNode implements Serializable {
                 TextualNode node = trieCellsItr.next().getValue();
                 if (node instanceof QueryNode) {
                     Query q = ((QueryNode) node).query;
-                    if (q.et < FAST.context.timestamp || (FAST.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
+                    if (q.et < context.timestamp || (config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
                             (((KNNQuery) q).currentLevel != level || !SpatialHelper.overlapsSpatially(bounds, ((KNNQuery) q).location, ((KNNQuery) q).ar))))
                         trieCellsItr.remove();
                     else {
@@ -220,7 +320,7 @@ public class QueryTrieNode extends TextualNode implements Serializable {
                     Iterator<Query> queriesInternalItr = ((QueryListNode) node).queries.iterator();
                     while (queriesInternalItr.hasNext()) {
                         Query q = queriesInternalItr.next();
-                        if (q.et < FAST.context.timestamp || (FAST.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
+                        if (q.et < context.timestamp || (config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
                                 (((KNNQuery) q).currentLevel != level || !SpatialHelper.overlapsSpatially(bounds, ((KNNQuery) q).location, ((KNNQuery) q).ar))))
                             queriesInternalItr.remove();
                         else {
@@ -231,7 +331,7 @@ public class QueryTrieNode extends TextualNode implements Serializable {
                     if (((QueryListNode) node).queries.isEmpty())
                         trieCellsItr.remove();
                 } else if (node instanceof QueryTrieNode) {
-                    operations += ((QueryTrieNode) node).clean(level, bounds, combinedQueries);
+                    operations += ((QueryTrieNode) node).clean(parent, combinedQueries);
                     if (((QueryTrieNode) node).queries == null && ((QueryTrieNode) node).subtree == null)
                         trieCellsItr.remove();
                 }
@@ -0,0 +1,26 @@
+package edu.purdue.cs.fast.structures;
+
+import edu.purdue.cs.fast.models.ReinsertEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable buffers of one object search, so that the steady state search loop allocates nothing. A scratch must
+ * only be used by one search at a time.
+ */
+public class SearchScratch {
+    private final ArrayList<String> remainingKeywords = new ArrayList<>();
+    private final ArrayList<String> nextRemainingKeywords = new ArrayList<>();
+    public final ArrayList<ReinsertEntry> descendingKNNQueries = new ArrayList<>();
+
+    /**
+     * @param keywords Keywords searched at the current level
+     * @return Empty buffer for the remaining keywords of the level, never the list being searched
+     */
+    public ArrayList<String> remainingKeywords(List<String> keywords) {
+        ArrayList<String> buffer = (keywords == remainingKeywords) ? nextRemainingKeywords : remainingKeywords;
+        buffer.clear();
+        return buffer;
+    }
+}
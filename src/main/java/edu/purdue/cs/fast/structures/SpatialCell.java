@@ -33,19 +33,39 @@ import edu.purdue.cs.fast.helper.SpatialHelper;
 import edu.purdue.cs.fast.helper.TextHelpers;
 
 public class SpatialCell implements Serializable {
+    // Index the cell belongs to, for its context, configuration and keyword statistics.
+    public final FAST fast;
     public ConcurrentHashMap<String, TextualNode> textualIndex;
     public Rectangle bounds;
-    public int coordinate;
+    public long coordinate;
     public int level;
+    public volatile boolean hasKNNQueries;
+    // Thresholds of this cell with `ADAPTIVE_THRESHOLDS`, null otherwise.
+    public CellTuner tuner;
 
-    Iterator<Entry<String, TextualNode>> cleaningIterator;
+    transient Iterator<Entry<String, TextualNode>> cleaningIterator;
 
-    public SpatialCell(Rectangle bounds, Integer coordinate, int level) {
+    public SpatialCell(FAST fast, Rectangle bounds, long coordinate, int level) {
+        this.fast = fast;
         this.bounds = bounds;
         this.bounds.max.x -= .001;
         this.bounds.max.y -= .001;
         this.coordinate = coordinate;
         this.level = level;
+        if (fast.config.ADAPTIVE_THRESHOLDS)
+            this.tuner = new CellTuner(fast.config);
+    }
+
+    public int splitThreshold() {
+        return (tuner == null) ? fast.config.TRIE_SPLIT_THRESHOLD : tuner.splitThreshold();
+    }
+
+    public int degRatio(QueryTrieNode node) {
+        return (tuner == null) ? node.degRatio : tuner.degRatio();
+    }
+
+    public int knnDegRatio(QueryTrieNode node) {
+        return (tuner == null) ? node.knnDegRatio : tuner.knnDegRatio();
     }
 
     public static Rectangle getBounds(int i, int j, double step) {
@@ -57,9 +77,11 @@ public class SpatialCell implements Serializable {
         if (textualIndex == null) {
             textualIndex = new ConcurrentHashMap<>();
         }
+        if (tuner != null)
+            tuner.tune();
 
         if (!textualIndex.containsKey(keyword) && sharedQueries != null) {
-            FAST.context.numberOfHashEntries++;
+            fast.context.numberOfHashEntries.increment();
             textualIndex.put(keyword, sharedQueries);
         } else {
             if (sharedQueries == null)
@@ -68,11 +90,11 @@ public class SpatialCell implements Serializable {
             TextualNode node = textualIndex.get(keyword);
             if (node instanceof QueryNode) {
                 Query exitingQuery = ((QueryNode) node).query;
-                if (exitingQuery.et > FAST.context.timestamp) { //checking for the support of the query
+                if (exitingQuery.et > fast.context.timestamp) { //checking for the support of the query
                     if (sharedQueries.queries.contains(exitingQuery)) {
                         textualIndex.put(keyword, sharedQueries);
-                    } else if (sharedQueries.queries.mbrQueries().size() < FAST.config.TRIE_SPLIT_THRESHOLD) {
-                        FAST.context.queryInsertInvListNodeCounter++;
+                    } else if (sharedQueries.queries.mbrQueries().size() < splitThreshold()) {
+                        fast.context.queryInsertInvListNodeCounter.increment();
                         sharedQueries.queries.add(exitingQuery);
                         textualIndex.put(keyword, sharedQueries);
                     } else
@@ -89,7 +111,7 @@ public class SpatialCell implements Serializable {
                     if (!sharedQueries.queries.contains(q))
                         nonSharedQueries.add(q);
                 }
-                if (!nonSharedQueries.isEmpty() && nonSharedQueries.size() + sharedQueries.queries.size() <= FAST.config.TRIE_SPLIT_THRESHOLD) {
+                if (!nonSharedQueries.isEmpty() && nonSharedQueries.size() + sharedQueries.queries.size() <= splitThreshold()) {
                     sharedQueries.queries.addAll(nonSharedQueries);
                     textualIndex.put(keyword, sharedQueries);
                 } else {
@@ -106,6 +128,10 @@ public class SpatialCell implements Serializable {
         if (textualIndex == null) {
             textualIndex = new ConcurrentHashMap<>();
         }
+        if (tuner != null)
+            tuner.tune();
+        if (query instanceof KNNQuery)
+            hasKNNQueries = true;
         Queue<Query> queue = new LinkedList<>();
         boolean inserted = insertAtKeyWord(keyword, query, sharedQueries);
         if (inserted) {
@@ -131,10 +157,12 @@ public class SpatialCell implements Serializable {
                 for (String term : query.keywords) {
                     //mark all these keywords as tries
                     if (textualIndex.get(term) instanceof QueryListNode) {
+                        if (tuner != null)
+                            tuner.moved(((QueryListNode) textualIndex.get(term)).queries.size());
                         queue.addAll(((QueryListNode) textualIndex.get(term)).queries.mbrQueries());
                         queue.addAll(((QueryListNode) textualIndex.get(term)).queries.kNNQueries());
-                        textualIndex.put(term, new QueryTrieNode(level));
-                        FAST.context.numberOfTrieNodes++;
+                        textualIndex.put(term, new QueryTrieNode(fast.config, level));
+                        fast.context.numberOfTrieNodes.increment();
                     }
                 }
             }
@@ -150,7 +178,7 @@ public class SpatialCell implements Serializable {
                     trieNode.subtree.put(keyword, new QueryNode(query));
                     inserted = true;
                 } else if (node instanceof QueryNode) {
-                    if (((QueryNode) node).query.et > FAST.context.timestamp) {
+                    if (((QueryNode) node).query.et > fast.context.timestamp) {
                         QueryListNode newNode = new QueryListNode(((QueryNode) node).query);
                         newNode.queries.add(query);
                         trieNode.subtree.put(keyword, newNode);
@@ -160,20 +188,22 @@ public class SpatialCell implements Serializable {
                     }
                     inserted = true;
                 } else if (node instanceof QueryListNode &&
-                        ((QueryListNode) node).queries.size() <= FAST.config.TRIE_SPLIT_THRESHOLD) {
+                        ((QueryListNode) node).queries.size() <= splitThreshold()) {
 
                     ((QueryListNode) node).queries.add(query);
                     inserted = true;
                 } else if (node instanceof QueryListNode &&
-                        ((QueryListNode) node).queries.size() > FAST.config.TRIE_SPLIT_THRESHOLD) {
-                    QueryTrieNode newCell = new QueryTrieNode(level);
-                    FAST.context.numberOfTrieNodes++;
+                        ((QueryListNode) node).queries.size() > splitThreshold()) {
+                    QueryTrieNode newCell = new QueryTrieNode(fast.config, level);
+                    fast.context.numberOfTrieNodes.increment();
                     ((QueryListNode) node).queries.add(query);
+                    if (tuner != null)
+                        tuner.moved(((QueryListNode) node).queries.size());
                     newCell.subtree = new HashMap<>();
                     newCell.queries = new HybridList();
                     trieNode.subtree.put(keyword, newCell);
                     for (Query otherQuery : ((QueryListNode) node).queries) {
-                        if (otherQuery.et > FAST.context.timestamp) {
+                        if (otherQuery.et > fast.context.timestamp) {
                             if (otherQuery.keywords.size() > (j + 1)) {
 
                                 QueryListNode otherCell = (QueryListNode) newCell.subtree.get(otherQuery.keywords.get(j + 1));
@@ -200,9 +230,9 @@ public class SpatialCell implements Serializable {
                             if (((QueryTrieNode) node).finalQueries == null)
                                 ((QueryTrieNode) node).finalQueries = new ArrayList<>();
                             ((QueryTrieNode) node).finalQueries.add(query);
-                        } else if (FAST.config.INCREMENTAL_DESCENT && query instanceof KNNQuery &&
-                                level == FAST.context.maxLevel && ((KNNQuery) query).ar == Double.MAX_VALUE &&
-                                !FAST.config.LAZY_OBJ_SEARCH) {
+                        } else if (fast.config.INCREMENTAL_DESCENT && query instanceof KNNQuery &&
+                                level == fast.context.maxLevel && ((KNNQuery) query).ar == Double.MAX_VALUE &&
+                                !fast.config.LAZY_OBJ_SEARCH) {
                             if (((QueryTrieNode) node).unboundedQueries == null)
                                 ((QueryTrieNode) node).unboundedQueries = new LinkedList<>();
                             ((QueryTrieNode) node).unboundedQueries.add((KNNQuery) query);
@@ -212,12 +242,12 @@ public class SpatialCell implements Serializable {
 
                             ((QueryTrieNode) node).queries.add(query);
 
-                            if (((QueryTrieNode) node).queries.mbrQueries().size() > ((QueryTrieNode) node).degRatio) {
-                                findMBRQueriesToReinsert(((QueryTrieNode) node).queries.mbrQueries(), insertNextLevelQueries);
+                            if (((QueryTrieNode) node).queries.mbrSize() > degRatio((QueryTrieNode) node)) {
+                                findMBRQueriesToReinsert(((QueryTrieNode) node).queries, insertNextLevelQueries);
                             }
 
-                            if (FAST.config.INCREMENTAL_DESCENT && level > 0 &&
-                                    ((QueryTrieNode) node).queries.kNNQueries().size() > ((QueryTrieNode) node).knnDegRatio)
+                            if (fast.config.INCREMENTAL_DESCENT && level > 0 &&
+                                    ((QueryTrieNode) node).queries.kNNSize() > knnDegRatio((QueryTrieNode) node))
                                 findKNNQueriesToReinsert(level, ((QueryTrieNode) node), insertNextLevelQueries);
                         }
                         inserted = true;
@@ -230,9 +260,9 @@ public class SpatialCell implements Serializable {
                         trieNode.finalQueries = new ArrayList<>();
                     trieNode.finalQueries.add(query);
 
-                } else if (FAST.config.INCREMENTAL_DESCENT && query instanceof KNNQuery &&
-                        level == FAST.context.maxLevel && ((KNNQuery) query).ar == Double.MAX_VALUE &&
-                        !FAST.config.LAZY_OBJ_SEARCH) {
+                } else if (fast.config.INCREMENTAL_DESCENT && query instanceof KNNQuery &&
+                        level == fast.context.maxLevel && ((KNNQuery) query).ar == Double.MAX_VALUE &&
+                        !fast.config.LAZY_OBJ_SEARCH) {
                     if (trieNode.unboundedQueries == null)
                         trieNode.unboundedQueries = new LinkedList<>();
                     trieNode.unboundedQueries.add((KNNQuery) query);
@@ -242,11 +272,11 @@ public class SpatialCell implements Serializable {
 
                     trieNode.queries.add(query);
 
-                    if (trieNode.queries.mbrQueries().size() > trieNode.degRatio)
-                        findMBRQueriesToReinsert(trieNode.queries.mbrQueries(), insertNextLevelQueries);
+                    if (trieNode.queries.mbrSize() > degRatio(trieNode))
+                        findMBRQueriesToReinsert(trieNode.queries, insertNextLevelQueries);
 
-                    if (FAST.config.INCREMENTAL_DESCENT && level > 0 &&
-                            trieNode.queries.kNNQueries().size() > trieNode.knnDegRatio) {
+                    if (fast.config.INCREMENTAL_DESCENT && level > 0 &&
+                            trieNode.queries.kNNSize() > knnDegRatio(trieNode)) {
                         findKNNQueriesToReinsert(level, trieNode, insertNextLevelQueries);
                     }
                 }
@@ -256,10 +286,13 @@ public class SpatialCell implements Serializable {
     }
 
     public void deleteQueryFromStats(Query query) {
-        if (!query.deleted) {
-            query.deleted = true;
-            for (String keyword : query.keywords) {
-                FAST.keywordFrequencyMap.get(keyword).queryCount--;
+        // Cells are filled in parallel during a bulk load and a query can expire in several of them.
+        synchronized (fast.keywordFrequencyMap) {
+            if (!query.deleted) {
+                query.deleted = true;
+                for (String keyword : query.keywords) {
+                    fast.keywordFrequencyMap.get(keyword).queryCount--;
+                }
             }
         }
     }
@@ -274,24 +307,48 @@ public class SpatialCell implements Serializable {
         return false;
     }
 
+    /**
+     * @return Keyword of the query that the searches of this cell probe least and whose node takes the query without a
+     * split, the shortest node among equally probed ones, null if every node is full
+     */
+    private String getLeastProbedKeywordToInsert(Query query) {
+        long minProbes = Long.MAX_VALUE;
+        int minSize = Integer.MAX_VALUE;
+        String minKeyword = null;
+        for (String term : query.keywords) {
+            TextualNode node = textualIndex.get(term);
+            int size = (node == null) ? 0 : (node instanceof QueryNode) ? 1 :
+                    (node instanceof QueryListNode) ? ((QueryListNode) node).queries.size() : Integer.MAX_VALUE;
+            if (node instanceof QueryTrieNode || (node instanceof QueryListNode && size >= splitThreshold()))
+                continue;
+            long probes = tuner.probes(term);
+            if (probes < minProbes || (probes == minProbes && size < minSize)) {
+                minProbes = probes;
+                minSize = size;
+                minKeyword = term;
+            }
+        }
+        return minKeyword;
+    }
+
     public boolean insertAtKeyWord(String keyword, Query query, QueryListNode sharedQueries) {
         if (!textualIndex.containsKey(keyword)) {
-            FAST.context.numberOfHashEntries++;
-            FAST.context.queryInsertInvListNodeCounter++;
+            fast.context.numberOfHashEntries.increment();
+            fast.context.queryInsertInvListNodeCounter.increment();
             textualIndex.put(keyword, new QueryNode(query));
             return true;
         } else { //this keyword already exists in the index
             TextualNode node = textualIndex.get(keyword);
             if (node == null) {
-                FAST.context.queryInsertInvListNodeCounter++;
+                fast.context.queryInsertInvListNodeCounter.increment();
                 textualIndex.put(keyword, new QueryNode(query));
                 return true;
             }
             if (node instanceof QueryNode) { //single query
                 Query exitingQuery = ((QueryNode) node).query;
-                if (exitingQuery.et > FAST.context.timestamp) { //checking for the support of the query
+                if (exitingQuery.et > fast.context.timestamp) { //checking for the support of the query
                     QueryListNode rareQueries = new QueryListNode(exitingQuery);
-                    FAST.context.queryInsertInvListNodeCounter++;
+                    fast.context.queryInsertInvListNodeCounter.increment();
                     rareQueries.queries.add(query);
                     textualIndex.put(keyword, rareQueries);
                 } else {
@@ -300,15 +357,15 @@ public class SpatialCell implements Serializable {
                 }
                 return true;
             } else if ((node instanceof QueryListNode) &&
-                    ((QueryListNode) node).queries.size() < FAST.config.TRIE_SPLIT_THRESHOLD) { // this keyword is rare
+                    ((QueryListNode) node).queries.size() < splitThreshold()) { // this keyword is rare
                 if ((node) != sharedQueries)
                     if (!((QueryListNode) node).queries.contains(query)) {
                         ((QueryListNode) node).queries.add(query);
-                        FAST.context.queryInsertInvListNodeCounter++;
+                        fast.context.queryInsertInvListNodeCounter.increment();
                     }
                 return true;
             } else if ((node instanceof QueryListNode) &&
-                    ((QueryListNode) node).queries.size() >= FAST.config.TRIE_SPLIT_THRESHOLD) { // this keyword is not rare
+                    ((QueryListNode) node).queries.size() >= splitThreshold()) { // this keyword is not rare
                 if (node != sharedQueries) {
                     return ((QueryListNode) node).queries.contains(query);
                 } else {
@@ -324,6 +381,11 @@ public class SpatialCell implements Serializable {
     }
 
     public String getOtherKeywordToInsert(Query query) {
+        if (tuner != null) {
+            String leastProbed = getLeastProbedKeywordToInsert(query);
+            if (leastProbed != null)
+                return leastProbed;
+        }
         int minSize = Integer.MAX_VALUE;
         String minKeyword = null;
         for (String term : query.keywords) {
@@ -352,75 +414,231 @@ public class SpatialCell implements Serializable {
 
     public List<String> searchQueries(DataObject obj, List<String> keywords, List<Query> results,
                                       List<ReinsertEntry> descendingKNNQueries, boolean isExpiry) {
-        ArrayList<String> remainingKeywords = new ArrayList<>();
+        return searchQueries(obj, keywords, results, descendingKNNQueries, isExpiry, new ArrayList<>());
+    }
+
+    /**
+     * Same as `searchQueries`, with a caller supplied buffer for the remaining keywords so that the search does not
+     * allocate.
+     *
+     * @param remainingKeywords Empty buffer, filled with the keywords that have tries in this cell and returned
+     */
+    public List<String> searchQueries(DataObject obj, List<String> keywords, List<Query> results,
+                                      List<ReinsertEntry> descendingKNNQueries, boolean isExpiry,
+                                      ArrayList<String> remainingKeywords) {
 //        if (obj.id == 3657 + 10000) {
 //            System.out.println("Debug!");
 //        }
+        searchLists(obj, keywords, results, isExpiry, remainingKeywords);
+        searchTries(obj, remainingKeywords, results, descendingKNNQueries, isExpiry);
+        return remainingKeywords;
+    }
+
+    /**
+     * First half of `searchQueries`: the single query and list nodes of the keywords are searched, the keywords that
+     * have a trie in this cell are only collected. Reads the keyword map and the nodes' arrays, never a trie.
+     *
+     * @param remainingKeywords Empty buffer, filled with the keywords that have tries in this cell
+     */
+    public void searchLists(DataObject obj, List<String> keywords, List<Query> results, boolean isExpiry,
+                            ArrayList<String> remainingKeywords) {
+        if (tuner != null)
+            tuner.searched();
         for (int i = 0; i < keywords.size(); i++) {
             String keyword = keywords.get(i);
             TextualNode node = textualIndex.get(keyword);
-            FAST.context.objectSearchInvListHashAccess++;
-            if (node != null) {
-                if (node instanceof QueryNode) {
-                    if (((QueryNode) node).query instanceof MinimalRangeQuery) {
-                        MinimalRangeQuery query = (MinimalRangeQuery) ((QueryNode) node).query;
-                        if (query.et > FAST.context.timestamp && keywords.size() >= query.keywords.size() &&
-                                SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
-                                TextHelpers.containsTextually(keywords, query.keywords))
-                            results.add(query);
-                    } else if (((QueryNode) node).query instanceof KNNQuery) {
-                        KNNQuery query = (KNNQuery) ((QueryNode) node).query;
-                        if (keywords.size() >= query.keywords.size() && (query.et > FAST.context.timestamp || isExpiry) &&
-                                (FAST.config.INCREMENTAL_DESCENT || query.currentLevel == level) &&
-                                SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
-                                TextHelpers.containsTextually(keywords, query.keywords)) {
-                            results.add(query);
-                            if (!isExpiry) {
-                                query.pushUntilKHat(obj);
-                            }
-                        }
+            fast.context.objectSearchInvListHashAccess.increment();
+            if (tuner != null && node != null)
+                tuner.probed(keyword);
+            if (node instanceof QueryTrieNode) {
+                remainingKeywords.add(keyword);
+            } else if (node != null) {
+                searchNode(obj, keywords, node, results, isExpiry);
+            }
+        }
+    }
+
+    /**
+     * Batch variant of `searchQueries` for the objects of a micro-batch that fall into this cell. Every keyword of
+     * the group is probed once and its query node is scanned for all the objects sharing that keyword, tries are
+     * then walked per object. Only used when the index holds no KNN queries, so the walk has no side effects.
+     *
+     * @param objects    Objects of the batch
+     * @param timestamps Logical time of each object
+     * @param members    Positions in `objects`, the ones in [from, to) fall into this cell in batch order
+     * @param keywords   Keywords to search per object, replaced with the remaining keywords on incremental descent
+     * @param results    Result list per object
+     * @param scratch    Buffers of the batch
+     */
+    public void searchQueries(List<DataObject> objects, int[] timestamps, int[] members, int from, int to,
+                              List<List<String>> keywords, List<List<Query>> results, BatchScratch scratch) {
+        int pairs = 0;
+        for (int m = from; m < to; m++)
+            pairs += keywords.get(members[m]).size();
+        scratch.ensurePairs(pairs);
+        String[] pairKeywords = scratch.pairKeywords;
+        int[] pairMembers = scratch.pairMembers;
+        byte[] pairStates = scratch.pairStates;
+        long[] pairOrder = scratch.pairOrder;
+
+        // Pairs are listed object by object, so sorting by (hash, pair) keeps each keyword group in batch order.
+        int pair = 0;
+        for (int m = from; m < to; m++) {
+            List<String> objectKeywords = keywords.get(members[m]);
+            for (int k = 0; k < objectKeywords.size(); k++) {
+                String keyword = objectKeywords.get(k);
+                pairKeywords[pair] = keyword;
+                pairMembers[pair] = members[m];
+                pairStates[pair] = BatchScratch.UNPROBED;
+                pairOrder[pair] = ((long) keyword.hashCode() << 32) | pair;
+                pair++;
+            }
+        }
+        Arrays.sort(pairOrder, 0, pairs);
+
+        boolean hasTries = false;
+        for (int run = 0; run < pairs; ) {
+            int hash = (int) (pairOrder[run] >> 32);
+            int runEnd = run + 1;
+            while (runEnd < pairs && (int) (pairOrder[runEnd] >> 32) == hash)
+                runEnd++;
+            // Keywords of a run share their hash, colliding keywords are probed on their own.
+            for (int p = run; p < runEnd; p++) {
+                int first = (int) pairOrder[p];
+                if (pairStates[first] != BatchScratch.UNPROBED)
+                    continue;
+                String keyword = pairKeywords[first];
+                TextualNode node = textualIndex.get(keyword);
+                fast.context.objectSearchInvListHashAccess.increment();
+                byte state = (node instanceof QueryTrieNode) ? BatchScratch.TRIE : BatchScratch.SEARCHED;
+                hasTries |= state == BatchScratch.TRIE;
+                for (int q = p; q < runEnd; q++) {
+                    int next = (int) pairOrder[q];
+                    if (pairStates[next] != BatchScratch.UNPROBED || !keyword.equals(pairKeywords[next]))
+                        continue;
+                    pairStates[next] = state;
+                    if (tuner != null && node != null)
+                        tuner.probed(keyword);
+                    if (node != null && state == BatchScratch.SEARCHED) {
+                        int o = pairMembers[next];
+                        fast.context.timestamp = timestamps[o];
+                        searchNode(objects.get(o), keywords.get(o), node, results.get(o), false);
                     }
-                } else if (node instanceof QueryListNode) {
-                    for (MinimalRangeQuery query : ((QueryListNode) node).queries.mbrQueries()) {
-                        FAST.context.objectSearchInvListNodeCounter++;
-                        if (query.et > FAST.context.timestamp && SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
-                                TextHelpers.containsTextually(keywords, query.keywords))
-                            results.add(query);
+                }
+            }
+            run = runEnd;
+        }
+
+        pair = 0;
+        for (int m = from; m < to; m++) {
+            int o = members[m];
+            if (tuner != null)
+                tuner.searched();
+            int numKeywords = keywords.get(o).size();
+            if (hasTries || fast.config.INCREMENTAL_DESCENT) {
+                ArrayList<String> remainingKeywords = scratch.remainingKeywords(o, keywords.get(o));
+                for (int k = 0; k < numKeywords; k++) {
+                    if (pairStates[pair + k] == BatchScratch.TRIE)
+                        remainingKeywords.add(pairKeywords[pair + k]);
+                }
+                if (!remainingKeywords.isEmpty()) {
+                    fast.context.timestamp = timestamps[o];
+                    searchTries(objects.get(o), remainingKeywords, results.get(o), null, false);
+                }
+                if (fast.config.INCREMENTAL_DESCENT)
+                    keywords.set(o, remainingKeywords);
+            }
+            pair += numKeywords;
+        }
+        scratch.clearPairs(pairs);
+    }
+
+    private void searchNode(DataObject obj, List<String> keywords, TextualNode node, List<Query> results,
+                            boolean isExpiry) {
+        if (tuner != null)
+            tuner.verified((node instanceof QueryListNode) ? ((QueryListNode) node).queries.size() : 1);
+        if (node instanceof QueryNode) {
+            if (((QueryNode) node).query instanceof MinimalRangeQuery) {
+                MinimalRangeQuery query = (MinimalRangeQuery) ((QueryNode) node).query;
+                if (query.et > fast.context.timestamp && keywords.size() >= query.keywords.size() &&
+                        SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
+                        containsKeywords(obj, keywords, query))
+                    results.add(query);
+            } else if (((QueryNode) node).query instanceof KNNQuery) {
+                KNNQuery query = (KNNQuery) ((QueryNode) node).query;
+                if (keywords.size() >= query.keywords.size() && (query.et > fast.context.timestamp || isExpiry) &&
+                        (fast.config.INCREMENTAL_DESCENT || query.currentLevel == level) &&
+                        SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
+                        containsKeywords(obj, keywords, query)) {
+                    results.add(query);
+                    if (!isExpiry) {
+                        query.pushUntilKHat(obj, fast.config.INCREMENTAL_DESCENT);
                     }
-                    for (KNNQuery query : ((QueryListNode) node).queries.kNNQueries()) {
-                        FAST.context.objectSearchInvListNodeCounter++;
-                        if ((query.et > FAST.context.timestamp || isExpiry) && (FAST.config.INCREMENTAL_DESCENT || query.currentLevel == level) &&
-                                SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
-                                TextHelpers.containsTextually(keywords, query.keywords)) {
-                            results.add(query);
-                            if (!isExpiry) {
-                                query.pushUntilKHat(obj);
-                            }
+                }
+            }
+        } else if (node instanceof QueryListNode) {
+            // The spatial filter runs over the coordinates of 64 queries at a time, the hits are verified in order.
+            HybridList queries = ((QueryListNode) node).queries;
+            int mbrSize = queries.mbrSize();
+            int kNNSize = queries.kNNSize();
+            fast.context.objectSearchInvListNodeCounter.add(mbrSize + kNNSize);
+            for (int from = 0; from < mbrSize; from += 64) {
+                for (long hits = queries.mbrCandidates(obj.location, fast.context.timestamp, from); hits != 0; hits &= hits - 1) {
+                    MinimalRangeQuery query = queries.mbrQuery(from + Long.numberOfTrailingZeros(hits));
+                    if (SpatialHelper.overlapsSpatially(obj.location, query.spatialRange) &&
+                            containsKeywords(obj, keywords, query))
+                        results.add(query);
+                }
+            }
+            long timestamp = isExpiry ? Long.MIN_VALUE : fast.context.timestamp;
+            for (int from = 0; from < kNNSize; from += 64) {
+                for (long hits = queries.kNNCandidates(obj.location, timestamp, from); hits != 0; hits &= hits - 1) {
+                    int i = from + Long.numberOfTrailingZeros(hits);
+                    KNNQuery query = queries.kNNQuery(i);
+                    if ((fast.config.INCREMENTAL_DESCENT || query.currentLevel == level) &&
+                            SpatialHelper.overlapsSpatially(obj.location, query.location, query.ar) &&
+                            containsKeywords(obj, keywords, query)) {
+                        results.add(query);
+                        if (!isExpiry) {
+                            query.pushUntilKHat(obj, fast.config.INCREMENTAL_DESCENT);
                         }
                     }
-                } else if (node instanceof QueryTrieNode) {
-                    remainingKeywords.add(keyword);
+                    queries.refreshRadius(i);
                 }
             }
         }
+    }
+
+    /**
+     * Keyword containment of the query in the searched keywords. Uses the keyword ids when the whole keyword list of
+     * an encoded object is searched.
+     */
+    private static boolean containsKeywords(DataObject obj, List<String> keywords, Query query) {
+        if (keywords == obj.keywords && obj.keywordIds != null && query.keywordIds != null)
+            return TextHelpers.containsTextually(obj.keywordIds, query.keywordIds);
+        return TextHelpers.containsTextually(keywords, query.keywords);
+    }
 
+    private void searchTries(DataObject obj, ArrayList<String> remainingKeywords, List<Query> results,
+                             List<ReinsertEntry> descendingKNNQueries, boolean isExpiry) {
         for (int i = 0; i < remainingKeywords.size(); i++) {
             String keyword = remainingKeywords.get(i);
             Object keyWordIndex = textualIndex.get(keyword);
-            FAST.context.totalTrieAccess++;
+            fast.context.totalTrieAccess.increment();
             ((QueryTrieNode) keyWordIndex).find(this, obj, remainingKeywords, i + 1, results, descendingKNNQueries, isExpiry);
         }
-        return remainingKeywords;
     }
 
-    public void findMBRQueriesToReinsert(List<MinimalRangeQuery> queries, ArrayList<ReinsertEntry> insertNextLevelQueries) {
+    public void findMBRQueriesToReinsert(HybridList queries, ArrayList<ReinsertEntry> insertNextLevelQueries) {
         SpatialOverlapComparator spatialOverlapComparator = new SpatialOverlapComparator(bounds);
-        queries.sort(spatialOverlapComparator);
-        int queriesSize = queries.size();
+        queries.sortMBR(spatialOverlapComparator);
+        int queriesSize = queries.mbrSize();
+        if (tuner != null)
+            tuner.moved(Math.max(0, queriesSize - 1 - queriesSize / 2));
         for (int i = queriesSize - 1; i > queriesSize / 2; i--) {
-            MinimalRangeQuery query = queries.remove(i);
-            query.descended++;
-            FAST.context.totalDescendOpts++;
+            MinimalRangeQuery query = queries.removeMBRAt(i);
+            query.markDescended();
+            fast.context.totalDescendOpts.increment();
             insertNextLevelQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(bounds, query.spatialRange), query));
         }
     }
@@ -431,15 +649,13 @@ public class SpatialCell implements Serializable {
 //            List<KNNQuery> queries,
             ArrayList<ReinsertEntry> insertNextLevelQueries
     ) {
-        List<KNNQuery> queries = node.queries.kNNQueries();
+        HybridList queries = node.queries;
         // TODO: if ar = inf -> Query object index and determine size
-        queries.iterator();
-        Iterator<KNNQuery> it = queries.iterator();
 //        HashMap<Integer, Collection<DataObject>> kthObjects = new HashMap<>();
-        while(it.hasNext()) {
-            KNNQuery query = it.next();
+        for (int i = 0; i < queries.kNNSize(); i++) {
+            KNNQuery query = queries.kNNQuery(i);
             if (query.ar >= Double.MAX_VALUE) {
-                PriorityQueue<DataObject> objResults = FAST.context.objectSearcher.apply(query);
+                PriorityQueue<DataObject> objResults = fast.context.objectSearcher.apply(query);
 
                 if (objResults.size() >= query.k) {
 //                    kthObjects.put(query.k, objResults);
@@ -453,26 +669,28 @@ public class SpatialCell implements Serializable {
                     if (node.unboundedQueries == null)
                         node.unboundedQueries = new LinkedList<>();
                     node.unboundedQueries.add(query);
-                    it.remove();
+                    queries.removeKNNAt(i--);
                 }
             }
         }
 
         SpatialOverlapComparator spatialOverlapComparator = new SpatialOverlapComparator(bounds);
-        queries.sort(spatialOverlapComparator);
-        int queriesSize = queries.size();
+        queries.sortKNN(spatialOverlapComparator);
+        int queriesSize = queries.kNNSize();
         for (int i = queriesSize - 1; i > queriesSize / 2; i--) {
-            if (queries.get(i).ar >= Double.MAX_VALUE)
+            if (queries.kNNQuery(i).ar >= Double.MAX_VALUE)
                 continue;
 
-            KNNQuery query = queries.remove(i);
-            query.descended++;
-            FAST.context.totalDescendOpts++;
+            KNNQuery query = queries.removeKNNAt(i);
+            query.markDescended();
+            fast.context.totalDescendOpts.increment();
+            if (tuner != null)
+                tuner.moved(1);
             insertNextLevelQueries.add(new ReinsertEntry(SpatialHelper.spatialIntersect(bounds, query.spatialBox()), query));
         }
 
-        if (FAST.config.ADAPTIVE_DEG_RATIO) {
-            node.knnDegRatio = Math.min(FAST.config.KNN_DEGRADATION_RATIO, 2 * node.knnDegRatio);
+        if (fast.config.ADAPTIVE_DEG_RATIO) {
+            node.knnDegRatio = Math.min(fast.config.KNN_DEGRADATION_RATIO, 2 * node.knnDegRatio);
         }
     }
 
@@ -480,14 +698,14 @@ public class SpatialCell implements Serializable {
         if (cleaningIterator == null || !cleaningIterator.hasNext())
             cleaningIterator = textualIndex.entrySet().iterator();
         int numberOfVisitedEntries = 0;
-        while (cleaningIterator.hasNext() && numberOfVisitedEntries < FAST.config.MAX_ENTRIES_PER_CLEANING_INTERVAL) {
+        while (cleaningIterator.hasNext() && numberOfVisitedEntries < fast.config.MAX_ENTRIES_PER_CLEANING_INTERVAL) {
             Entry<String, TextualNode> nextNode = cleaningIterator.next();
             TextualNode node = nextNode.getValue();
             String keyword = nextNode.getKey();
             if (node instanceof QueryNode) {
                 numberOfVisitedEntries++;
                 Query q = ((QueryNode) node).query;
-                if (q.et < FAST.context.timestamp || (FAST.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
+                if (q.et < fast.context.timestamp || (fast.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
                         (((KNNQuery) q).currentLevel != level || !SpatialHelper.overlapsSpatially(bounds, ((KNNQuery) q).location, ((KNNQuery) q).ar)))) {
                     node = null;
                 }
@@ -495,7 +713,7 @@ public class SpatialCell implements Serializable {
                 Iterator<Query> queriesIterator = ((QueryListNode) node).queries.iterator();
                 while (queriesIterator.hasNext()) {
                     Query q = queriesIterator.next();
-                    if (q.et < FAST.context.timestamp || (FAST.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
+                    if (q.et < fast.context.timestamp || (fast.config.CLEAN_METHOD == CleanMethod.EXPIRE_KNN && q instanceof KNNQuery &&
                             (((KNNQuery) q).currentLevel != level || !SpatialHelper.overlapsSpatially(bounds, ((KNNQuery) q).location, ((KNNQuery) q).ar))))
                         queriesIterator.remove();
                     numberOfVisitedEntries++;
@@ -512,22 +730,91 @@ public class SpatialCell implements Serializable {
                 }
             } else if (node instanceof QueryTrieNode) {
                 QueryListNode combinedQueries = new QueryListNode();
-                numberOfVisitedEntries += ((QueryTrieNode) node).clean(level, bounds, combinedQueries);
-                // System.out.println(FAST.keywordFrequencyMap);
-                // System.out.println(FAST.keywordFrequencyMap.get(keyword));
+                numberOfVisitedEntries += ((QueryTrieNode) node).clean(this, combinedQueries);
+                // System.out.println(fast.keywordFrequencyMap);
+                // System.out.println(fast.keywordFrequencyMap.get(keyword));
                 if (((QueryTrieNode) node).queries == null && ((QueryTrieNode) node).subtree == null
-                        && FAST.keywordFrequencyMap.get(keyword).queryCount <= FAST.config.TRIE_OVERALL_MERGE_THRESHOLD)
+                        && fast.keywordFrequencyMap.get(keyword).queryCount <= fast.config.TRIE_OVERALL_MERGE_THRESHOLD)
                     node = null;
-                else if (combinedQueries.queries.size() < FAST.config.TRIE_OVERALL_MERGE_THRESHOLD
-                        && FAST.keywordFrequencyMap.get(keyword).queryCount <= FAST.config.TRIE_OVERALL_MERGE_THRESHOLD)
+                else if (combinedQueries.queries.size() < fast.config.TRIE_OVERALL_MERGE_THRESHOLD
+                        && fast.keywordFrequencyMap.get(keyword).queryCount <= fast.config.TRIE_OVERALL_MERGE_THRESHOLD)
                     textualIndex.put(keyword, combinedQueries);
             }
             if (node == null)
                 cleaningIterator.remove();
         }
+        fast.context.cleanVisitedEntries.add(numberOfVisitedEntries);
         return !cleaningIterator.hasNext();
     }
 
+    /**
+     * Remove an expired or deregistered query from this cell, wherever its keywords placed it, without visiting other
+     * entries. Nodes left empty are dropped.
+     *
+     * @return Number of nodes the query was removed from
+     */
+    public int removeQuery(Query query) {
+        if (textualIndex == null)
+            return 0;
+        int removed = 0;
+        for (int i = 0; i < query.keywords.size(); i++) {
+            String keyword = query.keywords.get(i);
+            TextualNode node = textualIndex.get(keyword);
+            if (node instanceof QueryNode) {
+                if (((QueryNode) node).query.equals(query)) {
+                    textualIndex.remove(keyword);
+                    removed++;
+                }
+            } else if (node instanceof QueryListNode) {
+                // List nodes can be shared by the cells of a range query, the query may be gone already.
+                if (((QueryListNode) node).queries.remove(query))
+                    removed++;
+                if (((QueryListNode) node).queries.isEmpty())
+                    textualIndex.remove(keyword);
+            } else if (node instanceof QueryTrieNode) {
+                QueryTrieNode trieNode = (QueryTrieNode) node;
+                removed += trieNode.removeQuery(query, i + 1);
+                // As in `clean`, the trie of a frequent keyword stays, the trie of a rare one goes back to a list
+                // once it holds few queries. The rare keyword bounds the size of the trie walked here.
+                if (fast.keywordFrequencyMap.get(keyword).queryCount > fast.config.TRIE_OVERALL_MERGE_THRESHOLD)
+                    continue;
+                if (trieNode.isEmpty()) {
+                    textualIndex.remove(keyword);
+                } else if (trieNode.finalQueries == null && trieNode.unboundedQueries == null) {
+                    QueryListNode combinedQueries = new QueryListNode();
+                    trieNode.clean(this, combinedQueries);
+                    if (combinedQueries.queries.isEmpty())
+                        textualIndex.remove(keyword);
+                    else if (combinedQueries.queries.size() < fast.config.TRIE_OVERALL_MERGE_THRESHOLD)
+                        textualIndex.put(keyword, combinedQueries);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Refresh the stored location of a moved KNN query that stays in this cell. List nodes keep the centre and radius
+     * of their KNN queries for the verification scan.
+     *
+     * @return Whether the query is in this cell
+     */
+    public boolean refreshLocation(KNNQuery query) {
+        if (textualIndex == null)
+            return false;
+        boolean found = false;
+        for (int i = 0; i < query.keywords.size(); i++) {
+            TextualNode node = textualIndex.get(query.keywords.get(i));
+            if (node instanceof QueryNode)
+                found |= ((QueryNode) node).query == query;
+            else if (node instanceof QueryListNode)
+                found |= ((QueryListNode) node).queries.refreshLocation(query);
+            else if (node instanceof QueryTrieNode)
+                found |= ((QueryTrieNode) node).refreshLocation(query, i + 1);
+        }
+        return found;
+    }
+
     static class SpatialOverlapComparator implements Comparator<Query> {
         private final Rectangle bounds;
 
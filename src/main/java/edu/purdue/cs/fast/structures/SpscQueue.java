@@ -0,0 +1,77 @@
+package edu.purdue.cs.fast.structures;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring queue between exactly one producer thread and one consumer thread. Neither side takes a lock or
+ * allocates, each side writes only its own cursor and keeps a cached copy of the other one, so the cursors are read
+ * across threads only when the cached copy says the ring is full or empty.
+ * <p>
+ * The consumer publishes its cursor lazily. The producer publishes with a full fence, so that a consumer that checks
+ * the queue after announcing it goes to sleep cannot miss an item of a producer that saw it awake.
+ */
+public class SpscQueue<T> {
+    private final Object[] slots;
+    private final int mask;
+    // Next slot to read, written by the consumer only.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer only.
+    private final AtomicLong tail = new AtomicLong();
+    private long producerHead = 0;
+    private long consumerTail = 0;
+
+    /**
+     * @param capacity Slots of the ring, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1)
+            throw new RuntimeException("Invalid queue capacity: " + capacity);
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return False if the ring is full
+     */
+    public boolean offer(T item) {
+        long t = tail.get();
+        if (t - producerHead >= slots.length) {
+            producerHead = head.get();
+            if (t - producerHead >= slots.length)
+                return false;
+        }
+        slots[(int) t & mask] = item;
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return The oldest item, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h >= consumerTail) {
+            consumerTail = tail.get();
+            if (h >= consumerTail)
+                return null;
+        }
+        int slot = (int) h & mask;
+        T item = (T) slots[slot];
+        slots[slot] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    /**
+     * Consumer side, reads the producer cursor.
+     */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
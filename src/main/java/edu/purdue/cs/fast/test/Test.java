@@ -163,11 +163,12 @@ public class Test {
         System.gc();
         System.gc();
 
-        FAST.config.TRIE_SPLIT_THRESHOLD = threshold;
-        FAST.config.DEGRADATION_RATIO = degerationThreshold;
+        Config config = new Config();
+        config.TRIE_SPLIT_THRESHOLD = threshold;
+        config.DEGRADATION_RATIO = degerationThreshold;
 
         FAST localHybridPyramidIndexExperiment = new FAST(
-                new Config(),
+                config,
                 new Rectangle(new Point(0.0, 0.0),
                         new Point(xMaxRange, yMaxRange)),
                 finegGridGran, maxLevel);
@@ -213,21 +214,21 @@ public class Test {
         metadata += "\nImportableQuery register Time per query (nanos)    = " + queryRegisterationduration / queries.size();
         metadata += "\nTotal query evalautors                   = " + queryTasks;
         metadata += "\nqueryInsertInvListNodeCounter            = "
-                + FAST.context.queryInsertInvListNodeCounter;
+                + localIndex.context.queryInsertInvListNodeCounter.sum();
         metadata += "\nqueryInsertTrieNodeCounter               = "
-                + FAST.context.queryInsertTrieNodeCounter;
+                + localIndex.context.queryInsertTrieNodeCounter.sum();
         metadata += "\nTotal node insertions                    = "
-                + (FAST.context.queryInsertTrieNodeCounter
-                + FAST.context.queryInsertInvListNodeCounter);
+                + (localIndex.context.queryInsertTrieNodeCounter.sum()
+                + localIndex.context.queryInsertInvListNodeCounter.sum());
         metadata += "\ntotalQueryInsertionsIncludingReplications= "
-                + FAST.context.totalQueryInsertionsIncludingReplications;
+                + localIndex.context.totalQueryInsertionsIncludingReplications.sum();
         metadata += "\nAverage query replications               = "
-                + FAST.context.totalQueryInsertionsIncludingReplications
+                + localIndex.context.totalQueryInsertionsIncludingReplications.sum()
                 / (double) queries.size();
         metadata += "\nnumberOfHashEntries                      = "
-                + FAST.context.numberOfHashEntries;
+                + localIndex.context.numberOfHashEntries.sum();
         metadata += "\nnumberOfTrieNodes                        = "
-                + FAST.context.numberOfTrieNodes;
+                + localIndex.context.numberOfTrieNodes.sum();
 //        metadata += "\nAverage ranked inv list length           = " + localIndex.getAverageRankedInvListSize();
         metadata += "\nAverage query keywords size              = " + sumQueryKeywords / queries.size();
 
@@ -268,34 +269,34 @@ public class Test {
         System.out.println(" Local" + " DataProcessing Time per object (nano)= "
                 + (dataProcessingDuration / dataObjects.size() / 5) + " with qulified tuples:" + totalEmiitedCount
                 + "total query count = " + querycount + "total visted  = "
-                + FAST.context.totalVisited + "totalspatial overlapping  = "
-                + FAST.context.spatialOverlappingQueries);
+                + localIndex.context.totalVisited.sum() + "totalspatial overlapping  = "
+                + localIndex.context.spatialOverlappingQueries.sum());
 
         metadata += "\nAverage object keywords        = " + sumOfObjectsKeywords / dataObjects.size() / 5;
         metadata += "\nobjectSearchInvListNodeCounter = "
-                + FAST.context.objectSearchInvListNodeCounter / 5;
+                + localIndex.context.objectSearchInvListNodeCounter.sum() / 5;
         metadata += "\nobjectSearchTrieNodeCounter    = "
-                + FAST.context.objectSearchTrieNodeCounter / 5;
+                + localIndex.context.objectSearchTrieNodeCounter.sum() / 5;
         metadata += "\nTotal search node access       = "
-                + ((FAST.context.objectSearchTrieNodeCounter
-                + FAST.context.objectSearchInvListNodeCounter)) / 5;
+                + ((localIndex.context.objectSearchTrieNodeCounter.sum()
+                + localIndex.context.objectSearchInvListNodeCounter.sum())) / 5;
         metadata += "\nobjectSearchInvListHashAccess  = "
-                + FAST.context.objectSearchInvListHashAccess / 5;
+                + localIndex.context.objectSearchInvListHashAccess.sum() / 5;
         metadata += "\nobjectSearchTrieHashAccess     = "
-                + FAST.context.objectSearchTrieHashAccess / 5;
-        metadata += "\nTotoal trie access             = " + FAST.context.totalTrieAccess / 5;
+                + localIndex.context.objectSearchTrieHashAccess.sum() / 5;
+        metadata += "\nTotoal trie access             = " + localIndex.context.totalTrieAccess.sum() / 5;
         metadata += "\nAverage operations per trie    = "
-                + (FAST.context.objectSearchTrieNodeCounter
-                + FAST.context.objectSearchTrieHashAccess)
-                / (FAST.context.totalTrieAccess + 1);
+                + (localIndex.context.objectSearchTrieNodeCounter.sum()
+                + localIndex.context.objectSearchTrieHashAccess.sum())
+                / (localIndex.context.totalTrieAccess.sum() + 1);
         metadata += "\nTotal hash aceesses            = "
-                + ((FAST.context.objectSearchTrieHashAccess
-                + FAST.context.objectSearchInvListHashAccess)) / 5;
+                + ((localIndex.context.objectSearchTrieHashAccess.sum()
+                + localIndex.context.objectSearchInvListHashAccess.sum())) / 5;
         metadata += "\nTotal operations               = "
-                + (((FAST.context.objectSearchTrieHashAccess
-                + FAST.context.objectSearchInvListHashAccess)
-                + (FAST.context.objectSearchTrieNodeCounter
-                + FAST.context.objectSearchInvListNodeCounter)))
+                + (((localIndex.context.objectSearchTrieHashAccess.sum()
+                + localIndex.context.objectSearchInvListHashAccess.sum())
+                + (localIndex.context.objectSearchTrieNodeCounter.sum()
+                + localIndex.context.objectSearchInvListNodeCounter.sum())))
                 / 5;
 
         toReturn = toReturn + "querytime," + (queryRegisterationduration / queries.size()) + ",objectime,"
@@ -0,0 +1,79 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.SpatialCell;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+
+class FASTAdaptiveThresholdsTest {
+    private static List<String> randomKeywords(Random random, int maxKeywords) {
+        int count = 1 + random.nextInt(maxKeywords);
+        List<String> keywords = new ArrayList<>();
+        while (keywords.size() < count) {
+            // Skewed keywords, so that some cells grow tries and others keep lists.
+            String keyword = "k" + (int) (30 * Math.pow(random.nextDouble(), 3));
+            if (!keywords.contains(keyword))
+                keywords.add(keyword);
+        }
+        Collections.sort(keywords);
+        return keywords;
+    }
+
+    private static List<Query> stream(int seed, int length, boolean knn) {
+        Random random = new Random(seed);
+        List<Query> stream = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            int kind = random.nextInt(3);
+            if (kind == 0 && knn) {
+                stream.add(new KNNQuery(i, randomKeywords(random, 2), new Point(x, y), 3, null, i, Integer.MAX_VALUE));
+            } else if (kind == 0) {
+                double side = 1 + random.nextDouble() * 40;
+                stream.add(new MinimalRangeQuery(i, randomKeywords(random, 3),
+                        new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE));
+            } else {
+                stream.add(new DataObject(i, new Point(x, y), randomKeywords(random, 6), i, Integer.MAX_VALUE));
+            }
+        }
+        return stream;
+    }
+
+    private static FAST newFAST(boolean adaptive, boolean incremental) {
+        Config config = new Config();
+        config.ADAPTIVE_THRESHOLDS = adaptive;
+        config.INCREMENTAL_DESCENT = incremental;
+        config.TUNING_WINDOW = 16;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    private static int tuningSteps(FAST fast) {
+        int steps = 0;
+        for (Iterator<SpatialCell> it = fast.index.iterator(); it.hasNext(); )
+            steps += it.next().tuner.steps();
+        return steps;
+    }
+
+    @Test
+    public void rangeAnswersDoNotDependOnThresholds() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expected = FASTFixture.run(newFAST(false, false), stream(37, 12000, false));
+
+        FAST fast = newFAST(true, false);
+        Assertions.assertEquals(expected, FASTFixture.run(fast, stream(37, 12000, false)));
+        Assertions.assertTrue(tuningSteps(fast) > 0);
+    }
+
+    @Test
+    public void kNNAnswersDoNotDependOnThresholds() {
+        List<List<Integer>> expected = FASTFixture.run(newFAST(false, true), stream(41, 12000, true));
+
+        FAST fast = newFAST(true, true);
+        Assertions.assertEquals(expected, FASTFixture.run(fast, stream(41, 12000, true)));
+        Assertions.assertTrue(tuningSteps(fast) > 0);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+
+class FASTAllocationTest {
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    public void testSteadyStateSearchDoesNotAllocate() {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        for (boolean incrementalDescent : new boolean[]{false, true}) {
+            Config config = new Config();
+            config.RECORD_STATS = false;
+            config.INCREMENTAL_DESCENT = incrementalDescent;
+            FAST fast = FASTFixture.newFAST(config);
+
+            Random random = new Random(17);
+            for (int i = 0; i < 5000; i++) {
+                double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+                double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+                double side = 1 + random.nextDouble() * 19;
+                fast.insertQuery(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 30),
+                        new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE));
+            }
+
+            int numObjects = 20000;
+            List<DataObject> objects = new ArrayList<>();
+            for (int i = 0; i < numObjects; i++) {
+                objects.add(new DataObject(i, FASTFixture.randomLocation(random), FASTFixture.randomKeywords(random, 6, 30),
+                        5000 + i, Integer.MAX_VALUE));
+            }
+
+            ArrayList<Query> sink = new ArrayList<>(1024);
+            long matches = 0;
+            for (int round = 0; round < 3; round++) {
+                for (DataObject object : objects) {
+                    sink.clear();
+                    fast.insertObject(object, sink);
+                }
+            }
+
+            long before = allocatedBytes();
+            for (DataObject object : objects) {
+                sink.clear();
+                fast.insertObject(object, sink);
+                matches += sink.size();
+            }
+            long allocated = allocatedBytes() - before;
+
+            Assertions.assertTrue(matches > 0);
+            // Any per object allocation would take at least 16 bytes per search.
+            Assertions.assertTrue(allocated < numObjects,
+                    "Allocated " + allocated + " bytes for " + numObjects + " searches, incremental descent: " + incrementalDescent);
+        }
+    }
+
+    @Test
+    public void testSteadyStateBatchSearchOnlyAllocatesResults() {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        Config config = new Config();
+        config.RECORD_STATS = false;
+        FAST fast = FASTFixture.newFAST(config);
+
+        Random random = new Random(19);
+        for (int i = 0; i < 5000; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double side = 1 + random.nextDouble() * 19;
+            fast.insertQuery(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 30),
+                    new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE));
+        }
+
+        int numObjects = 20000;
+        int batchSize = 100;
+        List<DataObject> objects = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            objects.add(new DataObject(i, FASTFixture.randomLocation(random), FASTFixture.randomKeywords(random, 6, 30),
+                    5000 + i, Integer.MAX_VALUE));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < numObjects; i += batchSize)
+                fast.insertObjects(objects.subList(i, i + batchSize));
+        }
+
+        long matches = 0;
+        long before = allocatedBytes();
+        for (int i = 0; i < numObjects; i += batchSize) {
+            for (Collection<Query> result : fast.insertObjects(objects.subList(i, i + batchSize)))
+                matches += result.size();
+        }
+        long allocated = allocatedBytes() - before;
+
+        Assertions.assertTrue(matches > 0);
+        // An empty result list per object, the array of the non-empty ones and the two result lists per batch.
+        long bound = 24L * numObjects + 64L * matches + 2048L * (numObjects / batchSize);
+        Assertions.assertTrue(allocated < bound,
+                "Allocated " + allocated + " bytes for " + numObjects + " batched searches, bound " + bound);
+    }
+}
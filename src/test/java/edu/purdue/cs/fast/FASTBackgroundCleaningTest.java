@@ -0,0 +1,64 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+
+class FASTBackgroundCleaningTest {
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 40, 200, 1500);
+    }
+
+    private static FAST newFAST(CleanMethod method, boolean background) {
+        Config config = new Config();
+        config.CLEAN_METHOD = method;
+        config.CLEANING_INTERVAL = 20;
+        config.QUERY_EXPIRY_BUCKET = 16;
+        config.CONCURRENT_SEARCH = background;
+        config.BACKGROUND_CLEANING = background;
+        config.CLEANING_BUDGET_NANOS = 50_000;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    @Test
+    public void backgroundCleaningKeepsResults() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(CleanMethod.NO, false), stream(23, 8000));
+
+        FAST fast = newFAST(CleanMethod.EXPIRE, true);
+        List<List<Integer>> results = FASTFixture.runLive(fast, stream(23, 8000));
+        fast.stopCleaning();
+        Assertions.assertEquals(expected, results);
+        Assertions.assertTrue(fast.context.cleanVisitedEntries.sum() > 0);
+    }
+
+    @Test
+    public void backgroundWheelExpiresQueries() {
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(CleanMethod.NO, false), stream(29, 8000));
+
+        FAST fast = newFAST(CleanMethod.EXPIRY_WHEEL, true);
+        List<List<Integer>> results = FASTFixture.runLive(fast, stream(29, 8000));
+        fast.awaitCleaning();
+        Assertions.assertEquals(expected, results);
+
+        // Once the requested steps ran, only the buckets that did not expire whole by the last one may linger.
+        long horizon = fast.context.timestamp - fast.config.QUERY_EXPIRY_BUCKET - fast.config.CLEANING_INTERVAL;
+        Set<Query> indexed = FASTFixture.indexedQueries(fast);
+        Assertions.assertFalse(indexed.isEmpty());
+        for (Query query : indexed)
+            Assertions.assertTrue(query.et > horizon, "Lingering " + query);
+        fast.stopCleaning();
+    }
+
+    @Test
+    public void backgroundCleaningNeedsConcurrentSearch() {
+        FAST fast = newFAST(CleanMethod.EXPIRE, false);
+        fast.config.BACKGROUND_CLEANING = true;
+        Assertions.assertThrows(RuntimeException.class, () -> FASTFixture.runLive(fast, stream(31, 200)));
+    }
+}
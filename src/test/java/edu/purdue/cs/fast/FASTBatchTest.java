@@ -0,0 +1,123 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+class FASTBatchTest {
+    private List<Query> queries;
+    private List<DataObject> objects;
+
+    // Queries keep their KNN state, so each run needs freshly generated ones.
+    private void generate(boolean knn) {
+        Random random = new Random(11);
+        int numQueries = 4000;
+        int numObjects = 4000;
+
+        this.queries = new ArrayList<>();
+        for (int i = 0; i < numQueries; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            if (knn && i % 2 == 0) {
+                queries.add(new KNNQuery(i, FASTFixture.randomKeywords(random, 2, 30), new Point(x, y), 3, null, i, Integer.MAX_VALUE));
+            } else {
+                double side = 1 + random.nextDouble() * 19;
+                queries.add(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 30),
+                        new Rectangle(x, y, x + side, y + side), null, i, numQueries + random.nextInt(numObjects)));
+            }
+        }
+
+        this.objects = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            // Clustered locations so that batches share cells.
+            Point location = new Point(200 + random.nextDouble() * 100, 200 + random.nextDouble() * 100);
+            objects.add(new DataObject(i, location, FASTFixture.randomKeywords(random, 6, 30), numQueries + i, Integer.MAX_VALUE));
+        }
+    }
+
+    private static FAST newFAST() {
+        return FASTFixture.newFAST(new Config());
+    }
+
+    private List<List<Integer>> runSequential() {
+        FAST fast = newFAST();
+        queries.forEach(fast::insertQuery);
+        List<List<Integer>> results = new ArrayList<>();
+        for (DataObject object : objects) {
+            results.add(FASTFixture.sortedIds(fast.insertObject(object)));
+        }
+        return results;
+    }
+
+    private List<List<Integer>> runBatched(int batchSize) {
+        FAST fast = newFAST();
+        queries.forEach(fast::insertQuery);
+        List<List<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < objects.size(); i += batchSize) {
+            for (Collection<Query> res : fast.insertObjects(objects.subList(i, Math.min(i + batchSize, objects.size())))) {
+                results.add(FASTFixture.sortedIds(res));
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void testBatchMatchesSequential() {
+        generate(false);
+        List<List<Integer>> expected = runSequential();
+        for (int batchSize : new int[]{1, 7, 500}) {
+            generate(false);
+            List<List<Integer>> actual = runBatched(batchSize);
+            Assertions.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assertions.assertEquals(expected.get(i), actual.get(i), "Batch size " + batchSize + ", object " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchWithKNNQueries() {
+        generate(true);
+        List<List<Integer>> expected = runSequential();
+        generate(true);
+        List<List<Integer>> actual = runBatched(100);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testBatchWithCollidingKeywords() {
+        // "Aa" and "BB" share their hash code, the cell must still probe them apart.
+        FAST sequential = newFAST();
+        FAST batched = newFAST();
+        for (FAST fast : new FAST[]{sequential, batched}) {
+            fast.insertQuery(new MinimalRangeQuery(1, Collections.singletonList("Aa"), new Rectangle(100, 100, 120, 120),
+                    null, 0, Integer.MAX_VALUE));
+            fast.insertQuery(new MinimalRangeQuery(2, Collections.singletonList("BB"), new Rectangle(100, 100, 120, 120),
+                    null, 0, Integer.MAX_VALUE));
+        }
+        List<DataObject> batch = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            List<String> keywords = (i % 3 == 0) ? Arrays.asList("Aa", "BB") :
+                    Collections.singletonList(i % 3 == 1 ? "Aa" : "BB");
+            batch.add(new DataObject(i, new Point(105 + i, 110), keywords, 2 + i, Integer.MAX_VALUE));
+        }
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (DataObject object : batch)
+            expected.add(FASTFixture.sortedIds(sequential.insertObject(object)));
+        List<List<Integer>> actual = new ArrayList<>();
+        for (Collection<Query> res : batched.insertObjects(batch))
+            actual.add(FASTFixture.sortedIds(res));
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(Arrays.asList(1, 2), actual.get(0));
+    }
+}
@@ -0,0 +1,126 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.KeywordFrequency;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+
+class FASTBulkLoadTest {
+    private List<DataObject> preObjects;
+    private List<Query> queries;
+    private List<DataObject> objects;
+
+    // Queries keep their KNN state, so each run needs freshly generated ones.
+    private void generate(boolean knn) {
+        Random random = new Random(23);
+        int numPreObjects = 2000;
+        int numQueries = 6000;
+        int numObjects = 3000;
+
+        this.preObjects = new ArrayList<>();
+        for (int i = 0; i < numPreObjects; i++) {
+            preObjects.add(new DataObject(i, FASTFixture.randomLocation(random), FASTFixture.randomKeywords(random, 6, 40),
+                    i, Integer.MAX_VALUE));
+        }
+
+        this.queries = new ArrayList<>();
+        for (int i = 0; i < numQueries; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            if (knn && i % 3 == 0) {
+                queries.add(new KNNQuery(i, FASTFixture.randomKeywords(random, 2, 40), new Point(x, y), 3, null, i,
+                        Integer.MAX_VALUE));
+            } else {
+                double side = 1 + random.nextDouble() * 19;
+                queries.add(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 40),
+                        new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE));
+            }
+        }
+
+        this.objects = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            objects.add(new DataObject(numPreObjects + i, FASTFixture.randomLocation(random),
+                    FASTFixture.randomKeywords(random, 6, 40), numQueries + i, Integer.MAX_VALUE));
+        }
+    }
+
+    private FAST newFAST() {
+        FAST fast = FASTFixture.newFASTWithObjectIndex(new Config());
+        preObjects.forEach(fast::preloadObject);
+        return fast;
+    }
+
+    private static Map<String, Integer> queryCounts(FAST fast) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, KeywordFrequency> entry : fast.keywordFrequencyMap.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().queryCount);
+        }
+        return counts;
+    }
+
+    private List<List<Integer>> search(FAST fast) {
+        List<List<Integer>> results = new ArrayList<>();
+        for (DataObject object : objects) {
+            results.add(FASTFixture.sortedIds(fast.insertObject(object)));
+        }
+        return results;
+    }
+
+    private void assertBulkMatchesSequential(boolean knn) {
+        generate(knn);
+        FAST sequential = newFAST();
+        queries.forEach(sequential::insertQuery);
+        Map<String, Integer> expectedCounts = queryCounts(sequential);
+        List<List<Integer>> expected = search(sequential);
+
+        generate(knn);
+        FAST bulk = newFAST();
+        bulk.insertQueries(queries);
+        Assertions.assertEquals(expectedCounts, queryCounts(bulk));
+        List<List<Integer>> actual = search(bulk);
+
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i), actual.get(i), "Object " + i);
+        }
+    }
+
+    @Test
+    public void testBulkLoadMatchesSequential() {
+        assertBulkMatchesSequential(false);
+    }
+
+    @Test
+    public void testBulkLoadWithKNNQueries() {
+        assertBulkMatchesSequential(true);
+    }
+
+    @Test
+    public void testBulkLoadMatchesBruteForce() {
+        generate(false);
+        FAST bulk = newFAST();
+        // Two loads, the second one into an already built pyramid.
+        bulk.insertQueries(queries.subList(0, queries.size() / 2));
+        bulk.insertQueries(queries.subList(queries.size() / 2, queries.size()));
+        List<List<Integer>> actual = search(bulk);
+
+        for (int i = 0; i < objects.size(); i++) {
+            DataObject object = objects.get(i);
+            List<Integer> expected = queries.stream()
+                    .filter((q) -> object.keywords.containsAll(q.keywords) &&
+                            q.spatialBox().min.x <= object.location.x && object.location.x <= q.spatialBox().max.x &&
+                            q.spatialBox().min.y <= object.location.y && object.location.y <= q.spatialBox().max.y)
+                    .map((q) -> q.id).sorted().collect(Collectors.toList());
+            Assertions.assertEquals(expected, actual.get(i), "Object " + i);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+
+class FASTConcurrentTest {
+    private static final int NUM_THREADS = 8;
+
+    private final List<Query> queries;
+    private final List<DataObject> objects;
+
+    public FASTConcurrentTest() {
+        Random random = new Random(7);
+        int numQueries = 5000;
+        int numObjects = 5000;
+
+        this.queries = new ArrayList<>();
+        for (int i = 0; i < numQueries; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double side = 1 + random.nextDouble() * 19;
+            queries.add(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 40),
+                    new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE));
+        }
+
+        this.objects = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            objects.add(new DataObject(i, FASTFixture.randomLocation(random), FASTFixture.randomKeywords(random, 6, 40),
+                    numQueries + i, Integer.MAX_VALUE));
+        }
+    }
+
+    private static FAST newFAST(boolean concurrent) {
+        Config config = new Config();
+        config.CONCURRENT_SEARCH = concurrent;
+        return FASTFixture.newFAST(config);
+    }
+
+    @Test
+    public void testConcurrentSearchMatchesSequential() throws Exception {
+        FAST sequential = newFAST(false);
+        for (Query query : queries) {
+            sequential.insertQuery(query);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (DataObject object : objects) {
+            expected.add(FASTFixture.sortedIds(sequential.insertObject(object)));
+        }
+
+        FAST concurrent = newFAST(true);
+        for (Query query : queries) {
+            concurrent.insertQuery(query);
+        }
+        List<List<Integer>> actual = searchConcurrently(concurrent);
+
+        for (int i = 0; i < objects.size(); i++) {
+            Assertions.assertEquals(expected.get(i), actual.get(i), "Object " + i);
+        }
+    }
+
+    @Test
+    public void testConcurrentSearchWithQueryInserts() throws Exception {
+        FAST concurrent = newFAST(true);
+        List<Query> firstHalf = queries.subList(0, queries.size() / 2);
+        List<Query> secondHalf = queries.subList(queries.size() / 2, queries.size());
+        for (Query query : firstHalf) {
+            concurrent.insertQuery(query);
+        }
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> inserts = writer.submit(() -> {
+            for (Query query : secondHalf) {
+                concurrent.insertQuery(query);
+            }
+        });
+        searchConcurrently(concurrent);
+        inserts.get();
+        writer.shutdown();
+
+        // Once the writer is done every query must be found again.
+        List<List<Integer>> actual = searchConcurrently(concurrent);
+        for (int i = 0; i < objects.size(); i++) {
+            DataObject object = objects.get(i);
+            List<Integer> expected = queries.stream()
+                    .filter((q) -> object.keywords.containsAll(q.keywords) &&
+                            q.spatialBox().min.x <= object.location.x && object.location.x <= q.spatialBox().max.x &&
+                            q.spatialBox().min.y <= object.location.y && object.location.y <= q.spatialBox().max.y)
+                    .map((q) -> q.id).sorted().collect(Collectors.toList());
+            Assertions.assertEquals(expected, actual.get(i), "Object " + i);
+        }
+    }
+
+    private List<KNNQuery> knnQueries() {
+        Random random = new Random(13);
+        List<KNNQuery> knnQueries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            knnQueries.add(new KNNQuery(queries.size() + i, FASTFixture.randomKeywords(random, 1, 40),
+                    FASTFixture.randomLocation(random), 3, null, 0, Integer.MAX_VALUE));
+        }
+        return knnQueries;
+    }
+
+    private static List<List<Integer>> monitoredIds(List<KNNQuery> knnQueries) {
+        return knnQueries.stream().map((q) -> q.getMonitoredObjects() == null ? Collections.<Integer>emptyList() :
+                FASTFixture.sortedIds(q.getMonitoredObjects())).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testConcurrentKNNMatchesSequential() throws Exception {
+        // Objects never expire, so the nearest objects of a query do not depend on the order they arrive in.
+        List<KNNQuery> expectedQueries = knnQueries();
+        FAST sequential = newFAST(false);
+        expectedQueries.forEach(sequential::insertQuery);
+        for (DataObject object : objects) {
+            sequential.insertObject(object);
+        }
+        List<List<Integer>> expected = monitoredIds(expectedQueries);
+        Assertions.assertTrue(expected.stream().anyMatch((ids) -> ids.size() == 3));
+
+        List<KNNQuery> knnQueries = knnQueries();
+        FAST concurrent = newFAST(true);
+        knnQueries.forEach(concurrent::insertQuery);
+        searchConcurrently(concurrent);
+        Assertions.assertEquals(expected, monitoredIds(knnQueries));
+        for (KNNQuery query : knnQueries) {
+            Assertions.assertEquals(expectedQueries.get(query.id - queries.size()).ar, query.ar, 1e-9,
+                    query.toString());
+        }
+    }
+
+    @Test
+    public void objectIndexHoldsConcurrentlyInsertedObjects() throws Exception {
+        // Objects queued by inserts that lost the object index lock must be in the index by the time it is searched.
+        List<KNNQuery> expectedQueries = knnQueries();
+        FAST sequential = newFAST(false);
+        sequential.setExternalObjectIndex(5, 9);
+        for (DataObject object : objects) {
+            sequential.insertObject(object);
+        }
+        expectedQueries.forEach(sequential::insertQuery);
+
+        List<KNNQuery> knnQueries = knnQueries();
+        FAST concurrent = newFAST(true);
+        concurrent.setExternalObjectIndex(5, 9);
+        searchConcurrently(concurrent);
+        knnQueries.forEach(concurrent::insertQuery);
+        Assertions.assertEquals(monitoredIds(expectedQueries), monitoredIds(knnQueries));
+    }
+
+    private List<List<Integer>> searchConcurrently(FAST fast) throws Exception {
+        List<List<Integer>> results = new ArrayList<>(Collections.nCopies(objects.size(), null));
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < NUM_THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < objects.size()) {
+                    results.set(i, FASTFixture.sortedIds(fast.insertObject(objects.get(i))));
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+        return results;
+    }
+}
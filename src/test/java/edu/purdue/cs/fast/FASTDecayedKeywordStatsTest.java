@@ -0,0 +1,91 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+
+class FASTDecayedKeywordStatsTest {
+    private static FAST newFAST(boolean decayed) {
+        Config config = new Config();
+        config.DECAYED_KEYWORD_STATS = decayed;
+        config.KEYWORD_HALF_LIFE = 100;
+        return FASTFixture.newFAST(config);
+    }
+
+    private static Query query(int id, String... keywords) {
+        return new MinimalRangeQuery(id, Arrays.asList(keywords), new Rectangle(1, 1, 2, 2), null, 0, 100);
+    }
+
+    private static String burst(FAST fast) {
+        for (int i = 0; i < 1000; i++)
+            fast.getMinKeyword(fast.context.maxLevel, query(i, "old"));
+        fast.context.timestamp = 5000;
+        for (int i = 0; i < 300; i++)
+            fast.getMinKeyword(fast.context.maxLevel, query(1000 + i, "burst"));
+        return fast.getMinKeyword(fast.context.maxLevel, query(2000, "burst", "old"));
+    }
+
+    @Test
+    public void staleCountsDecay() {
+        Assertions.assertEquals("burst", burst(newFAST(false)));
+        FAST fast = newFAST(true);
+        Assertions.assertEquals("old", burst(fast));
+        // The live counts stay exact for merging.
+        Assertions.assertEquals(1001, fast.keywordFrequencyMap.get("old").queryCount);
+    }
+
+    @Test
+    public void selectiveKeywordsFirst() {
+        FAST fast = newFAST(true);
+        for (int i = 0; i < 500; i++) {
+            List<String> keywords = (i % 100 == 0) ? Arrays.asList("common", "rare") : Collections.singletonList("common");
+            fast.insertObject(new DataObject(i, new Point(10, 10), keywords, i, Integer.MAX_VALUE));
+        }
+        Assertions.assertEquals("rare", fast.getMinKeyword(fast.context.maxLevel, query(0, "common", "rare")));
+        // Equal query counts, the live counts cannot tell the keywords apart.
+        FAST counting = newFAST(false);
+        counting.getMinKeyword(fast.context.maxLevel, query(0, "common", "rare"));
+        Assertions.assertEquals("common", counting.getMinKeyword(fast.context.maxLevel, query(1, "common", "rare")));
+    }
+
+    private static List<Query> stream(int seed, int length) {
+        Random random = new Random(seed);
+        List<Query> stream = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            // Keywords drift over the stream, as trending topics do.
+            List<String> keywords = new ArrayList<>();
+            int count = 1 + random.nextInt(3);
+            while (keywords.size() < count) {
+                String keyword = "k" + ((i / 500 + random.nextInt(12)) % 40);
+                if (!keywords.contains(keyword))
+                    keywords.add(keyword);
+            }
+            Collections.sort(keywords);
+            if (random.nextInt(3) == 0) {
+                double side = 1 + random.nextDouble() * 40;
+                stream.add(new MinimalRangeQuery(i, keywords, new Rectangle(x, y, x + side, y + side), null, i,
+                        i + 300 + random.nextInt(1000)));
+            } else {
+                stream.add(new DataObject(i, new Point(x, y), keywords, i, Integer.MAX_VALUE));
+            }
+        }
+        return stream;
+    }
+
+    @Test
+    public void answersDoNotDependOnKeywordChoice() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(false), stream(43, 10000));
+        FAST fast = newFAST(true);
+        fast.setCleaning(CleanMethod.EXPIRY_WHEEL);
+        fast.config.CLEANING_INTERVAL = 50;
+        Assertions.assertEquals(expected, FASTFixture.runLive(fast, stream(43, 10000)));
+    }
+}
@@ -0,0 +1,90 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.KeywordFrequency;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+
+class FASTExpiryWheelTest {
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 40, 200, 1500);
+    }
+
+    private static FAST newFAST(CleanMethod method) {
+        return newFAST(method, 50);
+    }
+
+    private static FAST newFAST(CleanMethod method, int cleaningInterval) {
+        Config config = new Config();
+        config.CLEAN_METHOD = method;
+        config.CLEANING_INTERVAL = cleaningInterval;
+        config.QUERY_EXPIRY_BUCKET = 16;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    @Test
+    public void expiresQueriesWithoutChangingResults() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(CleanMethod.NO), stream(17, 8000));
+        List<Query> stream = stream(17, 8000);
+
+        FAST fast = newFAST(CleanMethod.EXPIRY_WHEEL);
+        List<List<Integer>> results = FASTFixture.runLive(fast, stream);
+        Assertions.assertEquals(expected, results);
+        Assertions.assertFalse(results.stream().allMatch(List::isEmpty));
+
+        // Only queries of the buckets that did not expire whole by the last cleaning may linger.
+        long horizon = fast.context.timestamp - fast.config.QUERY_EXPIRY_BUCKET - fast.config.CLEANING_INTERVAL;
+        Set<Query> indexed = FASTFixture.indexedQueries(fast);
+        Assertions.assertFalse(indexed.isEmpty());
+        for (Query query : indexed)
+            Assertions.assertTrue(query.et > horizon, "Lingering " + query);
+        Assertions.assertTrue(fast.context.cleanVisitedEntries.sum() > 0);
+
+        // Expired queries no longer count for their keywords.
+        Map<String, Integer> liveCounts = new HashMap<>();
+        for (Query query : stream) {
+            if (!(query instanceof DataObject) && !query.deleted)
+                query.keywords.forEach((keyword) -> liveCounts.merge(keyword, 1, Integer::sum));
+        }
+        for (Query query : stream) {
+            if (!(query instanceof DataObject) && query.et <= horizon)
+                Assertions.assertTrue(query.deleted, "Not deleted " + query);
+        }
+        for (Map.Entry<String, KeywordFrequency> entry : fast.keywordFrequencyMap.entrySet())
+            Assertions.assertTrue(entry.getValue().queryCount <= liveCounts.getOrDefault(entry.getKey(), 0) + 1);
+    }
+
+    @Test
+    public void switchingToTheWheelPicksUpIndexedQueries() {
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(CleanMethod.NO), stream(19, 6000));
+        List<Query> stream = stream(19, 6000);
+
+        FAST fast = newFAST(CleanMethod.NO);
+        List<List<Integer>> results = FASTFixture.runLive(fast, stream.subList(0, 3000));
+        fast.setCleaning(CleanMethod.EXPIRY_WHEEL);
+        results.addAll(FASTFixture.runLive(fast, stream.subList(3000, stream.size())));
+        Assertions.assertEquals(expected, results);
+
+        long horizon = fast.context.timestamp - fast.config.QUERY_EXPIRY_BUCKET - fast.config.CLEANING_INTERVAL;
+        for (Query query : FASTFixture.indexedQueries(fast))
+            Assertions.assertTrue(query.et > horizon, "Lingering " + query);
+    }
+
+    @Test
+    public void lateCleaningFindsEveryPlacement() {
+        // Expired queries stay long enough to be carried around by later inserts, they must not escape the wheel.
+        List<List<Integer>> expected = FASTFixture.runLive(newFAST(CleanMethod.NO), stream(29, 8000));
+
+        FAST fast = newFAST(CleanMethod.EXPIRY_WHEEL, 2000);
+        Assertions.assertEquals(expected, FASTFixture.runLive(fast, stream(29, 8000)));
+        long horizon = fast.context.timestamp - fast.config.QUERY_EXPIRY_BUCKET - fast.config.CLEANING_INTERVAL;
+        for (Query query : FASTFixture.indexedQueries(fast))
+            Assertions.assertTrue(query.et > horizon, "Lingering " + query);
+    }
+}
@@ -0,0 +1,172 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.QueryListNode;
+import edu.purdue.cs.fast.structures.QueryNode;
+import edu.purdue.cs.fast.structures.QueryTrieNode;
+import edu.purdue.cs.fast.structures.SpatialCell;
+import edu.purdue.cs.fast.structures.TextualNode;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Indexes, streams and index walks shared by the FAST tests. Queries carry state of the index they are in, so runs
+ * that are compared each build their own stream from the same seed.
+ */
+final class FASTFixture {
+    static final int MAX_RANGE = 512;
+
+    private FASTFixture() {
+    }
+
+    static Rectangle bounds() {
+        return new Rectangle(new Point(0.0, 0.0), new Point(MAX_RANGE, MAX_RANGE));
+    }
+
+    static FAST newFAST(Config config) {
+        return new FAST(config, bounds(), 512, 9);
+    }
+
+    /**
+     * Index with the external object index `Run` sets up, KNN queries are bounded by an object search on insert.
+     */
+    static FAST newFASTWithObjectIndex(Config config) {
+        FAST fast = newFAST(config);
+        fast.setExternalObjectIndex(16, 9);
+        return fast;
+    }
+
+    /**
+     * @return One to `maxKeywords` distinct keywords out of `vocabulary` ones, sorted
+     */
+    static List<String> randomKeywords(Random random, int maxKeywords, int vocabulary) {
+        int count = 1 + random.nextInt(maxKeywords);
+        List<String> keywords = new ArrayList<>();
+        while (keywords.size() < count) {
+            String keyword = "k" + random.nextInt(vocabulary);
+            if (!keywords.contains(keyword))
+                keywords.add(keyword);
+        }
+        Collections.sort(keywords);
+        return keywords;
+    }
+
+    static Point randomLocation(Random random) {
+        return new Point(random.nextDouble() * (MAX_RANGE - 1), random.nextDouble() * (MAX_RANGE - 1));
+    }
+
+    /**
+     * Stream of the items from position `start` on: a quarter KNN queries with `k` = 3, a quarter range queries with
+     * sides of up to `maxSide`, the rest objects that never expire. The id and `st` of an item are its position, queries
+     * live for `minLife` ticks and up to `lifeSpread` - 1 more.
+     */
+    static List<Query> stream(int seed, int start, int length, int vocabulary, double maxSide, int minLife,
+                              int lifeSpread) {
+        Random random = new Random(seed);
+        List<Query> stream = new ArrayList<>();
+        for (int i = start; i < start + length; i++) {
+            double x = random.nextDouble() * (MAX_RANGE - 20);
+            double y = random.nextDouble() * (MAX_RANGE - 20);
+            long et = i + minLife + random.nextInt(lifeSpread);
+            int kind = random.nextInt(4);
+            if (kind == 0) {
+                stream.add(new KNNQuery(i, randomKeywords(random, 2, vocabulary), new Point(x, y), 3, null, i, et));
+            } else if (kind == 1) {
+                double side = 1 + random.nextDouble() * maxSide;
+                stream.add(new MinimalRangeQuery(i, randomKeywords(random, 3, vocabulary),
+                        new Rectangle(x, y, x + side, y + side), null, i, et));
+            } else {
+                stream.add(new DataObject(i, new Point(x, y), randomKeywords(random, 6, vocabulary), i,
+                        Integer.MAX_VALUE));
+            }
+        }
+        return stream;
+    }
+
+    static List<Integer> sortedIds(Collection<? extends Query> results) {
+        return results.stream().map((q) -> q.id).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Run the stream, objects are preloaded before they are matched.
+     *
+     * @return Ids of the queries matched by each object
+     */
+    static List<List<Integer>> run(SpatialKeywordIndex<Query, DataObject> index, List<Query> stream) {
+        List<List<Integer>> results = new ArrayList<>();
+        for (Query item : stream) {
+            if (item instanceof DataObject) {
+                index.preloadObject((DataObject) item);
+                results.add(sortedIds(index.insertObject((DataObject) item)));
+            } else {
+                index.insertQuery(item);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Same as `run`, with the live queries only. Trie nodes hand out expired range queries until they are cleaned.
+     */
+    static List<List<Integer>> runLive(FAST fast, List<Query> stream) {
+        List<List<Integer>> results = new ArrayList<>();
+        for (Query item : stream) {
+            if (item instanceof DataObject) {
+                fast.preloadObject((DataObject) item);
+                List<Query> matches = fast.insertObject((DataObject) item);
+                results.add(sortedIds(matches.stream().filter((q) -> q.et > fast.context.timestamp)
+                        .collect(Collectors.toList())));
+            } else {
+                fast.insertQuery(item);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return Queries held by any node of the cell
+     */
+    static Set<Query> cellQueries(SpatialCell cell) {
+        Set<Query> queries = new HashSet<>();
+        if (cell.textualIndex != null)
+            cell.textualIndex.values().forEach((node) -> collect(node, queries));
+        return queries;
+    }
+
+    static Set<Query> indexedQueries(FAST fast) {
+        Set<Query> queries = new HashSet<>();
+        fast.index.forEach((cell) -> queries.addAll(cellQueries(cell)));
+        return queries;
+    }
+
+    private static void collect(TextualNode node, Set<Query> queries) {
+        if (node instanceof QueryNode) {
+            queries.add(((QueryNode) node).query);
+        } else if (node instanceof QueryListNode) {
+            ((QueryListNode) node).queries.forEach(queries::add);
+        } else if (node instanceof QueryTrieNode) {
+            QueryTrieNode trieNode = (QueryTrieNode) node;
+            if (trieNode.queries != null)
+                trieNode.queries.forEach(queries::add);
+            if (trieNode.finalQueries != null)
+                queries.addAll(trieNode.finalQueries);
+            if (trieNode.unboundedQueries != null)
+                queries.addAll(trieNode.unboundedQueries);
+            if (trieNode.subtree != null)
+                trieNode.subtree.values().forEach((child) -> collect(child, queries));
+        }
+    }
+
+    /**
+     * @return Id, `ar`, level and monitored object ids of each KNN query in the index, by query id
+     */
+    static List<String> knnState(FAST fast) {
+        return fast.allKNNQueries(false).stream()
+                .sorted(Comparator.comparingInt((KNNQuery q) -> q.id))
+                .map((q) -> q.id + ":" + q.ar + ":" + q.currentLevel + ":" + (q.getMonitoredObjects() == null ? "-" :
+                        sortedIds(q.getMonitoredObjects())))
+                .collect(Collectors.toList());
+    }
+}
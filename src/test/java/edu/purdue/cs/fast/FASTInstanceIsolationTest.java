@@ -0,0 +1,98 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+class FASTInstanceIsolationTest {
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 40, 200, 1500);
+    }
+
+    // Two indexes that differ in everything they keep in their context and configuration.
+    private static FAST newFAST(boolean coarse) {
+        Config config = new Config();
+        config.CLEAN_METHOD = coarse ? CleanMethod.EXPIRE : CleanMethod.NO;
+        config.CLEANING_INTERVAL = 20;
+        config.INCREMENTAL_DESCENT = !coarse;
+        config.TRIE_SPLIT_THRESHOLD = coarse ? 4 : 2;
+        FAST fast = new FAST(config, FASTFixture.bounds(), coarse ? 64 : 512, 9);
+        fast.setExternalObjectIndex(16, 9);
+        return fast;
+    }
+
+    @Test
+    public void interleavedIndexesStayIndependent() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expectedFine = FASTFixture.runLive(newFAST(false), stream(43, 6000));
+        List<List<Integer>> expectedCoarse = FASTFixture.runLive(newFAST(true), stream(47, 6000));
+
+        FAST fine = newFAST(false);
+        FAST coarse = newFAST(true);
+        Assertions.assertNotEquals(fine.context.maxLevel, coarse.context.maxLevel);
+
+        List<Query> fineStream = stream(43, 6000);
+        List<Query> coarseStream = stream(47, 6000);
+        List<List<Integer>> fineResults = new ArrayList<>();
+        List<List<Integer>> coarseResults = new ArrayList<>();
+        for (int i = 0; i < fineStream.size(); i++) {
+            fineResults.addAll(FASTFixture.runLive(fine, fineStream.subList(i, i + 1)));
+            coarseResults.addAll(FASTFixture.runLive(coarse, coarseStream.subList(i, i + 1)));
+        }
+        Assertions.assertEquals(expectedFine, fineResults);
+        Assertions.assertEquals(expectedCoarse, coarseResults);
+        Assertions.assertEquals(fineStream.size(), fine.context.timestamp);
+        Assertions.assertNotEquals(fine.keywordFrequencyMap, coarse.keywordFrequencyMap);
+        // Every query insert and object search of an index is recorded in its own timeline.
+        Assertions.assertEquals(fineStream.size(), fine.queryStats().size());
+        Assertions.assertEquals(coarseStream.size(), coarse.queryStats().size());
+    }
+
+    @Test
+    public void deserializedIndexSearchesItsObjectIndex() throws Exception {
+        for (boolean coarse : new boolean[]{false, true}) {
+            List<Query> stream = stream(61, 8000);
+            FAST fast = newFAST(coarse);
+            FASTFixture.runLive(fast, stream.subList(0, 4000));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(fast);
+            }
+            FAST restored;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                restored = (FAST) in.readObject();
+            }
+
+            // The restored index answers the KNN queries that follow from its own object index.
+            Assertions.assertEquals(FASTFixture.runLive(fast, stream.subList(4000, 8000)),
+                    FASTFixture.runLive(restored, stream(61, 8000).subList(4000, 8000)));
+        }
+    }
+
+    @Test
+    public void indexesRunOnTheirOwnThreads() throws Exception {
+        List<List<Integer>> expectedFine = FASTFixture.runLive(newFAST(false), stream(53, 6000));
+        List<List<Integer>> expectedCoarse = FASTFixture.runLive(newFAST(true), stream(59, 6000));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<List<Integer>>> fine = executor.submit(() -> FASTFixture.runLive(newFAST(false), stream(53, 6000)));
+            Future<List<List<Integer>>> coarse = executor.submit(() -> FASTFixture.runLive(newFAST(true), stream(59, 6000)));
+            Assertions.assertEquals(expectedFine, fine.get());
+            Assertions.assertEquals(expectedCoarse, coarse.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -29,9 +29,9 @@ class FASTKNNIncCorrectnessTest {
                 512,
                 9
         );
-        FAST.config.INCREMENTAL_DESCENT = true;
-        FAST.config.KNN_DEGRADATION_RATIO = 100;
-        FAST.config.KNN_DEGRADATION_AR = 25.0;
+        fast.config.INCREMENTAL_DESCENT = true;
+        fast.config.KNN_DEGRADATION_RATIO = 100;
+        fast.config.KNN_DEGRADATION_AR = 25.0;
 
         fast.setCleaning(CleanMethod.NO);
 
@@ -31,10 +31,10 @@ class FASTKNNObjIncCorrectnessTest {
                 9
         );
         fast.setExternalObjectIndex(5, 9);
-        FAST.config.INCREMENTAL_DESCENT = true;
-        FAST.config.KNN_DEGRADATION_RATIO = 100;
-        FAST.config.KNN_DEGRADATION_AR = 25.0;
-        FAST.config.LAZY_OBJ_SEARCH = true;
+        fast.config.INCREMENTAL_DESCENT = true;
+        fast.config.KNN_DEGRADATION_RATIO = 100;
+        fast.config.KNN_DEGRADATION_AR = 25.0;
+        fast.config.LAZY_OBJ_SEARCH = true;
 
         fast.setCleaning(CleanMethod.NO);
 
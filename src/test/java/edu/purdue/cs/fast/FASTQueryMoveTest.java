@@ -0,0 +1,160 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.SpatialCell;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+
+class FASTQueryMoveTest {
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 60, 1000, 3000);
+    }
+
+    private static FAST newFAST(CleanMethod method, boolean concurrent) {
+        Config config = new Config();
+        config.CLEAN_METHOD = method;
+        config.CLEANING_INTERVAL = 20;
+        config.QUERY_EXPIRY_BUCKET = 16;
+        config.CONCURRENT_SEARCH = concurrent;
+        config.QUERY_CELLS = true;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    private static List<SpatialCell> cellsOf(FAST fast, Query query) {
+        List<SpatialCell> cells = new ArrayList<>();
+        fast.index.forEach((cell) -> {
+            if (FASTFixture.cellQueries(cell).contains(query))
+                cells.add(cell);
+        });
+        return cells;
+    }
+
+    private static Point nearby(Random random, Point location) {
+        double x = Math.max(0, Math.min(FASTFixture.MAX_RANGE - 1, location.x + random.nextDouble() * 16 - 8));
+        double y = Math.max(0, Math.min(FASTFixture.MAX_RANGE - 1, location.y + random.nextDouble() * 16 - 8));
+        return new Point(x, y);
+    }
+
+    // A live KNN query is moved every few items. Moved queries leave the cells they no longer reach, are found at
+    // their new location, and are never reported for an object beyond their radius.
+    private void movedQueriesFollowTheirLocation(CleanMethod method, boolean concurrent) {
+        FAST fast = newFAST(method, concurrent);
+        List<Query> stream = stream(73, 8000);
+        Random random = new Random(79);
+        List<KNNQuery> inserted = new ArrayList<>();
+        Map<KNNQuery, Double> moved = new HashMap<>();
+        int probeId = stream.size();
+        int probes = 0;
+        for (int i = 0; i < stream.size(); i++) {
+            Query item = stream.get(i);
+            if (item instanceof DataObject) {
+                DataObject object = (DataObject) item;
+                moved.replaceAll((q, ar) -> q.ar);
+                fast.preloadObject(object);
+                for (Query q : fast.insertObject(object)) {
+                    if (moved.containsKey(q) && q.et > fast.context.timestamp)
+                        Assertions.assertTrue(SpatialHelper.getDistanceInBetween(object.location,
+                                ((KNNQuery) q).location) <= moved.get(q), "Beyond radius " + q);
+                }
+            } else {
+                fast.insertQuery(item);
+                if (item instanceof KNNQuery)
+                    inserted.add((KNNQuery) item);
+            }
+
+            if (i % 25 != 0 || inserted.isEmpty())
+                continue;
+            KNNQuery query = inserted.get(random.nextInt(inserted.size()));
+            if (query.et <= fast.context.timestamp + 1)
+                continue;
+            Assertions.assertTrue(fast.updateQueryLocation(query.id, nearby(random, query.location)));
+            moved.put(query, query.ar);
+
+            Rectangle box = query.spatialBox();
+            for (SpatialCell cell : cellsOf(fast, query))
+                Assertions.assertTrue(SpatialHelper.overlapsSpatially(box, cell.bounds), "Left in " + cell.bounds);
+
+            if (query.ar < Double.MAX_VALUE) {
+                DataObject probe = new DataObject(probeId++, query.location, query.keywords, i, Integer.MAX_VALUE);
+                fast.preloadObject(probe);
+                Assertions.assertTrue(fast.insertObject(probe).contains(query), "Not found " + query);
+                probes++;
+            }
+        }
+        Assertions.assertTrue(probes > 0);
+        Assertions.assertFalse(fast.updateQueryLocation(-1, new Point(10, 10)));
+    }
+
+    @Test
+    public void movedQueriesFollowTheirLocation() {
+        movedQueriesFollowTheirLocation(CleanMethod.NO, false);
+        movedQueriesFollowTheirLocation(CleanMethod.EXPIRE, false);
+        movedQueriesFollowTheirLocation(CleanMethod.EXPIRY_WHEEL, true);
+    }
+
+    @Test
+    public void monitoredObjectsBoundTheNewRadius() {
+        FAST fast = newFAST(CleanMethod.NO, false);
+        List<String> keywords = Collections.singletonList("a");
+        KNNQuery query = new KNNQuery(1, keywords, new Point(100, 100), 2, null, 0, Integer.MAX_VALUE);
+        fast.insertQuery(query);
+        fast.insertObject(new DataObject(2, new Point(102, 100), keywords, 0, Integer.MAX_VALUE));
+        fast.insertObject(new DataObject(3, new Point(100, 103), keywords, 0, Integer.MAX_VALUE));
+        Assertions.assertEquals(3, query.ar, 1e-9);
+
+        Assertions.assertTrue(fast.updateQueryLocation(1, new Point(110, 100)));
+        Assertions.assertEquals(Math.sqrt(109), query.ar, 1e-9);
+        Assertions.assertTrue(query.ar <= 3 + 10);
+
+        // Near the old location, beyond the new radius.
+        Assertions.assertFalse(fast.insertObject(new DataObject(4, new Point(99, 101), keywords, 0,
+                Integer.MAX_VALUE)).contains(query));
+        Assertions.assertTrue(fast.insertObject(new DataObject(5, new Point(118, 100), keywords, 0,
+                Integer.MAX_VALUE)).contains(query));
+        Assertions.assertEquals(8, query.ar, 1e-9);
+
+        // Range queries do not move.
+        fast.insertQuery(new MinimalRangeQuery(7, keywords, new Rectangle(0, 0, 10, 10), null, 0, Integer.MAX_VALUE));
+        Assertions.assertFalse(fast.updateQueryLocation(7, new Point(20, 20)));
+    }
+
+    @Test
+    public void shortBufferBoundsTheNewRadius() {
+        Config config = new Config();
+        config.SLIDING_WINDOW_KNN = true;
+        config.RHO = 1;
+        FAST fast = FASTFixture.newFASTWithObjectIndex(config);
+        List<String> keywords = Collections.singletonList("a");
+        KNNQuery query = new KNNQuery(1, keywords, new Point(100, 100), 1, null, 0, Integer.MAX_VALUE);
+        fast.insertQuery(query);
+        for (DataObject object : Arrays.asList(new DataObject(2, new Point(101, 100), keywords, 0, 10),
+                new DataObject(3, new Point(104, 100), keywords, 0, 100))) {
+            fast.preloadObject(object);
+            fast.insertObject(object);
+        }
+        Assertions.assertEquals(4, query.ar, 1e-9);
+
+        // The nearest object expires, one of the two buffer slots is left.
+        while (fast.context.timestamp < 10) {
+            DataObject other = new DataObject(fast.context.timestamp + 10, new Point(400, 400), keywords, 0, 1000);
+            fast.preloadObject(other);
+            fast.insertObject(other);
+        }
+        Assertions.assertEquals(1, query.monitoredCount());
+
+        // The object left is 6 away from the new location, an unmonitored one 5 away is the new nearest.
+        Assertions.assertTrue(fast.updateQueryLocation(1, new Point(110, 100)));
+        Assertions.assertEquals(6, query.ar, 1e-9);
+        DataObject nearest = new DataObject(30, new Point(115, 100), keywords, 10, 1000);
+        fast.preloadObject(nearest);
+        Assertions.assertTrue(fast.insertObject(nearest).contains(query));
+        Assertions.assertEquals(2, query.monitoredCount());
+        Assertions.assertEquals(6, query.ar, 1e-9);
+    }
+}
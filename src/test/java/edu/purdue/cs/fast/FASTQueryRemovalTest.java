@@ -0,0 +1,149 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.SpatialCell;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+class FASTQueryRemovalTest {
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 60, 200, 3000);
+    }
+
+    // Ids removed after each item of the stream, a random query inserted before it every few items.
+    private static Map<Integer, Integer> removals(List<Query> stream, int seed) {
+        Random random = new Random(seed);
+        Map<Integer, Integer> removals = new HashMap<>();
+        List<Integer> inserted = new ArrayList<>();
+        for (int i = 0; i < stream.size(); i++) {
+            if (!(stream.get(i) instanceof DataObject))
+                inserted.add(stream.get(i).id);
+            if (i % 7 == 0 && !inserted.isEmpty())
+                removals.put(i, inserted.remove(random.nextInt(inserted.size())));
+        }
+        return removals;
+    }
+
+    private static FAST newFAST(CleanMethod method, boolean concurrent) {
+        Config config = new Config();
+        config.CLEAN_METHOD = method;
+        config.CLEANING_INTERVAL = 20;
+        config.QUERY_EXPIRY_BUCKET = 16;
+        config.CONCURRENT_SEARCH = concurrent;
+        config.QUERY_CELLS = true;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    // Trie nodes hand out expired range queries until they are cleaned, so only live results are kept. The index that
+    // never removes queries leaves out the ones removed so far, the other must not report them at all.
+    private static List<List<Integer>> run(FAST fast, List<Query> stream, Map<Integer, Integer> removals,
+                                           boolean remove) {
+        Set<Integer> removed = new HashSet<>();
+        List<List<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < stream.size(); i++) {
+            Query item = stream.get(i);
+            if (item instanceof DataObject) {
+                fast.preloadObject((DataObject) item);
+                List<Query> matches = fast.insertObject((DataObject) item);
+                List<Query> live = matches.stream().filter((q) -> q.et > fast.context.timestamp)
+                        .collect(Collectors.toList());
+                if (remove)
+                    live.forEach((q) -> Assertions.assertFalse(removed.contains(q.id), "Removed " + q));
+                results.add(FASTFixture.sortedIds(live.stream()
+                        .filter((q) -> q instanceof MinimalRangeQuery && !removed.contains(q.id))
+                        .collect(Collectors.toList())));
+            } else {
+                fast.insertQuery(item);
+            }
+            Integer id = removals.get(i);
+            if (id != null) {
+                removed.add(id);
+                if (remove)
+                    fast.removeQuery(id);
+            }
+        }
+        return results;
+    }
+
+    private void removedQueriesAreGone(CleanMethod method, boolean concurrent) {
+        List<Query> stream = stream(59, 8000);
+        Map<Integer, Integer> removals = removals(stream, 61);
+        // Queries carry state of the index they are in, each run gets its own. Removals change the keyword statistics
+        // and with them where KNN queries are indexed, which KNN answers depend on, so range answers are compared.
+        List<List<Integer>> expected = run(newFAST(method, concurrent), stream(59, 8000), removals, false);
+
+        FAST fast = newFAST(method, concurrent);
+        Assertions.assertEquals(expected, run(fast, stream(59, 8000), removals, true));
+        Assertions.assertFalse(expected.stream().allMatch(List::isEmpty));
+
+        // Queries that expired before their removal may still wait for cleaning.
+        Set<Integer> indexed = new HashSet<>(FASTFixture.sortedIds(FASTFixture.indexedQueries(fast)));
+        Assertions.assertFalse(indexed.isEmpty());
+        for (Map.Entry<Integer, Integer> removal : removals.entrySet()) {
+            if (stream.get(removal.getValue()).et > removal.getKey() + 1)
+                Assertions.assertFalse(indexed.contains(removal.getValue()), "Lingering " + removal.getValue());
+        }
+    }
+
+    @Test
+    public void removedQueriesAreGone() {
+        removedQueriesAreGone(CleanMethod.NO, false);
+        removedQueriesAreGone(CleanMethod.EXPIRE, false);
+        removedQueriesAreGone(CleanMethod.EXPIRY_WHEEL, true);
+    }
+
+    @Test
+    public void removalLeavesKeywordStatsOnce() {
+        List<Query> stream = stream(67, 3000);
+        Map<Integer, Integer> removals = removals(stream, 71);
+        FAST fast = newFAST(CleanMethod.NO, false);
+        run(fast, stream, removals, true);
+
+        // Queries that expired before their removal are dropped from the index by id already.
+        for (Map.Entry<Integer, Integer> removal : removals.entrySet()) {
+            Query query = stream.get(removal.getValue());
+            if (query.et > removal.getKey() + 1)
+                Assertions.assertTrue(query.deleted);
+            Assertions.assertFalse(fast.removeQuery(query.id));
+        }
+
+        // Queries leave the statistics when they are removed, or when an insert runs into them after they expired.
+        Map<String, Integer> counts = new HashMap<>();
+        for (Query query : stream) {
+            if (query instanceof DataObject)
+                continue;
+            for (String keyword : query.keywords)
+                counts.merge(keyword, query.deleted ? 0 : 1, Integer::sum);
+        }
+        fast.keywordFrequencyMap.forEach((keyword, stats) ->
+                Assertions.assertEquals(counts.get(keyword).intValue(), stats.queryCount, keyword));
+        Assertions.assertFalse(fast.removeQuery(-1));
+    }
+
+    @Test
+    public void queryCellsAreDroppedOnExpiry() {
+        FAST fast = newFAST(CleanMethod.NO, false);
+        List<String> keywords = Collections.singletonList("a");
+        MinimalRangeQuery query = new MinimalRangeQuery(1, keywords, new Rectangle(100, 100, 150, 150), null, 0, 40);
+        fast.insertQuery(query);
+        Assertions.assertNotNull(query.cells);
+        Assertions.assertEquals(1, FASTFixture.indexedQueries(fast).size());
+        for (SpatialCell cell : query.cells)
+            Assertions.assertTrue(FASTFixture.cellQueries(cell).contains(query));
+
+        // Without cleaning the expired query stays in its cells, but no longer by id once its expiry bucket passed.
+        for (int i = 2; fast.context.timestamp < 40 + fast.config.QUERY_EXPIRY_BUCKET; i++)
+            fast.insertQuery(new MinimalRangeQuery(i, keywords, new Rectangle(500, 500, 510, 510), null, 0, 1000));
+        fast.insertQuery(new MinimalRangeQuery(100, keywords, new Rectangle(500, 500, 510, 510), null, 0, 1000));
+        Assertions.assertNull(query.cells);
+        Assertions.assertTrue(FASTFixture.indexedQueries(fast).contains(query));
+        Assertions.assertFalse(fast.removeQuery(1));
+        Assertions.assertTrue(fast.removeQuery(100));
+    }
+}
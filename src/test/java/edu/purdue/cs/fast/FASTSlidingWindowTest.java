@@ -0,0 +1,192 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+class FASTSlidingWindowTest {
+    @TempDir
+    Path dir;
+
+    // Objects live for a few hundred ticks, queries for most of the stream.
+    private static List<Query> stream(int seed, int length) {
+        Random random = new Random(seed);
+        List<Query> stream = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            double x = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            double y = random.nextDouble() * (FASTFixture.MAX_RANGE - 20);
+            int kind = random.nextInt(5);
+            if (kind == 0) {
+                stream.add(new KNNQuery(i, FASTFixture.randomKeywords(random, 2, 10), new Point(x, y),
+                        1 + random.nextInt(3), null, i, i + 2000 + random.nextInt(4000)));
+            } else if (kind == 1) {
+                double side = 1 + random.nextDouble() * 60;
+                stream.add(new MinimalRangeQuery(i, FASTFixture.randomKeywords(random, 3, 10),
+                        new Rectangle(x, y, x + side, y + side), null, i, i + 200 + random.nextInt(3000)));
+            } else {
+                stream.add(new DataObject(i, new Point(x, y), FASTFixture.randomKeywords(random, 6, 10), i,
+                        i + 100 + random.nextInt(400)));
+            }
+        }
+        return stream;
+    }
+
+    private static FAST newFAST(CleanMethod method, boolean concurrent, int rho) {
+        Config config = new Config();
+        config.CLEAN_METHOD = method;
+        config.CLEANING_INTERVAL = 20;
+        config.QUERY_EXPIRY_BUCKET = 16;
+        config.CONCURRENT_SEARCH = concurrent;
+        config.SLIDING_WINDOW_KNN = true;
+        config.RHO = rho;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    private static List<Double> nearest(KNNQuery query, Collection<DataObject> objects) {
+        return objects.stream().map((o) -> SpatialHelper.getDistanceInBetween(query.location, o.location)).sorted()
+                .limit(query.k).collect(Collectors.toList());
+    }
+
+    // The k nearest monitored objects of every live KNN query are its k nearest live objects. Objects expire on the
+    // object inserts.
+    private static void assertLiveNearest(int timestamp, List<KNNQuery> queries, List<DataObject> objects) {
+        for (KNNQuery query : queries) {
+            if (query.et <= timestamp)
+                continue;
+            List<DataObject> live = objects.stream()
+                    .filter((o) -> o.et > timestamp && o.keywords.containsAll(query.keywords))
+                    .collect(Collectors.toList());
+            Collection<DataObject> monitored = query.getMonitoredObjects() == null ? Collections.emptyList() :
+                    query.getMonitoredObjects();
+            for (DataObject object : monitored)
+                Assertions.assertTrue(object.et > timestamp, "Expired " + object + " in " + query);
+
+            List<Double> expected = nearest(query, live);
+            List<Double> actual = nearest(query, monitored);
+            Assertions.assertEquals(expected.size(), actual.size(), query.toString());
+            for (int i = 0; i < expected.size(); i++)
+                Assertions.assertEquals(expected.get(i), actual.get(i), 1e-9, query.toString());
+            if (expected.size() == query.k)
+                Assertions.assertTrue(query.ar >= expected.get(query.k - 1) - 1e-9, query.toString());
+        }
+    }
+
+    private void monitoredObjectsStayLive(CleanMethod method, boolean concurrent, int rho) {
+        FAST fast = newFAST(method, concurrent, rho);
+        List<KNNQuery> queries = new ArrayList<>();
+        List<DataObject> objects = new ArrayList<>();
+        Map<KNNQuery, Double> radii = new HashMap<>();
+        int grown = 0;
+        int timestamp = 0;
+        List<Query> stream = stream(83, 6000);
+        for (int i = 0; i < stream.size(); i++) {
+            Query item = stream.get(i);
+            if (item instanceof DataObject) {
+                fast.preloadObject((DataObject) item);
+                fast.insertObject((DataObject) item);
+                objects.add((DataObject) item);
+                timestamp = fast.context.timestamp;
+            } else {
+                fast.insertQuery(item);
+                if (item instanceof KNNQuery)
+                    queries.add((KNNQuery) item);
+            }
+            for (KNNQuery query : queries) {
+                Double ar = radii.put(query, query.ar);
+                if (ar != null && query.ar > ar)
+                    grown++;
+            }
+            if (i % 500 == 499)
+                assertLiveNearest(timestamp, queries, objects);
+        }
+        assertLiveNearest(timestamp, queries, objects);
+        Assertions.assertTrue(grown > 0);
+    }
+
+    @Test
+    public void monitoredObjectsStayLive() {
+        monitoredObjectsStayLive(CleanMethod.NO, false, 0);
+        monitoredObjectsStayLive(CleanMethod.EXPIRE, false, 2);
+        monitoredObjectsStayLive(CleanMethod.EXPIRY_WHEEL, true, 1);
+    }
+
+    private static void insert(FAST fast, DataObject object) {
+        fast.preloadObject(object);
+        fast.insertObject(object);
+    }
+
+    @Test
+    public void bufferRepairsWithoutGrowing() {
+        FAST fast = newFAST(CleanMethod.NO, false, 1);
+        List<String> keywords = Collections.singletonList("a");
+        KNNQuery query = new KNNQuery(1, keywords, new Point(100, 100), 1, null, 0, Integer.MAX_VALUE);
+        fast.insertQuery(query);
+        Assertions.assertEquals(2, query.kHat);
+        insert(fast, new DataObject(2, new Point(101, 100), keywords, 0, 10));
+        insert(fast, new DataObject(3, new Point(104, 100), keywords, 0, 100));
+        Assertions.assertEquals(4, query.ar, 1e-9);
+
+        // The nearest object expires, the other one is still monitored and the radius stays.
+        while (fast.context.timestamp < 10)
+            insert(fast, new DataObject(fast.context.timestamp + 10, new Point(400, 400), keywords, 0, 1000));
+        Assertions.assertEquals(1, query.monitoredCount());
+        Assertions.assertEquals(4, query.ar, 1e-9);
+
+        // The last one expires, the query is searched again for a full buffer and grows to the farthest of the two
+        // nearest objects left.
+        DataObject far = new DataObject(100, new Point(300, 100), keywords, 0, 1000);
+        fast.preloadObject(far);
+        while (fast.context.timestamp < 100)
+            insert(fast, new DataObject(fast.context.timestamp + 200, new Point(500, 500),
+                    Collections.singletonList("b"), 0, 1000));
+        Assertions.assertEquals(2, query.monitoredCount());
+        Assertions.assertEquals(300 * Math.sqrt(2), query.ar, 1e-9);
+        Assertions.assertTrue(query.getMonitoredObjects().contains(far));
+    }
+
+    @Test
+    public void eagerSearchMonitorsKHatObjects() {
+        FAST fast = newFAST(CleanMethod.NO, false, 2);
+        List<String> keywords = Collections.singletonList("a");
+        for (int i = 0; i < 5; i++)
+            fast.preloadObject(new DataObject(i, new Point(100 + (i + 1) * 2, 100), keywords, 0, 1000));
+        KNNQuery query = new KNNQuery(10, keywords, new Point(100, 100), 2, null, 0, Integer.MAX_VALUE);
+        fast.insertQuery(query);
+
+        // Two spare objects are monitored from the start, the radius covers all of them.
+        Assertions.assertEquals(4, query.kHat);
+        Assertions.assertEquals(4, query.monitoredCount());
+        Assertions.assertEquals(8, query.ar, 1e-9);
+    }
+
+    @Test
+    public void restoredIndexKeepsSliding() throws IOException {
+        for (boolean concurrent : new boolean[]{false, true}) {
+            FAST fast = newFAST(CleanMethod.EXPIRE, concurrent, 1);
+            FASTFixture.run(fast, stream(89, 6000).subList(0, 3000));
+            String path = dir.resolve("sliding_" + concurrent + ".snapshot").toString();
+            FASTSnapshot.write(fast, path);
+            FAST restored = FASTSnapshot.read(path);
+
+            // Queries carry state of the index they are in, each run gets its own copy of the rest of the stream. The
+            // snapshot leaves out expired range queries that the original still hands out until they are cleaned.
+            List<List<Integer>> expected = FASTFixture.runLive(fast, stream(89, 6000).subList(3000, 6000));
+            Assertions.assertEquals(expected, FASTFixture.runLive(restored, stream(89, 6000).subList(3000, 6000)),
+                    "Concurrent: " + concurrent);
+
+            List<DataObject> objects = stream(89, 6000).stream().filter((q) -> q instanceof DataObject)
+                    .map((q) -> (DataObject) q).collect(Collectors.toList());
+            assertLiveNearest(restored.context.timestamp, new ArrayList<>(restored.allKNNQueries(false)), objects);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.QueryListNode;
+import edu.purdue.cs.fast.structures.TextualNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+class FASTSnapshotTest {
+    @TempDir
+    Path dir;
+
+    // Queries outlive the runs.
+    private static List<Query> stream(int seed, int start, int length) {
+        return FASTFixture.stream(seed, start, length, 40, 19, 1 << 20, 1);
+    }
+
+    private static int[] listNodeSharing(FAST fast) {
+        Set<TextualNode> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] references = new int[1];
+        fast.index.forEach((cell) -> {
+            if (cell.textualIndex == null)
+                return;
+            for (TextualNode node : cell.textualIndex.values()) {
+                if (node instanceof QueryListNode) {
+                    distinct.add(node);
+                    references[0]++;
+                }
+            }
+        });
+        return new int[]{distinct.size(), references[0]};
+    }
+
+    @Test
+    public void restoreContinuesLikeTheOriginal() throws IOException {
+        for (boolean incrementalDescent : new boolean[]{false, true}) {
+            Config config = new Config();
+            config.INCREMENTAL_DESCENT = incrementalDescent;
+            FAST fast = FASTFixture.newFASTWithObjectIndex(config);
+            FASTFixture.run(fast, stream(31, 0, 8000));
+
+            String path = dir.resolve("fast_" + incrementalDescent + ".snapshot").toString();
+            FASTSnapshot.write(fast, path);
+            List<String> knnState = FASTFixture.knnState(fast);
+            int[] sharing = listNodeSharing(fast);
+            int cells = fast.index.size();
+            int timestamp = fast.context.timestamp;
+            List<List<Integer>> expected = FASTFixture.run(fast, stream(37, 8000, 4000));
+
+            FAST restored = FASTSnapshot.read(path);
+            Assertions.assertEquals(cells, restored.index.size());
+            Assertions.assertEquals(timestamp, restored.context.timestamp);
+            Assertions.assertEquals(knnState, FASTFixture.knnState(restored));
+            Assertions.assertArrayEquals(sharing, listNodeSharing(restored));
+            Assertions.assertTrue(knnState.stream().anyMatch((s) -> !s.endsWith("-")));
+
+            Assertions.assertEquals(expected, FASTFixture.run(restored, stream(37, 8000, 4000)),
+                    "Incremental descent: " + incrementalDescent);
+        }
+    }
+
+    @Test
+    public void restoredQueriesCanBeRemoved() throws IOException {
+        Config config = new Config();
+        config.QUERY_CELLS = true;
+        FAST fast = FASTFixture.newFASTWithObjectIndex(config);
+        FASTFixture.run(fast, stream(41, 0, 4000));
+        String path = dir.resolve("removals.snapshot").toString();
+        FASTSnapshot.write(fast, path);
+        FAST restored = FASTSnapshot.read(path);
+
+        // The restored queries know their cells again, removing them empties the index alike.
+        for (Query query : FASTFixture.indexedQueries(fast)) {
+            Assertions.assertTrue(fast.removeQuery(query.id));
+            Assertions.assertTrue(restored.removeQuery(query.id), "Not removable " + query.id);
+        }
+        Assertions.assertTrue(FASTFixture.indexedQueries(fast).isEmpty());
+        Assertions.assertTrue(FASTFixture.indexedQueries(restored).isEmpty());
+    }
+
+    @Test
+    public void snapshotWhileSearching() throws Exception {
+        Config config = new Config();
+        config.CONCURRENT_SEARCH = true;
+        FAST fast = FASTFixture.newFASTWithObjectIndex(config);
+        List<Query> stream = stream(41, 0, 12000);
+        List<DataObject> objects = new ArrayList<>();
+        for (Query item : stream) {
+            if (item instanceof DataObject)
+                objects.add((DataObject) item);
+            else
+                fast.insertQuery(item);
+        }
+        List<Integer> queryIds = FASTFixture.sortedIds(FASTFixture.indexedQueries(fast));
+
+        // KNN searches descend queries out of their cells while the snapshots are taken.
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(pool.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < objects.size())
+                    fast.insertObject(objects.get(i));
+            }));
+        }
+        String path = dir.resolve("fast_concurrent.snapshot").toString();
+        int snapshots = 0;
+        while (next.get() < objects.size() || snapshots == 0) {
+            FASTSnapshot.write(fast, path);
+            FAST restored = FASTSnapshot.read(path);
+            Assertions.assertEquals(queryIds, FASTFixture.sortedIds(FASTFixture.indexedQueries(restored)));
+            snapshots++;
+        }
+        for (Future<?> worker : workers)
+            worker.get();
+        pool.shutdown();
+    }
+}
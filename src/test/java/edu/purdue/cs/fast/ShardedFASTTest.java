@@ -0,0 +1,185 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+class ShardedFASTTest {
+    // Large enough ranges that many straddle the shard borders.
+    private static List<Query> stream(int seed, int length) {
+        return FASTFixture.stream(seed, 0, length, 30, 120, 200, 1500);
+    }
+
+    private static Config config() {
+        Config config = new Config();
+        config.CLEANING_INTERVAL = 50;
+        config.QUERY_CELLS = true;
+        return config;
+    }
+
+    // Every item ticks the clock once, the object at position i is inserted at timestamp i + 1. Trie nodes hand out
+    // expired range queries until they are cleaned, so only live results are compared.
+    private static List<List<Integer>> run(SpatialKeywordIndex<Query, DataObject> index, List<Query> stream,
+                                           int batchSize) {
+        List<List<Integer>> results = new ArrayList<>();
+        List<DataObject> batch = new ArrayList<>();
+        for (Query item : stream) {
+            if (item instanceof DataObject) {
+                batch.add((DataObject) item);
+                if (batch.size() == batchSize)
+                    flush(index, batch, results);
+            } else {
+                flush(index, batch, results);
+                index.insertQuery(item);
+            }
+        }
+        flush(index, batch, results);
+        return results;
+    }
+
+    private static void flush(SpatialKeywordIndex<Query, DataObject> index, List<DataObject> batch,
+                              List<List<Integer>> results) {
+        if (batch.isEmpty())
+            return;
+        batch.forEach(index::preloadObject);
+        List<Collection<Query>> matches = index.insertObjects(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.get(i).id + 1;
+            results.add(FASTFixture.sortedIds(matches.get(i).stream().filter((q) -> q.et > timestamp)
+                    .collect(Collectors.toList())));
+        }
+        batch.clear();
+    }
+
+    private static FAST newFAST() {
+        return FASTFixture.newFASTWithObjectIndex(config());
+    }
+
+    private static ShardedFAST newSharded(int numShards) {
+        ShardedFAST sharded = new ShardedFAST(config(), FASTFixture.bounds(), 512, 9, numShards);
+        sharded.setExternalObjectIndex(16, 9);
+        return sharded;
+    }
+
+    @Test
+    public void shardedAnswersMatchSingleIndex() {
+        // Queries carry state of the index they are in, each run gets its own.
+        List<List<Integer>> expected = run(newFAST(), stream(43, 8000), 1);
+        try (ShardedFAST sharded = newSharded(4)) {
+            Assertions.assertEquals(2, sharded.rows);
+            Assertions.assertEquals(2, sharded.cols);
+            Assertions.assertEquals(expected, run(sharded, stream(43, 8000), 1));
+        }
+
+        // Objects of a batch are preloaded before the batch is matched, on both sides.
+        expected = run(newFAST(), stream(43, 8000), 32);
+        try (ShardedFAST sharded = newSharded(6)) {
+            Assertions.assertEquals(expected, run(sharded, stream(43, 8000), 32));
+        }
+    }
+
+    @Test
+    public void knnQueriesArePartitionedById() {
+        List<List<Integer>> expected = run(newFAST(), stream(53, 8000), 16);
+        try (ShardedFAST sharded = new ShardedFAST(config(), FASTFixture.bounds(), 512, 9, 4, 3)) {
+            sharded.setExternalObjectIndex(16, 9);
+            List<Query> stream = stream(53, 8000);
+            Assertions.assertEquals(expected, run(sharded, stream, 16));
+            sharded.await();
+
+            for (int i = 0; i < sharded.numKNNShards(); i++) {
+                FAST knnShard = sharded.knnShard(i);
+                Assertions.assertTrue(knnShard.knnQueriesInserted, "No KNN queries in " + i);
+                Assertions.assertEquals(sharded.context.timestamp, knnShard.context.timestamp);
+                for (Query query : FASTFixture.indexedQueries(knnShard))
+                    Assertions.assertEquals(i, query.id % 3, "Misplaced " + query);
+            }
+            // Shards change their config on their own threads, never the one they were made from.
+            Assertions.assertNotSame(sharded.shard(0).config, sharded.shard(1).config);
+            Assertions.assertNotSame(sharded.shard(0).config, sharded.knnShard(0).config);
+            Assertions.assertNotSame(sharded.config, sharded.knnShard(0).config);
+            Assertions.assertFalse(sharded.shard(0).config.INPLACE_OBJECT_INDEX);
+        }
+    }
+
+    @Test
+    public void everyShardGetsItsPart() {
+        try (ShardedFAST sharded = newSharded(4)) {
+            List<Query> stream = stream(47, 2000);
+            run(sharded, stream, 8);
+            sharded.await();
+            for (int i = 0; i < 4; i++)
+                Assertions.assertTrue(sharded.shard(i).index.size() > 0, "Empty shard " + i);
+            Assertions.assertTrue(sharded.knnShard(0).knnQueriesInserted);
+            Assertions.assertEquals(sharded.context.timestamp, sharded.knnShard(0).context.timestamp);
+        }
+    }
+
+    @Test
+    public void batchesWaitForEarlierQueries() {
+        try (ShardedFAST sharded = newSharded(4)) {
+            MinimalRangeQuery query = new MinimalRangeQuery(1, Collections.singletonList("a"),
+                    new Rectangle(200, 200, 300, 300), null, 0, Integer.MAX_VALUE);
+            sharded.insertQuery(query);
+            List<DataObject> batch = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                batch.add(new DataObject(i, new Point(250 + i * 10, 250 - i * 10), Collections.singletonList("a"), 0,
+                        Integer.MAX_VALUE));
+            for (Collection<Query> matches : sharded.insertObjects(batch)) {
+                Assertions.assertEquals(1, matches.size());
+                Assertions.assertSame(query, matches.iterator().next());
+            }
+        }
+    }
+
+    @Test
+    public void removedQueriesLeaveEveryShard() {
+        try (ShardedFAST sharded = newSharded(4)) {
+            MinimalRangeQuery straddling = new MinimalRangeQuery(1, Collections.singletonList("a"),
+                    new Rectangle(200, 200, 300, 300), null, 0, Integer.MAX_VALUE);
+            KNNQuery knn = new KNNQuery(2, Collections.singletonList("a"), new Point(100, 100), 1, null, 0,
+                    Integer.MAX_VALUE);
+            sharded.insertQuery(straddling);
+            sharded.insertQuery(knn);
+            Assertions.assertTrue(sharded.removeQuery(1));
+            Assertions.assertTrue(sharded.removeQuery(2));
+            Assertions.assertFalse(sharded.removeQuery(1));
+
+            for (int i = 0; i < 4; i++) {
+                DataObject object = new DataObject(i, new Point(250 + i * 10, 250 - i * 10),
+                        Collections.singletonList("a"), 0, Integer.MAX_VALUE);
+                Assertions.assertTrue(sharded.insertObject(object).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void objectsSkipTheKNNShardWithoutKNNQueries() {
+        try (ShardedFAST sharded = new ShardedFAST(config(), FASTFixture.bounds(), 512, 9, 4)) {
+            MinimalRangeQuery range = new MinimalRangeQuery(1, Collections.singletonList("a"),
+                    new Rectangle(200, 200, 300, 300), null, 0, Integer.MAX_VALUE);
+            sharded.insertQuery(range);
+            for (int i = 0; i < 4; i++) {
+                DataObject object = new DataObject(i, new Point(250 + i * 10, 250 - i * 10),
+                        Collections.singletonList("a"), 0, Integer.MAX_VALUE);
+                Assertions.assertEquals(Collections.singletonList(range), sharded.insertObject(object));
+            }
+            sharded.await();
+            Assertions.assertEquals(0, sharded.knnShard(0).context.timestamp);
+
+            KNNQuery knn = new KNNQuery(2, Collections.singletonList("a"), new Point(100, 100), 1, null, 0,
+                    Integer.MAX_VALUE);
+            sharded.insertQuery(knn);
+            DataObject object = new DataObject(4, new Point(110, 100), Collections.singletonList("a"), 0,
+                    Integer.MAX_VALUE);
+            Assertions.assertEquals(Collections.singletonList(knn), sharded.insertObject(object));
+            sharded.await();
+            Assertions.assertEquals(sharded.context.timestamp, sharded.knnShard(0).context.timestamp);
+        }
+    }
+}
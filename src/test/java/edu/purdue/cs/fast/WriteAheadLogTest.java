@@ -0,0 +1,187 @@
+package edu.purdue.cs.fast;
+
+import edu.purdue.cs.fast.config.CleanMethod;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    private static List<Query> stream(int seed, int start, int length) {
+        return FASTFixture.stream(seed, start, length, 40, 19, 500, 3000);
+    }
+
+    private static FAST newFAST() {
+        Config config = new Config();
+        config.CLEAN_METHOD = CleanMethod.EXPIRE;
+        config.CLEANING_INTERVAL = 50;
+        config.QUERY_CELLS = true;
+        return FASTFixture.newFASTWithObjectIndex(config);
+    }
+
+    @Test
+    public void replayAfterCrashContinuesLikeTheOriginal() throws IOException {
+        String path = dir.resolve("fast.wal").toString();
+        FAST fast = newFAST();
+        WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(fast, path, 64, Long.MAX_VALUE);
+        FASTFixture.run(log, stream(41, 0, 6000));
+        log.cleanNextSetOfEntries();
+        log.commit();
+        List<String> knnState = FASTFixture.knnState(fast);
+        int cells = fast.index.size();
+        long committed = log.committedEvents();
+
+        // Records of the last group are lost in the crash, and the commit in progress leaves a torn record.
+        List<Query> lost = stream(43, 6000, 10);
+        for (Query item : lost) {
+            if (item instanceof DataObject)
+                log.insertObject((DataObject) item);
+            else
+                log.insertQuery(item);
+        }
+        try (FileOutputStream out = new FileOutputStream(path, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 3, 0});
+        }
+
+        FAST recovered = newFAST();
+        Assertions.assertEquals(committed, WriteAheadLog.replay(path, recovered));
+        Assertions.assertEquals(cells, recovered.index.size());
+        Assertions.assertEquals(knnState, FASTFixture.knnState(recovered));
+
+        // The torn tail is gone, a new log appends after the replayed records.
+        try (WriteAheadLog<Query, DataObject> reopened = new WriteAheadLog<>(recovered, path)) {
+            List<List<Integer>> recoveredResults = FASTFixture.run(reopened, stream(47, 6010, 3000));
+            FAST replayed = newFAST();
+            reopened.commit();
+            Assertions.assertEquals(committed + reopened.committedEvents(), WriteAheadLog.replay(path, replayed));
+            Assertions.assertEquals(FASTFixture.knnState(recovered), FASTFixture.knnState(replayed));
+            Assertions.assertFalse(recoveredResults.stream().allMatch(List::isEmpty));
+        }
+    }
+
+    @Test
+    public void replaysBatches() throws IOException {
+        String path = dir.resolve("batches.wal").toString();
+        List<Query> stream = stream(53, 0, 4000);
+        List<Query> queries = stream.stream().filter((q) -> !(q instanceof DataObject)).collect(Collectors.toList());
+        List<DataObject> objects = stream.stream().filter((q) -> q instanceof DataObject).map((q) -> (DataObject) q)
+                .collect(Collectors.toList());
+
+        FAST fast = newFAST();
+        List<List<Integer>> expected = new ArrayList<>();
+        try (WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(fast, path)) {
+            log.insertQueries(queries);
+            for (int i = 0; i < objects.size(); i += 100) {
+                for (Collection<Query> result : log.insertObjects(objects.subList(i, Math.min(i + 100, objects.size()))))
+                    expected.add(FASTFixture.sortedIds(result));
+            }
+        }
+        List<String> knnState = FASTFixture.knnState(fast);
+
+        FAST recovered = newFAST();
+        Assertions.assertEquals(1 + (objects.size() + 99) / 100, WriteAheadLog.replay(path, recovered));
+        Assertions.assertEquals(knnState, FASTFixture.knnState(recovered));
+        Assertions.assertFalse(expected.stream().allMatch(List::isEmpty));
+    }
+
+    @Test
+    public void replaysRemovals() throws IOException {
+        String path = dir.resolve("removals.wal").toString();
+        FAST fast = newFAST();
+        try (WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(fast, path)) {
+            List<Query> stream = stream(59, 0, 3000);
+            for (int i = 0; i < stream.size(); i++) {
+                FASTFixture.run(log, stream.subList(i, i + 1));
+                if (i % 10 == 9)
+                    log.removeQuery(i - 5);
+            }
+        }
+
+        FAST recovered = newFAST();
+        WriteAheadLog.replay(path, recovered);
+        Assertions.assertEquals(FASTFixture.knnState(fast), FASTFixture.knnState(recovered));
+        Assertions.assertEquals(fast.index.size(), recovered.index.size());
+        // Queries are decoded into new instances, both indexes keep answering alike.
+        Assertions.assertEquals(FASTFixture.run(fast, stream(61, 3000, 2000)),
+                FASTFixture.run(recovered, stream(61, 3000, 2000)));
+    }
+
+    @Test
+    public void replaysMoves() throws IOException {
+        String path = dir.resolve("moves.wal").toString();
+        FAST fast = newFAST();
+        int moves = 0;
+        try (WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(fast, path)) {
+            List<Query> stream = stream(67, 0, 3000);
+            for (int i = 0; i < stream.size(); i++) {
+                FASTFixture.run(log, stream.subList(i, i + 1));
+                if (i % 10 == 9 && stream.get(i - 5) instanceof KNNQuery) {
+                    Point location = ((KNNQuery) stream.get(i - 5)).location;
+                    if (log.updateQueryLocation(i - 5, new Point(location.x + 3, location.y + 2)))
+                        moves++;
+                }
+            }
+        }
+        Assertions.assertTrue(moves > 0);
+
+        FAST recovered = newFAST();
+        WriteAheadLog.replay(path, recovered);
+        Assertions.assertEquals(FASTFixture.knnState(fast), FASTFixture.knnState(recovered));
+        Assertions.assertEquals(fast.index.size(), recovered.index.size());
+        Assertions.assertEquals(FASTFixture.run(fast, stream(71, 3000, 2000)),
+                FASTFixture.run(recovered, stream(71, 3000, 2000)));
+    }
+
+    @Test
+    public void lengthPastTheEndEndsTheLog() throws IOException {
+        String path = dir.resolve("length.wal").toString();
+        FAST fast = newFAST();
+        long committed;
+        try (WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(fast, path)) {
+            FASTFixture.run(log, stream(73, 0, 500));
+            log.commit();
+            committed = log.committedEvents();
+        }
+        long validLength = new File(path).length();
+        // A corrupted length must not be taken as a record size.
+        try (FileOutputStream out = new FileOutputStream(path, true)) {
+            out.write(new byte[]{0x7f, -1, -1, -1, 1, 2, 3, 4, 3, 0, 0, 0});
+        }
+
+        FAST recovered = newFAST();
+        Assertions.assertEquals(committed, WriteAheadLog.replay(path, recovered));
+        Assertions.assertEquals(validLength, new File(path).length());
+        Assertions.assertEquals(FASTFixture.knnState(fast), FASTFixture.knnState(recovered));
+    }
+
+    @Test
+    public void commitsOnTimeWithoutFurtherUpdates() throws IOException, InterruptedException {
+        String path = dir.resolve("timed.wal").toString();
+        try (WriteAheadLog<Query, DataObject> log = new WriteAheadLog<>(newFAST(), path, 1 << 20, 1_000_000)) {
+            List<Query> stream = stream(79, 0, 20);
+            for (Query item : stream) {
+                if (item instanceof DataObject)
+                    log.insertObject((DataObject) item);
+                else
+                    log.insertQuery(item);
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (log.committedEvents() < stream.size() && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            Assertions.assertEquals(stream.size(), log.committedEvents());
+        }
+        Assertions.assertEquals(20, WriteAheadLog.replay(path, newFAST()));
+    }
+}
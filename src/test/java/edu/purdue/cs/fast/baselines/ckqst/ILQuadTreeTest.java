@@ -4,10 +4,13 @@ import edu.purdue.cs.fast.L;
 import edu.purdue.cs.fast.baselines.ckqst.models.CkQuery;
 import edu.purdue.cs.fast.baselines.ckqst.structures.IQuadTree;
 import edu.purdue.cs.fast.models.DataObject;
+import edu.purdue.cs.fast.models.KNNQuery;
 import edu.purdue.cs.fast.models.Point;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
-import java.util.ArrayList;
+import java.util.*;
+import java.util.stream.Collectors;
 
 
 class ILQuadTreeTest {
@@ -34,4 +37,118 @@ class ILQuadTreeTest {
         System.out.println(index);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void statusByMorton() {
+        IQuadTree index = new IQuadTree(0, 0, 10, 10, 1, 5);
+        index.insert(new DataObject(1, new Point(7.0, 7.0), L.of("k1"), 0, 0));
+        index.insert(new DataObject(2, new Point(1.0, 1.0), L.of("k1"), 0, 0));
+        index.insert(new DataObject(3, new Point(4.0, 4.0), L.of("k1"), 0, 0));
+
+        Assertions.assertEquals(1, index.getStatusByMorton("k1", ""));
+        Assertions.assertEquals(1, index.getStatusByMorton("k1", "11"));
+        Assertions.assertEquals(0, index.getStatusByMorton("k1", "10"));
+        Assertions.assertEquals(1, index.getStatusByMorton("k1", "0000"));
+        Assertions.assertEquals(0, index.getStatusByMorton("k1", "0001"));
+        Assertions.assertEquals(-1, index.getStatusByMorton("k1", "1010"));
+    }
+
+    @Test
+    public void searchMatchesBruteForce() {
+        Random random = new Random(5);
+        IQuadTree index = new IQuadTree(0, 0, 512, 512, 4, 9);
+        List<DataObject> objects = new ArrayList<>();
+        Set<DataObject> indexed = new HashSet<>();
+        for (int i = 0; i < 4000; i++) {
+            List<String> keywords = new ArrayList<>();
+            int numKeywords = 1 + random.nextInt(4);
+            while (keywords.size() < numKeywords) {
+                String keyword = "k" + random.nextInt(20);
+                if (!keywords.contains(keyword))
+                    keywords.add(keyword);
+            }
+            DataObject object = new DataObject(i, new Point(random.nextDouble() * 512, random.nextDouble() * 512),
+                    keywords, i, 100000);
+            objects.add(object);
+            index.insert(object);
+            indexed.add(object);
+            // Removals merge nodes back, which later inserts split again.
+            if (random.nextInt(3) == 0) {
+                DataObject removed = objects.get(random.nextInt(objects.size()));
+                index.remove(removed);
+                indexed.remove(removed);
+            }
+
+            if (i % 20 == 0) {
+                List<String> queryKeywords = Collections.singletonList("k" + random.nextInt(20));
+                if (random.nextBoolean())
+                    queryKeywords = L.of(queryKeywords.get(0), "k" + (random.nextInt(19) + 1 + Integer.parseInt(
+                            queryKeywords.get(0).substring(1))) % 20);
+                Point location = new Point(random.nextDouble() * 512, random.nextDouble() * 512);
+                KNNQuery query = new KNNQuery(i, queryKeywords, location, 1 + random.nextInt(8), null, 0, 1);
+
+                List<String> finalQueryKeywords = queryKeywords;
+                List<Integer> expected = indexed.stream()
+                        .filter((o) -> o.keywords.containsAll(finalQueryKeywords))
+                        .sorted(Comparator.comparingDouble((DataObject o) -> Math.hypot(o.location.x - location.x,
+                                o.location.y - location.y)))
+                        .limit(query.k).map((o) -> o.id).sorted().collect(Collectors.toList());
+                List<Integer> actual = index.search(query).stream().map((o) -> o.id).sorted()
+                        .collect(Collectors.toList());
+                Assertions.assertEquals(expected, actual, "Query at " + i);
+            }
+        }
+
+        Set<Integer> visited = new HashSet<>();
+        index.forEachObject((o) -> Assertions.assertTrue(visited.add(o.id)));
+        Assertions.assertEquals(indexed.stream().map((o) -> o.id).collect(Collectors.toSet()), visited);
+    }
+
+    @Test
+    public void expiryKeepsLiveObjects() {
+        Random random = new Random(9);
+        IQuadTree index = new IQuadTree(0, 0, 512, 512, 4, 9);
+        index.enableExpiry(16);
+        List<DataObject> objects = new ArrayList<>();
+        for (int t = 1; t <= 3000; t++) {
+            List<String> keywords = new ArrayList<>();
+            int numKeywords = 1 + random.nextInt(3);
+            while (keywords.size() < numKeywords) {
+                String keyword = "k" + random.nextInt(10);
+                if (!keywords.contains(keyword))
+                    keywords.add(keyword);
+            }
+            long et = random.nextInt(10) == 0 ? Integer.MAX_VALUE : t + 1 + random.nextInt(300);
+            DataObject object = new DataObject(t, new Point(random.nextDouble() * 512, random.nextDouble() * 512),
+                    keywords, t, et);
+            objects.add(object);
+            index.insert(object);
+            index.expire(t);
+
+            long now = t;
+            if (t % 25 == 0) {
+                String keyword = "k" + random.nextInt(10);
+                Point location = new Point(random.nextDouble() * 512, random.nextDouble() * 512);
+                KNNQuery query = new KNNQuery(-t, L.of(keyword), location, 1 + random.nextInt(8), null, 0, 1);
+                List<Integer> expected = objects.stream()
+                        .filter((o) -> o.et > now && o.keywords.contains(keyword))
+                        .sorted(Comparator.comparingDouble((DataObject o) -> Math.hypot(o.location.x - location.x,
+                                o.location.y - location.y)))
+                        .limit(query.k).map((o) -> o.id).sorted().collect(Collectors.toList());
+                List<Integer> actual = index.search(query).stream().map((o) -> o.id).sorted()
+                        .collect(Collectors.toList());
+                Assertions.assertEquals(expected, actual, "Query at " + t);
+            }
+        }
+
+        // Only the live objects and those of the last, partly expired, bucket are left.
+        Set<Integer> indexed = new HashSet<>();
+        index.forEachObject((o) -> indexed.add(o.id));
+        for (DataObject object : objects) {
+            if (object.et > 3000)
+                Assertions.assertTrue(indexed.contains(object.id));
+            else if (object.et <= 3000 - 16)
+                Assertions.assertFalse(indexed.contains(object.id));
+        }
+        Assertions.assertTrue(index.expiringObjects() <= indexed.size());
+    }
+}
@@ -0,0 +1,87 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.Point;
+import edu.purdue.cs.fast.models.Rectangle;
+import edu.purdue.cs.fast.structures.CellTable;
+import edu.purdue.cs.fast.structures.SpatialCell;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CellTableTest {
+    private static final FAST fast = new FAST(new Config(), new Rectangle(new Point(0, 0), new Point(32, 32)), 32, 5);
+
+    private static SpatialCell cell(int level, int x, int y) {
+        return new SpatialCell(fast, new Rectangle(new Point(x, y), new Point(x + 1, y + 1)), CellTable.key(level, x, y), level);
+    }
+
+    @Test
+    public void keysAreDistinct() {
+        HashSet<Long> keys = new HashSet<>();
+        for (int level = 0; level < 4; level++) {
+            for (int x = 0; x < 32; x++) {
+                for (int y = 0; y < 32; y++) {
+                    assertTrue(keys.add(CellTable.key(level, x, y)));
+                }
+            }
+        }
+        assertEquals(1L, CellTable.key(0, 1, 0));
+        assertEquals(2L, CellTable.key(0, 0, 1));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        Random random = new Random(3);
+        CellTable table = new CellTable();
+        HashMap<Long, SpatialCell> expected = new HashMap<>();
+        for (int op = 0; op < 200000; op++) {
+            int level = random.nextInt(4);
+            int x = random.nextInt(64);
+            int y = random.nextInt(64);
+            long key = CellTable.key(level, x, y);
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(key), table.remove(key));
+            } else {
+                SpatialCell cell = cell(level, x, y);
+                expected.put(key, cell);
+                table.put(key, cell);
+            }
+            assertSame(expected.get(key), table.get(key));
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, SpatialCell> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), table.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void iteratorRemove() {
+        CellTable table = new CellTable();
+        for (int x = 0; x < 40; x++) {
+            for (int y = 0; y < 40; y++) {
+                table.put(CellTable.key(2, x, y), cell(2, x, y));
+            }
+        }
+
+        HashSet<Long> visited = new HashSet<>();
+        for (Iterator<SpatialCell> it = table.iterator(); it.hasNext(); ) {
+            SpatialCell cell = it.next();
+            visited.add(cell.coordinate);
+            if (cell.coordinate % 2 == 0)
+                it.remove();
+        }
+
+        assertEquals(1600, visited.size());
+        assertEquals(800, table.size());
+        table.forEach((cell) -> assertEquals(1, cell.coordinate % 2));
+    }
+}
@@ -0,0 +1,119 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.models.MinimalRangeQuery;
+import edu.purdue.cs.fast.models.Point;
+import edu.purdue.cs.fast.models.Rectangle;
+import edu.purdue.cs.fast.structures.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CellTunerTest {
+
+    private static Config config() {
+        Config config = new Config();
+        config.TUNING_WINDOW = 10;
+        config.MAX_ADAPTIVE_THRESHOLD = 64;
+        return config;
+    }
+
+    private static void window(CellTuner tuner, int verified, int moved) {
+        for (int i = 0; i < 10; i++) {
+            tuner.searched();
+            tuner.verified(verified);
+        }
+        tuner.moved(moved);
+        tuner.tune();
+    }
+
+    @Test
+    public void waitsForAWindowOfSearches() {
+        CellTuner tuner = new CellTuner(config());
+        for (int i = 0; i < 9; i++)
+            tuner.searched();
+        tuner.tune();
+        assertEquals(0, tuner.steps());
+        assertEquals(2, tuner.splitThreshold());
+    }
+
+    @Test
+    public void undoesStepsThatCostMore() {
+        CellTuner tuner = new CellTuner(config());
+        window(tuner, 10, 0);
+        assertEquals(4, tuner.splitThreshold());
+
+        // Doubling the split threshold doubled the verifications, it is undone and the degradation ratio is next.
+        window(tuner, 20, 0);
+        assertEquals(2, tuner.splitThreshold());
+        assertEquals(16, tuner.degRatio());
+
+        // Cheaper, kept. The KNN ratio is next, doubled up to the bound.
+        window(tuner, 5, 0);
+        assertEquals(16, tuner.degRatio());
+        assertEquals(64, tuner.knnDegRatio());
+
+        // Worse, the KNN ratio is undone and the split threshold now goes down.
+        window(tuner, 50, 10);
+        assertEquals(50, tuner.knnDegRatio());
+        assertEquals(1, tuner.splitThreshold());
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        CellTuner tuner = new CellTuner(config());
+        for (int w = 0; w < 60; w++)
+            window(tuner, 10, 0);
+        for (int threshold : new int[]{tuner.splitThreshold(), tuner.degRatio(), tuner.knnDegRatio()}) {
+            assertTrue(threshold >= 1 && threshold <= 64, "Threshold " + threshold);
+        }
+        assertTrue(tuner.steps() > 0);
+    }
+
+    @Test
+    public void keywordProbesDecayPerWindow() {
+        CellTuner tuner = new CellTuner(config());
+        for (int i = 0; i < 6; i++)
+            tuner.probed("hot");
+        tuner.probed("cold");
+        window(tuner, 1, 0);
+        assertEquals(3, tuner.probes("hot"));
+        assertEquals(0, tuner.probes("cold"));
+        window(tuner, 1, 0);
+        assertEquals(1, tuner.probes("hot"));
+    }
+
+    @Test
+    public void queriesGoUnderTheLeastProbedKeyword() {
+        Config config = config();
+        config.ADAPTIVE_THRESHOLDS = true;
+        config.TRIE_SPLIT_THRESHOLD = 4;
+        FAST fast = new FAST(config, new Rectangle(new Point(0, 0), new Point(32, 32)), 32, 5);
+        SpatialCell cell = new SpatialCell(fast, new Rectangle(new Point(0, 0), new Point(1, 1)), 0, 0);
+        Rectangle range = new Rectangle(0, 0, 1, 1);
+        cell.textualIndex = new ConcurrentHashMap<>();
+        cell.textualIndex.put("hot", new QueryNode(new MinimalRangeQuery(1, Collections.singletonList("hot"), range,
+                null, 0, Integer.MAX_VALUE)));
+        QueryListNode cold = new QueryListNode(new MinimalRangeQuery(2, Collections.singletonList("cold"), range,
+                null, 0, Integer.MAX_VALUE));
+        cold.queries.add(new MinimalRangeQuery(3, Collections.singletonList("cold"), range, null, 0, Integer.MAX_VALUE));
+        cell.textualIndex.put("cold", cold);
+        MinimalRangeQuery query = new MinimalRangeQuery(4, Arrays.asList("cold", "hot"), range, null, 0,
+                Integer.MAX_VALUE);
+
+        // Without probes the shortest node is picked, once "hot" is probed the longer but unprobed list is.
+        assertEquals("hot", cell.getOtherKeywordToInsert(query));
+        cell.tuner.probed("hot");
+        assertEquals("cold", cell.getOtherKeywordToInsert(query));
+
+        // A full list is passed over however rarely it is probed.
+        cold.queries.add(new MinimalRangeQuery(5, Collections.singletonList("cold"), range, null, 0, Integer.MAX_VALUE));
+        cold.queries.add(new MinimalRangeQuery(6, Collections.singletonList("cold"), range, null, 0, Integer.MAX_VALUE));
+        assertEquals("hot", cell.getOtherKeywordToInsert(query));
+    }
+}
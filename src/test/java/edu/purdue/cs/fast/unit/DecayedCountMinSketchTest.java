@@ -0,0 +1,43 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.structures.DecayedCountMinSketch;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecayedCountMinSketchTest {
+
+    @Test
+    public void neverUnderestimates() {
+        Random random = new Random(11);
+        DecayedCountMinSketch sketch = new DecayedCountMinSketch(4, 256, 1000000);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // Long-tail vocabulary, far more keywords than counters.
+            String keyword = "k" + (int) (5000 * Math.pow(random.nextDouble(), 4));
+            counts.merge(keyword, 1, Integer::sum);
+            sketch.add(Collections.singletonList(keyword), 0);
+        }
+        for (Map.Entry<String, Integer> entry : counts.entrySet())
+            assertTrue(sketch.estimate(entry.getKey(), 0) >= entry.getValue() - 1e-6, entry.getKey());
+        // Frequent keywords are dominated by their own count.
+        assertEquals(counts.get("k0"), sketch.estimate("k0", 0), counts.get("k0") * 0.1);
+    }
+
+    @Test
+    public void countsHalveEveryHalfLife() {
+        DecayedCountMinSketch sketch = new DecayedCountMinSketch(4, 64, 100);
+        for (int i = 0; i < 64; i++)
+            sketch.add(Arrays.asList("a", "b"), 0);
+        assertEquals(64, sketch.estimate("a", 0), 1e-6);
+        assertEquals(32, sketch.estimate("a", 100), 1e-6);
+        assertEquals(8, sketch.estimate("b", 300), 1e-6);
+
+        // Far enough ahead that the counters are rescaled.
+        sketch.add(Collections.singletonList("a"), 5000);
+        assertEquals(1, sketch.estimate("a", 5000), 1e-6);
+        assertEquals(0.5, sketch.estimate("a", 5100), 1e-6);
+    }
+}
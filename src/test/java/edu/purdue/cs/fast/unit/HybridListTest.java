@@ -0,0 +1,133 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.models.*;
+import edu.purdue.cs.fast.structures.HybridList;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridListTest {
+
+    private static Set<Integer> candidates(HybridList list, Point point) {
+        Set<Integer> ids = new HashSet<>();
+        for (int from = 0; from < list.mbrSize(); from += 64) {
+            for (long hits = list.mbrCandidates(point, 50, from); hits != 0; hits &= hits - 1)
+                ids.add(list.mbrQuery(from + Long.numberOfTrailingZeros(hits)).id);
+        }
+        for (int from = 0; from < list.kNNSize(); from += 64) {
+            for (long hits = list.kNNCandidates(point, 50, from); hits != 0; hits &= hits - 1)
+                ids.add(list.kNNQuery(from + Long.numberOfTrailingZeros(hits)).id);
+        }
+        return ids;
+    }
+
+    private static Set<Integer> expected(HybridList list, Point point) {
+        Set<Integer> ids = new HashSet<>();
+        for (Query query : list) {
+            if (query.et <= 50)
+                continue;
+            if (query instanceof MinimalRangeQuery &&
+                    SpatialHelper.overlapsSpatially(point, ((MinimalRangeQuery) query).spatialRange))
+                ids.add(query.id);
+            else if (query instanceof KNNQuery &&
+                    SpatialHelper.overlapsSpatially(point, ((KNNQuery) query).location, ((KNNQuery) query).ar))
+                ids.add(query.id);
+        }
+        return ids;
+    }
+
+    private static void assertCandidates(HybridList list, Random random) {
+        for (int t = 0; t < 200; t++) {
+            Point point = new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            assertEquals(expected(list, point), candidates(list, point));
+        }
+    }
+
+    @Test
+    public void candidatesFollowUpdates() {
+        Random random = new Random(3);
+        HybridList list = new HybridList();
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            if (i % 2 == 0) {
+                list.add(new MinimalRangeQuery(i, Collections.singletonList("a"), new Rectangle(x, y, x + 10, y + 10),
+                        null, 0, 10 + i % 80));
+            } else {
+                KNNQuery query = new KNNQuery(i, Collections.singletonList("a"), new Point(x, y), 1, null, 0, 10 + i % 80);
+                query.ar = random.nextDouble() * 15;
+                list.add(query);
+            }
+            if (i == 100)
+                assertCandidates(list, random);
+        }
+        assertCandidates(list, random);
+
+        for (Iterator<Query> it = list.iterator(); it.hasNext(); ) {
+            if (it.next().id % 3 == 0)
+                it.remove();
+        }
+        assertEquals(200, list.size());
+        assertCandidates(list, random);
+
+        list.sortKNN(Comparator.comparingDouble((KNNQuery q) -> q.location.x));
+        list.sortMBR(Comparator.comparingDouble((MinimalRangeQuery q) -> -q.spatialRange.min.y));
+        assertCandidates(list, random);
+        for (int i = 1; i < list.kNNSize(); i++)
+            assertTrue(list.kNNQuery(i - 1).location.x <= list.kNNQuery(i).location.x);
+
+        // Shrunk radii are picked up once the query is verified.
+        for (int i = 0; i < list.kNNSize(); i++) {
+            list.kNNQuery(i).ar /= 2;
+            list.refreshRadius(i);
+        }
+        assertCandidates(list, random);
+    }
+
+    @Test
+    public void membershipFollowsSwapRemoval() {
+        Random random = new Random(5);
+        HybridList list = new HybridList();
+        List<Query> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int id = random.nextInt(400);
+            Query query = (random.nextBoolean()) ?
+                    new MinimalRangeQuery(id, Collections.singletonList("a"), new Rectangle(0, 0, 1, 1), null, 0, 10) :
+                    new KNNQuery(id, Collections.singletonList("a"), new Point(0, 0), 1, null, 0, 10);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(query), list.remove(query));
+            } else {
+                // Duplicates are allowed, as with the lists they replace.
+                expected.add(query);
+                list.add(query);
+            }
+            if (i % 100 == 0) {
+                for (int probe = 0; probe < 400; probe++) {
+                    Query range = new MinimalRangeQuery(probe, null, null, null, 0, 10);
+                    Query knn = new KNNQuery(probe, null, new Point(0, 0), 1, null, 0, 10);
+                    assertEquals(expected.contains(range), list.contains(range));
+                    assertEquals(expected.contains(knn), list.contains(knn));
+                }
+            }
+        }
+        assertEquals(expected.size(), list.size());
+
+        List<Integer> visited = new ArrayList<>();
+        for (Iterator<Query> it = list.iterator(); it.hasNext(); ) {
+            Query query = it.next();
+            visited.add(query.id);
+            if (query.id % 2 == 0)
+                it.remove();
+        }
+        assertEquals(expected.size(), visited.size());
+        for (Query query : list)
+            assertEquals(1, query.id % 2);
+        for (Query query : expected) {
+            if (query.id % 2 == 0)
+                assertFalse(list.contains(query));
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package edu.purdue.cs.fast.unit;
 
-import edu.purdue.cs.fast.FAST;
 import edu.purdue.cs.fast.L;
 import edu.purdue.cs.fast.config.Context;
 import edu.purdue.cs.fast.models.DataObject;
@@ -43,10 +42,10 @@ class KNNQueryTest {
     @Test
     void calcMinSpatialLevel() {
         Rectangle bound = new Rectangle(0, 0, 1024, 1024);
-        FAST.context = new Context(bound, 512, Integer.MAX_VALUE);
-        for (int i = FAST.context.maxLevel; i >= 0; i--) {
+        Context context = new Context(bound, 512, Integer.MAX_VALUE);
+        for (int i = context.maxLevel; i >= 0; i--) {
             int granI = (int) (512 / Math.pow(2, i));
-            System.out.println("Level: " + i + ", Granularity: " + granI + ", Cell Size:" + FAST.context.globalXRange / granI);
+            System.out.println("Level: " + i + ", Granularity: " + granI + ", Cell Size:" + context.globalXRange / granI);
         }
 
         KNNQuery dummyQuery = new KNNQuery(0, L.of("k1", "k2"), new Point(192, 192), 3, null, 0, 100);
@@ -65,7 +64,7 @@ class KNNQueryTest {
         System.out.println("---------------------------------------");
         System.out.println("Answer Region: " + dummyQuery.ar);
 
-        int minLevel = dummyQuery.calcMinSpatialLevel();
+        int minLevel = dummyQuery.calcMinSpatialLevel(context);
         System.out.println("Min level: " + minLevel);
         assert minLevel == 6;
     }
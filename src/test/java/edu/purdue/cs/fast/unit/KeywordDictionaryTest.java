@@ -0,0 +1,123 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.FAST;
+import edu.purdue.cs.fast.config.Config;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.helper.TextHelpers;
+import edu.purdue.cs.fast.models.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordDictionaryTest {
+
+    @Test
+    public void canonicalInstances() {
+        KeywordDictionary dictionary = new KeywordDictionary();
+        List<String> keywords = new ArrayList<>(Arrays.asList(new String("cafe"), new String("park")));
+        dictionary.canonicalize(keywords);
+
+        assertSame(keywords.get(0), dictionary.canonical(new String("cafe")));
+        assertSame(keywords.get(1), dictionary.canonical(new String("park")));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void encodeSortedDistinct() {
+        KeywordDictionary dictionary = new KeywordDictionary();
+        dictionary.id("zoo");
+        dictionary.id("bar");
+
+        int[] ids = dictionary.encode(Arrays.asList("bar", "cafe", "zoo", "Zoo"));
+        assertArrayEquals(new int[]{0, 1, 2}, ids);
+        assertEquals("cafe", dictionary.term(2));
+    }
+
+    @Test
+    public void concurrentRegistration() throws Exception {
+        KeywordDictionary dictionary = new KeywordDictionary();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<int[]>> encodings = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            encodings.add(pool.submit(() -> {
+                int[] ids = new int[1000];
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = dictionary.id(dictionary.canonical(new String("k" + i)));
+                return ids;
+            }));
+        }
+        int[] expected = encodings.get(0).get();
+        for (Future<int[]> encoding : encodings)
+            assertArrayEquals(expected, encoding.get());
+        pool.shutdown();
+
+        assertEquals(1000, dictionary.size());
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("k" + i, dictionary.term(expected[i]));
+    }
+
+    @Test
+    public void containsIds() {
+        assertTrue(TextHelpers.containsTextually(new int[]{1, 3, 5, 8}, new int[]{3, 8}));
+        assertTrue(TextHelpers.containsTextually(new int[]{1, 3}, new int[]{}));
+        assertFalse(TextHelpers.containsTextually(new int[]{1, 3, 5, 8}, new int[]{3, 4}));
+        assertFalse(TextHelpers.containsTextually(new int[]{3}, new int[]{3, 8}));
+    }
+
+    @Test
+    public void encodedFASTMatchesPlain() {
+        assertEquals(search(false), search(true));
+    }
+
+    private static List<List<Integer>> search(boolean encode) {
+        KeywordDictionary dictionary = new KeywordDictionary();
+        Random random = new Random(5);
+        FAST fast = new FAST(new Config(), new Rectangle(new Point(0.0, 0.0), new Point(512, 512)), 512, 9);
+        for (int i = 0; i < 3000; i++) {
+            double x = random.nextDouble() * 490;
+            double y = random.nextDouble() * 490;
+            double side = 1 + random.nextDouble() * 19;
+            Query query = new MinimalRangeQuery(i, randomKeywords(random, 3),
+                    new Rectangle(x, y, x + side, y + side), null, i, Integer.MAX_VALUE);
+            if (encode) {
+                dictionary.canonicalize(query.keywords);
+                query.keywordIds = dictionary.encode(query.keywords);
+            }
+            fast.insertQuery(query);
+        }
+
+        List<List<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            DataObject object = new DataObject(i, new Point(random.nextDouble() * 511, random.nextDouble() * 511),
+                    randomKeywords(random, 6), 3000 + i, Integer.MAX_VALUE);
+            if (encode) {
+                dictionary.canonicalize(object.keywords);
+                object.keywordIds = dictionary.encode(object.keywords);
+            }
+            results.add(fast.insertObject(object).stream().map((q) -> q.id).sorted().collect(Collectors.toList()));
+        }
+        return results;
+    }
+
+    private static List<String> randomKeywords(Random random, int maxKeywords) {
+        int count = 1 + random.nextInt(maxKeywords);
+        List<String> keywords = new ArrayList<>();
+        while (keywords.size() < count) {
+            String keyword = "k" + random.nextInt(30);
+            if (!keywords.contains(keyword))
+                keywords.add(keyword);
+        }
+        Collections.sort(keywords);
+        return keywords;
+    }
+}
@@ -0,0 +1,103 @@
+package edu.purdue.cs.fast.unit;
+
+import com.google.gson.Gson;
+import edu.purdue.cs.fast.experiments.Experiment;
+import edu.purdue.cs.fast.helper.KeywordDictionary;
+import edu.purdue.cs.fast.parser.Place;
+import edu.purdue.cs.fast.parser.PlacesColumnFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlacesColumnFileTest {
+    @TempDir
+    Path dir;
+
+    private String writeDump(int lines) throws IOException {
+        Random random = new Random(11);
+        String path = dir.resolve("places.json").toString();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(path))) {
+            for (int i = 0; i < lines; i++) {
+                if (i % 10 == 3) {
+                    bw.write("{\"id\": \"" + i + "\", \"x\": 1.0, \"y\": 2.0, \"keywords\": []}\n");
+                    continue;
+                }
+                StringBuilder keywords = new StringBuilder();
+                int numKeywords = 1 + random.nextInt(5);
+                for (int k = 0; k < numKeywords; k++) {
+                    if (k > 0)
+                        keywords.append(", ");
+                    keywords.append("\"").append(k == 0 && i % 7 == 0 ? "café" : "w" + random.nextInt(40)).append("\"");
+                }
+                bw.write("{\"id\": \"" + i + "\", \"x\": " + random.nextDouble() * 512 + ", \"y\": "
+                        + random.nextDouble() * 512 + ", \"keywords\": [" + keywords + "], \"scaled\": true}\n");
+            }
+        }
+        return path;
+    }
+
+    private static List<Place> parse(String path) throws IOException {
+        Gson gson = new Gson();
+        List<Place> places = new ArrayList<>();
+        for (String line : java.nio.file.Files.readAllLines(java.nio.file.Paths.get(path))) {
+            Place place = gson.fromJson(line, Place.class);
+            if (place != null && place.keywords() != null && !place.keywords().isEmpty()) {
+                Collections.sort(place.keywords());
+                places.add(place);
+            }
+        }
+        return places;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        String json = writeDump(500);
+        String bin = dir.resolve("places.bin").toString();
+        PlacesColumnFile.convert(json, bin);
+
+        assertTrue(PlacesColumnFile.isColumnFile(bin));
+        assertFalse(PlacesColumnFile.isColumnFile(json));
+
+        List<Place> expected = parse(json);
+        KeywordDictionary dictionary = new KeywordDictionary();
+        PlacesColumnFile file = PlacesColumnFile.open(bin, dictionary);
+        assertEquals(expected.size(), file.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Place place = file.place(i);
+            assertEquals(expected.get(i).x, place.x);
+            assertEquals(expected.get(i).y, place.y);
+            assertEquals(expected.get(i).keywords(), place.keywords());
+            assertSame(dictionary.canonical(place.keywords().get(0)), place.keywords().get(0));
+            assertArrayEquals(dictionary.encode(place.keywords()),
+                    place.toDataObject(i, Integer.MAX_VALUE, Experiment.IndexType.FAST).keywordIds);
+        }
+        assertEquals(1, file.timestamp(1));
+        assertEquals(4, file.timestamp(3));
+    }
+
+    @Test
+    public void shuffledViewMatchesCollectionsShuffle() throws IOException {
+        String json = writeDump(300);
+        String bin = dir.resolve("places.bin").toString();
+        PlacesColumnFile.convert(json, bin);
+
+        List<Place> expected = parse(json).subList(0, 200);
+        Collections.shuffle(expected, new Random(7));
+        List<Place> view = PlacesColumnFile.open(bin, new KeywordDictionary()).places(200, new Random(7));
+
+        assertEquals(expected.size(), view.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).x, view.get(i).x);
+            assertEquals(expected.get(i).keywords(), view.get(i).keywords());
+        }
+        assertThrows(RuntimeException.class,
+                () -> PlacesColumnFile.open(bin, new KeywordDictionary()).places(300, new Random(7)));
+    }
+}
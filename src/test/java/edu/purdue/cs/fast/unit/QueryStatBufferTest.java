@@ -0,0 +1,97 @@
+package edu.purdue.cs.fast.unit;
+
+import edu.purdue.cs.fast.models.QueryStat;
+import edu.purdue.cs.fast.structures.QueryStatBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryStatBufferTest {
+
+    private static List<Integer> indexes(QueryStatBuffer buffer) throws IOException {
+        List<Integer> indexes = new ArrayList<>();
+        buffer.forEach((stat) -> indexes.add(stat.index));
+        return indexes;
+    }
+
+    @Test
+    public void keepsLatestEvents() throws IOException {
+        QueryStatBuffer buffer = new QueryStatBuffer(6);
+        assertEquals(8, buffer.capacity());
+
+        for (int i = 0; i < 5; i++)
+            buffer.record(i, i, 0, 0, 0, 0, QueryStat.Stage.INSERT);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), indexes(buffer));
+
+        for (int i = 5; i < 21; i++)
+            buffer.record(i, i, 0, 0, 0, 0, QueryStat.Stage.SEARCH);
+        assertEquals(Arrays.asList(13, 14, 15, 16, 17, 18, 19, 20), indexes(buffer));
+        assertEquals(21, buffer.size());
+    }
+
+    @Test
+    public void sinkSeesEveryEvent() {
+        QueryStatBuffer buffer = new QueryStatBuffer(8);
+        StringWriter writer = new StringWriter();
+        buffer.record(-1, 0, 0, 0, 0, 0, QueryStat.Stage.INSERT);
+        buffer.setSink(QueryStatBuffer.jsonLines(writer));
+        for (int i = 0; i < 100; i++)
+            buffer.record(i, i * 10L, i, 0.5, 1, 2, i % 2 == 0 ? QueryStat.Stage.INSERT : QueryStat.Stage.SEARCH);
+        buffer.flush();
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(101, lines.length);
+        assertTrue(lines[0].contains("\"index\": -1,"));
+        assertEquals(new QueryStat(99, 990, 99, 0.5, 1, 2, QueryStat.Stage.SEARCH).toJson(), lines[100]);
+        assertEquals(0, buffer.lost());
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        int threads = 4;
+        int perThread = 50000;
+        for (boolean withSink : new boolean[]{false, true}) {
+            QueryStatBuffer buffer = new QueryStatBuffer(1 << 12);
+            BitSet seen = new BitSet();
+            int[] duplicates = new int[1];
+            QueryStatBuffer.Sink collect = (stat) -> {
+                if (seen.get(stat.index))
+                    duplicates[0]++;
+                seen.set(stat.index);
+                assertEquals(stat.index * 2L, stat.searchTime);
+            };
+            if (withSink)
+                buffer.setSink(collect);
+
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * perThread;
+                Thread worker = new Thread(() -> {
+                    for (int i = offset; i < offset + perThread; i++)
+                        buffer.record(i, i * 2L, 0, 0, 0, 0, QueryStat.Stage.SEARCH);
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers)
+                worker.join();
+
+            if (withSink) {
+                buffer.flush();
+                assertEquals(threads * perThread, seen.cardinality() + buffer.lost());
+            } else {
+                buffer.forEach(collect);
+                assertEquals(buffer.capacity(), seen.cardinality());
+            }
+            assertEquals(0, duplicates[0]);
+            assertEquals(threads * perThread, buffer.size());
+        }
+    }
+}
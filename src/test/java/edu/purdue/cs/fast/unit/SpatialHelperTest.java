@@ -1,10 +1,12 @@
 package edu.purdue.cs.fast.unit;
 
 import edu.purdue.cs.fast.helper.SpatialHelper;
+import edu.purdue.cs.fast.models.Point;
 import edu.purdue.cs.fast.models.Rectangle;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -45,4 +47,47 @@ class SpatialHelperTest {
         boolean overlap = SpatialHelper.coversSpatially(b, a);
         assertFalse(overlap);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void circleKernelMatchesOverlap() {
+        Random random = new Random(7);
+        int n = 50;
+        double[] cx = new double[n], cy = new double[n], r = new double[n];
+        for (int i = 0; i < n; i++) {
+            cx[i] = random.nextDouble() * 100;
+            cy[i] = random.nextDouble() * 100;
+            r[i] = (i == 0) ? Double.MAX_VALUE : random.nextDouble() * 30;
+        }
+        for (int t = 0; t < 1000; t++) {
+            Point point = new Point(random.nextDouble() * 100, random.nextDouble() * 100);
+            long hits = SpatialHelper.circlesContaining(point.x, point.y, cx, cy, r, 10, n);
+            assertEquals(0, hits >>> (n - 10));
+            for (int i = 10; i < n; i++) {
+                boolean overlaps = SpatialHelper.overlapsSpatially(point, new Point(cx[i], cy[i]), r[i]);
+                assertEquals(overlaps, (hits & (1L << (i - 10))) != 0);
+            }
+            assertEquals(1L, SpatialHelper.circlesContaining(point.x, point.y, cx, cy, r, 0, 1));
+        }
+    }
+
+    @Test
+    public void rectangleKernelMatchesOverlap() {
+        Random random = new Random(11);
+        int n = 64;
+        double[] minX = new double[n], minY = new double[n], maxX = new double[n], maxY = new double[n];
+        for (int i = 0; i < n; i++) {
+            minX[i] = random.nextInt(100);
+            minY[i] = random.nextInt(100);
+            maxX[i] = minX[i] + random.nextInt(30);
+            maxY[i] = minY[i] + random.nextInt(30);
+        }
+        for (int t = 0; t < 1000; t++) {
+            Point point = new Point(random.nextInt(120), random.nextInt(120));
+            long hits = SpatialHelper.rectanglesContaining(point.x, point.y, minX, minY, maxX, maxY, 0, n);
+            for (int i = 0; i < n; i++) {
+                boolean overlaps = SpatialHelper.overlapsSpatially(point, new Rectangle(minX[i], minY[i], maxX[i], maxY[i]));
+                assertEquals(overlaps, (hits & (1L << i)) != 0);
+            }
+        }
+    }
+}